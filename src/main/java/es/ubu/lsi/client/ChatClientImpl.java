@@ -1,19 +1,48 @@
 package es.ubu.lsi.client;
 
 import es.ubu.lsi.common.ChatMessage;
+import es.ubu.lsi.common.CodecMensajes;
+import es.ubu.lsi.common.ContextoTls;
+import es.ubu.lsi.common.LectorTramas;
 import es.ubu.lsi.common.MessageType;
+import es.ubu.lsi.common.OfertaFichero;
+import es.ubu.lsi.common.Transporte;
+import es.ubu.lsi.common.TransporteCanal;
+import es.ubu.lsi.common.TransporteTls;
 
 import java.io.*;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * IMPLEMENTACION DEL CLIENTE DE CHAT.
  * PROPORCIONA LA FUNCIONALIDAD COMPLETA PARA CONECTARSE
  * AL SERVIDOR, ENVIAR Y RECIBIR MENSAJES, Y GESTIONAR
  * EL BLOQUEO DE USUARIOS.
+ * LOS MENSAJES RECIBIDOS SE PUEDEN CONSUMIR CON UN LISTENER O COMO
+ * UN FLOW.PUBLISHER CUYA DEMANDA FRENA LA LECTURA DEL SOCKET, Y SE
+ * PUEDEN ENVIAR EN LOTES DESDE OTRO PUBLISHER.
  *
  * @author MARIO FLORES
  * @version 1.0
@@ -27,14 +56,41 @@ public class ChatClientImpl implements ChatClient {
     /** PUERTO POR DEFECTO DEL SERVIDOR */
     private static final int PUERTO = 1500;
 
-    /** SOCKET DE CONEXION CON EL SERVIDOR */
-    private Socket socket;
+    /** MENSAJES SIN CONFIRMAR QUE SE GUARDAN PARA REINTENTAR (LOS QUE EL SERVIDOR RECUERDA) */
+    private static final int MAXIMO_PENDIENTES = ChatMessage.MAXIMO_SIN_CONFIRMAR;
 
-    /** FLUJO DE ENTRADA PARA RECIBIR MENSAJES */
-    private ObjectInputStream entrada;
+    /** OFERTAS DE FICHERO RECIBIDAS QUE SE RECUERDAN PARA PODER ACEPTARLAS */
+    private static final int MAXIMO_OFERTAS = 100;
+
+    /** INTENTOS DE RECONEXION CUANDO EL SERVIDOR SE RELEVA */
+    private static final int INTENTOS_RECONEXION = 6;
+
+    /** CREDITO QUE SIGNIFICA QUE EL SERVIDOR NO LIMITA LOS ENVIOS */
+    private static final int SIN_LIMITE = -1;
+
+    /** CADA CUANTO SE MIRA SI SIGUE LA CONEXION MIENTRAS SE ESPERA CREDITO */
+    private static final long ESPERA_CREDITO_MS = 250;
+
+    /** TRANSPORTE (EN CLARO O CIFRADO) DE LA CONEXION CON EL SERVIDOR */
+    private Transporte transporte;
+
+    /** CONFIGURACION TLS, NULL PARA CONECTAR EN CLARO */
+    private ContextoTls tls;
+
+    /** HOST DEL SERVIDOR */
+    private String host = HOST;
+
+    /** PUERTO DEL SERVIDOR */
+    private int puerto = PUERTO;
+
+    /** RUTA DEL SOCKET UNIX DEL SERVIDOR, NULL PARA IR POR TCP */
+    private Path rutaSocketLocal;
+
+    /** LECTOR DE LAS TRAMAS QUE ENVIA EL SERVIDOR */
+    private LectorTramas entrada;
 
     /** FLUJO DE SALIDA PARA ENVIAR MENSAJES */
-    private ObjectOutputStream salida;
+    private OutputStream salida;
 
     /** LISTENER PARA NOTIFICAR MENSAJES RECIBIDOS */
     private ChatClientListener listener;
@@ -45,9 +101,52 @@ public class ChatClientImpl implements ChatClient {
     /** CONJUNTO DE USUARIOS BLOQUEADOS */
     private Set<String> usuariosBloqueados;
 
+    /** BLOQUEOS QUE TIENE EL SERVIDOR SEGUN LO ULTIMO QUE SE LE DIJO O QUE DEVOLVIO */
+    private final Set<String> bloqueosEnServidor = new HashSet<>();
+
     /** INDICA SI EL CLIENTE ESTA CONECTADO AL SERVIDOR */
     private boolean conectado;
 
+    /** INDICA SI ESTOY ESPERANDO PARA RECONECTARME TRAS UN RELEVO DEL SERVIDOR */
+    private volatile boolean reconectando;
+
+    /**
+     * GENERADOR DE IDENTIFICADORES DE MENSAJE. PARTE DE LA HORA ACTUAL
+     * PARA NO REPETIR IDENTIFICADORES DE UNA EJECUCION ANTERIOR.
+     */
+    private final AtomicLong ultimoId = new AtomicLong(System.currentTimeMillis() << 20);
+
+    /** MENSAJES ENVIADOS QUE EL SERVIDOR AUN NO HA CONFIRMADO, POR IDENTIFICADOR */
+    private final Map<Long, ChatMessage> pendientesConfirmacion = new LinkedHashMap<>();
+
+    /** DIRECTORIO DONDE SE GUARDAN LOS FICHEROS ACEPTADOS */
+    private Path directorioDescargas = Paths.get("descargas");
+
+    /** OFERTAS DE FICHERO RECIBIDAS, POR IDENTIFICADOR DE TRANSFERENCIA */
+    private final Map<Long, ChatMessage> ofertas = new LinkedHashMap<>();
+
+    /** FICHEROS ACEPTADOS QUE SE ESTAN RECIBIENDO, POR IDENTIFICADOR DE TRANSFERENCIA */
+    private final Map<Long, Descarga> descargas = new ConcurrentHashMap<>();
+
+    /** PROTEGE EL CREDITO; AQUI ESPERAN LOS QUE QUIEREN ENVIAR SIN TENERLO */
+    private final Object cerrojoCredito = new Object();
+
+    /** MENSAJES NORMALES QUE PUEDO ENVIAR HASTA LA SIGUIENTE CONCESION DEL SERVIDOR */
+    private int credito = SIN_LIMITE;
+
+    /**
+     * MENSAJES QUE EL RECEPTOR (POR EJEMPLO UN LISTENER QUE CONTESTA) QUISO
+     * ENVIAR SIN CREDITO. EL RECEPTOR NO PUEDE ESPERAR, PORQUE ES QUIEN LEE
+     * LAS CONCESIONES: SE GUARDAN Y SALEN CON LA SIGUIENTE. LO PROTEGE CERROJOCREDITO.
+     */
+    private final Deque<ChatMessage> retenidos = new ArrayDeque<>();
+
+    /** HILO QUE LEE LOS MENSAJES DEL SERVIDOR */
+    private volatile Thread receptor;
+
+    /** MENSAJES RECIBIDOS COMO FLOW.PUBLISHER, CON DEMANDA */
+    private final PublicadorMensajes publicador = new PublicadorMensajes();
+
     /**
      * CONSTRUCTOR POR DEFECTO.
      * INICIALIZA LAS ESTRUCTURAS DE DATOS NECESARIAS.
@@ -68,6 +167,19 @@ public class ChatClientImpl implements ChatClient {
         this.nickname = nickname;
     }
 
+    /**
+     * CONSTRUCTOR CON NICKNAME Y SERVIDOR.
+     *
+     * @param nickname NOMBRE DE USUARIO PARA EL CHAT
+     * @param host HOST DEL SERVIDOR
+     * @param puerto PUERTO DEL SERVIDOR
+     */
+    public ChatClientImpl(String nickname, String host, int puerto) {
+        this(nickname);
+        this.host = host;
+        this.puerto = puerto;
+    }
+
     /**
      * ESTABLECE UNA CONEXION CON EL SERVIDOR.
      * CREA LOS FLUJOS DE ENTRADA/SALIDA Y UN HILO PARA
@@ -75,20 +187,105 @@ public class ChatClientImpl implements ChatClient {
      */
     @Override
     public void conectar() {
+        Transporte nuevo;
+        try {
+            // ME CONECTO AL SERVIDOR POR SOCKET (UNIX SI ESTOY EN LA MISMA MAQUINA)
+            if (rutaSocketLocal != null) {
+                SocketChannel canal = SocketChannel.open(StandardProtocolFamily.UNIX);
+                canal.connect(UnixDomainSocketAddress.of(rutaSocketLocal));
+                nuevo = new TransporteCanal(canal);
+            } else {
+                SocketChannel canal = SocketChannel.open(new InetSocketAddress(host, puerto));
+                nuevo = tls != null
+                        ? new TransporteTls(canal, tls, host, puerto)
+                        : new TransporteCanal(canal);
+            }
+        } catch (IOException e) {
+            System.out.println("NO PUDE CONECTAR CON EL SERVIDOR");
+            conectado = false;
+            return;
+        }
+        conectar(nuevo);
+    }
+
+    /**
+     * ESTABLECE LA CONEXION SOBRE UN TRANSPORTE YA ABIERTO, POR EJEMPLO
+     * UNO EN MEMORIA DADO POR CHATSERVERIMPL.CONECTARENMEMORIA() PARA
+     * PROBAR CLIENTE Y SERVIDOR EN LA MISMA JVM SIN SOCKETS.
+     *
+     * @param transporte TRANSPORTE CONECTADO CON EL SERVIDOR
+     */
+    public void conectar(Transporte transporte) {
         try {
-            // ME CONECTO AL SERVIDOR POR SOCKET
-            socket = new Socket(HOST, PUERTO);
+            this.transporte = transporte;
+
+            // SI VA CIFRADO HAGO EL HANDSHAKE (REANUDA LA SESION SI YA ME CONECTE ANTES)
+            transporte.iniciar();
             conectado = true;
 
+            // UN SERVIDOR NUEVO NO ME LIMITA HASTA QUE ME LO DIGA
+            recibirCredito(SIN_LIMITE);
+
             // INICIALIZO LOS FLUJOS DE ENTRADA Y SALIDA
-            salida = new ObjectOutputStream(socket.getOutputStream());
-            entrada = new ObjectInputStream(socket.getInputStream());
+            salida = transporte.getSalida();
+            entrada = new LectorTramas(transporte.getEntrada());
 
             // CREO UN HILO PARA ESCUCHAR MENSAJES DEL SERVIDOR
-            Thread receptor = new Thread(() -> {
+            receptor = new Thread(() -> {
+                Throwable fallo = null;
+                boolean relevado = false;
                 try {
                     ChatMessage mensaje;
-                    while (conectado && (mensaje = (ChatMessage) entrada.readObject()) != null) {
+                    while (conectado && (mensaje = entrada.leer()) != null) {
+                        // EL SERVIDOR SE RELEVA: ME VUELVO A CONECTAR AL NUEVO PROCESO SIN HACER LOGOUT
+                        if (mensaje.getTipo() == MessageType.RECONECTAR) {
+                            relevado = true;
+                            reconectar(Long.parseLong(mensaje.getContenido()));
+                            break;
+                        }
+
+                        // EL SERVIDOR SOBRECARGADO ME DICE CUANTO PUEDO ENVIAR HASTA SU SIGUIENTE AVISO
+                        if (mensaje.getTipo() == MessageType.CREDITO) {
+                            recibirCredito(Integer.parseInt(mensaje.getContenido()));
+                            enviarRetenidos();
+                            continue;
+                        }
+
+                        // LOS TROZOS DE FICHERO VAN AL DISCO, NO AL LISTENER
+                        if (mensaje.getTipo() == MessageType.FRAGMENTO_FICHERO) {
+                            recibirFragmento(mensaje);
+                            continue;
+                        }
+
+                        // LAS OFERTAS SE RECUERDAN PARA PODER ACEPTARLAS DESPUES
+                        if (mensaje.getTipo() == MessageType.OFERTA_FICHERO) {
+                            if (usuariosBloqueados.contains(mensaje.getRemitente())) {
+                                continue;
+                            }
+                            synchronized (ofertas) {
+                                ofertas.put(mensaje.getIdMensaje(), mensaje);
+                                Iterator<Long> it = ofertas.keySet().iterator();
+                                while (ofertas.size() > MAXIMO_OFERTAS) {
+                                    it.next();
+                                    it.remove();
+                                }
+                            }
+                        }
+
+                        // AL HACER LOGIN EL SERVIDOR ME DEVUELVE LOS BLOQUEOS GUARDADOS
+                        if (mensaje.getTipo() == MessageType.BAN) {
+                            sincronizarBloqueos(mensaje.getContenido());
+                            continue;
+                        }
+
+                        // LAS CONFIRMACIONES SOLO QUITAN EL MENSAJE DE LOS PENDIENTES
+                        if (mensaje.getTipo() == MessageType.ACK) {
+                            synchronized (pendientesConfirmacion) {
+                                pendientesConfirmacion.remove(mensaje.getIdMensaje());
+                            }
+                            continue;
+                        }
+
                         // VERIFICO SI EL MENSAJE ES DE UN USUARIO BLOQUEADO
                         if (mensaje.getTipo() == MessageType.MENSAJE &&
                                 usuariosBloqueados.contains(mensaje.getRemitente())) {
@@ -96,18 +293,23 @@ public class ChatClientImpl implements ChatClient {
                             continue;
                         }
 
-                        // CUANDO RECIBO UN MENSAJE, SE LO PASO AL LISTENER
-                        if (listener != null) {
-                            listener.onMensajeRecibido(mensaje);
-                        }
+                        // CUANDO RECIBO UN MENSAJE, SE LO PASO AL LISTENER Y AL SUSCRIPTOR
+                        entregar(mensaje);
                     }
                 } catch (IOException e) {
                     if (conectado) {
                         System.out.println("CONEXION CERRADA POR EL SERVIDOR");
+                        fallo = e;
                         desconectar();
                     }
                 } catch (ClassNotFoundException e) {
                     System.out.println("ERROR AL PROCESAR MENSAJE RECIBIDO");
+                    fallo = e;
+                } finally {
+                    // EL SUSCRIPTOR SE ENTERA DEL FINAL DESDE ESTE MISMO HILO (SI ME RECONECTO, SIGUE)
+                    if (!relevado) {
+                        publicador.terminar(fallo);
+                    }
                 }
             });
             receptor.start();
@@ -117,6 +319,10 @@ public class ChatClientImpl implements ChatClient {
                 enviarMensaje(new ChatMessage(nickname, "conectandose", MessageType.LOGIN));
             }
 
+            // REINTENTO LO QUE NO LLEGO A CONFIRMARSE EN LA CONEXION ANTERIOR
+            reenviarPendientes();
+            enviarRetenidos();
+
             System.out.println("CONECTADO AL SERVIDOR");
         } catch (IOException e) {
             System.out.println("NO PUDE CONECTAR CON EL SERVIDOR");
@@ -132,43 +338,492 @@ public class ChatClientImpl implements ChatClient {
     public void desconectar() {
         try {
             conectado = false;
+            reconectando = false;
+
+            // SI EL RECEPTOR ESPERA A QUE EL SUSCRIPTOR PIDA MAS, LO SUELTO
+            publicador.despertar();
+
+            // Y TAMBIEN A QUIEN ESPERA CREDITO PARA ENVIAR
+            synchronized (cerrojoCredito) {
+                cerrojoCredito.notifyAll();
+            }
 
             // ENVIO MENSAJE DE LOGOUT SI ESTOY CONECTADO
-            if (socket != null && !socket.isClosed() && salida != null) {
-                enviarMensaje(new ChatMessage(nickname, "desconectandose", MessageType.LOGOUT));
+            if (salida != null) {
+                try {
+                    escribir(new ChatMessage(nickname, "desconectandose", MessageType.LOGOUT));
+                } catch (IOException e) {
+                    // EL SERVIDOR YA HABIA CERRADO LA CONEXION
+                }
+            }
+
+            // LAS DESCARGAS A MEDIAS SE QUEDAN COMO ESTEN
+            for (Descarga descarga : descargas.values()) {
+                descarga.canal.close();
             }
+            descargas.clear();
 
             // CIERRO LOS RECURSOS
             if (entrada != null) entrada.close();
             if (salida != null) salida.close();
-            if (socket != null && !socket.isClosed()) socket.close();
+            if (transporte != null) transporte.close();
         } catch (IOException e) {
             System.out.println("ERROR AL CERRAR LA CONEXION");
         }
     }
 
+    /**
+     * CIERRA LA CONEXION SIN LOGOUT Y SE VUELVE A CONECTAR AL MISMO
+     * SERVIDOR PASADA LA ESPERA QUE INDICA ESTE, QUE REPARTE LAS
+     * RECONEXIONES PARA QUE NO LLEGUEN TODAS A LA VEZ AL PROCESO NUEVO.
+     * AL CONECTAR SE HACE LOGIN Y SE REENVIA LO QUE NO SE CONFIRMO.
+     *
+     * @param espera MILISEGUNDOS ANTES DEL PRIMER INTENTO
+     */
+    private void reconectar(final long espera) {
+        System.out.println("EL SERVIDOR SE ESTA RELEVANDO: ME RECONECTO EN " + espera + " MS");
+        conectado = false;
+        reconectando = true;
+        try {
+            entrada.close();
+            transporte.close();
+        } catch (IOException e) {
+            // YA ESTABA CERRADA
+        }
+
+        Thread hilo = new Thread(() -> {
+            long pausa = espera;
+            for (int intento = 0; intento < INTENTOS_RECONEXION && reconectando; intento++) {
+                try {
+                    Thread.sleep(pausa);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (!reconectando) {
+                    break;
+                }
+                conectar();
+                if (conectado) {
+                    reconectando = false;
+                    return;
+                }
+                // EL PROCESO NUEVO AUN NO ACEPTA: ESPERO CADA VEZ MAS
+                pausa = Math.max(pausa, 100) * 2;
+            }
+            reconectando = false;
+            publicador.terminar(null);
+        }, "reconexion-" + nickname);
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
     /**
      * ENVIA UN MENSAJE AL SERVIDOR.
-     * EL MENSAJE SE SERIALIZA Y SE ENVIA AL SERVIDOR.
+     * EL MENSAJE SE SERIALIZA Y SE ENVIA AL SERVIDOR. LOS MENSAJES
+     * NORMALES Y PRIVADOS LLEVAN UN IDENTIFICADOR Y SE GUARDAN HASTA
+     * QUE EL SERVIDOR LOS CONFIRMA, PARA PODER REINTENTARLOS SIN
+     * QUE LLEGUEN DUPLICADOS.
      *
      * @param mensaje EL MENSAJE A ENVIAR
      */
     @Override
     public void enviarMensaje(ChatMessage mensaje) {
+        // CON EL SERVIDOR SOBRECARGADO LOS MENSAJES NORMALES ESPERAN A TENER CREDITO
+        if (mensaje.getTipo() == MessageType.MENSAJE && !tomarCredito(mensaje)) {
+            return;
+        }
+        transmitir(mensaje);
+    }
+
+    /**
+     * ENVIA UN MENSAJE QUE YA TIENE CREDITO, O NO LO NECESITA.
+     *
+     * @param mensaje EL MENSAJE A ENVIAR
+     */
+    private void transmitir(ChatMessage mensaje) {
         if (!conectado) {
+            // MIENTRAS EL SERVIDOR SE RELEVA LOS MENSAJES ESPERAN CON LOS PENDIENTES Y SALEN AL RECONECTAR
+            if (reconectando) {
+                numerar(mensaje);
+                return;
+            }
             System.out.println("NO ESTOY CONECTADO AL SERVIDOR");
             return;
         }
 
+        mensaje = numerar(mensaje);
         try {
-            salida.writeObject(mensaje);
-            salida.flush();
+            escribir(mensaje);
+        } catch (IllegalArgumentException e) {
+            // EL MENSAJE NO CABE EN UNA TRAMA: NO SE ENVIA PERO SIGO CONECTADO
+            System.out.println("NO SE PUEDE ENVIAR: " + e.getMessage());
+            synchronized (pendientesConfirmacion) {
+                pendientesConfirmacion.remove(mensaje.getIdMensaje());
+            }
         } catch (IOException e) {
             System.out.println("ERROR AL ENVIAR MENSAJE");
             desconectar();
         }
     }
 
+    /**
+     * ENVIA VARIOS MENSAJES CON UNA SOLA ESCRITURA EN EL SOCKET. CADA UNO
+     * SE NUMERA Y SE GUARDA PARA REINTENTARLO IGUAL QUE CON ENVIARMENSAJE.
+     * SI ALGUNO NO CABE EN UNA TRAMA, SE QUITA DEL LOTE Y SE ENVIAN LOS DEMAS.
+     * CON EL SERVIDOR SOBRECARGADO, CADA MENSAJE NORMAL GASTA CREDITO Y EL
+     * LOTE ESPERA SI SE ACABA, SALVO EN EL RECEPTOR, DONDE LOS QUE NO TIENEN
+     * CREDITO SE RETIENEN Y SALEN SUELTOS CON LA SIGUIENTE CONCESION.
+     *
+     * @param mensajes MENSAJES A ENVIAR, EN ORDEN
+     * @return FALSE SI NO ESTOY CONECTADO O FALLA EL ENVIO
+     */
+    public boolean enviarLote(List<ChatMessage> mensajes) {
+        if (!conectado) {
+            System.out.println("NO ESTOY CONECTADO AL SERVIDOR");
+            return false;
+        }
+
+        ByteArrayOutputStream tramas = new ByteArrayOutputStream(256 * mensajes.size());
+        for (ChatMessage mensaje : mensajes) {
+            if (mensaje.getTipo() == MessageType.MENSAJE && !tomarCredito(mensaje)) {
+                continue;
+            }
+            ChatMessage numerado = numerar(mensaje);
+            try {
+                CodecMensajes.escribir(numerado, tramas);
+            } catch (IllegalArgumentException e) {
+                System.out.println("NO SE PUEDE ENVIAR: " + e.getMessage());
+                synchronized (pendientesConfirmacion) {
+                    pendientesConfirmacion.remove(numerado.getIdMensaje());
+                }
+            } catch (IOException e) {
+                // ESCRIBIENDO EN MEMORIA NO PUEDE FALLAR
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        try {
+            synchronized (salida) {
+                tramas.writeTo(salida);
+                salida.flush();
+            }
+            return true;
+        } catch (IOException e) {
+            System.out.println("ERROR AL ENVIAR MENSAJES");
+            desconectar();
+            return false;
+        }
+    }
+
+    /**
+     * APUNTO EL CREDITO QUE CONCEDE EL SERVIDOR Y DESPIERTO A QUIEN LO ESPERA.
+     *
+     * @param concedido MENSAJES NORMALES HASTA LA SIGUIENTE CONCESION, 0 O SIN_LIMITE
+     */
+    private void recibirCredito(int concedido) {
+        synchronized (cerrojoCredito) {
+            credito = concedido;
+            cerrojoCredito.notifyAll();
+        }
+    }
+
+    /**
+     * GASTO UNA UNIDAD DE CREDITO ANTES DE ENVIAR UN MENSAJE NORMAL. SI NO
+     * QUEDA, ESPERO A LA SIGUIENTE CONCESION: QUIEN ENVIA SE FRENA, PERO NO
+     * SE PIERDE NADA. SI SE CORTA LA CONEXION DEJO DE ESPERAR. EL RECEPTOR
+     * NO ESPERA NUNCA: SI NO HAY CREDITO, O YA HAY MENSAJES RETENIDOS QUE
+     * DEBEN SALIR ANTES, EL MENSAJE SE RETIENE.
+     *
+     * @param mensaje MENSAJE QUE SE QUIERE ENVIAR
+     * @return TRUE SI SE PUEDE ENVIAR YA, FALSE SI SE HA RETENIDO O DESCARTADO
+     */
+    private boolean tomarCredito(ChatMessage mensaje) {
+        synchronized (cerrojoCredito) {
+            if (Thread.currentThread() == receptor && (credito == 0 || !retenidos.isEmpty())) {
+                if (retenidos.size() >= MAXIMO_PENDIENTES) {
+                    System.out.println("DEMASIADOS MENSAJES ESPERANDO CREDITO, NO SE ENVIA: " + mensaje.getContenido());
+                    return false;
+                }
+                retenidos.add(mensaje);
+                return false;
+            }
+            while (credito == 0 && conectado) {
+                try {
+                    cerrojoCredito.wait(ESPERA_CREDITO_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return true;
+                }
+            }
+            if (credito > 0) {
+                credito--;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * ENVIO LOS MENSAJES RETENIDOS MIENTRAS HAYA CREDITO. LO LLAMA EL
+     * RECEPTOR AL LLEGAR UNA CONCESION, Y TAMBIEN AL VOLVER A CONECTAR.
+     */
+    private void enviarRetenidos() {
+        while (true) {
+            ChatMessage mensaje;
+            synchronized (cerrojoCredito) {
+                if (retenidos.isEmpty() || credito == 0) {
+                    return;
+                }
+                mensaje = retenidos.poll();
+                if (credito > 0) {
+                    credito--;
+                }
+            }
+            transmitir(mensaje);
+        }
+    }
+
+    /**
+     * @return MENSAJES NORMALES QUE PUEDO ENVIAR HASTA LA SIGUIENTE CONCESION, -1 SI NO HAY LIMITE
+     */
+    public int getCredito() {
+        synchronized (cerrojoCredito) {
+            return credito;
+        }
+    }
+
+    /**
+     * PONE IDENTIFICADOR A LOS MENSAJES NORMALES Y PRIVADOS Y LOS GUARDA
+     * HASTA QUE EL SERVIDOR LOS CONFIRME.
+     *
+     * @param mensaje MENSAJE A ENVIAR
+     * @return EL MISMO MENSAJE, O UNA COPIA CON IDENTIFICADOR
+     */
+    private ChatMessage numerar(ChatMessage mensaje) {
+        if (mensaje.getIdMensaje() == 0 &&
+                (mensaje.getTipo() == MessageType.MENSAJE || mensaje.getTipo() == MessageType.PRIVADO)) {
+            mensaje = mensaje.conIdMensaje(ultimoId.incrementAndGet());
+            synchronized (pendientesConfirmacion) {
+                pendientesConfirmacion.put(mensaje.getIdMensaje(), mensaje);
+
+                // SI EL SERVIDOR NO CONFIRMA, NO GUARDO MENSAJES SIN LIMITE
+                Iterator<Long> it = pendientesConfirmacion.keySet().iterator();
+                while (pendientesConfirmacion.size() > MAXIMO_PENDIENTES) {
+                    it.next();
+                    it.remove();
+                }
+            }
+        }
+        return mensaje;
+    }
+
+    /**
+     * CREA UN SUSCRIPTOR QUE ENVIA AL SERVIDOR LO QUE PUBLIQUE OTRO
+     * FLOW.PUBLISHER. PIDE COMO MUCHO UN LOTE DE MENSAJES Y ENVIA DE
+     * UNA VEZ TODOS LOS QUE HAYAN LLEGADO.
+     *
+     * @param lote MENSAJES QUE SE PIDEN COMO MUCHO SIN HABERLOS ENVIADO
+     * @return SUSCRIPTOR PARA UN SOLO PUBLICADOR
+     */
+    public Flow.Subscriber<ChatMessage> crearSuscriptorEnvio(int lote) {
+        return new EnvioSuscrito(this, lote);
+    }
+
+    /**
+     * ESCRIBE LA TRAMA DE UN MENSAJE DE UNA SOLA VEZ.
+     * SE SINCRONIZA PARA QUE DOS HILOS NO MEZCLEN SUS TRAMAS.
+     *
+     * @param mensaje EL MENSAJE A ESCRIBIR
+     * @throws IOException SI FALLA LA ESCRITURA
+     */
+    private void escribir(ChatMessage mensaje) throws IOException {
+        synchronized (salida) {
+            CodecMensajes.escribir(mensaje, salida);
+            salida.flush();
+        }
+    }
+
+    /**
+     * COMPARTE UN FICHERO. ENVIA LA OFERTA Y SUBE EL CONTENIDO A TROZOS
+     * EN OTRO HILO; CADA TROZO SE ESCRIBE POR SEPARADO, ASI QUE LOS
+     * MENSAJES DE CHAT SIGUEN SALIENDO DURANTE LA SUBIDA.
+     *
+     * @param ruta FICHERO A COMPARTIR
+     * @param destinatario USUARIO AL QUE SE OFRECE, NULL PARA TODOS
+     * @return TRUE SI EMPEZO LA SUBIDA
+     */
+    public boolean enviarFichero(Path ruta, String destinatario) {
+        if (!conectado) {
+            System.out.println("NO ESTOY CONECTADO AL SERVIDOR");
+            return false;
+        }
+
+        final FileChannel canal;
+        final long tamano;
+        try {
+            canal = FileChannel.open(ruta, StandardOpenOption.READ);
+            tamano = canal.size();
+        } catch (IOException e) {
+            System.out.println("NO PUEDO LEER EL FICHERO " + ruta + ": " + e.getMessage());
+            return false;
+        }
+
+        final long id = ultimoId.incrementAndGet();
+        enviarMensaje(OfertaFichero.crear(nickname, ruta.getFileName().toString(), tamano, destinatario, id));
+
+        Thread subida = new Thread(() -> subirFichero(canal, id, tamano), "subida-" + id);
+        subida.setDaemon(true);
+        subida.start();
+        return true;
+    }
+
+    /**
+     * SUBE EL CONTENIDO DE UN FICHERO A TROZOS. CADA TROZO VA DEL
+     * FICHERO AL SOCKET SIN COPIARSE EN EL HEAP SI EL TRANSPORTE LO PERMITE.
+     */
+    private void subirFichero(FileChannel canal, long id, long tamano) {
+        try {
+            long posicion = 0;
+            while (posicion < tamano && conectado) {
+                int trozo = (int) Math.min(CodecMensajes.TAMANO_FRAGMENTO, tamano - posicion);
+                synchronized (salida) {
+                    CodecMensajes.escribirCabeceraFragmento(id, trozo, salida);
+                    salida.flush();
+                    transporte.transferir(canal, posicion, trozo);
+                }
+                posicion += trozo;
+            }
+            synchronized (salida) {
+                CodecMensajes.escribirCabeceraFragmento(id, 0, salida);
+                salida.flush();
+            }
+        } catch (IOException e) {
+            // UN TROZO A MEDIAS DEJA EL FLUJO DESCUADRADO: NO QUEDA OTRA QUE CORTAR
+            if (conectado) {
+                System.out.println("ERROR AL ENVIAR EL FICHERO: " + e.getMessage());
+                desconectar();
+            }
+        } finally {
+            try {
+                canal.close();
+            } catch (IOException e) {
+                // NADA QUE HACER
+            }
+        }
+    }
+
+    /**
+     * ACEPTA UN FICHERO OFRECIDO. SE GUARDA EN EL DIRECTORIO DE
+     * DESCARGAS SEGUN VAN LLEGANDO SUS TROZOS.
+     *
+     * @param id IDENTIFICADOR DE LA OFERTA
+     * @return TRUE SI SE PIDIO EL FICHERO
+     */
+    public boolean aceptarFichero(long id) {
+        ChatMessage oferta;
+        synchronized (ofertas) {
+            oferta = ofertas.get(id);
+        }
+        if (oferta == null) {
+            System.out.println("NO HAY NINGUNA OFERTA CON IDENTIFICADOR " + id);
+            return false;
+        }
+
+        try {
+            Files.createDirectories(directorioDescargas);
+            Path destino = directorioDescargas.resolve(OfertaFichero.nombreDe(oferta));
+            if (Files.exists(destino)) {
+                destino = directorioDescargas.resolve(id + "-" + OfertaFichero.nombreDe(oferta));
+            }
+            FileChannel canal = FileChannel.open(destino, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            descargas.put(id, new Descarga(destino, canal, OfertaFichero.tamanoDe(oferta)));
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("NO PUEDO GUARDAR EL FICHERO: " + e.getMessage());
+            return false;
+        }
+
+        enviarMensaje(new ChatMessage(nickname, Long.toString(id), MessageType.ACEPTAR_FICHERO));
+        return true;
+    }
+
+    /**
+     * GUARDA UN TROZO DE UN FICHERO ACEPTADO. EL TROZO VACIO LO CIERRA.
+     *
+     * @param cabecera CABECERA DEL TROZO CON EL IDENTIFICADOR DE LA TRANSFERENCIA
+     */
+    private void recibirFragmento(ChatMessage cabecera) {
+        Descarga descarga = descargas.get(cabecera.getIdMensaje());
+        if (descarga == null) {
+            return;
+        }
+
+        String aviso = null;
+        try {
+            if (entrada.getLongitudFragmento() > 0) {
+                descarga.recibidos += entrada.copiarFragmento(descarga.canal);
+                return;
+            }
+            descargas.remove(cabecera.getIdMensaje());
+            descarga.canal.close();
+            aviso = descarga.recibidos == descarga.tamano
+                    ? "FICHERO GUARDADO EN " + descarga.ruta
+                    : "EL FICHERO " + descarga.ruta + " LLEGO INCOMPLETO";
+        } catch (IOException e) {
+            descargas.remove(cabecera.getIdMensaje());
+            try {
+                descarga.canal.close();
+            } catch (IOException ignorada) {
+                // YA ESTABA CERRADO
+            }
+            aviso = "NO SE PUDO GUARDAR EL FICHERO " + descarga.ruta + ": " + e.getMessage();
+        }
+        entregar(ChatMessage.sistema(aviso, nickname));
+    }
+
+    /**
+     * PASA UN MENSAJE RECIBIDO AL LISTENER Y AL SUSCRIPTOR. SI EL
+     * SUSCRIPTOR NO HA PEDIDO MAS, EL HILO RECEPTOR SE QUEDA AQUI Y
+     * NO LEE MAS DEL SERVIDOR HASTA QUE LO PIDA.
+     *
+     * @param mensaje MENSAJE PARA EL USUARIO
+     */
+    private void entregar(ChatMessage mensaje) {
+        if (listener != null) {
+            listener.onMensajeRecibido(mensaje);
+        }
+        try {
+            publicador.publicar(mensaje);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * VUELVE A ENVIAR LOS MENSAJES QUE EL SERVIDOR NO HA CONFIRMADO.
+     * LLEVAN EL MISMO IDENTIFICADOR, ASI QUE EL SERVIDOR DESCARTA
+     * LOS QUE YA HABIA RECIBIDO.
+     */
+    public void reenviarPendientes() {
+        List<ChatMessage> copia;
+        synchronized (pendientesConfirmacion) {
+            copia = new ArrayList<>(pendientesConfirmacion.values());
+        }
+        for (ChatMessage mensaje : copia) {
+            enviarMensaje(mensaje);
+        }
+    }
+
+    /**
+     * CUENTA LOS MENSAJES ENVIADOS QUE AUN NO SE HAN CONFIRMADO.
+     *
+     * @return NUMERO DE MENSAJES SIN CONFIRMAR
+     */
+    public int getPendientesConfirmacion() {
+        synchronized (pendientesConfirmacion) {
+            return pendientesConfirmacion.size();
+        }
+    }
+
     /**
      * CONFIGURA UN LISTENER PARA RECIBIR MENSAJES.
      * ESTABLECE EL OBJETO QUE SERA NOTIFICADO DE NUEVOS MENSAJES.
@@ -180,6 +835,19 @@ public class ChatClientImpl implements ChatClient {
         this.listener = listener;
     }
 
+    /**
+     * OBTIENE LOS MENSAJES RECIBIDOS COMO FLOW.PUBLISHER. ADMITE UN
+     * SUSCRIPTOR A LA VEZ Y SU DEMANDA MANDA: HASTA QUE NO PIDE MAS
+     * MENSAJES NO SE LEE NADA MAS DEL SERVIDOR (TAMPOCO CONFIRMACIONES).
+     * HAY QUE SUSCRIBIRSE ANTES DE CONECTAR PARA NO PERDER LOS PRIMEROS.
+     * LA SUSCRIPCION TERMINA AL DESCONECTAR (CON ONERROR SI SE CORTO).
+     *
+     * @return PUBLICADOR DE LOS MENSAJES RECIBIDOS
+     */
+    public Flow.Publisher<ChatMessage> getPublicador() {
+        return publicador;
+    }
+
     /**
      * BLOQUEA A UN USUARIO PARA NO RECIBIR SUS MENSAJES.
      * AÑADE AL USUARIO A LA LISTA DE BLOQUEADOS Y NOTIFICA AL SERVIDOR.
@@ -197,6 +865,7 @@ public class ChatClientImpl implements ChatClient {
 
         // INFORMO AL SERVIDOR DEL BLOQUEO
         if (conectado) {
+            bloqueosEnServidor.add(usuario);
             ChatMessage mensaje = new ChatMessage(
                     nickname,
                     nickname + " ha baneado a " + usuario,
@@ -209,6 +878,47 @@ public class ChatClientImpl implements ChatClient {
         System.out.println("USUARIO " + usuario + " BLOQUEADO");
     }
 
+    /**
+     * CONCILIA LOS BLOQUEOS QUE GUARDA EL SERVIDOR CON LOS LOCALES EN LOS
+     * DOS SENTIDOS. LO QUE CAMBIO AQUI SIN CONEXION GANA Y SE LE ENVIA AL
+     * SERVIDOR (BAN O UNBAN); LO QUE CAMBIO EN EL SERVIDOR DESDE LA ULTIMA
+     * VEZ (POR EJEMPLO DESDE OTRA SESION) SE COPIA AQUI.
+     *
+     * @param lista USUARIOS BLOQUEADOS EN EL SERVIDOR, UNO POR LINEA (VACIA SI NINGUNO)
+     */
+    private void sincronizarBloqueos(String lista) {
+        Set<String> guardados = new HashSet<>(Arrays.asList(lista.split("\n")));
+        guardados.remove("");
+        for (String usuario : new ArrayList<>(usuariosBloqueados)) {
+            if (guardados.contains(usuario)) {
+                continue;
+            }
+            if (bloqueosEnServidor.contains(usuario)) {
+                // LO DESBLOQUEARON EN EL SERVIDOR DESPUES DE LA ULTIMA VEZ
+                usuariosBloqueados.remove(usuario);
+            } else {
+                // LO BLOQUEE SIN CONEXION
+                enviarMensaje(new ChatMessage(nickname, nickname + " ha baneado a " + usuario,
+                        MessageType.BAN, usuario));
+            }
+        }
+        for (String usuario : guardados) {
+            if (usuariosBloqueados.contains(usuario)) {
+                continue;
+            }
+            if (bloqueosEnServidor.contains(usuario)) {
+                // LO DESBLOQUEE SIN CONEXION
+                enviarMensaje(new ChatMessage(nickname, nickname + " ha desbaneado a " + usuario,
+                        MessageType.UNBAN, usuario));
+            } else {
+                // LO BLOQUEARON EN EL SERVIDOR DESPUES DE LA ULTIMA VEZ
+                usuariosBloqueados.add(usuario);
+            }
+        }
+        bloqueosEnServidor.clear();
+        bloqueosEnServidor.addAll(usuariosBloqueados);
+    }
+
     /**
      * DESBLOQUEA A UN USUARIO PARA VOLVER A RECIBIR SUS MENSAJES.
      * ELIMINA AL USUARIO DE LA LISTA DE BLOQUEADOS Y NOTIFICA AL SERVIDOR.
@@ -226,6 +936,7 @@ public class ChatClientImpl implements ChatClient {
 
         // INFORMO AL SERVIDOR DEL DESBLOQUEO
         if (conectado) {
+            bloqueosEnServidor.remove(usuario);
             ChatMessage mensaje = new ChatMessage(
                     nickname,
                     nickname + " ha desbaneado a " + usuario,
@@ -248,6 +959,36 @@ public class ChatClientImpl implements ChatClient {
         return usuariosBloqueados.contains(usuario);
     }
 
+    /**
+     * ACTIVA TLS PARA LAS PROXIMAS CONEXIONES.
+     * EL MISMO CONTEXTO GUARDA LAS SESIONES, ASI QUE LAS RECONEXIONES
+     * REANUDAN LA SESION SIN HACER EL HANDSHAKE COMPLETO.
+     *
+     * @param tls CONTEXTO TLS DEL CLIENTE, NULL PARA IR EN CLARO
+     */
+    public void setTls(ContextoTls tls) {
+        this.tls = tls;
+    }
+
+    /**
+     * CONECTA POR UN SOCKET UNIX EN LUGAR DE POR TCP.
+     * LOS MENSAJES SON LOS MISMOS, SOLO CAMBIA EL CAMINO QUE SIGUEN.
+     *
+     * @param ruta RUTA DEL SOCKET DEL SERVIDOR, NULL PARA IR POR TCP
+     */
+    public void setRutaSocketLocal(Path ruta) {
+        this.rutaSocketLocal = ruta;
+    }
+
+    /**
+     * CAMBIA EL DIRECTORIO DONDE SE GUARDAN LOS FICHEROS ACEPTADOS.
+     *
+     * @param directorio DIRECTORIO DE DESCARGAS
+     */
+    public void setDirectorioDescargas(Path directorio) {
+        this.directorioDescargas = directorio;
+    }
+
     /**
      * ESTABLECE EL NICKNAME DEL CLIENTE.
      *
@@ -288,38 +1029,33 @@ public class ChatClientImpl implements ChatClient {
         }
 
         // CREO E INICIO EL CLIENTE
-        ChatClientImpl cliente = new ChatClientImpl(nickname);
-
-        // ASIGNO EL LISTENER QUE IMPRIME LOS MENSAJES RECIBIDOS
-        cliente.setListener(mensaje -> {
-            String tipo = mensaje.getTipo().toString();
-            String remitente = mensaje.getRemitente();
-            String contenido = mensaje.getContenido();
+        ChatClientImpl cliente = new ChatClientImpl(nickname, host, PUERTO);
 
-            // MARIO FLORES PATROCINA EL MENSAJE:
-            System.out.println("MARIO FLORES PATROCINA EL MENSAJE:");
+        // SI ME PASAN LA RUTA DEL SOCKET UNIX, CONECTO POR EL (-Dchat.unix=/ruta/chat.sock)
+        String rutaLocal = System.getProperty("chat.unix");
+        if (rutaLocal != null) {
+            cliente.setRutaSocketLocal(Paths.get(rutaLocal));
+        }
 
-            // FORMATO SEGUN EL TIPO DE MENSAJE
-            switch (mensaje.getTipo()) {
-                case MENSAJE:
-                    System.out.println("[" + remitente + "]: " + contenido);
-                    break;
-                case SISTEMA:
-                    System.out.println("[SISTEMA]: " + contenido);
-                    break;
-                case PRIVADO:
-                    System.out.println("[PRIVADO de " + remitente + "]: " + contenido);
-                    break;
-                case LOGIN:
-                    System.out.println("USUARIO " + remitente + " SE HA CONECTADO");
-                    break;
-                case LOGOUT:
-                    System.out.println("USUARIO " + remitente + " SE HA DESCONECTADO");
-                    break;
-                default:
-                    System.out.println("[" + tipo + "] " + remitente + ": " + contenido);
+        // SI ME PASAN UN ALMACEN DE CONFIANZA, CONECTO CON TLS
+        String almacen = System.getProperty("chat.tls.almacen");
+        if (almacen != null) {
+            try {
+                char[] clave = System.getProperty("chat.tls.clave", "").toCharArray();
+                cliente.setTls(ContextoTls.paraCliente(Paths.get(almacen), clave));
+            } catch (IOException e) {
+                System.out.println("NO PUDE CARGAR EL ALMACEN TLS: " + e.getMessage());
+                return;
             }
-        });
+        }
+
+        // ASIGNO EL LISTENER QUE IMPRIME LOS MENSAJES RECIBIDOS: LOS PINTA OTRO HILO
+        // POR LOTES, ASI QUE EL RECEPTOR NO SE PARA AUNQUE LA CONSOLA VAYA LENTA
+        PantallaConsola pantalla = new PantallaConsola(new FileOutputStream(FileDescriptor.out),
+                Long.getLong("chat.pantalla.intervalo", PantallaConsola.INTERVALO_MS),
+                Integer.getInteger("chat.pantalla.maximo", PantallaConsola.MAXIMO_POR_REFRESCO));
+        pantalla.iniciar();
+        cliente.setListener(pantalla);
 
         // ME CONECTO AL SERVIDOR
         cliente.conectar();
@@ -329,6 +1065,9 @@ public class ChatClientImpl implements ChatClient {
         System.out.println("  /msg <usuario> <mensaje> - ENVIAR MENSAJE PRIVADO");
         System.out.println("  /ban <usuario> - BLOQUEAR MENSAJES DE UN USUARIO");
         System.out.println("  /unban <usuario> - DESBLOQUEAR MENSAJES DE UN USUARIO");
+        System.out.println("  /buscar <consulta> - BUSCAR EN EL HISTORICO (de:, desde:, hasta:, pagina:)");
+        System.out.println("  /fichero <usuario|*> <ruta> - COMPARTIR UN FICHERO (* PARA TODOS)");
+        System.out.println("  /aceptar <id> - DESCARGAR UN FICHERO OFRECIDO");
         System.out.println("  /logout - SALIR DEL CHAT");
         System.out.println("\nESCRIBE TUS MENSAJES:");
 
@@ -376,6 +1115,31 @@ public class ChatClientImpl implements ChatClient {
                         }
                         break;
 
+                    case "/buscar":
+                        if (partes.length > 1) {
+                            String consulta = texto.substring(partes[0].length()).trim();
+                            cliente.enviarMensaje(new ChatMessage(nickname, consulta, MessageType.BUSQUEDA));
+                        } else {
+                            System.out.println("USO: /buscar <consulta>");
+                        }
+                        break;
+
+                    case "/fichero":
+                        if (partes.length > 2) {
+                            cliente.enviarFichero(Paths.get(partes[2]), "*".equals(partes[1]) ? null : partes[1]);
+                        } else {
+                            System.out.println("USO: /fichero <usuario|*> <ruta>");
+                        }
+                        break;
+
+                    case "/aceptar":
+                        try {
+                            cliente.aceptarFichero(Long.parseLong(partes[1]));
+                        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                            System.out.println("USO: /aceptar <id>");
+                        }
+                        break;
+
                     default:
                         System.out.println("COMANDO DESCONOCIDO: " + partes[0]);
                 }
@@ -389,6 +1153,27 @@ public class ChatClientImpl implements ChatClient {
         // CIERRO EL SCANNER Y DESCONECTO
         scanner.close();
         cliente.desconectar();
+        try {
+            pantalla.close();
+        } catch (IOException e) {
+            System.out.println("NO PUDE TERMINAR DE ESCRIBIR EN LA CONSOLA: " + e.getMessage());
+        }
         System.out.println("SESION FINALIZADA");
     }
-}
\ No newline at end of file
+
+    /**
+     * FICHERO ACEPTADO QUE SE ESTA RECIBIENDO.
+     */
+    private static class Descarga {
+        final Path ruta;
+        final FileChannel canal;
+        final long tamano;
+        long recibidos;
+
+        Descarga(Path ruta, FileChannel canal, long tamano) {
+            this.ruta = ruta;
+            this.canal = canal;
+            this.tamano = tamano;
+        }
+    }
+}
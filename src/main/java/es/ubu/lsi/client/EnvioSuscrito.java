@@ -0,0 +1,140 @@
+package es.ubu.lsi.client;
+
+import es.ubu.lsi.common.ChatMessage;
+import es.ubu.lsi.common.MessageType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * SUSCRIPTOR QUE ENVIA AL SERVIDOR LOS MENSAJES DE UN FLOW.PUBLISHER.
+ * PIDE COMO MUCHO UN LOTE DE MENSAJES, Y UN HILO ENVIA DE UNA VEZ TODO
+ * LO QUE HAYA LLEGADO (UNA SOLA ESCRITURA EN EL SOCKET) Y DESPUES PIDE
+ * TANTOS COMO HA ENVIADO. SI EL PUBLICADOR VA MAS RAPIDO QUE LA RED,
+ * LOS LOTES CRECEN HASTA EL MAXIMO; SI VA DESPACIO, CADA MENSAJE SALE
+ * EN CUANTO LLEGA, SIN ESPERAR A COMPLETAR EL LOTE.
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+class EnvioSuscrito implements Flow.Subscriber<ChatMessage> {
+
+    /** MARCA QUE DESPIERTA AL HILO DE ENVIO PARA QUE TERMINE */
+    private static final ChatMessage FIN = new ChatMessage(null, null, MessageType.SISTEMA);
+
+    /** CLIENTE POR EL QUE SE ENVIA */
+    private final ChatClientImpl cliente;
+
+    /** MENSAJES QUE SE PIDEN COMO MUCHO SIN HABERLOS ENVIADO */
+    private final int lote;
+
+    /** MENSAJES RECIBIDOS DEL PUBLICADOR QUE AUN NO SE HAN ENVIADO */
+    private final BlockingQueue<ChatMessage> cola = new LinkedBlockingQueue<>();
+
+    /** SUSCRIPCION AL PUBLICADOR */
+    private Flow.Subscription suscripcion;
+
+    /** LOTES ENVIADOS Y MENSAJES EN ELLOS */
+    private volatile long lotes;
+    private volatile long enviados;
+
+    /**
+     * CONSTRUCTOR DEL SUSCRIPTOR.
+     *
+     * @param cliente CLIENTE POR EL QUE SE ENVIA
+     * @param lote MENSAJES QUE SE PIDEN COMO MUCHO SIN HABERLOS ENVIADO
+     */
+    EnvioSuscrito(ChatClientImpl cliente, int lote) {
+        if (lote < 1) {
+            throw new IllegalArgumentException("EL LOTE DEBE SER DE AL MENOS UN MENSAJE");
+        }
+        this.cliente = cliente;
+        this.lote = lote;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription nueva) {
+        if (suscripcion != null) {
+            // SOLO SE PUEDE USAR CON UN PUBLICADOR
+            nueva.cancel();
+            return;
+        }
+        suscripcion = nueva;
+        Thread hilo = new Thread(this::enviarLotes, "envio-suscrito");
+        hilo.setDaemon(true);
+        hilo.start();
+        nueva.request(lote);
+    }
+
+    @Override
+    public void onNext(ChatMessage mensaje) {
+        cola.add(mensaje);
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        System.out.println("EL PUBLICADOR DE MENSAJES FALLO: " + error.getMessage());
+        cola.add(FIN);
+    }
+
+    @Override
+    public void onComplete() {
+        cola.add(FIN);
+    }
+
+    /**
+     * TAREA DEL HILO DE ENVIO: ESPERA AL PRIMER MENSAJE, RECOGE LOS QUE
+     * HAYAN LLEGADO DETRAS Y LOS ENVIA JUNTOS.
+     */
+    private void enviarLotes() {
+        List<ChatMessage> pendientes = new ArrayList<>(lote);
+        try {
+            boolean terminado = false;
+            while (!terminado) {
+                pendientes.add(cola.take());
+                cola.drainTo(pendientes, lote);
+                int fin = pendientes.indexOf(FIN);
+                if (fin >= 0) {
+                    terminado = true;
+                    pendientes.subList(fin, pendientes.size()).clear();
+                }
+                if (pendientes.isEmpty()) {
+                    continue;
+                }
+
+                if (!cliente.enviarLote(pendientes)) {
+                    // SIN CONEXION NO TIENE SENTIDO SEGUIR PIDIENDO
+                    suscripcion.cancel();
+                    return;
+                }
+                lotes++;
+                enviados += pendientes.size();
+                if (!terminado) {
+                    suscripcion.request(pendientes.size());
+                }
+                pendientes.clear();
+            }
+        } catch (InterruptedException e) {
+            suscripcion.cancel();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return LOTES ENVIADOS
+     */
+    long getLotes() {
+        return lotes;
+    }
+
+    /**
+     * @return MENSAJES ENVIADOS EN TODOS LOS LOTES
+     */
+    long getEnviados() {
+        return enviados;
+    }
+}
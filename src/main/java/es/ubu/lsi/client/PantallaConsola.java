@@ -0,0 +1,261 @@
+package es.ubu.lsi.client;
+
+import es.ubu.lsi.common.ChatMessage;
+import es.ubu.lsi.common.OfertaFichero;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PANTALLA DEL CLIENTE DE CONSOLA. EL HILO RECEPTOR SOLO DEJA CADA
+ * MENSAJE EN UNA COLA Y SIGUE LEYENDO; OTRO HILO LOS FORMATEA EN UN
+ * BUFFER QUE SE REUTILIZA Y LOS ESCRIBE DE GOLPE, COMO MUCHO UNA VEZ
+ * POR INTERVALO. SI LLEGAN MAS MENSAJES DE LOS QUE CABEN EN UN
+ * REFRESCO, LOS MAS ANTIGUOS SE RESUMEN EN UNA LINEA "+N MENSAJES MAS",
+ * ASI QUE EL RECEPTOR NUNCA ESPERA A LA CONSOLA.
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+class PantallaConsola implements ChatClientListener, Closeable {
+
+    /** TIEMPO MINIMO ENTRE DOS REFRESCOS (20 POR SEGUNDO) */
+    static final long INTERVALO_MS = 50;
+
+    /** MENSAJES MAXIMOS QUE SE PINTAN EN UN REFRESCO */
+    static final int MAXIMO_POR_REFRESCO = 200;
+
+    /** ESPERA MAXIMA AL HILO QUE PINTA AL CERRAR */
+    private static final long ESPERA_CIERRE_MS = 1000;
+
+    /** FIN DE LINEA, EL MISMO QUE USARIA PRINTLN */
+    private static final String FIN_LINEA = System.lineSeparator();
+
+    /** DESTINO DE LOS REFRESCOS, SIN AUTOFLUSH */
+    private final Writer salida;
+
+    /** NANOSEGUNDOS MINIMOS ENTRE DOS REFRESCOS */
+    private final long intervaloNanos;
+
+    /** MENSAJES MAXIMOS QUE SE PINTAN EN UN REFRESCO */
+    private final int maximo;
+
+    /** PROTEGE LA COLA DE PENDIENTES Y LOS OMITIDOS */
+    private final Object cerrojo = new Object();
+
+    /** MENSAJES QUE ESPERAN AL SIGUIENTE REFRESCO */
+    private ArrayDeque<ChatMessage> pendientes = new ArrayDeque<>();
+
+    /** MENSAJES QUE SE ESTAN PINTANDO, SOLO LOS TOCA QUIEN REFRESCA */
+    private ArrayDeque<ChatMessage> lote = new ArrayDeque<>();
+
+    /** MENSAJES PENDIENTES QUE SE HAN RESUMIDO DESDE EL ULTIMO REFRESCO */
+    private int omitidos;
+
+    /** MENSAJES RESUMIDOS DESDE QUE SE ABRIO LA PANTALLA */
+    private long totalOmitidos;
+
+    /** TEXTO DEL REFRESCO, SE REUTILIZA DE UNO A OTRO */
+    private final StringBuilder texto = new StringBuilder(4096);
+
+    /** CARACTERES DEL REFRESCO PARA EL WRITER, SE REUTILIZAN DE UNO A OTRO */
+    private char[] caracteres = new char[4096];
+
+    /** HILO QUE PINTA, NULL SI NO SE HA INICIADO */
+    private Thread pintor;
+
+    private volatile boolean abierta = true;
+
+    /**
+     * CONSTRUCTOR.
+     *
+     * @param destino FLUJO DE LA CONSOLA (MEJOR SIN BUFFER NI AUTOFLUSH PROPIOS)
+     * @param intervaloMs TIEMPO MINIMO ENTRE DOS REFRESCOS
+     * @param maximo MENSAJES MAXIMOS QUE SE PINTAN EN UN REFRESCO
+     */
+    PantallaConsola(OutputStream destino, long intervaloMs, int maximo) {
+        if (intervaloMs < 0 || maximo <= 0) {
+            throw new IllegalArgumentException("INTERVALO O MAXIMO DE LA PANTALLA NO VALIDOS");
+        }
+        this.salida = new BufferedWriter(new OutputStreamWriter(destino, Charset.defaultCharset()), 16 * 1024);
+        this.intervaloNanos = TimeUnit.MILLISECONDS.toNanos(intervaloMs);
+        this.maximo = maximo;
+    }
+
+    /**
+     * ARRANCO EL HILO QUE PINTA.
+     */
+    void iniciar() {
+        pintor = new Thread(this::pintar, "pantalla");
+        pintor.setDaemon(true);
+        pintor.start();
+    }
+
+    /**
+     * DEJO EL MENSAJE PARA EL SIGUIENTE REFRESCO. NO ESPERA NUNCA A LA CONSOLA.
+     *
+     * @param mensaje MENSAJE RECIBIDO
+     */
+    @Override
+    public void onMensajeRecibido(ChatMessage mensaje) {
+        synchronized (cerrojo) {
+            if (pendientes.size() >= maximo) {
+                // LA RAFAGA NO CABE: EL MAS ANTIGUO SOLO SE CUENTA
+                pendientes.pollFirst();
+                omitidos++;
+            }
+            pendientes.addLast(mensaje);
+            cerrojo.notify();
+        }
+    }
+
+    /**
+     * BUCLE DEL HILO QUE PINTA: ESPERA A QUE HAYA ALGO Y A QUE TOQUE REFRESCAR.
+     */
+    private void pintar() {
+        long siguiente = System.nanoTime();
+        try {
+            while (abierta) {
+                synchronized (cerrojo) {
+                    while (abierta && pendientes.isEmpty() && omitidos == 0) {
+                        cerrojo.wait();
+                    }
+                }
+                // LO QUE LLEGUE MIENTRAS ESPERO ENTRA EN ESTE MISMO REFRESCO
+                long espera = siguiente - System.nanoTime();
+                if (espera > 0) {
+                    TimeUnit.NANOSECONDS.sleep(espera);
+                }
+                refrescar();
+                siguiente = System.nanoTime() + intervaloNanos;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.out.println("NO PUEDO ESCRIBIR EN LA CONSOLA: " + e.getMessage());
+        }
+    }
+
+    /**
+     * PINTO DE UNA VEZ LO QUE ESTA PENDIENTE.
+     *
+     * @return TRUE SI HABIA ALGO QUE PINTAR
+     * @throws IOException SI FALLA LA ESCRITURA
+     */
+    boolean refrescar() throws IOException {
+        int resumidos;
+        synchronized (cerrojo) {
+            if (pendientes.isEmpty() && omitidos == 0) {
+                return false;
+            }
+            // CAMBIO LAS COLAS PARA NO TENER EL CERROJO MIENTRAS FORMATEO
+            ArrayDeque<ChatMessage> llenos = pendientes;
+            pendientes = lote;
+            lote = llenos;
+            resumidos = omitidos;
+            omitidos = 0;
+            totalOmitidos += resumidos;
+        }
+
+        texto.setLength(0);
+        if (resumidos > 0) {
+            texto.append("... +").append(resumidos).append(" MENSAJES MAS").append(FIN_LINEA);
+        }
+        ChatMessage mensaje;
+        while ((mensaje = lote.pollFirst()) != null) {
+            formatear(mensaje, texto);
+        }
+
+        int longitud = texto.length();
+        if (longitud > caracteres.length) {
+            caracteres = new char[Math.max(longitud, caracteres.length * 2)];
+        }
+        texto.getChars(0, longitud, caracteres, 0);
+        salida.write(caracteres, 0, longitud);
+        salida.flush();
+        return true;
+    }
+
+    /**
+     * ESCRIBO UN MENSAJE COMO LO MUESTRA LA CONSOLA.
+     *
+     * @param mensaje MENSAJE RECIBIDO
+     * @param destino TEXTO AL QUE SE AÑADE, CON SU FIN DE LINEA
+     */
+    static void formatear(ChatMessage mensaje, StringBuilder destino) {
+        String remitente = mensaje.getRemitente();
+        String contenido = mensaje.getContenido();
+
+        // MARIO FLORES PATROCINA EL MENSAJE:
+        destino.append("MARIO FLORES PATROCINA EL MENSAJE:").append(FIN_LINEA);
+
+        // FORMATO SEGUN EL TIPO DE MENSAJE
+        switch (mensaje.getTipo()) {
+            case MENSAJE:
+                destino.append('[').append(remitente).append("]: ").append(contenido);
+                break;
+            case SISTEMA:
+                destino.append("[SISTEMA]: ").append(contenido);
+                break;
+            case PRIVADO:
+                destino.append("[PRIVADO de ").append(remitente).append("]: ").append(contenido);
+                break;
+            case LOGIN:
+                destino.append("USUARIO ").append(remitente).append(" SE HA CONECTADO");
+                break;
+            case LOGOUT:
+                destino.append("USUARIO ").append(remitente).append(" SE HA DESCONECTADO");
+                break;
+            case RESULTADO_BUSQUEDA:
+                destino.append("[BUSQUEDA]: ").append(contenido);
+                break;
+            case OFERTA_FICHERO:
+                destino.append("[FICHERO de ").append(remitente).append("]: ").append(OfertaFichero.nombreDe(mensaje))
+                        .append(" (").append(OfertaFichero.tamanoDe(mensaje)).append(" BYTES), USA /aceptar ")
+                        .append(mensaje.getIdMensaje());
+                break;
+            default:
+                destino.append('[').append(mensaje.getTipo()).append("] ").append(remitente).append(": ").append(contenido);
+        }
+        destino.append(FIN_LINEA);
+    }
+
+    /**
+     * @return MENSAJES RESUMIDOS EN "+N MENSAJES MAS" DESDE QUE SE ABRIO
+     */
+    long getOmitidos() {
+        synchronized (cerrojo) {
+            return totalOmitidos + omitidos;
+        }
+    }
+
+    /**
+     * PARO EL HILO Y PINTO LO QUE QUEDE, SI LA CONSOLA NO ESTA ATASCADA.
+     */
+    @Override
+    public void close() throws IOException {
+        abierta = false;
+        synchronized (cerrojo) {
+            cerrojo.notify();
+        }
+        if (pintor != null && pintor != Thread.currentThread()) {
+            try {
+                pintor.join(ESPERA_CIERRE_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (pintor.isAlive()) {
+                return;
+            }
+        }
+        refrescar();
+    }
+}
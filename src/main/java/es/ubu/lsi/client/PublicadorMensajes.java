@@ -0,0 +1,184 @@
+package es.ubu.lsi.client;
+
+import es.ubu.lsi.common.ChatMessage;
+
+import java.util.concurrent.Flow;
+
+/**
+ * VISTA COMO FLOW.PUBLISHER DE LOS MENSAJES QUE RECIBE EL CLIENTE.
+ * SOLO ADMITE UN SUSCRIPTOR A LA VEZ PORQUE SU DEMANDA ES LA QUE MANDA
+ * SOBRE LA CONEXION: EL HILO RECEPTOR NO LEE LA SIGUIENTE TRAMA HASTA
+ * QUE EL SUSCRIPTOR HA PEDIDO MAS MENSAJES, ASI QUE LO QUE NO SE PIDE
+ * SE QUEDA EN EL SOCKET Y EL SERVIDOR DEJA DE ENVIAR.
+ * TODAS LAS SEÑALES (ONNEXT, ONCOMPLETE, ONERROR) SALEN DEL HILO
+ * RECEPTOR, ASI QUE NUNCA SE SOLAPAN.
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+class PublicadorMensajes implements Flow.Publisher<ChatMessage> {
+
+    /** SUSCRIPCION ACTIVA, NULL SI NO HAY NADIE SUSCRITO */
+    private Suscripcion actual;
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ChatMessage> suscriptor) {
+        if (suscriptor == null) {
+            throw new NullPointerException("EL SUSCRIPTOR NO PUEDE SER NULL");
+        }
+        Suscripcion nueva = new Suscripcion(suscriptor);
+        boolean aceptada;
+        synchronized (this) {
+            aceptada = actual == null || actual.cancelada;
+            if (aceptada) {
+                actual = nueva;
+            }
+        }
+
+        if (!aceptada) {
+            // LA REGLA ES AVISAR CON ONSUBSCRIBE ANTES DEL ERROR
+            nueva.cancelada = true;
+            suscriptor.onSubscribe(nueva);
+            suscriptor.onError(new IllegalStateException("YA HAY UN SUSCRIPTOR A LOS MENSAJES"));
+            return;
+        }
+        suscriptor.onSubscribe(nueva);
+    }
+
+    /**
+     * ENTREGO UN MENSAJE AL SUSCRIPTOR. SI NO HA PEDIDO NADA, ESPERO A
+     * QUE LO PIDA: MIENTRAS TANTO EL HILO RECEPTOR NO LEE DEL SOCKET.
+     *
+     * @param mensaje MENSAJE RECIBIDO
+     * @throws InterruptedException SI SE INTERRUMPE LA ESPERA
+     */
+    void publicar(ChatMessage mensaje) throws InterruptedException {
+        Suscripcion suscripcion;
+        synchronized (this) {
+            suscripcion = actual;
+        }
+        if (suscripcion != null && suscripcion.esperarDemanda()) {
+            suscripcion.suscriptor.onNext(mensaje);
+        }
+    }
+
+    /**
+     * TERMINO LA SUSCRIPCION ACTUAL PORQUE SE HA CERRADO LA CONEXION.
+     * DESPUES SE PUEDE SUSCRIBIR OTRO (POR EJEMPLO TRAS RECONECTAR).
+     *
+     * @param error CAUSA SI LA CONEXION SE CORTO, NULL SI SE CERRO NORMALMENTE
+     */
+    void terminar(Throwable error) {
+        Suscripcion suscripcion;
+        synchronized (this) {
+            suscripcion = actual;
+            actual = null;
+        }
+        if (suscripcion == null || !suscripcion.terminar()) {
+            return;
+        }
+        if (error != null) {
+            suscripcion.suscriptor.onError(error);
+        } else {
+            suscripcion.suscriptor.onComplete();
+        }
+    }
+
+    /**
+     * DESPIERTO AL HILO RECEPTOR SI ESTA ESPERANDO DEMANDA, PARA QUE
+     * PUEDA VER QUE EL CLIENTE SE ESTA DESCONECTANDO.
+     */
+    void despertar() {
+        Suscripcion suscripcion;
+        synchronized (this) {
+            suscripcion = actual;
+        }
+        if (suscripcion != null) {
+            suscripcion.despertar();
+        }
+    }
+
+    /**
+     * @return TRUE SI HAY ALGUIEN SUSCRITO
+     */
+    synchronized boolean tieneSuscriptor() {
+        return actual != null && !actual.cancelada;
+    }
+
+    /**
+     * SUSCRIPCION CON LA DEMANDA PENDIENTE DEL SUSCRIPTOR.
+     */
+    private static class Suscripcion implements Flow.Subscription {
+        final Flow.Subscriber<? super ChatMessage> suscriptor;
+        long demanda;
+        volatile boolean cancelada;
+        boolean terminada;
+        boolean despertada;
+
+        Suscripcion(Flow.Subscriber<? super ChatMessage> suscriptor) {
+            this.suscriptor = suscriptor;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                // PEDIR 0 O MENOS ES UN ERROR DEL SUSCRIPTOR: SE CANCELA Y SE LE AVISA
+                boolean avisar;
+                synchronized (this) {
+                    avisar = !cancelada && !terminada;
+                    cancelada = true;
+                    notifyAll();
+                }
+                if (avisar) {
+                    suscriptor.onError(new IllegalArgumentException("LA DEMANDA DEBE SER POSITIVA: " + n));
+                }
+                return;
+            }
+            synchronized (this) {
+                demanda = demanda + n < 0 ? Long.MAX_VALUE : demanda + n;
+                notifyAll();
+            }
+        }
+
+        @Override
+        public synchronized void cancel() {
+            cancelada = true;
+            notifyAll();
+        }
+
+        /**
+         * ESPERO A QUE HAYA DEMANDA Y GASTO UNA UNIDAD.
+         *
+         * @return FALSE SI SE CANCELO O SE DESPERTO SIN DEMANDA
+         */
+        synchronized boolean esperarDemanda() throws InterruptedException {
+            while (demanda == 0 && !cancelada && !terminada && !despertada) {
+                wait();
+            }
+            despertada = false;
+            if (demanda == 0 || cancelada || terminada) {
+                return false;
+            }
+            if (demanda != Long.MAX_VALUE) {
+                demanda--;
+            }
+            return true;
+        }
+
+        synchronized void despertar() {
+            despertada = true;
+            notifyAll();
+        }
+
+        /**
+         * @return TRUE SI HAY QUE AVISAR AL SUSCRIPTOR DEL FINAL
+         */
+        synchronized boolean terminar() {
+            boolean avisar = !cancelada && !terminada;
+            terminada = true;
+            notifyAll();
+            return avisar;
+        }
+    }
+}
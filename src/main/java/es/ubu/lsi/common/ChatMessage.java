@@ -1,33 +1,59 @@
 package es.ubu.lsi.common;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
 /**
  * CLASE QUE REPRESENTA UN MENSAJE EN EL CHAT.
  * ENCAPSULA TODA LA INFORMACION NECESARIA PARA TRANSMITIR
  * UN MENSAJE ENTRE CLIENTE Y SERVIDOR.
+ * ES INMUTABLE: UN MISMO MENSAJE SE COMPARTE ENTRE TODAS LAS COLAS
+ * DE SALIDA Y SU FORMA CODIFICADA SE CALCULA UNA SOLA VEZ.
  *
  * @author MARIO FLORES
  * @version 1.0
  * @since MARZO 2025
  */
-public class ChatMessage implements Serializable {
+public final class ChatMessage implements Serializable {
 
     /** IDENTIFICADOR DE VERSION PARA SERIALIZACION */
     private static final long serialVersionUID = 1L;
 
-    /** NOMBRE DEL USUARIO QUE ENVIA EL MENSAJE */
+    /** REMITENTE DE LOS MENSAJES QUE GENERA EL SERVIDOR */
+    public static final String SERVIDOR = "Server";
+
+    /**
+     * MENSAJES QUE UN CLIENTE GUARDA SIN CONFIRMAR PARA REINTENTARLOS.
+     * EL SERVIDOR RECUERDA AL MENOS TANTOS IDENTIFICADORES POR REMITENTE,
+     * ASI QUE NINGUN REINTENTO SE DIFUNDE DOS VECES.
+     */
+    public static final int MAXIMO_SIN_CONFIRMAR = 1024;
+
+    /**
+     * NOMBRE DEL USUARIO QUE ENVIA EL MENSAJE.
+     * NO ES FINAL PARA PODER INTERNARLO AL DESERIALIZAR.
+     */
     private String remitente;
 
     /** CONTENIDO DEL MENSAJE */
-    private String contenido;
+    private final String contenido;
 
     /** TIPO DE MENSAJE (LOGIN, LOGOUT, MENSAJE, ETC.) */
-    private MessageType tipo;
+    private final MessageType tipo;
 
-    /** DESTINATARIO DEL MENSAJE (PARA MENSAJES PRIVADOS) */
+    /**
+     * DESTINATARIO DEL MENSAJE (PARA MENSAJES PRIVADOS).
+     * NO ES FINAL PARA PODER INTERNARLO AL DESERIALIZAR.
+     */
     private String destinatario;
 
+    /** IDENTIFICADOR QUE PONE EL CLIENTE PARA DETECTAR REENVIOS (0 SI NO TIENE) */
+    private final long idMensaje;
+
+    /** TRAMA YA CODIFICADA PARA EL ENVIO, SE CALCULA LA PRIMERA VEZ QUE SE PIDE */
+    private transient volatile byte[] trama;
+
     /**
      * CONSTRUCTOR PARA MENSAJES NORMALES.
      * CREA UN MENSAJE SIN DESTINATARIO ESPECIFICO.
@@ -37,10 +63,7 @@ public class ChatMessage implements Serializable {
      * @param tipo TIPO DEL MENSAJE (VER MESSAGETYPE)
      */
     public ChatMessage(String remitente, String contenido, MessageType tipo) {
-        this.remitente = remitente;
-        this.contenido = contenido;
-        this.tipo = tipo;
-        this.destinatario = null; // NO HAY DESTINATARIO ESPECIFICO
+        this(remitente, contenido, tipo, null); // NO HAY DESTINATARIO ESPECIFICO
     }
 
     /**
@@ -53,10 +76,70 @@ public class ChatMessage implements Serializable {
      * @param destinatario USUARIO AL QUE VA DIRIGIDO EL MENSAJE
      */
     public ChatMessage(String remitente, String contenido, MessageType tipo, String destinatario) {
+        this(remitente, contenido, tipo, destinatario, 0);
+    }
+
+    /**
+     * CONSTRUCTOR CON IDENTIFICADOR DE MENSAJE.
+     * LO USAN EL CLIENTE PARA MARCAR SUS MENSAJES Y EL SERVIDOR
+     * PARA CONFIRMAR SU RECEPCION.
+     *
+     * @param remitente QUIEN ENVIA EL MENSAJE
+     * @param contenido TEXTO DEL MENSAJE
+     * @param tipo TIPO DEL MENSAJE (VER MESSAGETYPE)
+     * @param destinatario USUARIO AL QUE VA DIRIGIDO EL MENSAJE
+     * @param idMensaje IDENTIFICADOR UNICO DEL MENSAJE PARA SU REMITENTE
+     */
+    public ChatMessage(String remitente, String contenido, MessageType tipo, String destinatario, long idMensaje) {
         this.remitente = remitente;
         this.contenido = contenido;
         this.tipo = tipo;
         this.destinatario = destinatario;
+        this.idMensaje = idMensaje;
+    }
+
+    /**
+     * CREA UN AVISO DEL SERVIDOR PARA TODOS.
+     *
+     * @param contenido TEXTO DEL AVISO
+     * @return MENSAJE DE SISTEMA
+     */
+    public static ChatMessage sistema(String contenido) {
+        return new ChatMessage(SERVIDOR, contenido, MessageType.SISTEMA);
+    }
+
+    /**
+     * CREA UN AVISO DEL SERVIDOR PARA UN USUARIO.
+     *
+     * @param contenido TEXTO DEL AVISO
+     * @param destinatario USUARIO AL QUE VA DIRIGIDO
+     * @return MENSAJE DE SISTEMA
+     */
+    public static ChatMessage sistema(String contenido, String destinatario) {
+        return new ChatMessage(SERVIDOR, contenido, MessageType.SISTEMA, destinatario);
+    }
+
+    /**
+     * CREA LA CONFIRMACION DE UN MENSAJE. SU TRAMA SALE DE UNA PLANTILLA
+     * YA CODIFICADA EN LA QUE SOLO SE CAMBIA EL IDENTIFICADOR.
+     *
+     * @param idMensaje IDENTIFICADOR DEL MENSAJE CONFIRMADO
+     * @return MENSAJE DE CONFIRMACION
+     */
+    public static ChatMessage confirmacion(long idMensaje) {
+        ChatMessage ack = new ChatMessage(SERVIDOR, null, MessageType.ACK, null, idMensaje);
+        ack.trama = CodecMensajes.tramaConfirmacion(idMensaje);
+        return ack;
+    }
+
+    /**
+     * CREA UNA COPIA DEL MENSAJE CON OTRO IDENTIFICADOR.
+     *
+     * @param idMensaje IDENTIFICADOR PARA LA COPIA
+     * @return MENSAJE IGUAL A ESTE CON EL IDENTIFICADOR INDICADO
+     */
+    public ChatMessage conIdMensaje(long idMensaje) {
+        return new ChatMessage(remitente, contenido, tipo, destinatario, idMensaje);
     }
 
     /**
@@ -94,4 +177,39 @@ public class ChatMessage implements Serializable {
     public String getDestinatario() {
         return destinatario;
     }
+
+    /**
+     * OBTIENE EL IDENTIFICADOR DEL MENSAJE.
+     *
+     * @return IDENTIFICADOR (0 SI EL MENSAJE NO LLEVA)
+     */
+    public long getIdMensaje() {
+        return idMensaje;
+    }
+
+    /**
+     * OBTIENE EL MENSAJE CODIFICADO PARA EL ENVIO. COMO EL MENSAJE NO
+     * CAMBIA, UN BROADCAST LO CODIFICA UNA VEZ Y TODAS LAS CONEXIONES
+     * ESCRIBEN LOS MISMOS BYTES.
+     *
+     * @return TRAMA CON LA LONGITUD DELANTE (NO SE DEBE MODIFICAR)
+     */
+    byte[] getTrama() {
+        byte[] codificado = trama;
+        if (codificado == null) {
+            // SI DOS HILOS LA CALCULAN A LA VEZ SALE LA MISMA, DA IGUAL CUAL SE QUEDE
+            codificado = CodecMensajes.codificar(this);
+            trama = codificado;
+        }
+        return codificado;
+    }
+
+    /**
+     * AL DESERIALIZAR COMPARTO LOS NOMBRES CON LOS MENSAJES ANTERIORES.
+     */
+    private void readObject(ObjectInputStream entrada) throws IOException, ClassNotFoundException {
+        entrada.defaultReadObject();
+        remitente = InternadorNombres.internar(remitente);
+        destinatario = InternadorNombres.internar(destinatario);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,291 @@
+package es.ubu.lsi.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * CODIFICACION DE LOS MENSAJES EN TRAMAS PARA EL TRANSPORTE.
+ * CADA TRAMA ES UN ENTERO CON LA LONGITUD SEGUIDO DEL MENSAJE
+ * SERIALIZADO POR SU CUENTA, ASI QUE LOS MISMOS BYTES SIRVEN PARA
+ * CUALQUIER CONEXION Y UN BROADCAST SE SERIALIZA UNA SOLA VEZ.
+ * CADA HILO REUTILIZA SU BUFFER Y SU SERIALIZADOR: EN CADA TRAMA SE
+ * ESCRIBE LA CABECERA DEL FLUJO A MANO Y SE REINICIA EL SERIALIZADOR,
+ * ASI QUE LA TRAMA SE PUEDE LEER SOLA SIN CREAR UN SERIALIZADOR NUEVO.
+ * ENTRE UNA PASARELA Y EL SERVIDOR CADA TRAMA LLEVA DELANTE LA SESION
+ * A LA QUE PERTENECE, O LAS SESIONES QUE SE SALTA SI ES UN BROADCAST.
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public final class CodecMensajes {
+
+    /** TAMAÑO MAXIMO DE UNA TRAMA SIN CONTAR LA LONGITUD */
+    public static final int MAXIMO_TRAMA = 1 << 20;
+
+    /** BYTES QUE OCUPA LA LONGITUD DELANTE DE CADA TRAMA */
+    public static final int CABECERA = 4;
+
+    /** VALOR QUE VA EN LUGAR DE LA LONGITUD EN LAS TRAMAS CON UN TROZO DE FICHERO */
+    public static final int TRAMA_FRAGMENTO = -1;
+
+    /** BYTES MAXIMOS DE FICHERO EN CADA TRAMA DE FRAGMENTO */
+    public static final int TAMANO_FRAGMENTO = 64 * 1024;
+
+    /** BYTES DE LA CABECERA DE UNA TRAMA DE FRAGMENTO: MARCA, IDENTIFICADOR Y LONGITUD */
+    public static final int CABECERA_FRAGMENTO = 16;
+
+    /**
+     * MARCA DE LAS TRAMAS ENTRE UNA PASARELA Y EL SERVIDOR QUE VAN DE O PARA
+     * UNA SOLA SESION: DETRAS VA EL NUMERO DE SESION Y UNA TRAMA NORMAL.
+     */
+    public static final int TRAMA_SESION = -2;
+
+    /** BYTES DE LA CABECERA DE SESION: MARCA Y NUMERO DE SESION */
+    public static final int CABECERA_SESION = 8;
+
+    /**
+     * MARCA DE LOS BROADCAST QUE EL SERVIDOR MANDA UNA VEZ A CADA PASARELA:
+     * DETRAS VAN LAS SESIONES QUE NO LO DEBEN RECIBIR (CUANTAS Y CUALES)
+     * Y UNA TRAMA NORMAL QUE LA PASARELA REPARTE A TODAS LAS DEMAS.
+     */
+    public static final int TRAMA_DIFUSION = -3;
+
+    /** SESIONES EXCLUIDAS MAXIMAS EN UNA TRAMA DE DIFUSION */
+    public static final int MAXIMO_EXCLUIDAS = 1 << 16;
+
+    /** TAMAÑO A PARTIR DEL CUAL EL BUFFER DE UN HILO NO SE CONSERVA */
+    private static final int MAXIMO_BUFFER_RETENIDO = 64 * 1024;
+
+    /** IDENTIFICADOR FALSO PARA LOCALIZAR SU POSICION EN LA PLANTILLA DE CONFIRMACION */
+    private static final long MARCADOR = 0x5A17C0DE5A17C0DEL;
+
+    /** HUECO PARA LA LONGITUD (SE RELLENA AL TERMINAR) Y CABECERA DEL FLUJO SERIALIZADO */
+    private static final byte[] INICIO_TRAMA = {
+            0, 0, 0, 0,
+            (byte) (ObjectStreamConstants.STREAM_MAGIC >>> 8), (byte) ObjectStreamConstants.STREAM_MAGIC,
+            (byte) (ObjectStreamConstants.STREAM_VERSION >>> 8), (byte) ObjectStreamConstants.STREAM_VERSION
+    };
+
+    /** CODIFICADOR DE CADA HILO */
+    private static final ThreadLocal<Codificador> CODIFICADORES =
+            ThreadLocal.withInitial(Codificador::new);
+
+    /** TRAMA DE UNA CONFIRMACION CON EL IDENTIFICADOR MARCADOR */
+    private static final byte[] PLANTILLA_CONFIRMACION;
+
+    /** POSICION DEL IDENTIFICADOR DENTRO DE LA PLANTILLA */
+    private static final int POSICION_ID;
+
+    static {
+        PLANTILLA_CONFIRMACION = codificar(
+                new ChatMessage(ChatMessage.SERVIDOR, null, MessageType.ACK, null, MARCADOR));
+        POSICION_ID = buscarMarcador(PLANTILLA_CONFIRMACION);
+    }
+
+    /**
+     * CONSTRUCTOR PRIVADO, SOLO TIENE METODOS ESTATICOS.
+     */
+    private CodecMensajes() {
+    }
+
+    /**
+     * ESCRIBO UN MENSAJE EN UN FLUJO. SI EL MENSAJE YA ESTABA
+     * CODIFICADO SOLO SE COPIAN SUS BYTES.
+     *
+     * @param mensaje MENSAJE A ESCRIBIR
+     * @param salida FLUJO DE SALIDA (SIN FLUSH)
+     * @return BYTES ESCRITOS
+     * @throws IOException SI FALLA LA ESCRITURA
+     */
+    public static int escribir(ChatMessage mensaje, OutputStream salida) throws IOException {
+        byte[] trama = mensaje.getTrama();
+        salida.write(trama);
+        return trama.length;
+    }
+
+    /**
+     * ESCRIBO LA CABECERA DE UNA TRAMA CON UN TROZO DE FICHERO.
+     * DETRAS DEBEN IR EXACTAMENTE LOS BYTES INDICADOS, QUE NO SE
+     * SERIALIZAN, Y UN TROZO DE 0 BYTES CIERRA LA TRANSFERENCIA.
+     *
+     * @param idTransferencia TRANSFERENCIA A LA QUE PERTENECE EL TROZO
+     * @param longitud BYTES DEL TROZO
+     * @param salida FLUJO DE SALIDA (SIN FLUSH)
+     * @throws IOException SI FALLA LA ESCRITURA
+     */
+    public static void escribirCabeceraFragmento(long idTransferencia, int longitud, OutputStream salida)
+            throws IOException {
+        byte[] cabecera = new byte[CABECERA_FRAGMENTO];
+        escribirEntero(cabecera, 0, TRAMA_FRAGMENTO);
+        escribirEntero(cabecera, 4, (int) (idTransferencia >>> 32));
+        escribirEntero(cabecera, 8, (int) idTransferencia);
+        escribirEntero(cabecera, 12, longitud);
+        salida.write(cabecera);
+    }
+
+    /**
+     * ESCRIBO LA CABECERA QUE DICE A QUE SESION DE UNA PASARELA VA
+     * (O DE CUAL VIENE) LA TRAMA QUE SE ESCRIBA A CONTINUACION.
+     *
+     * @param sesion NUMERO DE SESION DENTRO DE LA PASARELA (MAYOR QUE 0)
+     * @param salida FLUJO DE SALIDA (SIN FLUSH)
+     * @throws IOException SI FALLA LA ESCRITURA
+     */
+    public static void escribirCabeceraSesion(int sesion, OutputStream salida) throws IOException {
+        byte[] cabecera = new byte[CABECERA_SESION];
+        escribirEntero(cabecera, 0, TRAMA_SESION);
+        escribirEntero(cabecera, 4, sesion);
+        salida.write(cabecera);
+    }
+
+    /**
+     * ESCRIBO LA CABECERA DE UN BROADCAST PARA UNA PASARELA. DETRAS DEBE
+     * IR LA TRAMA DEL MENSAJE, QUE LA PASARELA ENTREGA A TODAS SUS
+     * SESIONES MENOS A LAS EXCLUIDAS.
+     *
+     * @param excluidas SESIONES QUE NO LO RECIBEN (POR EJEMPLO POR UN BLOQUEO)
+     * @param salida FLUJO DE SALIDA (SIN FLUSH)
+     * @return BYTES ESCRITOS
+     * @throws IOException SI FALLA LA ESCRITURA
+     */
+    public static int escribirCabeceraDifusion(int[] excluidas, OutputStream salida) throws IOException {
+        if (excluidas.length > MAXIMO_EXCLUIDAS) {
+            throw new IllegalArgumentException("DEMASIADAS SESIONES EXCLUIDAS: " + excluidas.length);
+        }
+        byte[] cabecera = new byte[8 + 4 * excluidas.length];
+        escribirEntero(cabecera, 0, TRAMA_DIFUSION);
+        escribirEntero(cabecera, 4, excluidas.length);
+        for (int i = 0; i < excluidas.length; i++) {
+            escribirEntero(cabecera, 8 + 4 * i, excluidas[i]);
+        }
+        salida.write(cabecera);
+        return cabecera.length;
+    }
+
+    /**
+     * CODIFICO EL MENSAJE YA, EN EL HILO QUE LLAMA, PARA QUE LOS HILOS
+     * ESCRITORES SOLO TENGAN QUE COPIAR SUS BYTES.
+     *
+     * @param mensaje MENSAJE QUE SE VA A ENVIAR A VARIAS CONEXIONES
+     */
+    public static void preparar(ChatMessage mensaje) {
+        mensaje.getTrama();
+    }
+
+    /**
+     * CODIFICO UN MENSAJE EN UNA TRAMA NUEVA.
+     *
+     * @param mensaje MENSAJE A CODIFICAR
+     * @return LONGITUD Y MENSAJE SERIALIZADO
+     * @throws IllegalArgumentException SI EL MENSAJE NO CABE EN UNA TRAMA
+     */
+    static byte[] codificar(ChatMessage mensaje) {
+        Codificador codificador = CODIFICADORES.get();
+        SalidaReutilizable buffer = codificador.buffer;
+        buffer.reset();
+        try {
+            buffer.write(INICIO_TRAMA);
+            // EL REINICIO OLVIDA LO ESCRITO ANTES, ASI QUE LA TRAMA NO DEPENDE DE OTRAS
+            codificador.serializador.reset();
+            codificador.serializador.writeObject(mensaje);
+            codificador.serializador.flush();
+        } catch (IOException e) {
+            // ESCRIBIENDO EN MEMORIA NO DEBERIA FALLAR; SI FALLA NO REUTILIZO EL SERIALIZADOR
+            CODIFICADORES.remove();
+            throw new UncheckedIOException(e);
+        }
+
+        int longitud = buffer.size() - CABECERA;
+        if (longitud > MAXIMO_TRAMA) {
+            throw new IllegalArgumentException("MENSAJE DEMASIADO GRANDE: " + longitud + " BYTES");
+        }
+        byte[] trama = buffer.copiar();
+        escribirEntero(trama, 0, longitud);
+
+        // NO DEJO QUE UN MENSAJE ENORME SE QUEDE OCUPANDO MEMORIA EN EL HILO
+        if (buffer.capacidad() > MAXIMO_BUFFER_RETENIDO) {
+            CODIFICADORES.remove();
+        }
+        return trama;
+    }
+
+    /**
+     * CREO LA TRAMA DE UNA CONFIRMACION COPIANDO LA PLANTILLA,
+     * SIN PASAR POR EL SERIALIZADOR.
+     *
+     * @param idMensaje IDENTIFICADOR CONFIRMADO
+     * @return TRAMA DE LA CONFIRMACION
+     */
+    static byte[] tramaConfirmacion(long idMensaje) {
+        byte[] trama = PLANTILLA_CONFIRMACION.clone();
+        escribirEntero(trama, POSICION_ID, (int) (idMensaje >>> 32));
+        escribirEntero(trama, POSICION_ID + 4, (int) idMensaje);
+        return trama;
+    }
+
+    /**
+     * ESCRIBO UN ENTERO EN ORDEN DE RED.
+     */
+    private static void escribirEntero(byte[] destino, int pos, int valor) {
+        destino[pos] = (byte) (valor >>> 24);
+        destino[pos + 1] = (byte) (valor >>> 16);
+        destino[pos + 2] = (byte) (valor >>> 8);
+        destino[pos + 3] = (byte) valor;
+    }
+
+    /**
+     * BUSCO LOS BYTES DEL MARCADOR EN LA PLANTILLA.
+     */
+    private static int buscarMarcador(byte[] trama) {
+        for (int i = CABECERA; i + 8 <= trama.length; i++) {
+            long valor = 0;
+            for (int k = 0; k < 8; k++) {
+                valor = (valor << 8) | (trama[i + k] & 0xFF);
+            }
+            if (valor == MARCADOR) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("NO ENCUENTRO EL IDENTIFICADOR EN LA PLANTILLA DE CONFIRMACION");
+    }
+
+    /**
+     * BUFFER Y SERIALIZADOR QUE REUTILIZA UN HILO.
+     */
+    private static class Codificador {
+        final SalidaReutilizable buffer = new SalidaReutilizable();
+        final ObjectOutputStream serializador;
+
+        Codificador() {
+            try {
+                serializador = new ObjectOutputStream(buffer);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * BUFFER EN MEMORIA QUE SE VACIA SIN SOLTAR SU ARRAY.
+     */
+    private static class SalidaReutilizable extends ByteArrayOutputStream {
+
+        SalidaReutilizable() {
+            super(1024);
+        }
+
+        byte[] copiar() {
+            return Arrays.copyOf(buf, count);
+        }
+
+        int capacidad() {
+            return buf.length;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package es.ubu.lsi.common;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+/**
+ * CONFIGURACION TLS COMPARTIDA POR TODAS LAS CONEXIONES DE UN EXTREMO.
+ * GUARDA EL SSLCONTEXT (Y CON EL LA CACHE DE SESIONES) PARA QUE LOS
+ * CLIENTES QUE SE RECONECTAN REANUDEN LA SESION EN LUGAR DE HACER
+ * UN HANDSHAKE COMPLETO.
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public class ContextoTls {
+
+    /** TAMAÑO POR DEFECTO DE LA CACHE DE SESIONES DEL SERVIDOR */
+    public static final int TAMANO_CACHE = 10000;
+
+    /** SEGUNDOS QUE UNA SESION SIGUE SIENDO REANUDABLE */
+    public static final int CADUCIDAD_SESION = 3600;
+
+    /** CONTEXTO SSL CON LAS CLAVES Y LA CACHE DE SESIONES */
+    private final SSLContext contexto;
+
+    /** INDICA SI EL CONTEXTO ES DEL LADO SERVIDOR */
+    private final boolean servidor;
+
+    /** METRICAS DE LOS HANDSHAKES HECHOS CON ESTE CONTEXTO */
+    private final MetricasTls metricas = new MetricasTls();
+
+    /**
+     * CONSTRUCTOR A PARTIR DE UN CONTEXTO YA CREADO.
+     *
+     * @param contexto CONTEXTO SSL INICIALIZADO
+     * @param servidor TRUE SI LOS MOTORES SERAN DE SERVIDOR
+     */
+    public ContextoTls(SSLContext contexto, boolean servidor) {
+        this.contexto = contexto;
+        this.servidor = servidor;
+        configurarCache(TAMANO_CACHE, CADUCIDAD_SESION);
+    }
+
+    /**
+     * CREA EL CONTEXTO DEL SERVIDOR A PARTIR DE UN ALMACEN PKCS12
+     * CON LA CLAVE PRIVADA Y EL CERTIFICADO (PUEDE SER AUTOFIRMADO).
+     *
+     * @param almacen RUTA DEL ALMACEN DE CLAVES
+     * @param clave CONTRASEÑA DEL ALMACEN
+     * @return CONTEXTO PARA EL SERVIDOR
+     * @throws IOException SI NO SE PUEDE LEER EL ALMACEN O NO ES VALIDO
+     */
+    public static ContextoTls paraServidor(Path almacen, char[] clave) throws IOException {
+        try {
+            KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            kmf.init(cargarAlmacen(almacen, clave), clave);
+            SSLContext contexto = SSLContext.getInstance("TLS");
+            contexto.init(kmf.getKeyManagers(), null, null);
+            return new ContextoTls(contexto, true);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("ALMACEN DE CLAVES NO VALIDO: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * CREA EL CONTEXTO DEL CLIENTE CONFIANDO EN LOS CERTIFICADOS
+     * DEL ALMACEN INDICADO (EL DEL SERVIDOR SI ES AUTOFIRMADO).
+     *
+     * @param almacen RUTA DEL ALMACEN DE CONFIANZA
+     * @param clave CONTRASEÑA DEL ALMACEN
+     * @return CONTEXTO PARA EL CLIENTE
+     * @throws IOException SI NO SE PUEDE LEER EL ALMACEN O NO ES VALIDO
+     */
+    public static ContextoTls paraCliente(Path almacen, char[] clave) throws IOException {
+        try {
+            TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            tmf.init(cargarAlmacen(almacen, clave));
+            SSLContext contexto = SSLContext.getInstance("TLS");
+            contexto.init(null, tmf.getTrustManagers(), null);
+            return new ContextoTls(contexto, false);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("ALMACEN DE CONFIANZA NO VALIDO: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * CARGO UN ALMACEN PKCS12 DESDE DISCO.
+     *
+     * @param ruta RUTA DEL ALMACEN
+     * @param clave CONTRASEÑA DEL ALMACEN
+     * @return ALMACEN CARGADO
+     */
+    private static KeyStore cargarAlmacen(Path ruta, char[] clave) throws IOException, GeneralSecurityException {
+        KeyStore almacen = KeyStore.getInstance("PKCS12");
+        try (InputStream in = Files.newInputStream(ruta)) {
+            almacen.load(in, clave);
+        }
+        return almacen;
+    }
+
+    /**
+     * CONFIGURA LA CACHE DE SESIONES DEL LADO QUE CORRESPONDA.
+     *
+     * @param tamano NUMERO MAXIMO DE SESIONES GUARDADAS
+     * @param caducidad SEGUNDOS DE VIDA DE CADA SESION
+     */
+    public void configurarCache(int tamano, int caducidad) {
+        SSLSessionContext sesiones = servidor
+                ? contexto.getServerSessionContext()
+                : contexto.getClientSessionContext();
+        sesiones.setSessionCacheSize(tamano);
+        sesiones.setSessionTimeout(caducidad);
+    }
+
+    /**
+     * CREA UN MOTOR PARA UNA CONEXION NUEVA.
+     * EN EL CLIENTE SE INDICA EL DESTINO PARA QUE JSSE ENCUENTRE
+     * LA SESION ANTERIOR EN SU CACHE Y PUEDA REANUDARLA.
+     *
+     * @param host HOST DEL OTRO EXTREMO (SOLO CLIENTE)
+     * @param puerto PUERTO DEL OTRO EXTREMO (SOLO CLIENTE)
+     * @return MOTOR SSL LISTO PARA EL HANDSHAKE
+     */
+    public SSLEngine crearMotor(String host, int puerto) {
+        SSLEngine motor = servidor ? contexto.createSSLEngine() : contexto.createSSLEngine(host, puerto);
+        motor.setUseClientMode(!servidor);
+        return motor;
+    }
+
+    /**
+     * @return TRUE SI EL CONTEXTO ES DEL SERVIDOR
+     */
+    public boolean esServidor() {
+        return servidor;
+    }
+
+    /**
+     * @return METRICAS DE LOS HANDSHAKES
+     */
+    public MetricasTls getMetricas() {
+        return metricas;
+    }
+}
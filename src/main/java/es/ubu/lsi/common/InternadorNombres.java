@@ -0,0 +1,48 @@
+package es.ubu.lsi.common;
+
+/**
+ * TABLA PARA COMPARTIR UNA SOLA INSTANCIA DE CADA NICKNAME.
+ * CADA MENSAJE DESERIALIZADO TRAE SU PROPIA COPIA DEL REMITENTE;
+ * AL PASARLA POR AQUI SE QUEDA LA QUE YA CONOCIAMOS Y LA NUEVA SE
+ * PUEDE RECOGER ENSEGUIDA. LA TABLA TIENE TAMAÑO FIJO Y SI DOS
+ * NOMBRES CAEN EN LA MISMA POSICION EL NUEVO SUSTITUYE AL ANTIGUO,
+ * ASI QUE LA BUSQUEDA NO CREA OBJETOS Y LA MEMORIA ESTA ACOTADA.
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public final class InternadorNombres {
+
+    /** POSICIONES DE LA TABLA (POTENCIA DE DOS) */
+    private static final int TAMANO = 4096;
+
+    /** NOMBRES CONOCIDOS. LAS CARRERAS SOLO CUESTAN UNA COPIA DE MAS */
+    private static final String[] TABLA = new String[TAMANO];
+
+    /**
+     * CONSTRUCTOR PRIVADO, SOLO TIENE METODOS ESTATICOS.
+     */
+    private InternadorNombres() {
+    }
+
+    /**
+     * DEVUELVO LA INSTANCIA COMPARTIDA DE UN NOMBRE.
+     *
+     * @param nombre NOMBRE A INTERNAR (PUEDE SER NULL)
+     * @return INSTANCIA IGUAL AL NOMBRE QUE YA ESTABA EN LA TABLA, O EL PROPIO NOMBRE
+     */
+    public static String internar(String nombre) {
+        if (nombre == null) {
+            return null;
+        }
+        int h = nombre.hashCode();
+        int pos = (h ^ (h >>> 16)) & (TAMANO - 1);
+        String conocido = TABLA[pos];
+        if (conocido != null && conocido.equals(nombre)) {
+            return conocido;
+        }
+        TABLA[pos] = nombre;
+        return nombre;
+    }
+}
@@ -0,0 +1,315 @@
+package es.ubu.lsi.common;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * LEE LAS TRAMAS QUE ESCRIBE CODECMENSAJES DESDE UN FLUJO.
+ * CADA CONEXION TIENE SU LECTOR, QUE REUTILIZA EL MISMO BUFFER
+ * PARA TODAS LAS TRAMAS Y SOLO LO AGRANDA SI LLEGA UNA MAYOR.
+ * LAS TRAMAS DE FICHERO SE DEVUELVEN COMO UN MENSAJE FRAGMENTO_FICHERO
+ * Y SUS BYTES SE COPIAN DESPUES CON COPIARFRAGMENTO O SE DESCARTAN.
+ * SI LA TRAMA VIENE ETIQUETADA CON UNA SESION DE PASARELA (O ES UN
+ * BROADCAST PARA UNA PASARELA), LA ETIQUETA SE CONSULTA DESPUES DE LEERLA.
+ * LO QUE LLEGA DEL OTRO EXTREMO NO ES DE FIAR: UNA LONGITUD MAYOR QUE EL
+ * MAXIMO SE RECHAZA ANTES DE LEER LA TRAMA Y EL DESERIALIZADOR SOLO
+ * ADMITE LAS CLASES DE UN MENSAJE, SIN ANIDAR NI ARRAYS.
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public class LectorTramas implements Closeable {
+
+    /** TAMAÑO INICIAL DEL BUFFER DE TRAMAS */
+    private static final int TAMANO_INICIAL = 1024;
+
+    /** TAMAÑO A PARTIR DEL CUAL EL BUFFER NO SE CONSERVA ENTRE TRAMAS */
+    private static final int MAXIMO_BUFFER_RETENIDO = 64 * 1024;
+
+    /** CLASES Y LIMITES QUE SE ADMITEN AL DESERIALIZAR UNA TRAMA (EL ENUM CUENTA UN NIVEL MAS POR SU SUPERCLASE) */
+    public static final ObjectInputFilter FILTRO = ObjectInputFilter.Config.createFilter(
+            "maxdepth=3;maxrefs=32;maxarray=0;"
+                    + "es.ubu.lsi.common.ChatMessage;es.ubu.lsi.common.MessageType;"
+                    + "java.lang.Enum;java.lang.String;!*");
+
+    /** TAMAÑO MAXIMO DE LAS TRAMAS DE MENSAJE QUE ACEPTA ESTE LECTOR */
+    private final int maximoTrama;
+
+    /** TRAMAS RECHAZADAS POR TAMAÑO O POR CONTENIDO */
+    private int rechazadas;
+
+    /** FLUJO DE ENTRADA CON BUFFER */
+    private final DataInputStream entrada;
+
+    /** VISTA DEL BUFFER DE TRAMAS PARA EL DESERIALIZADOR */
+    private final EntradaReutilizable vista = new EntradaReutilizable();
+
+    /** BUFFER DONDE SE LEE CADA TRAMA */
+    private byte[] buffer = new byte[TAMANO_INICIAL];
+
+    /** BYTES DEL ULTIMO FRAGMENTO QUE AUN NO SE HAN LEIDO */
+    private int pendientesFragmento;
+
+    /** LONGITUD DEL ULTIMO FRAGMENTO LEIDO */
+    private int longitudFragmento;
+
+    /** LONGITUD DE LA ULTIMA TRAMA DE MENSAJE LEIDA */
+    private int longitudTrama;
+
+    /** SESION DE PASARELA DE LA ULTIMA TRAMA (0 SI NO IBA ETIQUETADA) */
+    private int sesion;
+
+    /** SESIONES EXCLUIDAS SI LA ULTIMA TRAMA ERA UN BROADCAST DE PASARELA, SI NO NULL */
+    private int[] excluidas;
+
+    /** ARRAY COMPARTIDO PARA LOS BROADCAST QUE NO EXCLUYEN A NADIE */
+    private static final int[] NINGUNA = new int[0];
+
+    /**
+     * CONSTRUCTOR DEL LECTOR.
+     *
+     * @param entrada FLUJO DEL QUE SE LEEN LAS TRAMAS
+     */
+    public LectorTramas(InputStream entrada) {
+        this(entrada, CodecMensajes.MAXIMO_TRAMA);
+    }
+
+    /**
+     * CONSTRUCTOR DEL LECTOR CON UN TAMAÑO MAXIMO DE TRAMA PROPIO.
+     *
+     * @param entrada FLUJO DEL QUE SE LEEN LAS TRAMAS
+     * @param maximoTrama TAMAÑO MAXIMO DE UNA TRAMA DE MENSAJE, HASTA CODECMENSAJES.MAXIMO_TRAMA
+     */
+    public LectorTramas(InputStream entrada, int maximoTrama) {
+        if (maximoTrama <= 0 || maximoTrama > CodecMensajes.MAXIMO_TRAMA) {
+            throw new IllegalArgumentException("TAMAÑO MAXIMO DE TRAMA NO VALIDO: " + maximoTrama);
+        }
+        this.entrada = new DataInputStream(new BufferedInputStream(entrada, 8192));
+        this.maximoTrama = maximoTrama;
+    }
+
+    /**
+     * LEO EL SIGUIENTE MENSAJE.
+     *
+     * @return MENSAJE LEIDO, O NULL SI EL OTRO EXTREMO CERRO LA CONEXION
+     * @throws IOException SI FALLA LA LECTURA O LA TRAMA NO ES VALIDA
+     * @throws ClassNotFoundException SI LA TRAMA TRAE UNA CLASE DESCONOCIDA
+     */
+    public ChatMessage leer() throws IOException, ClassNotFoundException {
+        // SI NADIE QUISO EL FRAGMENTO ANTERIOR, ME LO SALTO
+        if (pendientesFragmento > 0) {
+            descartarFragmento();
+        }
+
+        int longitud;
+        try {
+            longitud = entrada.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+
+        // LA ETIQUETA DE PASARELA VA DELANTE DE UNA TRAMA NORMAL
+        sesion = 0;
+        excluidas = null;
+        if (longitud == CodecMensajes.TRAMA_SESION) {
+            sesion = entrada.readInt();
+            if (sesion <= 0) {
+                throw new StreamCorruptedException("SESION NO VALIDA: " + sesion);
+            }
+            longitud = entrada.readInt();
+        } else if (longitud == CodecMensajes.TRAMA_DIFUSION) {
+            excluidas = leerExcluidas();
+            longitud = entrada.readInt();
+        }
+
+        if (longitud == CodecMensajes.TRAMA_FRAGMENTO) {
+            return leerCabeceraFragmento();
+        }
+        // LA LONGITUD SE MIRA ANTES DE RESERVAR NADA PARA LA TRAMA
+        if (longitud <= 0 || longitud > maximoTrama) {
+            rechazadas++;
+            throw new StreamCorruptedException("TRAMA DE LONGITUD NO VALIDA: " + longitud);
+        }
+
+        if (longitud > buffer.length) {
+            buffer = new byte[Math.min(maximoTrama, Math.max(longitud, buffer.length * 2))];
+        }
+        entrada.readFully(buffer, 0, longitud);
+        longitudTrama = longitud;
+        vista.apuntar(buffer, longitud);
+        ObjectInputStream deserializador = new ObjectInputStream(vista);
+        deserializador.setObjectInputFilter(FILTRO);
+        Object objeto;
+        try {
+            objeto = deserializador.readObject();
+        } catch (InvalidClassException | ClassNotFoundException e) {
+            // CLASE BLOQUEADA POR EL FILTRO O QUE NO EXISTE AQUI
+            rechazadas++;
+            throw e;
+        }
+        if (!(objeto instanceof ChatMessage)) {
+            rechazadas++;
+            throw new StreamCorruptedException("LA TRAMA NO ES UN MENSAJE: "
+                    + (objeto == null ? "null" : objeto.getClass().getName()));
+        }
+        ChatMessage mensaje = (ChatMessage) objeto;
+
+        // SI HA LLEGADO UNA TRAMA ENORME NO ME QUEDO CON SU BUFFER
+        if (buffer.length > MAXIMO_BUFFER_RETENIDO) {
+            buffer = new byte[TAMANO_INICIAL];
+        }
+        return mensaje;
+    }
+
+    /**
+     * LEO LAS SESIONES QUE SE SALTA UN BROADCAST DE PASARELA.
+     */
+    private int[] leerExcluidas() throws IOException {
+        int cuantas = entrada.readInt();
+        if (cuantas < 0 || cuantas > CodecMensajes.MAXIMO_EXCLUIDAS) {
+            throw new StreamCorruptedException("NUMERO DE SESIONES EXCLUIDAS NO VALIDO: " + cuantas);
+        }
+        if (cuantas == 0) {
+            return NINGUNA;
+        }
+        int[] lista = new int[cuantas];
+        for (int i = 0; i < cuantas; i++) {
+            lista[i] = entrada.readInt();
+        }
+        return lista;
+    }
+
+    /**
+     * LEO LA CABECERA DE UNA TRAMA DE FICHERO.
+     */
+    private ChatMessage leerCabeceraFragmento() throws IOException {
+        long idTransferencia = entrada.readLong();
+        int longitud = entrada.readInt();
+        if (longitud < 0 || longitud > CodecMensajes.TAMANO_FRAGMENTO) {
+            throw new StreamCorruptedException("FRAGMENTO DE LONGITUD NO VALIDA: " + longitud);
+        }
+        longitudFragmento = longitud;
+        pendientesFragmento = longitud;
+        return new ChatMessage(null, null, MessageType.FRAGMENTO_FICHERO, null, idTransferencia);
+    }
+
+    /**
+     * @return BYTES DE LA ULTIMA TRAMA DE MENSAJE LEIDA, SIN LA CABECERA
+     */
+    public int getLongitudTrama() {
+        return longitudTrama;
+    }
+
+    /**
+     * @return TRAMAS RECHAZADAS EN ESTA CONEXION POR TAMAÑO O POR CONTENIDO
+     */
+    public int getRechazadas() {
+        return rechazadas;
+    }
+
+    /**
+     * @return SESION DE PASARELA DE LA ULTIMA TRAMA, 0 SI NO IBA ETIQUETADA
+     */
+    public int getSesion() {
+        return sesion;
+    }
+
+    /**
+     * @return TRUE SI LA ULTIMA TRAMA ERA UN BROADCAST PARA TODA UNA PASARELA
+     */
+    public boolean isDifusion() {
+        return excluidas != null;
+    }
+
+    /**
+     * @return SESIONES QUE SE SALTA EL ULTIMO BROADCAST DE PASARELA (NO SE DEBE MODIFICAR)
+     */
+    public int[] getExcluidas() {
+        return excluidas;
+    }
+
+    /**
+     * @return BYTES DEL ULTIMO FRAGMENTO LEIDO (0 SI ERA EL FINAL DEL FICHERO)
+     */
+    public int getLongitudFragmento() {
+        return longitudFragmento;
+    }
+
+    /**
+     * COPIO LOS BYTES DEL ULTIMO FRAGMENTO A UN CANAL.
+     *
+     * @param destino CANAL DONDE SE ESCRIBEN (NORMALMENTE UN FICHERO)
+     * @return BYTES COPIADOS
+     * @throws IOException SI FALLA LA LECTURA O LA ESCRITURA
+     */
+    public int copiarFragmento(WritableByteChannel destino) throws IOException {
+        int copiados = 0;
+        while (pendientesFragmento > 0) {
+            int trozo = leerTrozoFragmento();
+            ByteBuffer datos = ByteBuffer.wrap(buffer, 0, trozo);
+            while (datos.hasRemaining()) {
+                destino.write(datos);
+            }
+            copiados += trozo;
+        }
+        return copiados;
+    }
+
+    /**
+     * ME SALTO LOS BYTES DEL ULTIMO FRAGMENTO.
+     *
+     * @throws IOException SI FALLA LA LECTURA
+     */
+    public void descartarFragmento() throws IOException {
+        while (pendientesFragmento > 0) {
+            leerTrozoFragmento();
+        }
+    }
+
+    /**
+     * LEO EN EL BUFFER TODO LO QUE QUEPA DEL FRAGMENTO PENDIENTE.
+     */
+    private int leerTrozoFragmento() throws IOException {
+        if (buffer.length < pendientesFragmento && buffer.length < CodecMensajes.TAMANO_FRAGMENTO) {
+            buffer = new byte[CodecMensajes.TAMANO_FRAGMENTO];
+        }
+        int trozo = Math.min(pendientesFragmento, buffer.length);
+        entrada.readFully(buffer, 0, trozo);
+        pendientesFragmento -= trozo;
+        return trozo;
+    }
+
+    @Override
+    public void close() throws IOException {
+        entrada.close();
+    }
+
+    /**
+     * FLUJO EN MEMORIA QUE SE PUEDE APUNTAR A OTRO TROZO DEL BUFFER.
+     */
+    private static class EntradaReutilizable extends ByteArrayInputStream {
+
+        EntradaReutilizable() {
+            super(new byte[0]);
+        }
+
+        void apuntar(byte[] datos, int longitud) {
+            buf = datos;
+            pos = 0;
+            mark = 0;
+            count = longitud;
+        }
+    }
+}
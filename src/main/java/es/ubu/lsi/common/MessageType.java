@@ -46,6 +46,8 @@ public enum MessageType implements Serializable {
     /**
      * MENSAJE PARA BLOQUEAR A UN USUARIO.
      * INDICA QUE NO SE DESEAN RECIBIR MENSAJES DE ESE USUARIO.
+     * AL HACER LOGIN EL SERVIDOR LO ENVIA AL CLIENTE CON LOS BLOQUEOS
+     * GUARDADOS DE OTRAS SESIONES, UN USUARIO POR LINEA.
      */
     BAN,
 
@@ -53,5 +55,58 @@ public enum MessageType implements Serializable {
      * MENSAJE PARA DESBLOQUEAR A UN USUARIO.
      * PERMITE VOLVER A RECIBIR MENSAJES DE UN USUARIO BLOQUEADO.
      */
-    UNBAN;
+    UNBAN,
+
+    /**
+     * CONFIRMACION DEL SERVIDOR DE QUE HA RECIBIDO UN MENSAJE.
+     * LLEVA EL IDENTIFICADOR DEL MENSAJE CONFIRMADO PARA QUE
+     * EL CLIENTE DEJE DE REINTENTAR SU ENVIO.
+     */
+    ACK,
+
+    /**
+     * PETICION DE BUSQUEDA EN EL HISTORICO DE MENSAJES.
+     * EL CONTENIDO ES LA CONSULTA (TERMINOS Y FILTROS DE:, DESDE:, HASTA:, PAGINA:).
+     */
+    BUSQUEDA,
+
+    /**
+     * RESPUESTA DEL SERVIDOR A UNA BUSQUEDA.
+     * EL CONTENIDO ES UNA PAGINA DE RESULTADOS, UNO POR LINEA.
+     */
+    RESULTADO_BUSQUEDA,
+
+    /**
+     * OFERTA DE UN FICHERO.
+     * EL CONTENIDO ES "TAMAÑO NOMBRE" Y EL IDENTIFICADOR ES EL DE LA
+     * TRANSFERENCIA. SIN DESTINATARIO SE OFRECE A TODOS.
+     */
+    OFERTA_FICHERO,
+
+    /**
+     * ACEPTACION DE UN FICHERO OFRECIDO.
+     * EL CONTENIDO ES EL IDENTIFICADOR DE LA OFERTA.
+     */
+    ACEPTAR_FICHERO,
+
+    /**
+     * TROZO DE UN FICHERO. NO VIAJA SERIALIZADO: ES LA CABECERA DE UNA
+     * TRAMA DE BYTES EN BRUTO Y SU IDENTIFICADOR ES EL DE LA TRANSFERENCIA.
+     * UN TROZO VACIO MARCA EL FINAL DEL FICHERO.
+     */
+    FRAGMENTO_FICHERO,
+
+    /**
+     * AVISO DEL SERVIDOR DE QUE OTRO PROCESO LE RELEVA.
+     * EL CONTENIDO SON LOS MILISEGUNDOS QUE EL CLIENTE DEBE ESPERAR
+     * ANTES DE VOLVER A CONECTARSE, SIN LOGOUT, AL MISMO PUERTO.
+     */
+    RECONECTAR,
+
+    /**
+     * CREDITO DE ENVIO QUE CONCEDE EL SERVIDOR CUANDO ESTA SOBRECARGADO.
+     * EL CONTENIDO SON LOS MENSAJES NORMALES QUE EL CLIENTE PUEDE ENVIAR
+     * HASTA LA SIGUIENTE CONCESION, 0 PARA QUE ESPERE Y -1 SIN LIMITE.
+     */
+    CREDITO;
 }
\ No newline at end of file
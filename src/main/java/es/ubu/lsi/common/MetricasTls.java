@@ -0,0 +1,109 @@
+package es.ubu.lsi.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * METRICAS DE LOS HANDSHAKES TLS.
+ * CUENTA LOS HANDSHAKES COMPLETOS, LOS REANUDADOS Y LOS FALLIDOS
+ * PARA CALCULAR LA TASA DE HANDSHAKES Y EL RATIO DE REANUDACION.
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public class MetricasTls {
+
+    /** INSTANTE EN EL QUE SE EMPEZO A MEDIR */
+    private final long inicio = System.nanoTime();
+
+    /** HANDSHAKES TERMINADOS CON EXITO */
+    private final AtomicLong handshakes = new AtomicLong();
+
+    /** HANDSHAKES QUE REANUDARON UNA SESION ANTERIOR */
+    private final AtomicLong reanudados = new AtomicLong();
+
+    /** HANDSHAKES QUE FALLARON */
+    private final AtomicLong fallidos = new AtomicLong();
+
+    /** NANOSEGUNDOS ACUMULADOS EN HANDSHAKES */
+    private final AtomicLong nanosHandshake = new AtomicLong();
+
+    /**
+     * REGISTRA UN HANDSHAKE TERMINADO.
+     *
+     * @param reanudado TRUE SI SE REUTILIZO UNA SESION ANTERIOR
+     * @param nanos DURACION DEL HANDSHAKE
+     */
+    public void registrarHandshake(boolean reanudado, long nanos) {
+        handshakes.incrementAndGet();
+        nanosHandshake.addAndGet(nanos);
+        if (reanudado) {
+            reanudados.incrementAndGet();
+        }
+    }
+
+    /**
+     * REGISTRA UN HANDSHAKE FALLIDO.
+     */
+    public void registrarFallo() {
+        fallidos.incrementAndGet();
+    }
+
+    /**
+     * @return NUMERO DE HANDSHAKES TERMINADOS
+     */
+    public long getHandshakes() {
+        return handshakes.get();
+    }
+
+    /**
+     * @return NUMERO DE HANDSHAKES REANUDADOS
+     */
+    public long getReanudados() {
+        return reanudados.get();
+    }
+
+    /**
+     * @return NUMERO DE HANDSHAKES FALLIDOS
+     */
+    public long getFallidos() {
+        return fallidos.get();
+    }
+
+    /**
+     * CALCULA LOS HANDSHAKES POR SEGUNDO DESDE QUE SE EMPEZO A MEDIR.
+     *
+     * @return TASA DE HANDSHAKES POR SEGUNDO
+     */
+    public double getTasaHandshakes() {
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+        return segundos <= 0 ? 0 : handshakes.get() / segundos;
+    }
+
+    /**
+     * CALCULA LA PROPORCION DE HANDSHAKES QUE REANUDARON SESION.
+     *
+     * @return RATIO ENTRE 0 Y 1
+     */
+    public double getRatioReanudacion() {
+        long total = handshakes.get();
+        return total == 0 ? 0 : (double) reanudados.get() / total;
+    }
+
+    /**
+     * CALCULA LA DURACION MEDIA DE UN HANDSHAKE.
+     *
+     * @return MILISEGUNDOS POR HANDSHAKE
+     */
+    public double getMediaMilisHandshake() {
+        long total = handshakes.get();
+        return total == 0 ? 0 : nanosHandshake.get() / 1e6 / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("handshakes=%d reanudados=%d fallidos=%d tasa=%.2f/s ratio=%.2f media=%.2fms",
+                getHandshakes(), getReanudados(), getFallidos(),
+                getTasaHandshakes(), getRatioReanudacion(), getMediaMilisHandshake());
+    }
+}
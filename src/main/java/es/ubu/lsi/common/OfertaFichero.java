@@ -0,0 +1,74 @@
+package es.ubu.lsi.common;
+
+/**
+ * FORMATO DE LAS OFERTAS DE FICHERO.
+ * EL CONTENIDO DEL MENSAJE ES EL TAMAÑO EN BYTES, UN ESPACIO Y EL
+ * NOMBRE DEL FICHERO (QUE PUEDE LLEVAR ESPACIOS).
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public final class OfertaFichero {
+
+    /**
+     * CONSTRUCTOR PRIVADO, SOLO TIENE METODOS ESTATICOS.
+     */
+    private OfertaFichero() {
+    }
+
+    /**
+     * CREO EL MENSAJE DE UNA OFERTA.
+     *
+     * @param remitente USUARIO QUE OFRECE EL FICHERO
+     * @param nombre NOMBRE DEL FICHERO, SIN DIRECTORIOS
+     * @param tamano TAMAÑO EN BYTES
+     * @param destinatario USUARIO AL QUE SE OFRECE, NULL PARA TODOS
+     * @param idTransferencia IDENTIFICADOR DE LA TRANSFERENCIA
+     * @return MENSAJE OFERTA_FICHERO
+     */
+    public static ChatMessage crear(String remitente, String nombre, long tamano, String destinatario,
+                                    long idTransferencia) {
+        return new ChatMessage(remitente, tamano + " " + nombre, MessageType.OFERTA_FICHERO,
+                destinatario, idTransferencia);
+    }
+
+    /**
+     * @param oferta MENSAJE OFERTA_FICHERO
+     * @return TAMAÑO ANUNCIADO EN BYTES
+     * @throws IllegalArgumentException SI LA OFERTA NO TIENE EL FORMATO ESPERADO
+     */
+    public static long tamanoDe(ChatMessage oferta) {
+        try {
+            return Long.parseLong(oferta.getContenido().substring(0, separador(oferta)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("OFERTA DE FICHERO NO VALIDA: " + oferta.getContenido());
+        }
+    }
+
+    /**
+     * @param oferta MENSAJE OFERTA_FICHERO
+     * @return NOMBRE DEL FICHERO, SIN DIRECTORIOS
+     * @throws IllegalArgumentException SI LA OFERTA NO TIENE EL FORMATO ESPERADO
+     */
+    public static String nombreDe(ChatMessage oferta) {
+        String nombre = oferta.getContenido().substring(separador(oferta) + 1);
+        // NUNCA ME FIO DE LAS RUTAS QUE VIENEN DEL OTRO EXTREMO
+        nombre = nombre.substring(Math.max(nombre.lastIndexOf('/'), nombre.lastIndexOf('\\')) + 1);
+        if (nombre.isEmpty() || nombre.equals(".") || nombre.equals("..")) {
+            throw new IllegalArgumentException("NOMBRE DE FICHERO NO VALIDO");
+        }
+        return nombre;
+    }
+
+    /**
+     * POSICION DEL ESPACIO ENTRE EL TAMAÑO Y EL NOMBRE.
+     */
+    private static int separador(ChatMessage oferta) {
+        int pos = oferta.getContenido() == null ? -1 : oferta.getContenido().indexOf(' ');
+        if (pos <= 0) {
+            throw new IllegalArgumentException("OFERTA DE FICHERO NO VALIDA: " + oferta.getContenido());
+        }
+        return pos;
+    }
+}
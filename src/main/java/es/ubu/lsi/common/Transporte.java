@@ -0,0 +1,81 @@
+package es.ubu.lsi.common;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * CANAL DE TRANSPORTE ENTRE UN CLIENTE Y EL SERVIDOR.
+ * OCULTA SI LA CONEXION VA EN CLARO O CIFRADA PARA QUE
+ * EL CLIENTE Y EL SERVIDOR TRABAJEN SIEMPRE CON FLUJOS.
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public interface Transporte extends Closeable {
+
+    /**
+     * PREPARA EL TRANSPORTE ANTES DE USAR LOS FLUJOS.
+     * EN LOS TRANSPORTES CIFRADOS REALIZA EL HANDSHAKE.
+     *
+     * @throws IOException SI NO SE PUEDE ESTABLECER EL CANAL
+     */
+    default void iniciar() throws IOException {
+        // LOS TRANSPORTES EN CLARO NO NECESITAN PREPARACION
+    }
+
+    /**
+     * OBTIENE EL FLUJO PARA LEER LO QUE LLEGA DEL OTRO EXTREMO.
+     *
+     * @return FLUJO DE ENTRADA
+     */
+    InputStream getEntrada();
+
+    /**
+     * OBTIENE EL FLUJO PARA ESCRIBIR HACIA EL OTRO EXTREMO.
+     *
+     * @return FLUJO DE SALIDA
+     */
+    OutputStream getSalida();
+
+    /**
+     * DESCRIBE EL OTRO EXTREMO PARA LOS MENSAJES DE LOG.
+     *
+     * @return DIRECCION O RUTA DEL OTRO EXTREMO
+     */
+    String getDescripcion();
+
+    /**
+     * ENVIA UN TROZO DE UN FICHERO AL OTRO EXTREMO. POR DEFECTO LO COPIA
+     * POR EL FLUJO DE SALIDA (LOS TRANSPORTES CIFRADOS TIENEN QUE VER LOS
+     * BYTES); LOS TRANSPORTES EN CLARO LO MANDAN SIN PASAR POR EL HEAP.
+     * QUIEN LLAMA DEBE HABER VACIADO ANTES CUALQUIER BUFFER DE SALIDA.
+     *
+     * @param origen FICHERO ABIERTO PARA LECTURA
+     * @param posicion POSICION DEL FICHERO DONDE EMPIEZA EL TROZO
+     * @param cantidad BYTES A ENVIAR
+     * @throws IOException SI FALLA LA LECTURA O EL ENVIO
+     */
+    default void transferir(FileChannel origen, long posicion, long cantidad) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(cantidad, CodecMensajes.TAMANO_FRAGMENTO)];
+        ByteBuffer envoltorio = ByteBuffer.wrap(buffer);
+        OutputStream salida = getSalida();
+        while (cantidad > 0) {
+            envoltorio.clear();
+            envoltorio.limit((int) Math.min(cantidad, buffer.length));
+            int leidos = origen.read(envoltorio, posicion);
+            if (leidos < 0) {
+                throw new EOFException("EL FICHERO ES MAS CORTO DE LO ESPERADO");
+            }
+            salida.write(buffer, 0, leidos);
+            posicion += leidos;
+            cantidad -= leidos;
+        }
+        salida.flush();
+    }
+}
@@ -0,0 +1,180 @@
+package es.ubu.lsi.common;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * TRANSPORTE EN CLARO SOBRE UN SOCKETCHANNEL BLOQUEANTE.
+ * LOS FLUJOS LEEN Y ESCRIBEN DIRECTAMENTE EN EL CANAL PARA QUE
+ * UN HILO PUEDA LEER MIENTRAS OTRO ESCRIBE (LOS FLUJOS DE
+ * CHANNELS COMPARTEN UN CERROJO Y SE BLOQUEARIAN ENTRE SI).
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public class TransporteCanal implements Transporte {
+
+    /** CANAL CONECTADO CON EL OTRO EXTREMO */
+    private final SocketChannel canal;
+
+    /** FLUJO DE ENTRADA SOBRE EL CANAL */
+    private final InputStream entrada;
+
+    /** FLUJO DE SALIDA SOBRE EL CANAL */
+    private final OutputStream salida;
+
+    /**
+     * CONSTRUCTOR DEL TRANSPORTE.
+     *
+     * @param canal CANAL YA CONECTADO
+     */
+    public TransporteCanal(SocketChannel canal) {
+        this.canal = canal;
+        this.entrada = new EntradaCanal();
+        this.salida = new SalidaCanal();
+    }
+
+    @Override
+    public InputStream getEntrada() {
+        return entrada;
+    }
+
+    @Override
+    public OutputStream getSalida() {
+        return salida;
+    }
+
+    @Override
+    public String getDescripcion() {
+        try {
+            // EN LOS SOCKETS UNIX EL CLIENTE NO TIENE NOMBRE: USO LA RUTA DEL SERVIDOR
+            SocketAddress remota = canal.getRemoteAddress();
+            if (remota instanceof UnixDomainSocketAddress) {
+                return "unix:" + canal.getLocalAddress();
+            }
+            return String.valueOf(remota);
+        } catch (IOException e) {
+            return "desconocido";
+        }
+    }
+
+    /**
+     * EL NUCLEO COPIA EL FICHERO AL SOCKET SIN PASAR POR EL HEAP.
+     */
+    @Override
+    public void transferir(FileChannel origen, long posicion, long cantidad) throws IOException {
+        while (cantidad > 0) {
+            long enviados = origen.transferTo(posicion, cantidad, canal);
+            if (enviados == 0 && posicion >= origen.size()) {
+                throw new EOFException("EL FICHERO ES MAS CORTO DE LO ESPERADO");
+            }
+            posicion += enviados;
+            cantidad -= enviados;
+        }
+    }
+
+    /**
+     * OBTIENE EL CANAL SUBYACENTE.
+     *
+     * @return CANAL DEL TRANSPORTE
+     */
+    public SocketChannel getCanal() {
+        return canal;
+    }
+
+    @Override
+    public void close() throws IOException {
+        canal.close();
+    }
+
+    /**
+     * FLUJO DE ENTRADA QUE LEE DEL CANAL SIN CERROJOS COMPARTIDOS.
+     */
+    private class EntradaCanal extends InputStream {
+
+        /** ENVOLTORIO DEL ULTIMO ARRAY, LOS FLUJOS CON BUFFER SIEMPRE PASAN EL MISMO */
+        private ByteBuffer envoltorio = ByteBuffer.allocate(0);
+
+        @Override
+        public int read() throws IOException {
+            byte[] uno = new byte[1];
+            int leidos = read(uno, 0, 1);
+            return leidos < 0 ? -1 : uno[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            ByteBuffer buffer = envolver(b, off, len);
+            int leidos;
+            do {
+                leidos = canal.read(buffer);
+            } while (leidos == 0);
+            return leidos;
+        }
+
+        /**
+         * REUTILIZO EL ENVOLTORIO SI EL ARRAY ES EL MISMO DE LA VEZ ANTERIOR.
+         */
+        private ByteBuffer envolver(byte[] b, int off, int len) {
+            if (!envoltorio.hasArray() || envoltorio.array() != b) {
+                envoltorio = ByteBuffer.wrap(b);
+            }
+            envoltorio.limit(off + len).position(off);
+            return envoltorio;
+        }
+
+        @Override
+        public void close() throws IOException {
+            canal.close();
+        }
+    }
+
+    /**
+     * FLUJO DE SALIDA QUE ESCRIBE EN EL CANAL SIN CERROJOS COMPARTIDOS.
+     */
+    private class SalidaCanal extends OutputStream {
+
+        /** ENVOLTORIO DEL ULTIMO ARRAY, LOS FLUJOS CON BUFFER SIEMPRE PASAN EL MISMO */
+        private ByteBuffer envoltorio = ByteBuffer.allocate(0);
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buffer = envolver(b, off, len);
+            while (buffer.hasRemaining()) {
+                canal.write(buffer);
+            }
+        }
+
+        /**
+         * REUTILIZO EL ENVOLTORIO SI EL ARRAY ES EL MISMO DE LA VEZ ANTERIOR.
+         */
+        private ByteBuffer envolver(byte[] b, int off, int len) {
+            if (!envoltorio.hasArray() || envoltorio.array() != b) {
+                envoltorio = ByteBuffer.wrap(b);
+            }
+            envoltorio.limit(off + len).position(off);
+            return envoltorio;
+        }
+
+        @Override
+        public void close() throws IOException {
+            canal.close();
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package es.ubu.lsi.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * TRANSPORTE EN MEMORIA ENTRE DOS EXTREMOS DE LA MISMA JVM, SIN SOCKETS
+ * NI NUCLEO DE POR MEDIO. CADA SENTIDO ES UNA TUBERIA CON UN BUFFER
+ * CIRCULAR ACOTADO: SI EL QUE LEE NO LEE, EL QUE ESCRIBE SE QUEDA
+ * ESPERANDO COMO CON LA VENTANA DE TCP. SIRVE PARA PROBAR EL SERVIDOR
+ * CON MUCHOS CLIENTES SIN OCUPAR PUERTOS.
+ * AL CERRAR UN EXTREMO, EL OTRO LEE LO QUE QUEDABA Y DESPUES FIN DEL
+ * FLUJO, Y SI INTENTA ESCRIBIR RECIBE UN ERROR.
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public class TransporteMemoria implements Transporte {
+
+    /** BYTES QUE CABEN EN CADA SENTIDO SIN QUE NADIE LOS LEA */
+    public static final int CAPACIDAD = 64 * 1024;
+
+    /** TUBERIA POR LA QUE LLEGA LO DEL OTRO EXTREMO */
+    private final Tuberia entrante;
+
+    /** TUBERIA POR LA QUE VA LO QUE ESCRIBO */
+    private final Tuberia saliente;
+
+    private final String descripcion;
+    private final InputStream entrada;
+    private final OutputStream salida;
+
+    private TransporteMemoria(Tuberia entrante, Tuberia saliente, String descripcion) {
+        this.entrante = entrante;
+        this.saliente = saliente;
+        this.descripcion = descripcion;
+        this.entrada = new EntradaTuberia();
+        this.salida = new SalidaTuberia();
+    }
+
+    /**
+     * CREO LOS DOS EXTREMOS DE UNA CONEXION.
+     *
+     * @param descripcion NOMBRE DE LA CONEXION PARA LOS LOGS
+     * @return EL EXTREMO DEL CLIENTE EN LA POSICION 0 Y EL DEL SERVIDOR EN LA 1
+     */
+    public static TransporteMemoria[] crearPar(String descripcion) {
+        return crearPar(descripcion, CAPACIDAD);
+    }
+
+    /**
+     * CREO LOS DOS EXTREMOS DE UNA CONEXION.
+     *
+     * @param descripcion NOMBRE DE LA CONEXION PARA LOS LOGS
+     * @param capacidad BYTES QUE CABEN EN CADA SENTIDO
+     * @return EL EXTREMO DEL CLIENTE EN LA POSICION 0 Y EL DEL SERVIDOR EN LA 1
+     */
+    public static TransporteMemoria[] crearPar(String descripcion, int capacidad) {
+        Tuberia haciaServidor = new Tuberia(capacidad);
+        Tuberia haciaCliente = new Tuberia(capacidad);
+        return new TransporteMemoria[]{
+                new TransporteMemoria(haciaCliente, haciaServidor, "memoria:" + descripcion),
+                new TransporteMemoria(haciaServidor, haciaCliente, "memoria:" + descripcion)
+        };
+    }
+
+    @Override
+    public InputStream getEntrada() {
+        return entrada;
+    }
+
+    @Override
+    public OutputStream getSalida() {
+        return salida;
+    }
+
+    @Override
+    public String getDescripcion() {
+        return descripcion;
+    }
+
+    /**
+     * @return BYTES ESCRITOS POR EL OTRO EXTREMO QUE AUN NO HE LEIDO
+     */
+    public int getPendientes() {
+        return entrante.disponibles();
+    }
+
+    @Override
+    public void close() {
+        entrante.cerrar();
+        saliente.cerrar();
+    }
+
+    /**
+     * BUFFER CIRCULAR CON UN ESCRITOR Y UN LECTOR QUE SE ESPERAN ENTRE SI.
+     */
+    private static class Tuberia {
+        private final byte[] datos;
+        private int inicio;
+        private int ocupados;
+        private boolean cerrada;
+
+        Tuberia(int capacidad) {
+            if (capacidad < 1) {
+                throw new IllegalArgumentException("LA CAPACIDAD DEBE SER POSITIVA: " + capacidad);
+            }
+            datos = new byte[capacidad];
+        }
+
+        synchronized int leer(byte[] b, int off, int len) throws IOException {
+            while (ocupados == 0 && !cerrada) {
+                esperar();
+            }
+            if (ocupados == 0) {
+                return -1;
+            }
+            int total = Math.min(len, ocupados);
+            int primero = Math.min(total, datos.length - inicio);
+            System.arraycopy(datos, inicio, b, off, primero);
+            System.arraycopy(datos, 0, b, off + primero, total - primero);
+            inicio = (inicio + total) % datos.length;
+            ocupados -= total;
+            notifyAll();
+            return total;
+        }
+
+        synchronized void escribir(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                while (ocupados == datos.length && !cerrada) {
+                    esperar();
+                }
+                if (cerrada) {
+                    throw new IOException("CONEXION EN MEMORIA CERRADA");
+                }
+                int fin = (inicio + ocupados) % datos.length;
+                int trozo = Math.min(len, Math.min(datos.length - ocupados, datos.length - fin));
+                System.arraycopy(b, off, datos, fin, trozo);
+                ocupados += trozo;
+                off += trozo;
+                len -= trozo;
+                notifyAll();
+            }
+        }
+
+        synchronized int disponibles() {
+            return ocupados;
+        }
+
+        synchronized void cerrar() {
+            cerrada = true;
+            notifyAll();
+        }
+
+        private void esperar() throws InterruptedIOException {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("ESPERA INTERRUMPIDA EN LA CONEXION EN MEMORIA");
+            }
+        }
+    }
+
+    /**
+     * FLUJO DE ENTRADA SOBRE LA TUBERIA ENTRANTE.
+     */
+    private class EntradaTuberia extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            byte[] uno = new byte[1];
+            int leidos = read(uno, 0, 1);
+            return leidos < 0 ? -1 : uno[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            return entrante.leer(b, off, len);
+        }
+
+        @Override
+        public int available() {
+            return entrante.disponibles();
+        }
+
+        @Override
+        public void close() {
+            TransporteMemoria.this.close();
+        }
+    }
+
+    /**
+     * FLUJO DE SALIDA SOBRE LA TUBERIA SALIENTE.
+     */
+    private class SalidaTuberia extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            saliente.escribir(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            TransporteMemoria.this.close();
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package es.ubu.lsi.common;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * TRANSPORTE CIFRADO CON TLS CONSTRUIDO SOBRE SSLENGINE.
+ * EL MOTOR SOLO TRABAJA CON BUFFERS, ASI QUE LA MISMA LOGICA DE
+ * WRAP/UNWRAP SIRVE PARA UN CANAL BLOQUEANTE O NO BLOQUEANTE.
+ * LOS HANDSHAKES SE ANOTAN EN LAS METRICAS DEL CONTEXTO, DISTINGUIENDO
+ * LOS QUE REANUDAN UNA SESION DE LA CACHE.
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public class TransporteTls implements Transporte {
+
+    /** BUFFER VACIO PARA LOS WRAP DEL HANDSHAKE */
+    private static final ByteBuffer VACIO = ByteBuffer.allocate(0);
+
+    /** CANAL CONECTADO CON EL OTRO EXTREMO */
+    private final SocketChannel canal;
+
+    /** MOTOR QUE CIFRA Y DESCIFRA LOS REGISTROS */
+    private final SSLEngine motor;
+
+    /** CONTEXTO DEL QUE SALE EL MOTOR (Y DONDE SE ANOTAN LAS METRICAS) */
+    private final ContextoTls contexto;
+
+    /** BYTES CIFRADOS LEIDOS DEL CANAL Y AUN NO PROCESADOS (MODO ESCRITURA) */
+    private ByteBuffer redEntrada;
+
+    /** BYTES DESCIFRADOS PENDIENTES DE ENTREGAR (MODO LECTURA) */
+    private ByteBuffer appEntrada;
+
+    /** BYTES CIFRADOS QUE HAY QUE ESCRIBIR EN EL CANAL */
+    private ByteBuffer redSalida;
+
+    /** CERROJO DE LA PARTE DE LECTURA */
+    private final Object cerrojoLectura = new Object();
+
+    /** CERROJO DE LA PARTE DE ESCRITURA */
+    private final Object cerrojoEscritura = new Object();
+
+    /** FLUJO DE ENTRADA CON LOS DATOS DESCIFRADOS */
+    private final InputStream entrada = new EntradaTls();
+
+    /** FLUJO DE SALIDA QUE CIFRA LO QUE SE ESCRIBE */
+    private final OutputStream salida = new SalidaTls();
+
+    /**
+     * CONSTRUCTOR DEL TRANSPORTE.
+     *
+     * @param canal CANAL YA CONECTADO
+     * @param contexto CONFIGURACION TLS DE ESTE EXTREMO
+     * @param host HOST DEL OTRO EXTREMO (PARA REANUDAR SESION EN EL CLIENTE)
+     * @param puerto PUERTO DEL OTRO EXTREMO
+     */
+    public TransporteTls(SocketChannel canal, ContextoTls contexto, String host, int puerto) {
+        this.canal = canal;
+        this.contexto = contexto;
+        this.motor = contexto.crearMotor(host, puerto);
+
+        SSLSession sesion = motor.getSession();
+        this.redEntrada = ByteBuffer.allocate(sesion.getPacketBufferSize());
+        this.redSalida = ByteBuffer.allocate(sesion.getPacketBufferSize());
+        this.appEntrada = ByteBuffer.allocate(sesion.getApplicationBufferSize());
+        this.appEntrada.limit(0);
+    }
+
+    /**
+     * REALIZA EL HANDSHAKE Y LO ANOTA EN LAS METRICAS.
+     * SI LA SESION YA EXISTIA ANTES DE EMPEZAR, ES UNA REANUDACION.
+     *
+     * @throws IOException SI EL HANDSHAKE FALLA
+     */
+    @Override
+    public void iniciar() throws IOException {
+        long inicioMilis = System.currentTimeMillis();
+        long inicio = System.nanoTime();
+        try {
+            motor.beginHandshake();
+            HandshakeStatus estado = motor.getHandshakeStatus();
+            while (estado != HandshakeStatus.FINISHED && estado != HandshakeStatus.NOT_HANDSHAKING) {
+                switch (estado) {
+                    case NEED_WRAP:
+                        envolver(VACIO);
+                        break;
+                    case NEED_TASK:
+                        ejecutarTareas();
+                        break;
+                    default:
+                        synchronized (cerrojoLectura) {
+                            if (!desenvolver()) {
+                                throw new EOFException("CONEXION CERRADA DURANTE EL HANDSHAKE");
+                            }
+                        }
+                        break;
+                }
+                estado = motor.getHandshakeStatus();
+            }
+        } catch (IOException e) {
+            contexto.getMetricas().registrarFallo();
+            throw e;
+        }
+
+        boolean reanudado = motor.getSession().getCreationTime() < inicioMilis;
+        contexto.getMetricas().registrarHandshake(reanudado, System.nanoTime() - inicio);
+    }
+
+    /**
+     * CIFRO LOS DATOS INDICADOS Y LOS ESCRIBO EN EL CANAL.
+     *
+     * @param datos DATOS EN CLARO (VACIO PARA MENSAJES DEL HANDSHAKE)
+     * @return RESULTADO DEL MOTOR
+     */
+    private SSLEngineResult envolver(ByteBuffer datos) throws IOException {
+        synchronized (cerrojoEscritura) {
+            while (true) {
+                redSalida.clear();
+                SSLEngineResult resultado = motor.wrap(datos, redSalida);
+                if (resultado.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                    redSalida = ByteBuffer.allocate(redSalida.capacity() + motor.getSession().getPacketBufferSize());
+                    continue;
+                }
+
+                // ESCRIBO TODO LO CIFRADO, INCLUIDO EL CLOSE_NOTIFY SI LO HAY
+                redSalida.flip();
+                while (redSalida.hasRemaining()) {
+                    canal.write(redSalida);
+                }
+                return resultado;
+            }
+        }
+    }
+
+    /**
+     * DESCIFRO EL SIGUIENTE REGISTRO, LEYENDO DEL CANAL SI HACE FALTA.
+     * SE LLAMA CON EL CERROJO DE LECTURA COGIDO.
+     *
+     * @return FALSE SI EL OTRO EXTREMO HA CERRADO LA CONEXION
+     */
+    private boolean desenvolver() throws IOException {
+        while (true) {
+            SSLEngineResult resultado;
+            redEntrada.flip();
+            appEntrada.compact();
+            try {
+                resultado = motor.unwrap(redEntrada, appEntrada);
+            } finally {
+                redEntrada.compact();
+                appEntrada.flip();
+            }
+
+            switch (resultado.getStatus()) {
+                case OK:
+                    atenderHandshake(resultado.getHandshakeStatus());
+                    return true;
+
+                case BUFFER_UNDERFLOW:
+                    // FALTAN BYTES DEL REGISTRO: AMPLIO SI NO CABE Y LEO MAS
+                    if (!redEntrada.hasRemaining()) {
+                        redEntrada = ampliar(redEntrada, motor.getSession().getPacketBufferSize(), false);
+                    }
+                    if (canal.read(redEntrada) < 0) {
+                        return false;
+                    }
+                    break;
+
+                case BUFFER_OVERFLOW:
+                    appEntrada = ampliar(appEntrada, motor.getSession().getApplicationBufferSize(), true);
+                    break;
+
+                case CLOSED:
+                default:
+                    return false;
+            }
+        }
+    }
+
+    /**
+     * ATIENDO LO QUE PIDA EL MOTOR DESPUES DE UN UNWRAP
+     * (TAREAS DELEGADAS O RESPUESTAS POSTERIORES AL HANDSHAKE).
+     *
+     * @param estado ESTADO DEL HANDSHAKE DEVUELTO POR EL MOTOR
+     */
+    private void atenderHandshake(HandshakeStatus estado) throws IOException {
+        while (estado == HandshakeStatus.NEED_TASK || estado == HandshakeStatus.NEED_WRAP) {
+            if (estado == HandshakeStatus.NEED_TASK) {
+                ejecutarTareas();
+                estado = motor.getHandshakeStatus();
+            } else {
+                estado = envolver(VACIO).getHandshakeStatus();
+            }
+        }
+    }
+
+    /**
+     * EJECUTO EN ESTE HILO LAS TAREAS LENTAS DEL HANDSHAKE.
+     */
+    private void ejecutarTareas() {
+        Runnable tarea;
+        while ((tarea = motor.getDelegatedTask()) != null) {
+            tarea.run();
+        }
+    }
+
+    /**
+     * AMPLIO UN BUFFER CONSERVANDO SU CONTENIDO.
+     *
+     * @param buffer BUFFER ORIGINAL
+     * @param extra BYTES QUE SE AÑADEN
+     * @param modoLectura TRUE SI EL BUFFER ESTA EN MODO LECTURA
+     * @return BUFFER NUEVO EN EL MISMO MODO
+     */
+    private static ByteBuffer ampliar(ByteBuffer buffer, int extra, boolean modoLectura) {
+        ByteBuffer nuevo = ByteBuffer.allocate(buffer.capacity() + extra);
+        if (!modoLectura) {
+            buffer.flip();
+        }
+        nuevo.put(buffer);
+        if (modoLectura) {
+            nuevo.flip();
+        }
+        return nuevo;
+    }
+
+    @Override
+    public InputStream getEntrada() {
+        return entrada;
+    }
+
+    @Override
+    public OutputStream getSalida() {
+        return salida;
+    }
+
+    @Override
+    public String getDescripcion() {
+        try {
+            return "tls:" + canal.getRemoteAddress();
+        } catch (IOException e) {
+            return "tls:desconocido";
+        }
+    }
+
+    /**
+     * ENVIA EL CLOSE_NOTIFY Y CIERRA EL CANAL.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (canal.isOpen()) {
+                motor.closeOutbound();
+                envolver(VACIO);
+            }
+        } catch (IOException e) {
+            // SI EL OTRO EXTREMO YA CERRO NO PUEDO AVISARLE
+        } finally {
+            canal.close();
+        }
+    }
+
+    /**
+     * FLUJO DE ENTRADA QUE ENTREGA LOS DATOS YA DESCIFRADOS.
+     */
+    private class EntradaTls extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            byte[] uno = new byte[1];
+            int leidos = read(uno, 0, 1);
+            return leidos < 0 ? -1 : uno[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            synchronized (cerrojoLectura) {
+                while (!appEntrada.hasRemaining()) {
+                    if (!desenvolver()) {
+                        return -1;
+                    }
+                }
+                int cantidad = Math.min(len, appEntrada.remaining());
+                appEntrada.get(b, off, cantidad);
+                return cantidad;
+            }
+        }
+
+        @Override
+        public int available() {
+            return appEntrada.remaining();
+        }
+
+        @Override
+        public void close() throws IOException {
+            TransporteTls.this.close();
+        }
+    }
+
+    /**
+     * FLUJO DE SALIDA QUE CIFRA TODO LO QUE SE ESCRIBE.
+     */
+    private class SalidaTls extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer datos = ByteBuffer.wrap(b, off, len);
+            synchronized (cerrojoEscritura) {
+                while (datos.hasRemaining()) {
+                    SSLEngineResult resultado = envolver(datos);
+                    if (resultado.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        throw new SSLException("CONEXION TLS CERRADA");
+                    }
+                    if (resultado.getHandshakeStatus() == HandshakeStatus.NEED_TASK) {
+                        ejecutarTareas();
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            TransporteTls.this.close();
+        }
+    }
+}
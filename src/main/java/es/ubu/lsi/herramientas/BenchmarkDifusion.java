@@ -0,0 +1,132 @@
+package es.ubu.lsi.herramientas;
+
+import es.ubu.lsi.common.ChatMessage;
+import es.ubu.lsi.common.CodecMensajes;
+import es.ubu.lsi.common.MessageType;
+import es.ubu.lsi.server.PlanificadorSalida;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+
+/**
+ * MIDE LOS BYTES QUE SE RESERVAN EN EL SERVIDOR POR CADA MENSAJE
+ * ENTREGADO EN UN BROADCAST, SIN RED DE POR MEDIO: CADA RECEPTOR ES
+ * UNA COLA DE SALIDA Y UN FLUJO QUE DESCARTA LOS BYTES. COMPARA LAS
+ * TRAMAS COMPARTIDAS CON SERIALIZAR EL MENSAJE EN CADA CONEXION.
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public class BenchmarkDifusion {
+
+    /**
+     * METODO PRINCIPAL.
+     *
+     * @param args [RECEPTORES] [MENSAJES]
+     * @throws Exception SI FALLA LA PRUEBA
+     */
+    public static void main(String[] args) throws Exception {
+        int receptores = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int mensajes = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+        // UNA PRIMERA RONDA PARA QUE EL JIT COMPILE ANTES DE MEDIR
+        medirTramas(receptores, mensajes / 10);
+        medirSerializacion(receptores, mensajes / 10);
+
+        System.out.println("MODO                 RECEPTORES  MENSAJES  BYTES/ENTREGA  BYTES/MENSAJE");
+        System.out.println(informe("tramas compartidas", receptores, mensajes, medirTramas(receptores, mensajes)));
+        System.out.println(informe("serializar por cliente", receptores, mensajes, medirSerializacion(receptores, mensajes)));
+    }
+
+    /**
+     * DIFUNDO CON LAS TRAMAS CODIFICADAS UNA VEZ, COMO EL SERVIDOR.
+     *
+     * @return BYTES RESERVADOS POR ESTE HILO
+     */
+    private static long medirTramas(int receptores, int mensajes) throws IOException, InterruptedException {
+        PlanificadorSalida[] colas = new PlanificadorSalida[receptores];
+        OutputStream[] salidas = new OutputStream[receptores];
+        for (int i = 0; i < receptores; i++) {
+            colas[i] = new PlanificadorSalida();
+            salidas[i] = new BufferedOutputStream(new Sumidero(), 8192);
+        }
+
+        ChatMessage[] entrantes = crearMensajes(mensajes);
+        long antes = asignados();
+        for (ChatMessage mensaje : entrantes) {
+            CodecMensajes.preparar(mensaje);
+            for (int i = 0; i < receptores; i++) {
+                colas[i].encolar(mensaje);
+                CodecMensajes.escribir(colas[i].siguiente(), salidas[i]);
+            }
+        }
+        return asignados() - antes;
+    }
+
+    /**
+     * DIFUNDO SERIALIZANDO EL MENSAJE EN EL FLUJO DE CADA CONEXION.
+     *
+     * @return BYTES RESERVADOS POR ESTE HILO
+     */
+    private static long medirSerializacion(int receptores, int mensajes) throws IOException {
+        ObjectOutputStream[] salidas = new ObjectOutputStream[receptores];
+        for (int i = 0; i < receptores; i++) {
+            salidas[i] = new ObjectOutputStream(new BufferedOutputStream(new Sumidero(), 8192));
+        }
+
+        ChatMessage[] entrantes = crearMensajes(mensajes);
+        long antes = asignados();
+        for (ChatMessage mensaje : entrantes) {
+            for (int i = 0; i < receptores; i++) {
+                salidas[i].writeObject(mensaje);
+                salidas[i].reset();
+            }
+        }
+        return asignados() - antes;
+    }
+
+    /**
+     * CREO LOS MENSAJES ANTES DE MEDIR: EN EL SERVIDOR LLEGAN YA LEIDOS.
+     */
+    private static ChatMessage[] crearMensajes(int mensajes) {
+        ChatMessage[] entrantes = new ChatMessage[mensajes];
+        for (int n = 0; n < mensajes; n++) {
+            entrantes[n] = new ChatMessage("emisor", "mensaje de prueba numero " + n, MessageType.MENSAJE);
+        }
+        return entrantes;
+    }
+
+    /**
+     * @return BYTES RESERVADOS HASTA AHORA POR ESTE HILO
+     */
+    private static long asignados() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * FORMATEO UNA LINEA DEL INFORME.
+     */
+    private static String informe(String modo, int receptores, int mensajes, long bytes) {
+        return String.format("%-22s %9d  %8d  %13.1f  %13.1f", modo, receptores, mensajes,
+                bytes / ((double) receptores * mensajes), bytes / (double) mensajes);
+    }
+
+    /**
+     * FLUJO QUE DESCARTA TODO LO QUE SE ESCRIBE.
+     */
+    private static class Sumidero extends OutputStream {
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
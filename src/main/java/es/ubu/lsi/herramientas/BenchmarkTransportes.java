@@ -0,0 +1,133 @@
+package es.ubu.lsi.herramientas;
+
+import es.ubu.lsi.client.ChatClientImpl;
+import es.ubu.lsi.common.ChatMessage;
+import es.ubu.lsi.common.MessageType;
+import es.ubu.lsi.server.ChatServerImpl;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * COMPARA EL TRANSPORTE TCP CON EL SOCKET UNIX SOBRE EL MISMO SERVIDOR.
+ * CONECTA VARIOS RECEPTORES Y UN EMISOR POR CADA TRANSPORTE, ENVIA UNA
+ * RAFAGA DE MENSAJES Y MIDE EL RENDIMIENTO DE ENTREGA Y LA LATENCIA
+ * DE IDA Y VUELTA QUE VE EL EMISOR AL RECIBIR SU PROPIO BROADCAST.
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public class BenchmarkTransportes {
+
+    /** PUERTO TCP DEL SERVIDOR */
+    private static final int PUERTO = 1500;
+
+    /**
+     * METODO PRINCIPAL.
+     *
+     * @param args [RECEPTORES] [MENSAJES] [RUTA DEL SOCKET UNIX]
+     * @throws Exception SI FALLA LA PRUEBA
+     */
+    public static void main(String[] args) throws Exception {
+        int receptores = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int mensajes = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        Path ruta = Paths.get(args.length > 2 ? args[2] : System.getProperty("java.io.tmpdir") + "/chat-bench.sock");
+
+        // ARRANCO EL SERVIDOR ESCUCHANDO EN LOS DOS TRANSPORTES
+        ChatServerImpl servidor = new ChatServerImpl();
+        servidor.setRutaSocketLocal(ruta);
+        Thread hiloServidor = new Thread(servidor::startup, "servidor");
+        hiloServidor.setDaemon(true);
+        hiloServidor.start();
+        Thread.sleep(500);
+
+        String tcp = medir("tcp", null, receptores, mensajes);
+        String unix = medir("unix", ruta, receptores, mensajes);
+
+        servidor.shutdown();
+        System.out.println();
+        System.out.println("TRANSPORTE  RECEPTORES  MENSAJES  ENTREGAS/S  P50(US)  P99(US)");
+        System.out.println(tcp);
+        System.out.println(unix);
+    }
+
+    /**
+     * HAGO UNA RONDA DE MEDIDA CON UN TRANSPORTE.
+     *
+     * @param nombre NOMBRE DEL TRANSPORTE PARA EL INFORME
+     * @param ruta RUTA DEL SOCKET UNIX, NULL PARA TCP
+     * @param receptores NUMERO DE CLIENTES QUE SOLO ESCUCHAN
+     * @param mensajes NUMERO DE MENSAJES DE LA RAFAGA
+     * @return LINEA DEL INFORME
+     */
+    private static String medir(String nombre, Path ruta, int receptores, int mensajes) throws Exception {
+        final String emisor = "emisor-" + nombre;
+        final CountDownLatch entregas = new CountDownLatch(receptores * mensajes);
+        final CountDownLatch ecos = new CountDownLatch(mensajes);
+        final long[] enviados = new long[mensajes];
+        final long[] latencias = new long[mensajes];
+
+        List<ChatClientImpl> clientes = new ArrayList<>();
+        for (int i = 0; i < receptores; i++) {
+            ChatClientImpl receptor = crearCliente(nombre + "-" + i, ruta);
+            receptor.setListener(m -> {
+                if (m.getTipo() == MessageType.MENSAJE && emisor.equals(m.getRemitente())) {
+                    entregas.countDown();
+                }
+            });
+            receptor.conectar();
+            clientes.add(receptor);
+        }
+
+        // EL EMISOR MIDE LA LATENCIA CUANDO LE VUELVE SU PROPIO MENSAJE
+        ChatClientImpl cliente = crearCliente(emisor, ruta);
+        cliente.setListener(m -> {
+            if (m.getTipo() == MessageType.MENSAJE && emisor.equals(m.getRemitente())) {
+                int n = Integer.parseInt(m.getContenido());
+                latencias[n] = System.nanoTime() - enviados[n];
+                ecos.countDown();
+            }
+        });
+        cliente.conectar();
+        clientes.add(cliente);
+        Thread.sleep(300);
+
+        long inicio = System.nanoTime();
+        for (int n = 0; n < mensajes; n++) {
+            enviados[n] = System.nanoTime();
+            cliente.enviarMensaje(new ChatMessage(emisor, Integer.toString(n), MessageType.MENSAJE));
+        }
+        boolean completo = entregas.await(120, TimeUnit.SECONDS) & ecos.await(10, TimeUnit.SECONDS);
+        long duracion = System.nanoTime() - inicio;
+
+        for (ChatClientImpl c : clientes) {
+            c.desconectar();
+        }
+        Thread.sleep(300);
+
+        Arrays.sort(latencias);
+        double porSegundo = (receptores * (double) mensajes - entregas.getCount()) / (duracion / 1e9);
+        return String.format("%-10s  %10d  %8d  %10.0f  %7d  %7d%s", nombre, receptores, mensajes, porSegundo,
+                latencias[mensajes / 2] / 1000, latencias[(int) (mensajes * 0.99)] / 1000,
+                completo ? "" : "  (INCOMPLETO)");
+    }
+
+    /**
+     * CREO UN CLIENTE PARA EL TRANSPORTE INDICADO.
+     *
+     * @param nickname NOMBRE DEL CLIENTE
+     * @param ruta RUTA DEL SOCKET UNIX, NULL PARA TCP
+     * @return CLIENTE SIN CONECTAR
+     */
+    private static ChatClientImpl crearCliente(String nickname, Path ruta) {
+        ChatClientImpl cliente = new ChatClientImpl(nickname, "localhost", PUERTO);
+        cliente.setRutaSocketLocal(ruta);
+        return cliente;
+    }
+}
@@ -0,0 +1,154 @@
+package es.ubu.lsi.herramientas;
+
+import es.ubu.lsi.common.ChatMessage;
+import es.ubu.lsi.common.MessageType;
+import es.ubu.lsi.server.CapturaTrafico;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * CONVIERTE EL LOG DEL SERVIDOR (CHAT_SERVER.LOG, O LA SALIDA DE CONSOLA)
+ * EN UNA CAPTURA DE TRAFICO QUE SE PUEDE REPRODUCIR CON
+ * REPRODUCTORTRAFICO. SOLO SE RECUPERA LO QUE EL SERVIDOR ESCRIBE EN EL
+ * LOG: CONEXIONES, DESCONEXIONES, MENSAJES, PRIVADOS Y BLOQUEOS, CON LA
+ * RESOLUCION DE UN SEGUNDO QUE TIENEN SUS FECHAS. LO DEMAS SE SALTA.
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public class ImportadorLog {
+
+    /** CABECERA DE JAVA.UTIL.LOGGING: "May 05, 2025 1:31:18 PM CLASE METODO" */
+    private static final Pattern CABECERA_JUL =
+            Pattern.compile("^([A-Z][a-z]{2} \\d{1,2}, \\d{4} \\d{1,2}:\\d{2}:\\d{2} [AP]M) .*");
+
+    /** MENSAJE DE JAVA.UTIL.LOGGING: "INFO: texto" */
+    private static final Pattern MENSAJE_JUL = Pattern.compile("^[A-Z]+: (.*)$");
+
+    /** LINEA DE CONSOLA: "[2025-05-05 13:31:18] texto" */
+    private static final Pattern CONSOLA =
+            Pattern.compile("^\\[(\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2})\\] (.*)$");
+
+    private static final Pattern DIFUSION = Pattern.compile("^broadcast: (.+?) -> (.*)$");
+    private static final Pattern PRIVADO = Pattern.compile("^mensaje privado: (.+?) -> (.+?): (.*)$");
+    private static final Pattern BLOQUEO = Pattern.compile("^usuario (.+) ha bloqueado a (.+)$");
+    private static final Pattern DESBLOQUEO = Pattern.compile("^usuario (.+) ha desbloqueado a (.+)$");
+    private static final Pattern CONEXION = Pattern.compile("^EL USUARIO (.+) SE HA CONECTADO$");
+    private static final Pattern DESCONEXION = Pattern.compile("^El usuario (.+) se ha desconectado$");
+
+    /**
+     * LEO UN LOG Y ESCRIBO LA CAPTURA EQUIVALENTE.
+     *
+     * @param log FICHERO DE LOG DEL SERVIDOR
+     * @param captura FICHERO DE CAPTURA A CREAR
+     * @return MENSAJES IMPORTADOS
+     * @throws IOException SI FALLA LA LECTURA O LA ESCRITURA
+     */
+    public static int importar(Path log, Path captura) throws IOException {
+        List<Long> instantes = new ArrayList<>();
+        List<ChatMessage> mensajes = new ArrayList<>();
+        SimpleDateFormat formatoJul = new SimpleDateFormat("MMM dd, yyyy h:mm:ss a", Locale.US);
+        SimpleDateFormat formatoConsola = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+        try (BufferedReader entrada = Files.newBufferedReader(log, StandardCharsets.UTF_8)) {
+            long instante = -1;
+            String linea;
+            while ((linea = entrada.readLine()) != null) {
+                String texto = null;
+                Matcher m;
+                if ((m = CABECERA_JUL.matcher(linea)).matches()) {
+                    instante = fecha(formatoJul, m.group(1), instante);
+                } else if ((m = CONSOLA.matcher(linea)).matches()) {
+                    instante = fecha(formatoConsola, m.group(1), instante);
+                    texto = m.group(2);
+                } else if ((m = MENSAJE_JUL.matcher(linea)).matches()) {
+                    texto = m.group(1);
+                }
+                ChatMessage mensaje = texto != null && instante >= 0 ? interpretar(texto) : null;
+                if (mensaje != null) {
+                    instantes.add(instante);
+                    mensajes.add(mensaje);
+                }
+            }
+        }
+
+        long inicio = instantes.isEmpty() ? System.currentTimeMillis() : instantes.get(0);
+        try (CapturaTrafico salida = new CapturaTrafico(captura, inicio)) {
+            for (int i = 0; i < mensajes.size(); i++) {
+                salida.registrar(mensajes.get(i), (instantes.get(i) - inicio) * 1000);
+            }
+        }
+        return mensajes.size();
+    }
+
+    /**
+     * RECONSTRUYO EL MENSAJE QUE PROVOCO UNA LINEA DEL LOG.
+     *
+     * @param texto TEXTO DE LA LINEA SIN LA FECHA
+     * @return MENSAJE QUE ENVIO EL CLIENTE, O NULL SI LA LINEA NO VIENE DE UNO
+     */
+    static ChatMessage interpretar(String texto) {
+        Matcher m;
+        if ((m = PRIVADO.matcher(texto)).matches()) {
+            return new ChatMessage(m.group(1), m.group(3), MessageType.PRIVADO, m.group(2), 0);
+        }
+        if ((m = BLOQUEO.matcher(texto)).matches()) {
+            return new ChatMessage(m.group(1), m.group(1) + " ha baneado a " + m.group(2),
+                    MessageType.BAN, m.group(2), 0);
+        }
+        if ((m = DESBLOQUEO.matcher(texto)).matches()) {
+            return new ChatMessage(m.group(1), m.group(1) + " ha desbaneado a " + m.group(2),
+                    MessageType.UNBAN, m.group(2), 0);
+        }
+        if (!(m = DIFUSION.matcher(texto)).matches()) {
+            return null;
+        }
+        String remitente = m.group(1);
+        String contenido = m.group(2);
+        if (!remitente.equals("Server")) {
+            return new ChatMessage(remitente, contenido, MessageType.MENSAJE);
+        }
+        // LOS AVISOS DEL SERVIDOR DELATAN LAS CONEXIONES Y DESCONEXIONES; LOS DEMAS (BANEOS...) YA SALEN ARRIBA
+        if ((m = CONEXION.matcher(contenido)).matches()) {
+            return new ChatMessage(m.group(1), "conectandose", MessageType.LOGIN);
+        }
+        if ((m = DESCONEXION.matcher(contenido)).matches()) {
+            return new ChatMessage(m.group(1), "desconectandose", MessageType.LOGOUT);
+        }
+        return null;
+    }
+
+    private static long fecha(SimpleDateFormat formato, String texto, long anterior) {
+        try {
+            return formato.parse(texto).getTime();
+        } catch (ParseException e) {
+            return anterior;
+        }
+    }
+
+    /**
+     * METODO PRINCIPAL.
+     *
+     * @param args [LOG] [CAPTURA]
+     * @throws IOException SI FALLA LA LECTURA O LA ESCRITURA
+     */
+    public static void main(String[] args) throws IOException {
+        Path log = Paths.get(args.length > 0 ? args[0] : "chat_server.log");
+        Path captura = Paths.get(args.length > 1 ? args[1] : "trafico.cap");
+        int importados = importar(log, captura);
+        System.out.println("IMPORTADOS " + importados + " MENSAJES DE " + log + " EN " + captura);
+    }
+}
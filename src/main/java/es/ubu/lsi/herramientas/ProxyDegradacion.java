@@ -0,0 +1,680 @@
+package es.ubu.lsi.herramientas;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PROXY TCP QUE SE PONE ENTRE LOS CLIENTES Y EL SERVIDOR Y EMPEORA LA
+ * RED A PROPOSITO: AÑADE LATENCIA Y JITTER, LIMITA EL ANCHO DE BANDA,
+ * HACE PARONES PERIODICOS Y CORTA CONEXIONES DE GOLPE (RST). SIRVE PARA
+ * VER EN LOCAL COMO SE COMPORTAN BROADCAST() Y ENVIARMENSAJE CON
+ * CLIENTES LENTOS, QUE SOBRE LOOPBACK NO APARECEN NUNCA.
+ *
+ * CADA CONEXION TIENE UN PERFIL (EL NORMAL O EL LENTO, SEGUN LA FRACCION
+ * DE LENTOS) QUE SE APLICA EN LOS DOS SENTIDOS. LOS DATOS EN VUELO POR
+ * SENTIDO ESTAN ACOTADOS, ASI QUE UN CLIENTE LENTO ACABA LLENANDO EL
+ * BUFFER DEL SOCKET DEL SERVIDOR IGUAL QUE LO HARIA UNO REAL.
+ *
+ * <pre>
+ * java es.ubu.lsi.herramientas.ProxyDegradacion 1600 localhost:1500 latencia=20 0.25 latencia=200,jitter=50,ancho=16k
+ * </pre>
+ *
+ * LOS PERFILES SON LISTAS DE CLAVE=VALOR SEPARADAS POR COMAS: latencia Y
+ * jitter EN MILISEGUNDOS, ancho EN BYTES POR SEGUNDO (ADMITE k Y m),
+ * paron=CADA:DURACION EN MILISEGUNDOS, reinicio=PROBABILIDAD DE CORTAR
+ * EN CADA TROZO REENVIADO Y corte=BYTES TRAS LOS QUE SE CORTA SEGURO.
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public class ProxyDegradacion implements Closeable {
+
+    /** BYTES EN VUELO POR SENTIDO ANTES DE DEJAR DE LEER DEL ORIGEN */
+    public static final int MAXIMO_EN_VUELO = 64 * 1024;
+
+    /** TAMAÑO MAXIMO DE CADA TROZO LEIDO */
+    private static final int TROZO = 8 * 1024;
+
+    private final ServerSocket escucha;
+    private final String hostDestino;
+    private final int puertoDestino;
+
+    private volatile Perfil perfil = Perfil.NINGUNO;
+    private volatile Perfil perfilLento = Perfil.NINGUNO;
+    private volatile double fraccionLentos;
+    private volatile long semilla = 1;
+
+    private final Set<Conexion> conexiones = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger numeroConexiones = new AtomicInteger();
+    private final AtomicInteger lentas = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong parones = new AtomicLong();
+    private final AtomicLong reinicios = new AtomicLong();
+    private volatile boolean cerrado;
+
+    /**
+     * CONSTRUCTOR. EL PROXY NO ACEPTA CONEXIONES HASTA LLAMAR A INICIAR().
+     *
+     * @param puerto PUERTO LOCAL DONDE ESCUCHA, 0 PARA UNO LIBRE
+     * @param hostDestino HOST DEL SERVIDOR
+     * @param puertoDestino PUERTO DEL SERVIDOR
+     * @throws IOException SI NO SE PUEDE ABRIR EL PUERTO LOCAL
+     */
+    public ProxyDegradacion(int puerto, String hostDestino, int puertoDestino) throws IOException {
+        this.escucha = new ServerSocket();
+        this.escucha.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), puerto));
+        this.hostDestino = hostDestino;
+        this.puertoDestino = puertoDestino;
+    }
+
+    /**
+     * ARRANCO EL HILO QUE ACEPTA CONEXIONES.
+     */
+    public void iniciar() {
+        Thread aceptador = new Thread(this::aceptar, "proxy-" + getPuerto());
+        aceptador.setDaemon(true);
+        aceptador.start();
+    }
+
+    /**
+     * @return PUERTO LOCAL DONDE ESCUCHA EL PROXY
+     */
+    public int getPuerto() {
+        return escucha.getLocalPort();
+    }
+
+    /**
+     * CAMBIO EL PERFIL DE LAS CONEXIONES NORMALES; AFECTA TAMBIEN A LAS
+     * QUE YA ESTAN ABIERTAS.
+     *
+     * @param perfil NUEVO PERFIL
+     */
+    public void setPerfil(Perfil perfil) {
+        this.perfil = perfil;
+    }
+
+    /**
+     * HAGO LENTA UNA FRACCION DE LAS CONEXIONES NUEVAS. LAS LENTAS SE
+     * REPARTEN DE FORMA REGULAR (CON 0.25, UNA DE CADA CUATRO), Y SU
+     * PERFIL SE PUEDE CAMBIAR CON LAS CONEXIONES YA ABIERTAS.
+     *
+     * @param fraccion FRACCION ENTRE 0 Y 1
+     * @param perfilLento PERFIL DE LAS CONEXIONES LENTAS
+     */
+    public void setLentos(double fraccion, Perfil perfilLento) {
+        if (fraccion < 0 || fraccion > 1) {
+            throw new IllegalArgumentException("LA FRACCION DE LENTOS DEBE ESTAR ENTRE 0 Y 1: " + fraccion);
+        }
+        this.perfilLento = perfilLento;
+        this.fraccionLentos = fraccion;
+    }
+
+    /**
+     * FIJO LA SEMILLA DEL JITTER Y DE LOS CORTES PARA REPETIR UNA PRUEBA.
+     *
+     * @param semilla SEMILLA; CADA CONEXION USA SEMILLA + SU NUMERO
+     */
+    public void setSemilla(long semilla) {
+        this.semilla = semilla;
+    }
+
+    /**
+     * CORTO DE GOLPE TODAS LAS CONEXIONES ABIERTAS.
+     *
+     * @return CONEXIONES CORTADAS
+     */
+    public int reiniciarTodas() {
+        int cortadas = 0;
+        for (Conexion conexion : conexiones) {
+            if (conexion.reiniciar()) {
+                cortadas++;
+            }
+        }
+        return cortadas;
+    }
+
+    /**
+     * @return CONEXIONES ABIERTAS AHORA MISMO
+     */
+    public int getConexionesAbiertas() {
+        return conexiones.size();
+    }
+
+    /**
+     * @return RESUMEN DE LO QUE HA HECHO EL PROXY
+     */
+    public String getInforme() {
+        return "conexiones=" + numeroConexiones.get() + " abiertas=" + conexiones.size()
+                + " lentas=" + lentas.get() + " bytes=" + bytes.get() + " parones=" + parones.get()
+                + " reinicios=" + reinicios.get() + " perfil=" + perfil + " lento=" + perfilLento
+                + " fraccion_lentos=" + fraccionLentos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        cerrado = true;
+        escucha.close();
+        for (Conexion conexion : conexiones) {
+            conexion.cerrar();
+        }
+    }
+
+    /**
+     * TAREA DEL HILO QUE ACEPTA: ABRE LA CONEXION CON EL SERVIDOR POR CADA CLIENTE.
+     */
+    private void aceptar() {
+        while (!cerrado) {
+            Socket cliente;
+            try {
+                cliente = escucha.accept();
+            } catch (IOException e) {
+                if (!cerrado) {
+                    System.out.println("ERROR ACEPTANDO EN EL PROXY: " + e.getMessage());
+                }
+                return;
+            }
+            int numero = numeroConexiones.getAndIncrement();
+            // REPARTO REGULAR: LA CONEXION N ES LENTA SI AL CONTARLA SUBE EL NUMERO DE LENTAS QUE TOCAN
+            double fraccion = fraccionLentos;
+            boolean lenta = Math.floor((numero + 1) * fraccion) > Math.floor(numero * fraccion);
+            try {
+                Socket servidor = new Socket(hostDestino, puertoDestino);
+                cliente.setTcpNoDelay(true);
+                servidor.setTcpNoDelay(true);
+                Conexion conexion = new Conexion(numero, lenta, cliente, servidor);
+                conexiones.add(conexion);
+                if (lenta) {
+                    lentas.incrementAndGet();
+                }
+                conexion.arrancar();
+            } catch (IOException e) {
+                System.out.println("EL PROXY NO PUDO CONECTAR CON " + hostDestino + ":" + puertoDestino
+                        + ": " + e.getMessage());
+                try {
+                    cliente.close();
+                } catch (IOException ignorada) {
+                    // YA ESTABA CERRADO
+                }
+            }
+        }
+    }
+
+    /**
+     * PAREJA DE SOCKETS CLIENTE-SERVIDOR CON SUS DOS SENTIDOS.
+     */
+    private class Conexion {
+        final int numero;
+        final boolean lenta;
+        final Socket cliente;
+        final Socket servidor;
+        final Random aleatorio;
+        final long inicio = System.nanoTime();
+        final AtomicLong reenviados = new AtomicLong();
+        final AtomicInteger sentidosVivos = new AtomicInteger(2);
+        volatile boolean cortada;
+
+        Conexion(int numero, boolean lenta, Socket cliente, Socket servidor) {
+            this.numero = numero;
+            this.lenta = lenta;
+            this.cliente = cliente;
+            this.servidor = servidor;
+            this.aleatorio = new Random(semilla + numero);
+        }
+
+        Perfil perfil() {
+            return lenta ? perfilLento : ProxyDegradacion.this.perfil;
+        }
+
+        void arrancar() throws IOException {
+            new Sentido(this, cliente.getInputStream(), servidor.getOutputStream(), servidor, "subida").arrancar();
+            new Sentido(this, servidor.getInputStream(), cliente.getOutputStream(), cliente, "bajada").arrancar();
+        }
+
+        synchronized double aleatorio() {
+            return aleatorio.nextDouble();
+        }
+
+        /**
+         * CORTO LA CONEXION CON UN RST EN LOS DOS EXTREMOS.
+         */
+        boolean reiniciar() {
+            synchronized (this) {
+                if (cortada) {
+                    return false;
+                }
+                cortada = true;
+            }
+            reinicios.incrementAndGet();
+            try {
+                cliente.setSoLinger(true, 0);
+                servidor.setSoLinger(true, 0);
+            } catch (SocketException e) {
+                // SI YA ESTA CERRADO, SE CIERRA SIN MAS
+            }
+            cerrar();
+            return true;
+        }
+
+        /**
+         * UN SENTIDO HA TERMINADO: CIERRO SU SALIDA Y, SI ERA EL ULTIMO, TODO.
+         */
+        void terminado(Socket destino) {
+            try {
+                if (!destino.isClosed()) {
+                    destino.shutdownOutput();
+                }
+            } catch (IOException e) {
+                // EL OTRO EXTREMO YA HABIA CERRADO
+            }
+            if (sentidosVivos.decrementAndGet() == 0) {
+                cerrar();
+            }
+        }
+
+        void cerrar() {
+            conexiones.remove(this);
+            try {
+                cliente.close();
+            } catch (IOException e) {
+                // YA ESTABA CERRADO
+            }
+            try {
+                servidor.close();
+            } catch (IOException e) {
+                // YA ESTABA CERRADO
+            }
+        }
+    }
+
+    /**
+     * UN SENTIDO DE UNA CONEXION: UN HILO LEE DEL ORIGEN Y PONE LOS TROZOS
+     * EN COLA CON EL INSTANTE EN QUE DEBEN SALIR, Y OTRO LOS ESCRIBE EN EL
+     * DESTINO RESPETANDO ESE INSTANTE, EL ANCHO DE BANDA Y LOS PARONES.
+     */
+    private class Sentido {
+        final Conexion conexion;
+        final InputStream origen;
+        final OutputStream salida;
+        final Socket destino;
+        final String nombre;
+
+        final ArrayDeque<Trozo> cola = new ArrayDeque<>();
+        int enVuelo;
+        boolean finOrigen;
+        boolean finDestino;
+
+        /** INSTANTE DE SALIDA DEL ULTIMO TROZO, PARA QUE EL JITTER NO DESORDENE LOS BYTES */
+        long ultimaSalida;
+
+        Sentido(Conexion conexion, InputStream origen, OutputStream salida, Socket destino, String nombre) {
+            this.conexion = conexion;
+            this.origen = origen;
+            this.salida = salida;
+            this.destino = destino;
+            this.nombre = nombre;
+        }
+
+        void arrancar() {
+            String sufijo = "-" + conexion.numero + "-" + nombre;
+            Thread lector = new Thread(this::leer, "proxy-lee" + sufijo);
+            Thread escritor = new Thread(this::escribir, "proxy-escribe" + sufijo);
+            lector.setDaemon(true);
+            escritor.setDaemon(true);
+            lector.start();
+            escritor.start();
+        }
+
+        void leer() {
+            try {
+                byte[] buffer = new byte[TROZO];
+                int leidos;
+                while ((leidos = origen.read(buffer)) >= 0) {
+                    Perfil p = conexion.perfil();
+                    long retraso = p.latenciaMs * 1_000_000L;
+                    if (p.jitterMs > 0) {
+                        retraso += (long) ((conexion.aleatorio() * 2 - 1) * p.jitterMs * 1_000_000L);
+                    }
+                    byte[] datos = new byte[leidos];
+                    System.arraycopy(buffer, 0, datos, 0, leidos);
+                    synchronized (this) {
+                        while (enVuelo >= MAXIMO_EN_VUELO && !finDestino) {
+                            wait();
+                        }
+                        if (finDestino) {
+                            return;
+                        }
+                        ultimaSalida = Math.max(ultimaSalida, System.nanoTime() + Math.max(retraso, 0));
+                        cola.add(new Trozo(datos, ultimaSalida));
+                        enVuelo += leidos;
+                        notifyAll();
+                    }
+                }
+            } catch (IOException e) {
+                // EL ORIGEN SE CERRO O LO CORTAMOS NOSOTROS
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                synchronized (this) {
+                    finOrigen = true;
+                    notifyAll();
+                }
+            }
+        }
+
+        void escribir() {
+            try {
+                while (true) {
+                    Trozo trozo;
+                    synchronized (this) {
+                        while (cola.isEmpty() && !finOrigen) {
+                            wait();
+                        }
+                        if (cola.isEmpty()) {
+                            return;
+                        }
+                        trozo = cola.peek();
+                    }
+                    esperarHasta(trozo.salida);
+                    enviar(trozo.datos);
+                    synchronized (this) {
+                        cola.poll();
+                        enVuelo -= trozo.datos.length;
+                        notifyAll();
+                    }
+                }
+            } catch (IOException e) {
+                // EL DESTINO SE CERRO O LO CORTAMOS NOSOTROS: LA CONEXION YA NO SIRVE
+                conexion.cerrar();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                synchronized (this) {
+                    finDestino = true;
+                    cola.clear();
+                    enVuelo = 0;
+                    notifyAll();
+                }
+                conexion.terminado(destino);
+            }
+        }
+
+        /**
+         * ESCRIBO UN TROZO, PARTIDO SI HAY LIMITE DE ANCHO DE BANDA, Y
+         * DECIDO SI TOCA CORTAR LA CONEXION.
+         */
+        void enviar(byte[] datos) throws IOException, InterruptedException {
+            int posicion = 0;
+            while (posicion < datos.length) {
+                Perfil p = conexion.perfil();
+                esperarParon(p);
+                int cantidad = datos.length - posicion;
+                if (p.bytesPorSegundo > 0) {
+                    // TROZOS DE UNOS 10 MS DE TRANSMISION PARA QUE EL RITMO SEA UNIFORME
+                    cantidad = (int) Math.min(cantidad, Math.max(1, p.bytesPorSegundo / 100));
+                }
+                if (p.corteBytes > 0) {
+                    // NO SE REENVIA NI UN BYTE MAS DE LOS QUE DEJA EL CORTE
+                    cantidad = (int) Math.min(cantidad, Math.max(1, p.corteBytes - conexion.reenviados.get()));
+                }
+                salida.write(datos, posicion, cantidad);
+                salida.flush();
+                posicion += cantidad;
+                bytes.addAndGet(cantidad);
+                long total = conexion.reenviados.addAndGet(cantidad);
+                if (p.bytesPorSegundo > 0) {
+                    Thread.sleep(cantidad * 1000L / p.bytesPorSegundo);
+                }
+                if ((p.corteBytes > 0 && total >= p.corteBytes)
+                        || (p.probabilidadReinicio > 0 && conexion.aleatorio() < p.probabilidadReinicio)) {
+                    conexion.reiniciar();
+                    throw new SocketException("CONEXION CORTADA POR EL PROXY");
+                }
+            }
+        }
+
+        /**
+         * LOS PARONES SON EL FINAL DE CADA PERIODO, CONTADO DESDE QUE SE
+         * ABRIO LA CONEXION.
+         */
+        void esperarParon(Perfil p) throws InterruptedException {
+            if (p.paronCadaMs <= 0 || p.paronMs <= 0) {
+                return;
+            }
+            long cada = p.paronCadaMs * 1_000_000L;
+            long dentro = (System.nanoTime() - conexion.inicio) % cada;
+            long comienzo = cada - p.paronMs * 1_000_000L;
+            if (dentro >= comienzo) {
+                parones.incrementAndGet();
+                esperarHasta(System.nanoTime() + cada - dentro);
+            }
+        }
+
+        void esperarHasta(long instante) throws InterruptedException {
+            long espera;
+            while ((espera = instante - System.nanoTime()) > 0) {
+                Thread.sleep(espera / 1_000_000, (int) (espera % 1_000_000));
+            }
+        }
+    }
+
+    /**
+     * BYTES LEIDOS CON EL INSTANTE EN QUE DEBEN SALIR.
+     */
+    private static final class Trozo {
+        final byte[] datos;
+        final long salida;
+
+        Trozo(byte[] datos, long salida) {
+            this.datos = datos;
+            this.salida = salida;
+        }
+    }
+
+    /**
+     * COMO SE DEGRADA UNA CONEXION. ES INMUTABLE; PARA CAMBIARLO SE PONE OTRO.
+     */
+    public static final class Perfil {
+
+        /** RED PERFECTA: NO SE TOCA NADA */
+        public static final Perfil NINGUNO = new Perfil(0, 0, 0, 0, 0, 0, 0);
+
+        final long latenciaMs;
+        final long jitterMs;
+        final long bytesPorSegundo;
+        final long paronCadaMs;
+        final long paronMs;
+        final double probabilidadReinicio;
+        final long corteBytes;
+
+        /**
+         * CONSTRUCTOR CON TODOS LOS PARAMETROS; LOS QUE VALEN 0 NO SE APLICAN.
+         *
+         * @param latenciaMs RETRASO FIJO DE CADA TROZO
+         * @param jitterMs VARIACION ALEATORIA DEL RETRASO, HACIA ARRIBA O ABAJO
+         * @param bytesPorSegundo ANCHO DE BANDA MAXIMO POR SENTIDO
+         * @param paronCadaMs PERIODO DE LOS PARONES
+         * @param paronMs DURACION DE CADA PARON
+         * @param probabilidadReinicio PROBABILIDAD DE CORTAR TRAS CADA TROZO
+         * @param corteBytes BYTES REENVIADOS TRAS LOS QUE SE CORTA LA CONEXION
+         */
+        public Perfil(long latenciaMs, long jitterMs, long bytesPorSegundo, long paronCadaMs, long paronMs,
+                      double probabilidadReinicio, long corteBytes) {
+            if (latenciaMs < 0 || jitterMs < 0 || bytesPorSegundo < 0 || paronCadaMs < 0 || paronMs < 0
+                    || probabilidadReinicio < 0 || probabilidadReinicio > 1 || corteBytes < 0) {
+                throw new IllegalArgumentException("PARAMETROS DEL PERFIL NO VALIDOS");
+            }
+            if (paronMs > 0 && paronMs >= paronCadaMs) {
+                throw new IllegalArgumentException("EL PARON DEBE SER MAS CORTO QUE SU PERIODO");
+            }
+            this.latenciaMs = latenciaMs;
+            this.jitterMs = jitterMs;
+            this.bytesPorSegundo = bytesPorSegundo;
+            this.paronCadaMs = paronCadaMs;
+            this.paronMs = paronMs;
+            this.probabilidadReinicio = probabilidadReinicio;
+            this.corteBytes = corteBytes;
+        }
+
+        /**
+         * CONSTRUCTOR PARA EL CASO HABITUAL: SOLO LATENCIA Y ANCHO DE BANDA.
+         *
+         * @param latenciaMs RETRASO FIJO DE CADA TROZO
+         * @param jitterMs VARIACION ALEATORIA DEL RETRASO
+         * @param bytesPorSegundo ANCHO DE BANDA MAXIMO POR SENTIDO, 0 SIN LIMITE
+         */
+        public Perfil(long latenciaMs, long jitterMs, long bytesPorSegundo) {
+            this(latenciaMs, jitterMs, bytesPorSegundo, 0, 0, 0, 0);
+        }
+
+        /**
+         * LEO UN PERFIL ESCRITO COMO "latencia=200,jitter=50,ancho=16k,paron=5000:500,reinicio=0.001,corte=1m".
+         *
+         * @param texto PERFIL; VACIO O "ninguno" PARA NO DEGRADAR
+         * @return PERFIL LEIDO
+         * @throws IllegalArgumentException SI EL TEXTO NO ES UN PERFIL VALIDO
+         */
+        public static Perfil leer(String texto) {
+            texto = texto.trim();
+            if (texto.isEmpty() || texto.equalsIgnoreCase("ninguno")) {
+                return NINGUNO;
+            }
+            long latencia = 0, jitter = 0, ancho = 0, paronCada = 0, paron = 0, corte = 0;
+            double reinicio = 0;
+            for (String parte : texto.split(",")) {
+                String[] clave = parte.split("=", 2);
+                if (clave.length != 2) {
+                    throw new IllegalArgumentException("SE ESPERABA CLAVE=VALOR: " + parte);
+                }
+                String valor = clave[1].trim();
+                switch (clave[0].trim().toLowerCase(Locale.ROOT)) {
+                    case "latencia":
+                        latencia = cantidad(valor);
+                        break;
+                    case "jitter":
+                        jitter = cantidad(valor);
+                        break;
+                    case "ancho":
+                        ancho = cantidad(valor);
+                        break;
+                    case "paron":
+                        String[] partes = valor.split(":");
+                        if (partes.length != 2) {
+                            throw new IllegalArgumentException("SE ESPERABA paron=CADA:DURACION: " + valor);
+                        }
+                        paronCada = cantidad(partes[0]);
+                        paron = cantidad(partes[1]);
+                        break;
+                    case "reinicio":
+                        reinicio = Double.parseDouble(valor);
+                        break;
+                    case "corte":
+                        corte = cantidad(valor);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("CLAVE DE PERFIL DESCONOCIDA: " + clave[0]);
+                }
+            }
+            return new Perfil(latencia, jitter, ancho, paronCada, paron, reinicio, corte);
+        }
+
+        private static long cantidad(String valor) {
+            valor = valor.trim().toLowerCase(Locale.ROOT);
+            long multiplicador = 1;
+            if (valor.endsWith("ms")) {
+                valor = valor.substring(0, valor.length() - 2);
+            } else if (valor.endsWith("k")) {
+                multiplicador = 1024;
+                valor = valor.substring(0, valor.length() - 1);
+            } else if (valor.endsWith("m")) {
+                multiplicador = 1024 * 1024;
+                valor = valor.substring(0, valor.length() - 1);
+            }
+            return Long.parseLong(valor) * multiplicador;
+        }
+
+        @Override
+        public String toString() {
+            if (this == NINGUNO) {
+                return "ninguno";
+            }
+            return "latencia=" + latenciaMs + ",jitter=" + jitterMs + ",ancho=" + bytesPorSegundo
+                    + ",paron=" + paronCadaMs + ":" + paronMs + ",reinicio=" + probabilidadReinicio
+                    + ",corte=" + corteBytes;
+        }
+    }
+
+    /**
+     * METODO PRINCIPAL. TRAS ARRANCAR LEE ORDENES DE LA ENTRADA ESTANDAR PARA
+     * CAMBIAR LA RED SOBRE LA MARCHA DESDE UN SCRIPT:
+     * "perfil PERFIL", "lentos FRACCION PERFIL", "reiniciar", "estado" Y "salir".
+     *
+     * @param args [PUERTO] [HOST:PUERTO DEL SERVIDOR] [PERFIL] [FRACCION DE LENTOS] [PERFIL LENTO]
+     * @throws IOException SI NO SE PUEDE ABRIR EL PUERTO
+     */
+    public static void main(String[] args) throws IOException {
+        int puerto = args.length > 0 ? Integer.parseInt(args[0]) : 1600;
+        String[] destino = (args.length > 1 ? args[1] : "localhost:1500").split(":");
+        ProxyDegradacion proxy = new ProxyDegradacion(puerto, destino[0], Integer.parseInt(destino[1]));
+        proxy.setPerfil(Perfil.leer(args.length > 2 ? args[2] : ""));
+        if (args.length > 4) {
+            proxy.setLentos(Double.parseDouble(args[3]), Perfil.leer(args[4]));
+        }
+        proxy.iniciar();
+        System.out.println("PROXY EN EL PUERTO " + proxy.getPuerto() + " HACIA " + destino[0] + ":" + destino[1]);
+        System.out.println(proxy.getInforme());
+
+        BufferedReader ordenes = new BufferedReader(new InputStreamReader(System.in));
+        String linea;
+        while ((linea = ordenes.readLine()) != null) {
+            String[] partes = linea.trim().split("\\s+", 3);
+            try {
+                switch (partes[0]) {
+                    case "perfil":
+                        proxy.setPerfil(Perfil.leer(partes.length > 1 ? partes[1] : ""));
+                        break;
+                    case "lentos":
+                        proxy.setLentos(Double.parseDouble(partes[1]), Perfil.leer(partes.length > 2 ? partes[2] : ""));
+                        break;
+                    case "reiniciar":
+                        System.out.println("CORTADAS " + proxy.reiniciarTodas() + " CONEXIONES");
+                        break;
+                    case "estado":
+                    case "":
+                        break;
+                    case "salir":
+                        proxy.close();
+                        return;
+                    default:
+                        System.out.println("ORDEN DESCONOCIDA: " + partes[0]);
+                        continue;
+                }
+                System.out.println(proxy.getInforme());
+            } catch (RuntimeException e) {
+                System.out.println("ORDEN NO VALIDA: " + e.getMessage());
+            }
+        }
+        // SIN ENTRADA (POR EJEMPLO EN SEGUNDO PLANO) SIGUE FUNCIONANDO HASTA QUE LO MATEN
+        try {
+            Thread.currentThread().join();
+        } catch (InterruptedException e) {
+            proxy.close();
+        }
+    }
+}
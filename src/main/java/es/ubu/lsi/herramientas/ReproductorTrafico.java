@@ -0,0 +1,440 @@
+package es.ubu.lsi.herramientas;
+
+import es.ubu.lsi.common.ChatMessage;
+import es.ubu.lsi.common.CodecMensajes;
+import es.ubu.lsi.common.LectorTramas;
+import es.ubu.lsi.common.MessageType;
+import es.ubu.lsi.common.TransporteCanal;
+import es.ubu.lsi.server.CapturaTrafico;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * REPRODUCE UNA CAPTURA DE TRAFICO (SERVER.CAPTURATRAFICO) CONTRA UN
+ * SERVIDOR, CON UNA CONEXION POR CADA REMITENTE DE LA CAPTURA, A LA
+ * VELOCIDAD ORIGINAL, N VECES MAS DEPRISA O TAN DEPRISA COMO SE PUEDA.
+ * MIDE CUANTO TARDA EL SERVIDOR EN CONFIRMAR CADA MENSAJE Y CUANTOS
+ * MENSAJES POR SEGUNDO AGUANTA, Y DEJA UN INFORME QUE SE PUEDE COMPARAR
+ * CON EL DE OTRA VERSION DEL SERVIDOR:
+ *
+ * <pre>
+ * java es.ubu.lsi.herramientas.ReproductorTrafico reproducir trafico.cap localhost 1500 10 antes.txt
+ * java es.ubu.lsi.herramientas.ReproductorTrafico reproducir trafico.cap localhost 1500 10 despues.txt
+ * java es.ubu.lsi.herramientas.ReproductorTrafico comparar antes.txt despues.txt
+ * </pre>
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public class ReproductorTrafico {
+
+    /** ESPERA MAXIMA A LAS CONFIRMACIONES QUE FALTAN AL ACABAR */
+    private static final long ESPERA_CONFIRMACIONES_MS = 5000;
+
+    /** CLAVES DEL INFORME EN LAS QUE MENOS ES MEJOR */
+    private static final List<String> MENOS_ES_MEJOR = Arrays.asList("duracion_ms", "sin_confirmar", "fallos",
+            "retraso_max_ms", "latencia_media_us", "latencia_p50_us", "latencia_p90_us", "latencia_p99_us",
+            "latencia_max_us");
+
+    /** CLAVES DEL INFORME EN LAS QUE MAS ES MEJOR */
+    private static final List<String> MAS_ES_MEJOR = Arrays.asList("mensajes_por_segundo", "confirmados");
+
+    private final String host;
+    private final int puerto;
+
+    /** VECES MAS DEPRISA QUE LA CAPTURA, 0 PARA IR TAN DEPRISA COMO SE PUEDA */
+    private final double velocidad;
+
+    /** SESIONES ABIERTAS POR NICKNAME, SOLO LAS TOCA EL HILO QUE REPRODUCE */
+    private final Map<String, Sesion> abiertas = new HashMap<>();
+
+    /** TODAS LAS SESIONES QUE SE HAN ABIERTO, PARA EL INFORME */
+    private final List<Sesion> sesiones = new ArrayList<>();
+
+    /** IDENTIFICADORES DISTINTOS EN CADA REPRODUCCION PARA QUE EL SERVIDOR NO LOS TOME POR REENVIOS */
+    private final long baseIds = System.currentTimeMillis() << 20;
+
+    /**
+     * CONSTRUCTOR.
+     *
+     * @param host HOST DEL SERVIDOR
+     * @param puerto PUERTO DEL SERVIDOR
+     * @param velocidad VECES MAS DEPRISA QUE LA CAPTURA, 0 PARA NO ESPERAR NUNCA
+     */
+    public ReproductorTrafico(String host, int puerto, double velocidad) {
+        if (velocidad < 0) {
+            throw new IllegalArgumentException("LA VELOCIDAD NO PUEDE SER NEGATIVA: " + velocidad);
+        }
+        this.host = host;
+        this.puerto = puerto;
+        this.velocidad = velocidad;
+    }
+
+    /**
+     * REPRODUZCO UNA CAPTURA ENTERA Y ESPERO A LAS CONFIRMACIONES.
+     *
+     * @param ruta FICHERO DE LA CAPTURA
+     * @return INFORME DE LA REPRODUCCION
+     * @throws IOException SI NO SE PUEDE LEER LA CAPTURA
+     */
+    public Map<String, String> reproducir(Path ruta) throws IOException {
+        long mensajes = 0;
+        long sintetizados = 0;
+        long omitidos = 0;
+        long fallos = 0;
+        long retrasoMaximo = 0;
+        long inicio = System.nanoTime();
+
+        try (CapturaTrafico.Lector lector = new CapturaTrafico.Lector(ruta)) {
+            CapturaTrafico.Registro registro;
+            while ((registro = lector.siguiente()) != null) {
+                // ESPERO AL INSTANTE QUE LE TOCA, O APUNTO CUANTO VOY TARDE
+                if (velocidad > 0) {
+                    long objetivo = inicio + (long) (registro.getMicros() * 1000 / velocidad);
+                    long espera;
+                    while ((espera = objetivo - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(espera);
+                    }
+                    retrasoMaximo = Math.max(retrasoMaximo, -espera);
+                }
+
+                ChatMessage mensaje = registro.getMensaje();
+                String nickname = mensaje.getRemitente();
+                if (nickname == null) {
+                    omitidos++;
+                    continue;
+                }
+
+                Sesion sesion = abiertas.get(nickname);
+                try {
+                    if (sesion == null) {
+                        if (mensaje.getTipo() == MessageType.LOGOUT) {
+                            omitidos++;
+                            continue;
+                        }
+                        sesion = abrir(nickname);
+                        // SI LA CAPTURA EMPEZO CON LA SESION YA ABIERTA, HAGO YO EL LOGIN
+                        if (mensaje.getTipo() != MessageType.LOGIN) {
+                            sesion.enviar(new ChatMessage(nickname, "conectandose", MessageType.LOGIN));
+                            sintetizados++;
+                        }
+                    }
+                    sesion.enviar(mensaje);
+                    mensajes++;
+                } catch (IOException e) {
+                    System.out.println("FALLO LA SESION DE " + nickname + ": " + e.getMessage());
+                    fallos++;
+                    if (sesion != null) {
+                        abiertas.remove(nickname);
+                        sesion.cerrar();
+                    }
+                    continue;
+                }
+
+                // TRAS EL LOGOUT EL SERVIDOR CIERRA LA CONEXION; EL LECTOR ACABA SOLO
+                if (mensaje.getTipo() == MessageType.LOGOUT) {
+                    abiertas.remove(nickname);
+                }
+            }
+        }
+        long finEnvio = System.nanoTime();
+
+        // ESPERO A LAS CONFIRMACIONES QUE FALTAN Y CIERRO LO QUE QUEDE ABIERTO
+        long limite = System.currentTimeMillis() + ESPERA_CONFIRMACIONES_MS;
+        while (pendientes() > 0 && System.currentTimeMillis() < limite) {
+            LockSupport.parkNanos(10_000_000);
+        }
+        long fin = System.nanoTime();
+        for (Sesion sesion : abiertas.values()) {
+            try {
+                sesion.enviar(new ChatMessage(sesion.nickname, "desconectandose", MessageType.LOGOUT));
+            } catch (IOException e) {
+                // YA SE HABIA CERRADO
+            }
+        }
+        abiertas.clear();
+        for (Sesion sesion : sesiones) {
+            sesion.cerrar();
+        }
+
+        return informe(mensajes, sintetizados, omitidos, fallos, retrasoMaximo, finEnvio - inicio, fin - inicio);
+    }
+
+    /**
+     * ABRO LA CONEXION DE UN REMITENTE Y ARRANCO SU LECTOR.
+     */
+    private Sesion abrir(String nickname) throws IOException {
+        Sesion sesion = new Sesion(nickname, SocketChannel.open(new InetSocketAddress(host, puerto)));
+        abiertas.put(nickname, sesion);
+        sesiones.add(sesion);
+        sesion.lector.start();
+        return sesion;
+    }
+
+    /**
+     * @return MENSAJES ENVIADOS QUE AUN NO SE HAN CONFIRMADO
+     */
+    private int pendientes() {
+        int total = 0;
+        for (Sesion sesion : sesiones) {
+            if (sesion.lector.isAlive()) {
+                total += sesion.enviados.size();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * JUNTO LAS MEDIDAS DE TODAS LAS SESIONES.
+     */
+    private Map<String, String> informe(long mensajes, long sintetizados, long omitidos, long fallos,
+                                        long retrasoMaximo, long nanosEnvio, long nanosTotal) {
+        int total = 0;
+        for (Sesion sesion : sesiones) {
+            total += sesion.numeroLatencias;
+        }
+        long[] latencias = new long[total];
+        long recibidos = 0;
+        long sinConfirmar = 0;
+        int posicion = 0;
+        for (Sesion sesion : sesiones) {
+            synchronized (sesion) {
+                System.arraycopy(sesion.latencias, 0, latencias, posicion, sesion.numeroLatencias);
+                posicion += sesion.numeroLatencias;
+                recibidos += sesion.recibidos;
+            }
+            sinConfirmar += sesion.enviados.size();
+        }
+        Arrays.sort(latencias, 0, posicion);
+        long suma = 0;
+        for (int i = 0; i < posicion; i++) {
+            suma += latencias[i];
+        }
+
+        Map<String, String> informe = new LinkedHashMap<>();
+        informe.put("velocidad", velocidad == 0 ? "max" : String.valueOf(velocidad));
+        informe.put("sesiones", String.valueOf(sesiones.size()));
+        informe.put("mensajes", String.valueOf(mensajes));
+        informe.put("logins_sintetizados", String.valueOf(sintetizados));
+        informe.put("omitidos", String.valueOf(omitidos));
+        informe.put("fallos", String.valueOf(fallos));
+        informe.put("duracion_ms", String.valueOf(nanosTotal / 1_000_000));
+        informe.put("mensajes_por_segundo", String.format("%.1f", mensajes / Math.max(nanosEnvio / 1e9, 1e-9)));
+        informe.put("retraso_max_ms", String.valueOf(retrasoMaximo / 1_000_000));
+        informe.put("confirmados", String.valueOf(posicion));
+        informe.put("sin_confirmar", String.valueOf(sinConfirmar));
+        informe.put("recibidos", String.valueOf(recibidos));
+        informe.put("latencia_media_us", String.valueOf(posicion == 0 ? 0 : suma / posicion / 1000));
+        informe.put("latencia_p50_us", String.valueOf(percentil(latencias, posicion, 0.50) / 1000));
+        informe.put("latencia_p90_us", String.valueOf(percentil(latencias, posicion, 0.90) / 1000));
+        informe.put("latencia_p99_us", String.valueOf(percentil(latencias, posicion, 0.99) / 1000));
+        informe.put("latencia_max_us", String.valueOf(posicion == 0 ? 0 : latencias[posicion - 1] / 1000));
+        return informe;
+    }
+
+    private static long percentil(long[] ordenadas, int total, double fraccion) {
+        if (total == 0) {
+            return 0;
+        }
+        return ordenadas[Math.min(total - 1, (int) Math.ceil(fraccion * total) - 1)];
+    }
+
+    /**
+     * GUARDO UN INFORME COMO PROPIEDADES.
+     *
+     * @param informe INFORME DE UNA REPRODUCCION
+     * @param ruta FICHERO DE SALIDA
+     * @throws IOException SI NO SE PUEDE ESCRIBIR
+     */
+    public static void guardar(Map<String, String> informe, Path ruta) throws IOException {
+        try (Writer salida = Files.newBufferedWriter(ruta, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, String> entrada : informe.entrySet()) {
+                salida.write(entrada.getKey() + "=" + entrada.getValue() + "\n");
+            }
+        }
+    }
+
+    /**
+     * COMPARO DOS INFORMES CLAVE A CLAVE.
+     *
+     * @param base INFORME DE REFERENCIA
+     * @param nuevo INFORME A COMPARAR
+     * @return TABLA CON LOS DOS VALORES, LA DIFERENCIA Y SI ES MEJOR O PEOR
+     */
+    public static String comparar(Properties base, Properties nuevo) {
+        StringBuilder tabla = new StringBuilder(String.format("%-22s %14s %14s %10s%n", "MEDIDA", "BASE", "NUEVO", "CAMBIO"));
+        List<String> claves = new ArrayList<>(base.stringPropertyNames());
+        for (String clave : nuevo.stringPropertyNames()) {
+            if (!claves.contains(clave)) {
+                claves.add(clave);
+            }
+        }
+        claves.sort(null);
+        for (String clave : claves) {
+            String a = base.getProperty(clave, "-");
+            String b = nuevo.getProperty(clave, "-");
+            String cambio = "";
+            try {
+                double x = Double.parseDouble(a);
+                double y = Double.parseDouble(b);
+                if (x != 0) {
+                    double porcentaje = (y - x) * 100 / Math.abs(x);
+                    cambio = String.format("%+.1f%%", porcentaje);
+                    if (Math.abs(porcentaje) >= 5) {
+                        boolean mejor = MAS_ES_MEJOR.contains(clave) ? y > x
+                                : MENOS_ES_MEJOR.contains(clave) ? y < x : false;
+                        if (MAS_ES_MEJOR.contains(clave) || MENOS_ES_MEJOR.contains(clave)) {
+                            cambio += mejor ? " mejor" : " PEOR";
+                        }
+                    }
+                }
+            } catch (NumberFormatException e) {
+                // NO ES UN NUMERO: SOLO SE ENSEÑAN LOS DOS VALORES
+            }
+            tabla.append(String.format("%-22s %14s %14s %s%n", clave, a, b, cambio));
+        }
+        return tabla.toString();
+    }
+
+    private static Properties cargar(Path ruta) throws IOException {
+        Properties propiedades = new Properties();
+        try (Reader entrada = Files.newBufferedReader(ruta, StandardCharsets.UTF_8)) {
+            propiedades.load(entrada);
+        }
+        return propiedades;
+    }
+
+    /**
+     * CONEXION DE UN REMITENTE DE LA CAPTURA.
+     */
+    private class Sesion {
+        final String nickname;
+        final TransporteCanal transporte;
+        final OutputStream salida;
+        final Thread lector;
+
+        /** INSTANTE DE ENVIO DE LO QUE FALTA POR CONFIRMAR, POR IDENTIFICADOR */
+        final Map<Long, Long> enviados = new ConcurrentHashMap<>();
+
+        /** NANOSEGUNDOS HASTA CADA CONFIRMACION, LOS ESCRIBE EL LECTOR */
+        long[] latencias = new long[64];
+        int numeroLatencias;
+        long recibidos;
+        long ultimoId;
+
+        Sesion(String nickname, SocketChannel canal) {
+            this.nickname = nickname;
+            this.transporte = new TransporteCanal(canal);
+            this.salida = new BufferedOutputStream(transporte.getSalida(), 8192);
+            this.lector = new Thread(this::leer, "reproductor-" + nickname);
+            this.lector.setDaemon(true);
+        }
+
+        /**
+         * ENVIO UN MENSAJE. LOS NORMALES Y PRIVADOS LLEVAN UN IDENTIFICADOR
+         * NUEVO PARA MEDIR CUANTO TARDA SU CONFIRMACION.
+         */
+        void enviar(ChatMessage mensaje) throws IOException {
+            if (mensaje.getTipo() == MessageType.MENSAJE || mensaje.getTipo() == MessageType.PRIVADO) {
+                long id = baseIds + ++ultimoId;
+                mensaje = new ChatMessage(mensaje.getRemitente(), mensaje.getContenido(), mensaje.getTipo(),
+                        mensaje.getDestinatario(), id);
+                enviados.put(id, System.nanoTime());
+            }
+            CodecMensajes.escribir(mensaje, salida);
+            salida.flush();
+        }
+
+        /**
+         * TAREA DEL LECTOR: CUENTA LO QUE LLEGA Y MIDE LAS CONFIRMACIONES.
+         */
+        void leer() {
+            try (LectorTramas entrada = new LectorTramas(transporte.getEntrada())) {
+                ChatMessage mensaje;
+                while ((mensaje = entrada.leer()) != null) {
+                    long ahora = System.nanoTime();
+                    if (mensaje.getTipo() == MessageType.ACK) {
+                        Long envio = enviados.remove(mensaje.getIdMensaje());
+                        if (envio != null) {
+                            apuntar(ahora - envio);
+                        }
+                    } else {
+                        synchronized (this) {
+                            recibidos++;
+                        }
+                    }
+                }
+            } catch (IOException | ClassNotFoundException e) {
+                // EL SERVIDOR CERRO LA CONEXION (POR EJEMPLO TRAS EL LOGOUT)
+            }
+        }
+
+        synchronized void apuntar(long nanos) {
+            if (numeroLatencias == latencias.length) {
+                latencias = Arrays.copyOf(latencias, latencias.length * 2);
+            }
+            latencias[numeroLatencias++] = nanos;
+        }
+
+        void cerrar() {
+            try {
+                transporte.close();
+                lector.join(1000);
+            } catch (IOException e) {
+                // YA ESTABA CERRADA
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * METODO PRINCIPAL.
+     *
+     * @param args reproducir CAPTURA [HOST] [PUERTO] [VELOCIDAD|max] [INFORME], O comparar BASE NUEVO
+     * @throws IOException SI FALLA LA LECTURA O LA ESCRITURA DE LOS FICHEROS
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 3 && args[0].equals("comparar")) {
+            System.out.print(comparar(cargar(Paths.get(args[1])), cargar(Paths.get(args[2]))));
+            return;
+        }
+        if (args.length < 2 || !args[0].equals("reproducir")) {
+            System.out.println("USO: reproducir CAPTURA [HOST] [PUERTO] [VELOCIDAD|max] [INFORME]");
+            System.out.println("     comparar INFORME_BASE INFORME_NUEVO");
+            return;
+        }
+        String host = args.length > 2 ? args[2] : "localhost";
+        int puerto = args.length > 3 ? Integer.parseInt(args[3]) : 1500;
+        double velocidad = args.length > 4
+                ? (args[4].equalsIgnoreCase("max") ? 0 : Double.parseDouble(args[4].replace("x", ""))) : 1;
+
+        Map<String, String> informe = new ReproductorTrafico(host, puerto, velocidad).reproducir(Paths.get(args[1]));
+        for (Map.Entry<String, String> entrada : informe.entrySet()) {
+            System.out.println(entrada.getKey() + "=" + entrada.getValue());
+        }
+        if (args.length > 5) {
+            guardar(informe, Paths.get(args[5]));
+        }
+    }
+}
@@ -0,0 +1,500 @@
+package es.ubu.lsi.pasarela;
+
+import es.ubu.lsi.common.ChatMessage;
+import es.ubu.lsi.common.CodecMensajes;
+import es.ubu.lsi.common.LectorTramas;
+import es.ubu.lsi.common.MessageType;
+import es.ubu.lsi.common.TransporteCanal;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PASARELA QUE CONCENTRA LOS CLIENTES DE UNA MAQUINA EN POCAS CONEXIONES
+ * CON EL SERVIDOR. LOS CLIENTES SE CONECTAN A ELLA COMO SI FUERA EL
+ * SERVIDOR; CADA UNO RECIBE UN NUMERO DE SESION Y SUS TRAMAS SUBEN POR
+ * UNO DE LOS ENLACES CON ESE NUMERO DELANTE. LO QUE BAJA PARA UNA SESION
+ * SE LE ENTREGA A SU CLIENTE, Y LOS BROADCAST BAJAN UNA VEZ POR ENLACE
+ * Y AQUI SE REPARTEN A TODAS LAS SESIONES DEL ENLACE MENOS A LAS EXCLUIDAS.
+ * EL SERVIDOR TIENE QUE ESCUCHAR PASARELAS (-Dchat.pasarelas.puerto=1501).
+ *
+ * <pre>
+ * java es.ubu.lsi.pasarela.Pasarela servidor.ejemplo.com 1501 4 1500
+ * </pre>
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public class Pasarela {
+
+    /** PUERTO DONDE SE CONECTAN LOS CLIENTES (EL MISMO QUE USAN CON EL SERVIDOR) */
+    public static final int PUERTO = 1500;
+
+    /** PUERTO DEL SERVIDOR PARA LAS PASARELAS */
+    public static final int PUERTO_SERVIDOR = 1501;
+
+    /** ENLACES CON EL SERVIDOR POR DEFECTO */
+    public static final int ENLACES = 4;
+
+    /** TRAMAS QUE PUEDEN ESPERAR A UN CLIENTE; SI NO LEE, SE CIERRA SU SESION */
+    public static final int MAXIMO_PENDIENTES = 10000;
+
+    /** TRAMAS QUE PUEDEN ESPERAR EN UN ENLACE ANTES DE FRENAR A LOS CLIENTES */
+    private static final int CAPACIDAD_ENLACE = 4096;
+
+    /** TAMAÑO DEL BUFFER DE SALIDA DE CADA ENLACE */
+    private static final int TAMANO_BUFFER_ENLACE = 64 * 1024;
+
+    /** TAMAÑO DEL BUFFER DE SALIDA DE CADA CLIENTE */
+    private static final int TAMANO_BUFFER_CLIENTE = 8192;
+
+    /** TRAMA VACIA QUE DESPIERTA A UN HILO ESCRITOR PARA QUE TERMINE */
+    private static final byte[] FIN = new byte[0];
+
+    /** SERVIDOR Y PUERTO AL QUE SE CONECTAN LOS ENLACES */
+    private final String host;
+    private final int puertoServidor;
+
+    /** ENLACES CON EL SERVIDOR */
+    private final Enlace[] enlaces;
+
+    /** SOCKET DONDE SE ACEPTAN LOS CLIENTES */
+    private ServerSocketChannel servidorLocal;
+
+    /** ULTIMO NUMERO DE SESION REPARTIDO */
+    private final AtomicInteger ultimaSesion = new AtomicInteger();
+
+    /** BROADCAST RECIBIDOS DEL SERVIDOR */
+    private final AtomicLong difusiones = new AtomicLong();
+
+    /** ENTREGAS DE ESOS BROADCAST A LOS CLIENTES */
+    private final AtomicLong entregas = new AtomicLong();
+
+    /** INDICA SI LA PASARELA ESTA ACEPTANDO CLIENTES */
+    private volatile boolean ejecutando;
+
+    /**
+     * CONSTRUCTOR DE LA PASARELA.
+     *
+     * @param host SERVIDOR AL QUE SE CONECTAN LOS ENLACES
+     * @param puertoServidor PUERTO DEL SERVIDOR PARA LAS PASARELAS
+     * @param numeroEnlaces CONEXIONES CON EL SERVIDOR
+     */
+    public Pasarela(String host, int puertoServidor, int numeroEnlaces) {
+        if (numeroEnlaces < 1) {
+            throw new IllegalArgumentException("HACE FALTA AL MENOS UN ENLACE");
+        }
+        this.host = host;
+        this.puertoServidor = puertoServidor;
+        this.enlaces = new Enlace[numeroEnlaces];
+    }
+
+    /**
+     * ABRO LOS ENLACES CON EL SERVIDOR.
+     *
+     * @throws IOException SI NO SE PUEDE CONECTAR ALGUNO
+     */
+    public void conectar() throws IOException {
+        for (int i = 0; i < enlaces.length; i++) {
+            enlaces[i] = new Enlace(i + 1);
+        }
+        System.out.println("PASARELA CONECTADA A " + host + ":" + puertoServidor + " CON " + enlaces.length + " ENLACES");
+    }
+
+    /**
+     * ACEPTO CLIENTES HASTA QUE SE DETENGA LA PASARELA.
+     *
+     * @param puerto PUERTO DONDE SE CONECTAN LOS CLIENTES
+     * @throws IOException SI NO SE PUEDE ABRIR EL PUERTO
+     */
+    public void escuchar(int puerto) throws IOException {
+        servidorLocal = ServerSocketChannel.open();
+        servidorLocal.bind(new InetSocketAddress(puerto));
+        ejecutando = true;
+        System.out.println("PASARELA ESCUCHANDO CLIENTES EN EL PUERTO " + puerto);
+
+        while (ejecutando) {
+            try {
+                atender(servidorLocal.accept());
+            } catch (IOException e) {
+                if (ejecutando) {
+                    System.out.println("ERROR AL ACEPTAR CLIENTE: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * DOY UN NUMERO DE SESION A UN CLIENTE RECIEN CONECTADO Y LO ASIGNO
+     * A UN ENLACE POR TURNOS, SALTANDO LOS QUE SE HAYAN CAIDO.
+     *
+     * @param canal CONEXION DEL CLIENTE
+     * @throws IOException SI NO QUEDA NINGUN ENLACE
+     */
+    public void atender(SocketChannel canal) throws IOException {
+        int numero = ultimaSesion.incrementAndGet();
+        for (int i = 0; i < enlaces.length; i++) {
+            Enlace enlace = enlaces[(numero + i) % enlaces.length];
+            if (enlace.activo) {
+                enlace.abrirSesion(numero, canal);
+                return;
+            }
+        }
+        canal.close();
+        throw new IOException("NO QUEDA NINGUN ENLACE CON EL SERVIDOR");
+    }
+
+    /**
+     * DEJO DE ACEPTAR CLIENTES Y CIERRO LOS ENLACES (Y CON ELLOS LAS SESIONES).
+     */
+    public void detener() {
+        ejecutando = false;
+        try {
+            if (servidorLocal != null) {
+                servidorLocal.close();
+            }
+        } catch (IOException e) {
+            System.out.println("ERROR AL CERRAR EL PUERTO DE LA PASARELA");
+        }
+        for (Enlace enlace : enlaces) {
+            if (enlace != null) {
+                enlace.caer("PASARELA DETENIDA");
+            }
+        }
+        System.out.println("PASARELA DETENIDA: " + this);
+    }
+
+    /**
+     * @return SESIONES ABIERTAS EN TODOS LOS ENLACES
+     */
+    public int getSesiones() {
+        int total = 0;
+        for (Enlace enlace : enlaces) {
+            if (enlace != null) {
+                total += enlace.sesiones.size();
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        return "sesiones=" + getSesiones() + " difusiones=" + difusiones + " entregas=" + entregas;
+    }
+
+    /**
+     * CODIFICO UN MENSAJE EN SU TRAMA, CON LA CABECERA DE SESION SI VA AL SERVIDOR.
+     *
+     * @param sesion SESION DE LA QUE VIENE, 0 SI VA A UN CLIENTE
+     * @param mensaje MENSAJE A CODIFICAR
+     * @return TRAMA LISTA PARA ESCRIBIR
+     */
+    private static byte[] trama(int sesion, ChatMessage mensaje) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+        if (sesion != 0) {
+            CodecMensajes.escribirCabeceraSesion(sesion, buffer);
+        }
+        CodecMensajes.escribir(mensaje, buffer);
+        return buffer.toByteArray();
+    }
+
+    /**
+     * COPIO EN UNA TRAMA EL TROZO DE FICHERO QUE ACABA DE LEER UN LECTOR.
+     *
+     * @param sesion SESION DE LA QUE VIENE, 0 SI VA A UN CLIENTE
+     * @param cabecera CABECERA DEL TROZO QUE DEVOLVIO EL LECTOR
+     * @param entrada LECTOR CON LOS BYTES DEL TROZO PENDIENTES
+     * @return TRAMA LISTA PARA ESCRIBIR
+     */
+    private static byte[] tramaFragmento(int sesion, ChatMessage cabecera, LectorTramas entrada) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(
+                CodecMensajes.CABECERA_SESION + CodecMensajes.CABECERA_FRAGMENTO + entrada.getLongitudFragmento());
+        if (sesion != 0) {
+            CodecMensajes.escribirCabeceraSesion(sesion, buffer);
+        }
+        CodecMensajes.escribirCabeceraFragmento(cabecera.getIdMensaje(), entrada.getLongitudFragmento(), buffer);
+        entrada.copiarFragmento(Channels.newChannel(buffer));
+        return buffer.toByteArray();
+    }
+
+    /**
+     * ESCRIBO LAS TRAMAS DE UNA COLA HASTA QUE LLEGUE FIN. SOLO HAGO
+     * FLUSH CUANDO LA COLA SE QUEDA VACIA PARA AGRUPAR LAS ESCRITURAS.
+     */
+    private static void vaciar(BlockingQueue<byte[]> cola, OutputStream salida)
+            throws IOException, InterruptedException {
+        byte[] trama;
+        while ((trama = cola.take()) != FIN) {
+            salida.write(trama);
+            if (cola.isEmpty()) {
+                salida.flush();
+            }
+        }
+    }
+
+    /**
+     * CONEXION CON EL SERVIDOR POR LA QUE VAN LAS TRAMAS DE VARIAS SESIONES.
+     */
+    private class Enlace {
+        final int numero;
+        final SocketChannel canal;
+        final LectorTramas entrada;
+        final OutputStream salida;
+        final BlockingQueue<byte[]> cola = new LinkedBlockingQueue<>(CAPACIDAD_ENLACE);
+        final Map<Integer, Sesion> sesiones = new ConcurrentHashMap<>();
+        volatile boolean activo = true;
+
+        Enlace(int numero) throws IOException {
+            this.numero = numero;
+            canal = SocketChannel.open(new InetSocketAddress(host, puertoServidor));
+            TransporteCanal transporte = new TransporteCanal(canal);
+            entrada = new LectorTramas(transporte.getEntrada());
+            salida = new BufferedOutputStream(transporte.getSalida(), TAMANO_BUFFER_ENLACE);
+
+            Thread lector = new Thread(this::leer, "enlace-" + numero);
+            lector.setDaemon(true);
+            lector.start();
+            Thread escritor = new Thread(this::escribir, "enlace-" + numero + "-escritor");
+            escritor.setDaemon(true);
+            escritor.start();
+        }
+
+        void abrirSesion(int numeroSesion, SocketChannel cliente) {
+            Sesion sesion = new Sesion(numeroSesion, this, cliente);
+            sesiones.put(numeroSesion, sesion);
+            sesion.iniciar();
+        }
+
+        /**
+         * DEJO UNA TRAMA PARA EL SERVIDOR. SI EL ENLACE VA LLENO, EL CLIENTE
+         * QUE LA ENVIA ESPERA: ASI NO SE ACUMULA MEMORIA EN LA PASARELA.
+         */
+        void enviar(byte[] trama) {
+            try {
+                while (activo && !cola.offer(trama, 100, TimeUnit.MILLISECONDS)) {
+                    // SIGO ESPERANDO HUECO MIENTRAS EL ENLACE VIVA
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void escribir() {
+            try {
+                vaciar(cola, salida);
+            } catch (IOException e) {
+                caer("NO PUDE ESCRIBIR: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * LEO LO QUE MANDA EL SERVIDOR Y SE LO PASO A LA SESION QUE TOCA,
+         * O A TODAS MENOS LAS EXCLUIDAS SI ES UN BROADCAST.
+         */
+        void leer() {
+            String motivo = "EL SERVIDOR CERRO EL ENLACE";
+            try {
+                ChatMessage mensaje;
+                while ((mensaje = entrada.leer()) != null) {
+                    if (entrada.isDifusion()) {
+                        byte[] trama = trama(0, mensaje);
+                        int[] excluidas = entrada.getExcluidas();
+                        int entregadas = 0;
+                        for (Sesion sesion : sesiones.values()) {
+                            if (!excluida(sesion.numero, excluidas)) {
+                                sesion.entregar(trama);
+                                entregadas++;
+                            }
+                        }
+                        difusiones.incrementAndGet();
+                        entregas.addAndGet(entregadas);
+                        continue;
+                    }
+
+                    // SI LA SESION YA SE CERRO, EL LECTOR SE SALTA LO QUE QUEDE DEL TROZO
+                    Sesion sesion = sesiones.get(entrada.getSesion());
+                    if (sesion == null) {
+                        continue;
+                    }
+                    sesion.entregar(mensaje.getTipo() == MessageType.FRAGMENTO_FICHERO
+                            ? tramaFragmento(0, mensaje, entrada) : trama(0, mensaje));
+                }
+            } catch (IOException | ClassNotFoundException e) {
+                motivo = "ERROR: " + e.getMessage();
+            } finally {
+                caer(motivo);
+            }
+        }
+
+        /**
+         * CIERRO EL ENLACE Y TODAS SUS SESIONES.
+         */
+        synchronized void caer(String motivo) {
+            if (!activo) {
+                return;
+            }
+            activo = false;
+            System.out.println("ENLACE " + numero + " CERRADO (" + motivo + "), SE CIERRAN "
+                    + sesiones.size() + " SESIONES");
+            try {
+                canal.close();
+            } catch (IOException e) {
+                // YA ESTABA CERRADO
+            }
+            cola.clear();
+            cola.offer(FIN);
+            for (Sesion sesion : sesiones.values()) {
+                sesion.cerrar();
+            }
+        }
+    }
+
+    /**
+     * @return TRUE SI LA SESION ESTA EN LA LISTA (SUELE ESTAR VACIA O SER CORTA)
+     */
+    private static boolean excluida(int sesion, int[] excluidas) {
+        for (int excluida : excluidas) {
+            if (excluida == sesion) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * CLIENTE CONECTADO A LA PASARELA: UN HILO LEE SUS TRAMAS Y LAS SUBE
+     * POR SU ENLACE, Y OTRO LE ESCRIBE LO QUE LE LLEGA DEL SERVIDOR.
+     */
+    private static class Sesion {
+        final int numero;
+        final Enlace enlace;
+        final SocketChannel canal;
+        final TransporteCanal transporte;
+        final BlockingQueue<byte[]> cola = new LinkedBlockingQueue<>(MAXIMO_PENDIENTES);
+        volatile boolean abierta = true;
+        String nickname;
+
+        Sesion(int numero, Enlace enlace, SocketChannel canal) {
+            this.numero = numero;
+            this.enlace = enlace;
+            this.canal = canal;
+            this.transporte = new TransporteCanal(canal);
+        }
+
+        void iniciar() {
+            Thread lector = new Thread(this::leer, "sesion-" + numero);
+            lector.setDaemon(true);
+            lector.start();
+            Thread escritor = new Thread(this::escribir, "sesion-" + numero + "-escritor");
+            escritor.setDaemon(true);
+            escritor.start();
+        }
+
+        /**
+         * SUBO AL SERVIDOR LO QUE ENVIA EL CLIENTE. SI SE VA SIN LOGOUT,
+         * LO MANDO YO PARA QUE EL SERVIDOR CIERRE SU SESION.
+         */
+        void leer() {
+            boolean logout = false;
+            try (LectorTramas entrada = new LectorTramas(transporte.getEntrada())) {
+                ChatMessage mensaje;
+                while (!logout && (mensaje = entrada.leer()) != null) {
+                    if (mensaje.getTipo() == MessageType.FRAGMENTO_FICHERO) {
+                        enlace.enviar(tramaFragmento(numero, mensaje, entrada));
+                        continue;
+                    }
+                    if (nickname == null) {
+                        nickname = mensaje.getRemitente();
+                    }
+                    enlace.enviar(trama(numero, mensaje));
+                    logout = mensaje.getTipo() == MessageType.LOGOUT;
+                }
+            } catch (IOException | ClassNotFoundException e) {
+                System.out.println("CLIENTE " + nickname + " DESCONECTADO O ERROR: " + e.getMessage());
+            } finally {
+                if (!logout && enlace.activo) {
+                    try {
+                        enlace.enviar(trama(numero, new ChatMessage(nickname, "CONEXION PERDIDA", MessageType.LOGOUT)));
+                    } catch (IOException e) {
+                        // SIN LOGOUT EL SERVIDOR LA CIERRA AL CAER EL ENLACE
+                    }
+                }
+                cerrar();
+            }
+        }
+
+        void escribir() {
+            try {
+                vaciar(cola, new BufferedOutputStream(transporte.getSalida(), TAMANO_BUFFER_CLIENTE));
+            } catch (IOException e) {
+                cerrar();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * DEJO UNA TRAMA PARA EL CLIENTE SIN ESPERAR: SI TIENE LA COLA
+         * LLENA ES QUE NO LEE, Y CIERRO SU SESION PARA NO FRENAR AL ENLACE.
+         */
+        void entregar(byte[] trama) {
+            if (abierta && !cola.offer(trama)) {
+                System.out.println("CLIENTE " + nickname + " NO LEE, CIERRO SU SESION");
+                cerrar();
+            }
+        }
+
+        synchronized void cerrar() {
+            if (!abierta) {
+                return;
+            }
+            abierta = false;
+            enlace.sesiones.remove(numero);
+            try {
+                canal.close();
+            } catch (IOException e) {
+                // YA ESTABA CERRADO
+            }
+            cola.clear();
+            cola.offer(FIN);
+        }
+    }
+
+    /**
+     * METODO MAIN PARA LANZAR LA PASARELA DESDE CONSOLA.
+     *
+     * @param args [SERVIDOR] [PUERTO DEL SERVIDOR] [ENLACES] [PUERTO LOCAL]
+     */
+    public static void main(String[] args) {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int puertoServidor = args.length > 1 ? Integer.parseInt(args[1]) : PUERTO_SERVIDOR;
+        int numeroEnlaces = args.length > 2 ? Integer.parseInt(args[2]) : ENLACES;
+        int puertoLocal = args.length > 3 ? Integer.parseInt(args[3]) : PUERTO;
+
+        Pasarela pasarela = new Pasarela(host, puertoServidor, numeroEnlaces);
+        Runtime.getRuntime().addShutdownHook(new Thread(pasarela::detener));
+        try {
+            pasarela.conectar();
+            pasarela.escuchar(puertoLocal);
+        } catch (IOException e) {
+            System.out.println("NO PUDE INICIAR LA PASARELA: " + e.getMessage());
+            pasarela.detener();
+        }
+    }
+}
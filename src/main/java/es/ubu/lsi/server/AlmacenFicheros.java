@@ -0,0 +1,377 @@
+package es.ubu.lsi.server;
+
+import es.ubu.lsi.common.LectorTramas;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ALMACEN EN DISCO DE LOS FICHEROS QUE SE COMPARTEN EN EL CHAT.
+ * LOS TROZOS QUE SUBE EL REMITENTE SE ESCRIBEN EN UN FICHERO DEL
+ * DIRECTORIO DEL ALMACEN Y, CUANDO ESTA COMPLETO, SE ENVIA DESDE
+ * ALLI A CADA USUARIO QUE LO ACEPTE SIN CARGARLO EN MEMORIA.
+ * LOS FICHEROS CADUCAN Y SE BORRAN AL CERRAR EL SERVIDOR.
+ * PARA QUE NADIE LLENE EL DISCO, AL ACEPTAR UNA OFERTA SE RESERVA SU
+ * TAMAÑO ANUNCIADO DENTRO DE UNA CUOTA POR USUARIO (BYTES Y FICHEROS)
+ * Y DE UNA CUOTA TOTAL, Y SE LIBERA AL BORRAR EL FICHERO.
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public class AlmacenFicheros implements Closeable {
+
+    /** TAMAÑO MAXIMO DE UN FICHERO COMPARTIDO (256 MB) */
+    public static final long MAXIMO_FICHERO = 256L * 1024 * 1024;
+
+    /** TIEMPO QUE SE GUARDA UN FICHERO PARA QUE LO ACEPTEN (1 HORA) */
+    public static final long CADUCIDAD_MS = 60 * 60 * 1000L;
+
+    /** BYTES QUE PUEDE TENER GUARDADOS A LA VEZ CADA USUARIO (512 MB) */
+    public static final long MAXIMO_POR_USUARIO = 512L * 1024 * 1024;
+
+    /** FICHEROS QUE PUEDE TENER GUARDADOS A LA VEZ CADA USUARIO, SUBIENDO O YA OFRECIDOS */
+    public static final int MAXIMO_FICHEROS_POR_USUARIO = 16;
+
+    /** BYTES QUE PUEDE OCUPAR EL ALMACEN ENTERO (2 GB) */
+    public static final long MAXIMO_TOTAL = 2L * 1024 * 1024 * 1024;
+
+    /** DIRECTORIO DONDE SE GUARDAN LOS FICHEROS */
+    private final Path directorio;
+
+    /** TAMAÑO MAXIMO DE CADA FICHERO */
+    private final long maximoFichero;
+
+    /** FICHEROS POR IDENTIFICADOR DE TRANSFERENCIA */
+    private final Map<Long, Fichero> ficheros = new ConcurrentHashMap<>();
+
+    /** ULTIMO IDENTIFICADOR DE TRANSFERENCIA ASIGNADO */
+    private final AtomicLong ultimoId = new AtomicLong();
+
+    /** CUOTAS DE ESPACIO, SE PUEDEN CAMBIAR CON SETCUOTAS() */
+    private long maximoPorUsuario = MAXIMO_POR_USUARIO;
+    private int maximoFicherosPorUsuario = MAXIMO_FICHEROS_POR_USUARIO;
+    private long maximoTotal = MAXIMO_TOTAL;
+
+    /** ESPACIO RESERVADO POR CADA USUARIO, PROTEGIDO POR EL ALMACEN */
+    private final Map<String, Cuota> cuotas = new HashMap<>();
+
+    /** BYTES RESERVADOS EN TOTAL, PROTEGIDO POR EL ALMACEN */
+    private long bytesReservados;
+
+    /**
+     * CONSTRUCTOR CON EL TAMAÑO MAXIMO POR DEFECTO.
+     *
+     * @param directorio DIRECTORIO PARA LOS FICHEROS
+     * @throws IOException SI NO SE PUEDE PREPARAR EL DIRECTORIO
+     */
+    public AlmacenFicheros(Path directorio) throws IOException {
+        this(directorio, MAXIMO_FICHERO);
+    }
+
+    /**
+     * CONSTRUCTOR COMPLETO. BORRA LO QUE QUEDARA DE UNA EJECUCION ANTERIOR,
+     * PORQUE SUS OFERTAS YA NO LAS CONOCE NINGUN CLIENTE.
+     *
+     * @param directorio DIRECTORIO PARA LOS FICHEROS
+     * @param maximoFichero TAMAÑO MAXIMO DE CADA FICHERO
+     * @throws IOException SI NO SE PUEDE PREPARAR EL DIRECTORIO
+     */
+    public AlmacenFicheros(Path directorio, long maximoFichero) throws IOException {
+        this.directorio = directorio;
+        this.maximoFichero = maximoFichero;
+        Files.createDirectories(directorio);
+        try (DirectoryStream<Path> restos = Files.newDirectoryStream(directorio)) {
+            for (Path resto : restos) {
+                Files.deleteIfExists(resto);
+            }
+        }
+    }
+
+    /**
+     * CAMBIO LAS CUOTAS DE ESPACIO. LO YA GUARDADO NO SE TOCA.
+     *
+     * @param porUsuario BYTES QUE PUEDE TENER GUARDADOS CADA USUARIO
+     * @param ficherosPorUsuario FICHEROS QUE PUEDE TENER GUARDADOS CADA USUARIO
+     * @param total BYTES QUE PUEDE OCUPAR EL ALMACEN
+     */
+    public synchronized void setCuotas(long porUsuario, int ficherosPorUsuario, long total) {
+        if (porUsuario < 0 || ficherosPorUsuario <= 0 || total < 0) {
+            throw new IllegalArgumentException("CUOTAS NO VALIDAS: " + porUsuario + ", " + ficherosPorUsuario + ", " + total);
+        }
+        this.maximoPorUsuario = porUsuario;
+        this.maximoFicherosPorUsuario = ficherosPorUsuario;
+        this.maximoTotal = total;
+    }
+
+    /**
+     * PREPARO UN FICHERO NUEVO PARA RECIBIR SUS TROZOS, RESERVANDO SU
+     * TAMAÑO ANUNCIADO EN LAS CUOTAS DEL REMITENTE Y DEL ALMACEN.
+     *
+     * @param remitente USUARIO QUE LO COMPARTE
+     * @param nombre NOMBRE DEL FICHERO
+     * @param tamano TAMAÑO ANUNCIADO EN BYTES
+     * @param destinatario USUARIO AL QUE SE OFRECE, NULL PARA TODOS
+     * @return FICHERO VACIO LISTO PARA RECIBIR
+     * @throws IOException SI NO SE PUEDE CREAR EN DISCO
+     * @throws IllegalArgumentException SI EL TAMAÑO NO ES VALIDO O NO CABE EN LAS CUOTAS
+     */
+    public Fichero crear(String remitente, String nombre, long tamano, String destinatario) throws IOException {
+        if (tamano < 0 || tamano > maximoFichero) {
+            throw new IllegalArgumentException("TAMAÑO NO PERMITIDO: " + tamano + " BYTES (MAXIMO " + maximoFichero + ")");
+        }
+        purgar();
+        reservar(remitente, tamano);
+
+        long id = ultimoId.incrementAndGet();
+        Path ruta = directorio.resolve(Long.toString(id));
+        FileChannel escritura;
+        try {
+            escritura = FileChannel.open(ruta, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            liberar(remitente, tamano);
+            throw e;
+        }
+        Fichero fichero = new Fichero(id, remitente, nombre, tamano, destinatario, ruta, escritura);
+        ficheros.put(id, fichero);
+        return fichero;
+    }
+
+    /**
+     * RESERVO ESPACIO PARA UN FICHERO SI CABE EN LAS CUOTAS.
+     *
+     * @param remitente USUARIO QUE LO COMPARTE
+     * @param tamano TAMAÑO ANUNCIADO
+     * @throws IllegalArgumentException SI NO CABE
+     */
+    private synchronized void reservar(String remitente, long tamano) {
+        Cuota cuota = cuotas.get(remitente);
+        int ficherosUsuario = cuota == null ? 0 : cuota.ficheros;
+        long bytesUsuario = cuota == null ? 0 : cuota.bytes;
+        if (ficherosUsuario >= maximoFicherosPorUsuario) {
+            throw new IllegalArgumentException("YA TIENES " + ficherosUsuario + " FICHEROS COMPARTIDOS, ESPERA A QUE CADUQUEN");
+        }
+        if (bytesUsuario + tamano > maximoPorUsuario) {
+            throw new IllegalArgumentException("NO CABE EN TU CUOTA: USAS " + bytesUsuario + " DE " + maximoPorUsuario + " BYTES");
+        }
+        if (bytesReservados + tamano > maximoTotal) {
+            throw new IllegalArgumentException("EL ALMACEN DE FICHEROS ESTA LLENO, PRUEBA MAS TARDE");
+        }
+        if (cuota == null) {
+            cuota = new Cuota();
+            cuotas.put(remitente, cuota);
+        }
+        cuota.ficheros++;
+        cuota.bytes += tamano;
+        bytesReservados += tamano;
+    }
+
+    /**
+     * DEVUELVO A LAS CUOTAS EL ESPACIO DE UN FICHERO.
+     *
+     * @param remitente USUARIO QUE LO COMPARTIO
+     * @param tamano TAMAÑO RESERVADO
+     */
+    private synchronized void liberar(String remitente, long tamano) {
+        Cuota cuota = cuotas.get(remitente);
+        if (cuota != null && --cuota.ficheros == 0) {
+            cuotas.remove(remitente);
+        } else if (cuota != null) {
+            cuota.bytes -= tamano;
+        }
+        bytesReservados -= tamano;
+    }
+
+    /**
+     * BUSCO UN FICHERO POR SU IDENTIFICADOR.
+     *
+     * @param id IDENTIFICADOR DE LA TRANSFERENCIA
+     * @return FICHERO, O NULL SI NO EXISTE O HA CADUCADO
+     */
+    public Fichero buscar(long id) {
+        Fichero fichero = ficheros.get(id);
+        if (fichero != null && fichero.caducado(System.currentTimeMillis())) {
+            descartar(fichero);
+            return null;
+        }
+        return fichero;
+    }
+
+    /**
+     * QUITO UN FICHERO DEL ALMACEN Y LO BORRO DEL DISCO. LOS ENVIOS QUE YA
+     * LO TENGAN ABIERTO TERMINAN, PORQUE EL SISTEMA NO LIBERA EL FICHERO
+     * HASTA QUE SE CIERRA.
+     *
+     * @param fichero FICHERO A BORRAR
+     */
+    public void descartar(Fichero fichero) {
+        if (ficheros.remove(fichero.id, fichero)) {
+            liberar(fichero.remitente, fichero.tamano);
+        }
+        try {
+            fichero.escritura.close();
+            Files.deleteIfExists(fichero.ruta);
+        } catch (IOException e) {
+            System.out.println("NO PUDE BORRAR EL FICHERO " + fichero.ruta + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * BORRO LOS FICHEROS CADUCADOS.
+     */
+    private void purgar() {
+        long ahora = System.currentTimeMillis();
+        Iterator<Fichero> it = ficheros.values().iterator();
+        while (it.hasNext()) {
+            Fichero fichero = it.next();
+            if (fichero.caducado(ahora)) {
+                descartar(fichero);
+            }
+        }
+    }
+
+    /**
+     * @return NUMERO DE FICHEROS GUARDADOS
+     */
+    public int getFicheros() {
+        return ficheros.size();
+    }
+
+    /**
+     * @return BYTES RESERVADOS POR LOS FICHEROS GUARDADOS
+     */
+    public synchronized long getBytesReservados() {
+        return bytesReservados;
+    }
+
+    /**
+     * BORRO TODOS LOS FICHEROS.
+     */
+    @Override
+    public void close() {
+        for (Fichero fichero : ficheros.values()) {
+            descartar(fichero);
+        }
+    }
+
+    /**
+     * ESPACIO QUE TIENE RESERVADO UN USUARIO.
+     */
+    private static class Cuota {
+        private int ficheros;
+        private long bytes;
+    }
+
+    /**
+     * FICHERO COMPARTIDO: PRIMERO SE VA RELLENANDO CON LOS TROZOS DEL
+     * REMITENTE Y, UNA VEZ COMPLETO, SOLO SE LEE.
+     */
+    public static class Fichero {
+        private final long id;
+        private final String remitente;
+        private final String nombre;
+        private final long tamano;
+        private final String destinatario;
+        private final Path ruta;
+        private final FileChannel escritura;
+        private final long creado = System.currentTimeMillis();
+        private long recibidos;
+        private volatile boolean completo;
+
+        Fichero(long id, String remitente, String nombre, long tamano, String destinatario,
+                Path ruta, FileChannel escritura) {
+            this.id = id;
+            this.remitente = remitente;
+            this.nombre = nombre;
+            this.tamano = tamano;
+            this.destinatario = destinatario;
+            this.ruta = ruta;
+            this.escritura = escritura;
+        }
+
+        /**
+         * GUARDO EN DISCO EL TROZO QUE ACABA DE LEER EL LECTOR.
+         *
+         * @param lector LECTOR QUE ACABA DE DEVOLVER LA CABECERA DEL TROZO
+         * @throws IOException SI FALLA LA ESCRITURA O EL TROZO SOBREPASA EL TAMAÑO ANUNCIADO
+         */
+        public void recibir(LectorTramas lector) throws IOException {
+            if (recibidos + lector.getLongitudFragmento() > tamano) {
+                lector.descartarFragmento();
+                throw new IOException("EL FICHERO " + nombre + " SUPERA EL TAMAÑO ANUNCIADO");
+            }
+            recibidos += lector.copiarFragmento(escritura);
+        }
+
+        /**
+         * CIERRO LA ESCRITURA CUANDO LLEGA EL ULTIMO TROZO.
+         *
+         * @return TRUE SI SE RECIBIO EL TAMAÑO ANUNCIADO
+         * @throws IOException SI FALLA EL CIERRE
+         */
+        public boolean completar() throws IOException {
+            escritura.close();
+            completo = recibidos == tamano;
+            return completo;
+        }
+
+        /**
+         * ABRO EL FICHERO PARA ENVIARLO A UN USUARIO.
+         *
+         * @return CANAL DE LECTURA (LO CIERRA QUIEN LO PIDE)
+         * @throws IOException SI NO SE PUEDE ABRIR
+         */
+        public FileChannel abrirLectura() throws IOException {
+            return FileChannel.open(ruta, StandardOpenOption.READ);
+        }
+
+        /**
+         * COMPRUEBO SI UN USUARIO PUEDE DESCARGAR EL FICHERO.
+         *
+         * @param nickname USUARIO QUE LO PIDE
+         * @return TRUE SI SE OFRECIO A TODOS, A EL, O ES SU REMITENTE
+         */
+        public boolean esPara(String nickname) {
+            return destinatario == null || destinatario.equals(nickname) || remitente.equals(nickname);
+        }
+
+        boolean caducado(long ahora) {
+            return ahora - creado > CADUCIDAD_MS;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getRemitente() {
+            return remitente;
+        }
+
+        public String getNombre() {
+            return nombre;
+        }
+
+        public long getTamano() {
+            return tamano;
+        }
+
+        public String getDestinatario() {
+            return destinatario;
+        }
+
+        public boolean isCompleto() {
+            return completo;
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package es.ubu.lsi.server;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ANFITRION DE MUCHOS CHATS PEQUEÑOS EN UN SOLO PROCESO. CADA CHAT ES UN
+ * CHATSERVERIMPL CON SU PUERTO, SU DIRECTORIO (LOG, BUZON, INDICE, ESTADO)
+ * Y SUS CLIENTES, PERO TODOS COMPARTEN:
+ * <ul>
+ * <li>UN HILO QUE ACEPTA LAS CONEXIONES DE TODOS LOS PUERTOS CON UN SELECTOR,
+ * EN LUGAR DE UN HILO BLOQUEADO EN ACCEPT() POR CHAT.</li>
+ * <li>UN POOL FORK-JOIN PARA REPARTIR LOS BROADCAST DE LAS SALAS GRANDES.</li>
+ * <li>LOS BUFFERS DE CODIFICACION DE CADA HILO (CODECMENSAJES).</li>
+ * <li>EL CONTROL DE CARGA: LA MEMORIA ES UNA, ASI QUE LO PENDIENTE EN LAS
+ * COLAS DE TODOS LOS CHATS SE CUENTA JUNTO, PERO CON SOBRECARGA SOLO SE
+ * FRENA A LOS CHATS QUE SE PASAN DE SU PARTE.</li>
+ * </ul>
+ * PARA QUE UN CHAT MUY ACTIVO NO DEJE SIN SERVICIO A LOS DEMAS, EN CADA
+ * VUELTA DEL SELECTOR SE ACEPTAN POCAS CONEXIONES DE CADA PUERTO, CADA CHAT
+ * SOLO PUEDE TENER UNAS POCAS DIFUSIONES EN EL POOL A LA VEZ Y SE LE PUEDEN
+ * PONER LIMITES DE CONEXIONES Y DE MENSAJES POR SEGUNDO.
+ * <p>
+ * LO QUE NO SE COMPARTE SON LOS HILOS DE LOS CLIENTES: UNA VEZ ACEPTADO,
+ * CADA CLIENTE DE CADA CHAT TIENE SU HILO LECTOR Y SU HILO ESCRITOR, QUE
+ * LEEN Y ESCRIBEN BLOQUEANDO COMO EN UN CHAT SUELTO. LOS HILOS DEL PROCESO
+ * CRECEN CON LOS CLIENTES DE TODOS LOS CHATS (DOS POR CLIENTE), Y LO UNICO
+ * QUE LOS ACOTA ES EL LIMITE DE CONEXIONES DE CADA CHAT, ASI QUE CONVIENE
+ * PONERLO AL AGREGAR CHATS. LOS CLIENTES QUE LLEGAN POR UNA PASARELA SI
+ * COMPARTEN LOS DOS HILOS DE SU ENLACE.
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public class AnfitrionChats implements Closeable {
+
+    /** DIFUSIONES DE UN CHAT QUE SE REPARTEN A LA VEZ EN EL POOL COMPARTIDO */
+    public static final int DIFUSIONES_EN_POOL = 2;
+
+    /** CONEXIONES QUE SE ACEPTAN DE CADA PUERTO EN UNA VUELTA DEL SELECTOR */
+    private static final int ACEPTADAS_POR_VUELTA = 16;
+
+    /** DIRECTORIO DONDE CADA CHAT TIENE EL SUYO */
+    private final Path raiz;
+
+    /** SELECTOR CON LOS PUERTOS DE TODOS LOS CHATS */
+    private final Selector selector;
+
+    /** POOL COMPARTIDO PARA LAS DIFUSIONES GRANDES */
+    private final ForkJoinPool pool;
+
+    /** CONTROL DE CARGA GLOBAL; CADA CHAT TIENE EL SUYO DENTRO DE ESTE */
+    private final ControlCarga carga = new ControlCarga();
+
+    /** CHATS POR NOMBRE */
+    private final Map<String, Chat> chats = new ConcurrentSkipListMap<>();
+
+    /** PUERTOS QUE EL HILO DEL SELECTOR AUN NO HA REGISTRADO */
+    private final Queue<Chat> porRegistrar = new ConcurrentLinkedQueue<>();
+
+    /** HILO QUE ACEPTA LAS CONEXIONES */
+    private final Thread aceptador;
+
+    private volatile boolean abierto = true;
+    private volatile boolean traza = true;
+
+    /**
+     * CONSTRUCTOR. ARRANCA EL HILO QUE ACEPTA, AUNQUE AUN NO HAYA CHATS.
+     *
+     * @param raiz DIRECTORIO DONDE CADA CHAT TENDRA EL SUYO
+     * @throws IOException SI NO SE PUEDE ABRIR EL SELECTOR
+     */
+    public AnfitrionChats(Path raiz) throws IOException {
+        this.raiz = raiz;
+        this.selector = Selector.open();
+        this.pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        this.aceptador = new Thread(this::aceptar, "anfitrion-aceptador");
+        aceptador.setDaemon(true);
+        aceptador.start();
+    }
+
+    /**
+     * ACTIVO O QUITO EL ECO EN CONSOLA DE LOS CHATS QUE SE AÑADAN DESPUES.
+     *
+     * @param traza FALSE PARA NO REGISTRAR NADA
+     */
+    public void setTraza(boolean traza) {
+        this.traza = traza;
+    }
+
+    /**
+     * AÑADO UN CHAT Y EMPIEZO A ACEPTAR SUS CONEXIONES.
+     *
+     * @param nombre NOMBRE DEL CHAT, QUE ES TAMBIEN SU DIRECTORIO
+     * @param puerto PUERTO TCP DE SUS CLIENTES (0 PARA UNO LIBRE)
+     * @param conexiones CONEXIONES A LA VEZ, 0 SIN LIMITE
+     * @param mensajesPorSegundo MENSAJES DE CHAT POR SEGUNDO, 0 SIN LIMITE
+     * @return SERVIDOR DEL CHAT, YA EN MARCHA
+     * @throws IOException SI NO SE PUEDE CREAR SU DIRECTORIO O ABRIR SU PUERTO
+     */
+    public ChatServerImpl agregar(String nombre, int puerto, int conexiones, int mensajesPorSegundo) throws IOException {
+        if (!abierto) {
+            throw new IllegalStateException("EL ANFITRION ESTA CERRADO");
+        }
+        if (!nombre.matches("[A-Za-z0-9_-]+")) {
+            throw new IllegalArgumentException("NOMBRE DE CHAT NO VALIDO: " + nombre);
+        }
+        if (chats.containsKey(nombre)) {
+            throw new IllegalArgumentException("YA HAY UN CHAT LLAMADO " + nombre);
+        }
+
+        Path directorio = raiz.resolve(nombre);
+        Files.createDirectories(directorio);
+        ChatServerImpl servidor = new ChatServerImpl(directorio);
+        servidor.setNombre(nombre);
+        servidor.setTraza(traza);
+        servidor.setLimites(conexiones, mensajesPorSegundo);
+        servidor.setDifusion(new DifusionParalela(DifusionParalela.UMBRAL, DifusionParalela.PARTICION,
+                pool, DIFUSIONES_EN_POOL));
+        ControlCarga suya = carga.crearInquilino();
+        servidor.setControlCarga(suya);
+
+        ServerSocketChannel canal = ServerSocketChannel.open();
+        try {
+            canal.bind(new InetSocketAddress(puerto));
+            canal.configureBlocking(false);
+            servidor.iniciar(canal);
+        } catch (IOException e) {
+            // CIERRA EL PUERTO Y LOS FICHEROS QUE ABRIO EL CONSTRUCTOR
+            canal.close();
+            servidor.shutdown();
+            suya.retirar();
+            throw e;
+        }
+
+        Chat chat = new Chat(servidor, canal);
+        chats.put(nombre, chat);
+        porRegistrar.add(chat);
+        selector.wakeup();
+        return servidor;
+    }
+
+    /**
+     * QUITO UN CHAT: DEJA DE ACEPTAR, AVISA A SUS CLIENTES Y CIERRA SUS FICHEROS.
+     *
+     * @param nombre NOMBRE DEL CHAT
+     * @return TRUE SI EXISTIA
+     */
+    public boolean quitar(String nombre) {
+        Chat chat = chats.remove(nombre);
+        if (chat == null) {
+            return false;
+        }
+        // EL PUERTO CERRADO NO SE SUELTA HASTA QUE EL SELECTOR DA OTRA VUELTA
+        chat.servidor.shutdown();
+        chat.servidor.getControlCarga().retirar();
+        selector.wakeup();
+        return true;
+    }
+
+    /**
+     * @param nombre NOMBRE DEL CHAT
+     * @return SERVIDOR DEL CHAT, O NULL SI NO EXISTE
+     */
+    public ChatServerImpl getChat(String nombre) {
+        Chat chat = chats.get(nombre);
+        return chat == null ? null : chat.servidor;
+    }
+
+    /**
+     * @return UNA LINEA POR CHAT CON SU PUERTO Y SUS METRICAS, Y OTRA CON EL POOL COMPARTIDO
+     */
+    public String getInforme() {
+        StringBuilder informe = new StringBuilder();
+        for (Map.Entry<String, Chat> entrada : chats.entrySet()) {
+            ChatServerImpl servidor = entrada.getValue().servidor;
+            informe.append(entrada.getKey()).append(" puerto=").append(servidor.getPuerto())
+                    .append(' ').append(servidor.getMetricas()).append('\n');
+        }
+        informe.append(String.format("chats=%d pool: paralelismo=%d activos=%d robos=%d carga: %s",
+                chats.size(), pool.getParallelism(), pool.getActiveThreadCount(), pool.getStealCount(), carga));
+        return informe.toString();
+    }
+
+    /**
+     * BUCLE DEL HILO QUE ACEPTA LAS CONEXIONES DE TODOS LOS CHATS.
+     */
+    private void aceptar() {
+        while (abierto) {
+            try {
+                selector.select();
+
+                // LOS PUERTOS NUEVOS SE REGISTRAN DESDE ESTE HILO
+                Chat nuevo;
+                while ((nuevo = porRegistrar.poll()) != null) {
+                    if (nuevo.canal.isOpen()) {
+                        nuevo.canal.register(selector, SelectionKey.OP_ACCEPT, nuevo);
+                    }
+                }
+
+                Iterator<SelectionKey> claves = selector.selectedKeys().iterator();
+                while (claves.hasNext()) {
+                    SelectionKey clave = claves.next();
+                    claves.remove();
+                    try {
+                        if (clave.isValid() && clave.isAcceptable()) {
+                            atender((Chat) clave.attachment());
+                        }
+                    } catch (CancelledKeyException e) {
+                        // EL CHAT SE HA QUITADO MIENTRAS TANTO
+                    }
+                }
+            } catch (IOException e) {
+                if (abierto) {
+                    System.out.println("ERROR EN EL ACEPTADOR DEL ANFITRION: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * ACEPTO LAS CONEXIONES PENDIENTES DE UN CHAT, COMO MUCHO UNAS POCAS:
+     * LAS DEMAS ESPERAN A LA SIGUIENTE VUELTA, DESPUES DE LAS DE LOS OTROS CHATS.
+     */
+    private void atender(Chat chat) {
+        for (int i = 0; i < ACEPTADAS_POR_VUELTA; i++) {
+            SocketChannel canal;
+            try {
+                canal = chat.canal.accept();
+            } catch (IOException e) {
+                System.out.println("ERROR AL ACEPTAR EN EL PUERTO " + chat.servidor.getPuerto() + ": " + e.getMessage());
+                return;
+            }
+            if (canal == null) {
+                return;
+            }
+            try {
+                // LOS HILOS DE CADA CLIENTE LEEN Y ESCRIBEN BLOQUEANDO: DOS HILOS POR CLIENTE
+                canal.configureBlocking(true);
+                chat.servidor.aceptar(canal);
+            } catch (IOException e) {
+                System.out.println("ERROR AL PREPARAR UNA CONEXION: " + e.getMessage());
+                try {
+                    canal.close();
+                } catch (IOException ignorada) {
+                    // YA ESTABA ROTA
+                }
+            }
+        }
+    }
+
+    /**
+     * CIERRO TODOS LOS CHATS, EL HILO QUE ACEPTA Y EL POOL COMPARTIDO.
+     */
+    @Override
+    public void close() throws IOException {
+        abierto = false;
+        selector.wakeup();
+        try {
+            aceptador.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (String nombre : chats.keySet()) {
+            quitar(nombre);
+        }
+        selector.close();
+        pool.shutdown();
+        try {
+            pool.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * AÑADO UN CHAT DESCRITO COMO NOMBRE:PUERTO[:CONEXIONES[:MENSAJES POR SEGUNDO]].
+     */
+    private static void agregar(AnfitrionChats anfitrion, String descripcion) throws IOException {
+        String[] partes = descripcion.split(":");
+        if (partes.length < 2 || partes.length > 4) {
+            throw new IllegalArgumentException("CHAT NO VALIDO, USO NOMBRE:PUERTO[:CONEXIONES[:MENSAJES]]: " + descripcion);
+        }
+        int conexiones = partes.length > 2 ? Integer.parseInt(partes[2]) : Integer.getInteger("chat.anfitrion.conexiones", 0);
+        int mensajes = partes.length > 3 ? Integer.parseInt(partes[3]) : Integer.getInteger("chat.anfitrion.mensajes", 0);
+        ChatServerImpl servidor = anfitrion.agregar(partes[0], Integer.parseInt(partes[1]), conexiones, mensajes);
+        System.out.println("CHAT " + partes[0] + " EN EL PUERTO " + servidor.getPuerto());
+    }
+
+    /**
+     * METODO PRINCIPAL. TRAS ARRANCAR LOS CHATS INDICADOS LEE ORDENES DE LA
+     * ENTRADA ESTANDAR: "agregar NOMBRE:PUERTO[:CONEXIONES[:MENSAJES]]",
+     * "quitar NOMBRE", "estado" Y "salir". LOS LIMITES POR DEFECTO SE TOMAN DE
+     * -Dchat.anfitrion.conexiones Y -Dchat.anfitrion.mensajes, Y
+     * -Dchat.anfitrion.traza=false QUITA EL ECO DE LOS CHATS EN LA CONSOLA.
+     *
+     * @param args [DIRECTORIO RAIZ] [NOMBRE:PUERTO[:CONEXIONES[:MENSAJES]]]...
+     * @throws IOException SI NO SE PUEDE ARRANCAR EL ANFITRION O UN CHAT
+     */
+    public static void main(String[] args) throws IOException {
+        AnfitrionChats anfitrion = new AnfitrionChats(Paths.get(args.length > 0 ? args[0] : "chats"));
+        anfitrion.setTraza(Boolean.parseBoolean(System.getProperty("chat.anfitrion.traza", "true")));
+        for (int i = 1; i < args.length; i++) {
+            agregar(anfitrion, args[i]);
+        }
+        System.out.println(anfitrion.getInforme());
+
+        BufferedReader ordenes = new BufferedReader(new InputStreamReader(System.in));
+        String linea;
+        while ((linea = ordenes.readLine()) != null) {
+            String[] partes = linea.trim().split("\\s+", 2);
+            try {
+                switch (partes[0]) {
+                    case "agregar":
+                        agregar(anfitrion, partes[1]);
+                        break;
+                    case "quitar":
+                        if (!anfitrion.quitar(partes[1])) {
+                            System.out.println("NO HAY NINGUN CHAT LLAMADO " + partes[1]);
+                        }
+                        break;
+                    case "estado":
+                    case "":
+                        break;
+                    case "salir":
+                        anfitrion.close();
+                        return;
+                    default:
+                        System.out.println("ORDEN DESCONOCIDA: " + partes[0]);
+                        continue;
+                }
+                System.out.println(anfitrion.getInforme());
+            } catch (IOException | RuntimeException e) {
+                System.out.println("ORDEN NO VALIDA: " + e.getMessage());
+            }
+        }
+        // SIN ENTRADA (POR EJEMPLO EN SEGUNDO PLANO) SIGUE FUNCIONANDO HASTA QUE LO MATEN
+        try {
+            Thread.currentThread().join();
+        } catch (InterruptedException e) {
+            anfitrion.close();
+        }
+    }
+
+    /**
+     * UN CHAT DEL ANFITRION: SU SERVIDOR Y SU PUERTO.
+     */
+    private static final class Chat {
+        final ChatServerImpl servidor;
+        final ServerSocketChannel canal;
+
+        Chat(ChatServerImpl servidor, ServerSocketChannel canal) {
+            this.servidor = servidor;
+            this.canal = canal;
+        }
+    }
+}
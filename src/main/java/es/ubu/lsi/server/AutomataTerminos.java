@@ -0,0 +1,189 @@
+package es.ubu.lsi.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * AUTOMATA DE AHO-CORASICK COMPILADO A PARTIR DE UNA LISTA DE TERMINOS.
+ * BUSCA TODOS LOS TERMINOS A LA VEZ EN UNA SOLA PASADA POR EL TEXTO,
+ * ASI QUE EL COSTE NO DEPENDE DE CUANTOS TERMINOS HAYA. NO DISTINGUE
+ * MAYUSCULAS DE MINUSCULAS. UNA VEZ CREADO NO CAMBIA, POR LO QUE LO
+ * PUEDEN USAR VARIOS HILOS A LA VEZ SIN SINCRONIZAR.
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public final class AutomataTerminos {
+
+    /** AUTOMATA SIN TERMINOS: NUNCA ENCUENTRA NADA */
+    public static final AutomataTerminos VACIO = new AutomataTerminos(new ArrayList<String>());
+
+    /** CARACTERES DE LAS TRANSICIONES DE CADA ESTADO, ORDENADOS */
+    private final char[][] etiquetas;
+
+    /** ESTADO DESTINO DE CADA TRANSICION */
+    private final int[][] destinos;
+
+    /** ESTADO AL QUE SE VUELVE CUANDO NO HAY TRANSICION */
+    private final int[] fallos;
+
+    /** LONGITUD DEL TERMINO MAS LARGO QUE TERMINA EN CADA ESTADO, 0 SI NINGUNO */
+    private final int[] longitudes;
+
+    /** NUMERO DE TERMINOS COMPILADOS */
+    private final int terminos;
+
+    /**
+     * COMPILO EL AUTOMATA. LOS TERMINOS VACIOS SE IGNORAN.
+     *
+     * @param lista TERMINOS A BUSCAR
+     */
+    public AutomataTerminos(Collection<String> lista) {
+        // PRIMERO EL ARBOL DE PREFIJOS CON MAPAS, QUE ES COMODO DE CONSTRUIR
+        List<TreeMap<Character, Integer>> hijos = new ArrayList<>();
+        List<Integer> finales = new ArrayList<>();
+        hijos.add(new TreeMap<Character, Integer>());
+        finales.add(0);
+        int compilados = 0;
+
+        for (String termino : lista) {
+            if (termino == null || termino.isEmpty()) {
+                continue;
+            }
+            int estado = 0;
+            for (int i = 0; i < termino.length(); i++) {
+                char c = Character.toLowerCase(termino.charAt(i));
+                Integer siguiente = hijos.get(estado).get(c);
+                if (siguiente == null) {
+                    siguiente = hijos.size();
+                    hijos.add(new TreeMap<Character, Integer>());
+                    finales.add(0);
+                    hijos.get(estado).put(c, siguiente);
+                }
+                estado = siguiente;
+            }
+            finales.set(estado, termino.length());
+            compilados++;
+        }
+
+        // LUEGO LO PASO A ARRAYS ORDENADOS PARA BUSCAR SIN OBJETOS
+        int estados = hijos.size();
+        etiquetas = new char[estados][];
+        destinos = new int[estados][];
+        fallos = new int[estados];
+        longitudes = new int[estados];
+        for (int s = 0; s < estados; s++) {
+            TreeMap<Character, Integer> mapa = hijos.get(s);
+            etiquetas[s] = new char[mapa.size()];
+            destinos[s] = new int[mapa.size()];
+            int n = 0;
+            for (Map.Entry<Character, Integer> transicion : mapa.entrySet()) {
+                etiquetas[s][n] = transicion.getKey();
+                destinos[s][n] = transicion.getValue();
+                n++;
+            }
+            longitudes[s] = finales.get(s);
+        }
+        terminos = compilados;
+
+        // Y CALCULO LOS FALLOS POR NIVELES: CADA ESTADO HEREDA EL TERMINO
+        // MAS LARGO DE SU FALLO, QUE ES UN SUFIJO SUYO
+        ArrayDeque<Integer> pendientes = new ArrayDeque<>();
+        for (int hijo : destinos[0]) {
+            pendientes.add(hijo);
+        }
+        while (!pendientes.isEmpty()) {
+            int estado = pendientes.poll();
+            for (int n = 0; n < etiquetas[estado].length; n++) {
+                char c = etiquetas[estado][n];
+                int hijo = destinos[estado][n];
+                int fallo = fallos[estado];
+                while (fallo != 0 && transitar(fallo, c) < 0) {
+                    fallo = fallos[fallo];
+                }
+                int destino = transitar(fallo, c);
+                fallos[hijo] = destino >= 0 && destino != hijo ? destino : 0;
+                longitudes[hijo] = Math.max(longitudes[hijo], longitudes[fallos[hijo]]);
+                pendientes.add(hijo);
+            }
+        }
+    }
+
+    /**
+     * @return ESTADO AL QUE SE LLEGA CON EL CARACTER, O -1 SI NO HAY TRANSICION
+     */
+    private int transitar(int estado, char c) {
+        int n = Arrays.binarySearch(etiquetas[estado], c);
+        return n < 0 ? -1 : destinos[estado][n];
+    }
+
+    /**
+     * RECORRO EL TEXTO UNA VEZ Y TAPO CON ASTERISCOS LOS TERMINOS ENCONTRADOS.
+     *
+     * @param texto TEXTO A REVISAR
+     * @return CARACTERES DEL TEXTO ENMASCARADO, O NULL SI NO CONTIENE NINGUN TERMINO
+     */
+    public char[] enmascarar(CharSequence texto) {
+        char[] resultado = null;
+        int estado = 0;
+        for (int i = 0; i < texto.length(); i++) {
+            char c = Character.toLowerCase(texto.charAt(i));
+            int siguiente;
+            while ((siguiente = transitar(estado, c)) < 0 && estado != 0) {
+                estado = fallos[estado];
+            }
+            estado = siguiente < 0 ? 0 : siguiente;
+
+            int longitud = longitudes[estado];
+            if (longitud > 0) {
+                if (resultado == null) {
+                    resultado = texto.toString().toCharArray();
+                }
+                Arrays.fill(resultado, i - longitud + 1, i + 1, '*');
+            }
+        }
+        return resultado;
+    }
+
+    /**
+     * COMPRUEBO SI EL TEXTO CONTIENE ALGUN TERMINO, PARANDO EN EL PRIMERO.
+     *
+     * @param texto TEXTO A REVISAR
+     * @return TRUE SI CONTIENE ALGUNO
+     */
+    public boolean contiene(CharSequence texto) {
+        int estado = 0;
+        for (int i = 0; i < texto.length(); i++) {
+            char c = Character.toLowerCase(texto.charAt(i));
+            int siguiente;
+            while ((siguiente = transitar(estado, c)) < 0 && estado != 0) {
+                estado = fallos[estado];
+            }
+            estado = siguiente < 0 ? 0 : siguiente;
+            if (longitudes[estado] > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return NUMERO DE TERMINOS COMPILADOS
+     */
+    public int getTerminos() {
+        return terminos;
+    }
+
+    /**
+     * @return NUMERO DE ESTADOS DEL AUTOMATA
+     */
+    public int getEstados() {
+        return fallos.length;
+    }
+}
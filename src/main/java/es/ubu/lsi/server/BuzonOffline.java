@@ -0,0 +1,530 @@
+package es.ubu.lsi.server;
+
+import es.ubu.lsi.common.ChatMessage;
+import es.ubu.lsi.common.MessageType;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * BUZON DE MENSAJES PRIVADOS PARA USUARIOS DESCONECTADOS.
+ * CADA NICKNAME TIENE SU CASILLERO: LOS PRIMEROS MENSAJES SE GUARDAN
+ * EN MEMORIA Y, AL PASAR DEL UMBRAL, SE VUELCAN A UN FICHERO PROPIO.
+ * CADA CASILLERO TIENE UN TOPE DE MENSAJES Y DE BYTES, EL BUZON ENTERO
+ * TIENE UN TOPE DE CASILLEROS Y DE BYTES, Y LOS MENSAJES CADUCAN.
+ * AL CERRAR, LO QUE SOLO ESTA EN MEMORIA SE ESCRIBE DELANTE DE LO
+ * VOLCADO PARA QUE EL SIGUIENTE PROCESO LO ENTREGUE EN ORDEN.
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public class BuzonOffline {
+
+    /** MENSAJES POR USUARIO QUE SE GUARDAN EN MEMORIA ANTES DE IR A DISCO */
+    public static final int LIMITE_MEMORIA = 50;
+
+    /** MENSAJES MAXIMOS GUARDADOS PARA UN MISMO USUARIO */
+    public static final int MAXIMO_POR_USUARIO = 1000;
+
+    /** BYTES MAXIMOS GUARDADOS PARA UN MISMO USUARIO */
+    public static final long MAXIMO_BYTES_POR_USUARIO = 4L << 20;
+
+    /** CASILLEROS CON MENSAJES QUE PUEDE HABER A LA VEZ */
+    public static final int MAXIMO_CASILLEROS = 10_000;
+
+    /** BYTES MAXIMOS GUARDADOS ENTRE TODOS LOS CASILLEROS */
+    public static final long MAXIMO_BYTES = 256L << 20;
+
+    /** BYTES FIJOS DE CADA MENSAJE EN EL FICHERO: INSTANTE, LONGITUD DEL REMITENTE Y DEL CONTENIDO */
+    private static final int CABECERA_ENTRADA = 8 + 2 + 4;
+
+    /** TIEMPO QUE SE GUARDA UN MENSAJE (7 DIAS) */
+    public static final long CADUCIDAD_MS = 7L * 24 * 60 * 60 * 1000;
+
+    /** CADA CUANTO SE REVISAN TODOS LOS CASILLEROS EN BUSCA DE CADUCADOS */
+    private static final long INTERVALO_PURGA_MS = 60 * 1000;
+
+    /** DIRECTORIO DONDE SE VUELCAN LOS MENSAJES QUE NO CABEN EN MEMORIA */
+    private final Path directorio;
+
+    /** UMBRAL DE MENSAJES EN MEMORIA POR USUARIO */
+    private final int limiteMemoria;
+
+    /** TOPE DE MENSAJES POR USUARIO */
+    private final int maximoPorUsuario;
+
+    /** CADUCIDAD DE LOS MENSAJES EN MILISEGUNDOS */
+    private final long caducidad;
+
+    /** TOPE DE BYTES POR USUARIO */
+    private long maximoBytesPorUsuario = MAXIMO_BYTES_POR_USUARIO;
+
+    /** TOPE DE CASILLEROS CON MENSAJES */
+    private int maximoCasilleros = MAXIMO_CASILLEROS;
+
+    /** TOPE DE BYTES ENTRE TODOS */
+    private long maximoBytes = MAXIMO_BYTES;
+
+    /** CASILLEROS CON ALGO GUARDADO, EN MEMORIA O EN DISCO */
+    private int ocupados;
+
+    /** BYTES GUARDADOS ENTRE TODOS, EN MEMORIA Y EN DISCO */
+    private long bytesOcupados;
+
+    /** CASILLEROS POR NICKNAME DEL DESTINATARIO */
+    private final Map<String, Casillero> casilleros = new HashMap<>();
+
+    /** INSTANTE DE LA ULTIMA PURGA GLOBAL */
+    private long ultimaPurga = System.currentTimeMillis();
+
+    /**
+     * CONSTRUCTOR CON LOS VALORES POR DEFECTO.
+     *
+     * @param directorio DIRECTORIO PARA LOS FICHEROS DE DESBORDE
+     */
+    public BuzonOffline(Path directorio) {
+        this(directorio, LIMITE_MEMORIA, MAXIMO_POR_USUARIO, CADUCIDAD_MS);
+    }
+
+    /**
+     * CONSTRUCTOR COMPLETO.
+     *
+     * @param directorio DIRECTORIO PARA LOS FICHEROS DE DESBORDE
+     * @param limiteMemoria MENSAJES POR USUARIO QUE SE GUARDAN EN MEMORIA
+     * @param maximoPorUsuario TOPE DE MENSAJES POR USUARIO
+     * @param caducidad MILISEGUNDOS QUE SE GUARDA CADA MENSAJE
+     */
+    public BuzonOffline(Path directorio, int limiteMemoria, int maximoPorUsuario, long caducidad) {
+        this.directorio = directorio;
+        this.limiteMemoria = limiteMemoria;
+        this.maximoPorUsuario = maximoPorUsuario;
+        this.caducidad = caducidad;
+
+        // LOS FICHEROS QUE DEJO OTRO PROCESO CUENTAN PARA LOS TOPES AUNQUE AUN NO SE HAYAN LEIDO
+        if (Files.isDirectory(directorio)) {
+            try (DirectoryStream<Path> ficheros = Files.newDirectoryStream(directorio, "*.buzon")) {
+                for (Path fichero : ficheros) {
+                    ocupados++;
+                    bytesOcupados += Files.size(fichero);
+                }
+            } catch (IOException e) {
+                System.out.println("NO PUDE REVISAR LOS BUZONES ANTERIORES: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * CAMBIO LOS TOPES DE ESPACIO DEL BUZON.
+     *
+     * @param bytesPorUsuario BYTES MAXIMOS PARA UN MISMO USUARIO
+     * @param casilleros CASILLEROS CON MENSAJES A LA VEZ
+     * @param bytes BYTES MAXIMOS ENTRE TODOS
+     */
+    public synchronized void setTopes(long bytesPorUsuario, int casilleros, long bytes) {
+        if (bytesPorUsuario <= 0 || casilleros <= 0 || bytes <= 0) {
+            throw new IllegalArgumentException("TOPES DEL BUZON NO VALIDOS");
+        }
+        this.maximoBytesPorUsuario = bytesPorUsuario;
+        this.maximoCasilleros = casilleros;
+        this.maximoBytes = bytes;
+    }
+
+    /**
+     * GUARDO UN MENSAJE PRIVADO HASTA QUE SU DESTINATARIO SE CONECTE.
+     *
+     * @param mensaje MENSAJE PRIVADO CON DESTINATARIO
+     * @return TRUE SI SE GUARDO, FALSE SI NO CABE EN EL CASILLERO O EN EL BUZON O FALLO EL DISCO
+     */
+    public synchronized boolean guardar(ChatMessage mensaje) {
+        long ahora = System.currentTimeMillis();
+        purgarSiToca(ahora);
+
+        Casillero casillero = obtenerCasillero(mensaje.getDestinatario());
+        purgarMemoria(casillero, ahora - caducidad);
+        Entrada entrada = new Entrada(ahora, mensaje);
+        if (casillero.total() >= maximoPorUsuario
+                || casillero.bytes() + entrada.bytes > maximoBytesPorUsuario
+                || bytesOcupados + entrada.bytes > maximoBytes
+                || (casillero.bytes() == 0 && ocupados >= maximoCasilleros)) {
+            if (casillero.total() == 0) {
+                casilleros.remove(casillero.nickname);
+            }
+            return false;
+        }
+
+        try {
+            // MIENTRAS NO SE HAYA EMPEZADO A VOLCAR, CABE EN MEMORIA
+            if (casillero.enDisco == 0 && casillero.memoria.size() < limiteMemoria) {
+                casillero.memoria.add(entrada);
+                casillero.bytesMemoria += entrada.bytes;
+            } else {
+                volcar(casillero, entrada);
+            }
+            if (casillero.bytes() == entrada.bytes) {
+                ocupados++;
+            }
+            bytesOcupados += entrada.bytes;
+            return true;
+        } catch (IOException e) {
+            System.out.println("NO PUDE GUARDAR EN DISCO EL MENSAJE PARA " + mensaje.getDestinatario());
+            return false;
+        }
+    }
+
+    /**
+     * RETIRO TODOS LOS MENSAJES PENDIENTES DE UN USUARIO, EN ORDEN DE LLEGADA.
+     * LOS MENSAJES CADUCADOS SE DESCARTAN.
+     *
+     * @param nickname USUARIO QUE SE ACABA DE CONECTAR
+     * @return MENSAJES PENDIENTES (VACIA SI NO HAY NINGUNO)
+     */
+    public synchronized List<ChatMessage> retirar(String nickname) {
+        List<ChatMessage> pendientes = new ArrayList<>();
+        if (nickname == null) {
+            return pendientes;
+        }
+
+        long limite = System.currentTimeMillis() - caducidad;
+        Casillero casillero = casilleros.remove(nickname);
+        if (casillero == null && !Files.exists(ficheroDe(nickname))) {
+            return pendientes;
+        }
+        if (casillero == null) {
+            casillero = new Casillero(nickname);
+            try {
+                casillero.bytesDisco = Files.size(ficheroDe(nickname));
+            } catch (IOException e) {
+                // SE QUEDA SIN DESCONTAR: LA LECTURA DE ABAJO TAMPOCO PODRA
+            }
+        }
+        liberar(casillero);
+
+        for (Entrada entrada : casillero.memoria) {
+            if (entrada.instante >= limite) {
+                pendientes.add(entrada.mensaje);
+            }
+        }
+
+        try {
+            leerVolcados(casillero.nickname, limite, pendientes);
+            Files.deleteIfExists(ficheroDe(nickname));
+        } catch (IOException e) {
+            System.out.println("NO PUDE LEER LOS MENSAJES GUARDADOS DE " + nickname);
+        }
+        return pendientes;
+    }
+
+    /**
+     * CUENTO LOS MENSAJES PENDIENTES DE UN USUARIO.
+     *
+     * @param nickname USUARIO A CONSULTAR
+     * @return MENSAJES GUARDADOS EN MEMORIA Y EN DISCO
+     */
+    public synchronized int pendientes(String nickname) {
+        Casillero casillero = casilleros.get(nickname);
+        return casillero == null ? 0 : casillero.total();
+    }
+
+    /**
+     * ELIMINO LOS MENSAJES CADUCADOS DE TODOS LOS CASILLEROS.
+     * LOS FICHEROS SOLO SE BORRAN CUANDO HA CADUCADO SU ULTIMO MENSAJE.
+     */
+    public synchronized void purgarCaducados() {
+        long limite = System.currentTimeMillis() - caducidad;
+        Iterator<Casillero> it = casilleros.values().iterator();
+        while (it.hasNext()) {
+            Casillero casillero = it.next();
+            purgarMemoria(casillero, limite);
+            if (casillero.enDisco > 0 && casillero.ultimoEnDisco < limite) {
+                try {
+                    Files.deleteIfExists(ficheroDe(casillero.nickname));
+                    bytesOcupados -= casillero.bytesDisco;
+                    casillero.enDisco = 0;
+                    casillero.bytesDisco = 0;
+                    if (casillero.bytes() == 0) {
+                        ocupados--;
+                    }
+                } catch (IOException e) {
+                    System.out.println("NO PUDE BORRAR EL BUZON CADUCADO DE " + casillero.nickname);
+                }
+            }
+            if (casillero.total() == 0) {
+                it.remove();
+            }
+        }
+        ultimaPurga = System.currentTimeMillis();
+    }
+
+    /**
+     * ESCRIBO EN DISCO LOS MENSAJES QUE SOLO ESTAN EN MEMORIA, DELANTE DE
+     * LOS QUE YA SE HABIAN VOLCADO, PARA QUE NO SE PIERDAN AL PARAR EL
+     * SERVIDOR O AL ENTREGAR EL RELEVO. CADA FICHERO SE REESCRIBE APARTE
+     * Y SE CAMBIA DE GOLPE POR EL ANTERIOR.
+     */
+    public synchronized void cerrar() {
+        long limite = System.currentTimeMillis() - caducidad;
+        for (Casillero casillero : casilleros.values()) {
+            purgarMemoria(casillero, limite);
+            if (casillero.memoria.isEmpty()) {
+                continue;
+            }
+            Path fichero = ficheroDe(casillero.nickname);
+            Path temporal = fichero.resolveSibling(fichero.getFileName() + ".tmp");
+            try {
+                Files.createDirectories(directorio);
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        Files.newOutputStream(temporal)))) {
+                    for (Entrada entrada : casillero.memoria) {
+                        escribirEntrada(out, entrada);
+                    }
+                    if (Files.exists(fichero)) {
+                        Files.copy(fichero, out);
+                    }
+                }
+                Files.move(temporal, fichero, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                if (casillero.enDisco == 0) {
+                    casillero.ultimoEnDisco = casillero.memoria.peekLast().instante;
+                }
+                casillero.enDisco += casillero.memoria.size();
+                casillero.bytesDisco += casillero.bytesMemoria;
+                casillero.bytesMemoria = 0;
+                casillero.memoria.clear();
+            } catch (IOException e) {
+                System.out.println("NO PUDE GUARDAR EN DISCO EL BUZON DE " + casillero.nickname + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return CASILLEROS CON ALGO GUARDADO
+     */
+    public synchronized int getOcupados() {
+        return ocupados;
+    }
+
+    /**
+     * @return BYTES GUARDADOS ENTRE TODOS LOS CASILLEROS
+     */
+    public synchronized long getBytesOcupados() {
+        return bytesOcupados;
+    }
+
+    /**
+     * QUITO DE LA MEMORIA DE UN CASILLERO LOS MENSAJES CADUCADOS Y LOS DESCUENTO.
+     *
+     * @param casillero CASILLERO A REVISAR
+     * @param limite INSTANTE A PARTIR DEL CUAL LOS MENSAJES SIGUEN VIGENTES
+     */
+    private void purgarMemoria(Casillero casillero, long limite) {
+        boolean tenia = casillero.bytes() > 0;
+        while (!casillero.memoria.isEmpty() && casillero.memoria.peekFirst().instante < limite) {
+            Entrada entrada = casillero.memoria.pollFirst();
+            casillero.bytesMemoria -= entrada.bytes;
+            bytesOcupados -= entrada.bytes;
+        }
+        if (tenia && casillero.bytes() == 0) {
+            ocupados--;
+        }
+    }
+
+    /**
+     * DESCUENTO DE LOS TOPES TODO LO QUE TIENE UN CASILLERO QUE SE RETIRA.
+     *
+     * @param casillero CASILLERO RETIRADO
+     */
+    private void liberar(Casillero casillero) {
+        if (casillero.bytes() > 0) {
+            ocupados--;
+            bytesOcupados -= casillero.bytes();
+        }
+    }
+
+    /**
+     * LANZO LA PURGA GLOBAL SI HA PASADO EL INTERVALO.
+     *
+     * @param ahora INSTANTE ACTUAL
+     */
+    private void purgarSiToca(long ahora) {
+        if (ahora - ultimaPurga >= INTERVALO_PURGA_MS) {
+            purgarCaducados();
+        }
+    }
+
+    /**
+     * OBTENGO EL CASILLERO DE UN USUARIO, CREANDOLO SI NO EXISTE.
+     * SI QUEDO UN FICHERO DE UNA EJECUCION ANTERIOR, CUENTO SUS MENSAJES.
+     *
+     * @param nickname DESTINATARIO
+     * @return CASILLERO DEL USUARIO
+     */
+    private Casillero obtenerCasillero(String nickname) {
+        Casillero casillero = casilleros.get(nickname);
+        if (casillero == null) {
+            casillero = new Casillero(nickname);
+            if (Files.exists(ficheroDe(nickname))) {
+                try {
+                    List<ChatMessage> previos = new ArrayList<>();
+                    casillero.ultimoEnDisco = leerVolcados(nickname, Long.MIN_VALUE, previos);
+                    casillero.enDisco = previos.size();
+                    casillero.bytesDisco = Files.size(ficheroDe(nickname));
+                } catch (IOException e) {
+                    System.out.println("NO PUDE LEER EL BUZON ANTERIOR DE " + nickname);
+                }
+            }
+            casilleros.put(nickname, casillero);
+        }
+        return casillero;
+    }
+
+    /**
+     * AÑADO UN MENSAJE AL FICHERO DEL CASILLERO.
+     *
+     * @param casillero CASILLERO DEL DESTINATARIO
+     * @param entrada MENSAJE CON SU INSTANTE DE LLEGADA
+     */
+    private void volcar(Casillero casillero, Entrada entrada) throws IOException {
+        Files.createDirectories(directorio);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(ficheroDe(casillero.nickname),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+            escribirEntrada(out, entrada);
+        }
+        casillero.enDisco++;
+        casillero.bytesDisco += entrada.bytes;
+        casillero.ultimoEnDisco = entrada.instante;
+    }
+
+    /**
+     * ESCRIBO UN MENSAJE CON SU INSTANTE EN EL FORMATO DEL FICHERO DE DESBORDE.
+     */
+    private static void escribirEntrada(DataOutputStream out, Entrada entrada) throws IOException {
+        out.writeLong(entrada.instante);
+        out.writeUTF(entrada.mensaje.getRemitente());
+        escribirTexto(out, entrada.mensaje.getContenido());
+    }
+
+    /**
+     * LEO LOS MENSAJES VOLCADOS DE UN USUARIO.
+     *
+     * @param nickname DESTINATARIO
+     * @param limite INSTANTE A PARTIR DEL CUAL LOS MENSAJES SIGUEN VIGENTES
+     * @param destino LISTA DONDE SE AÑADEN LOS MENSAJES VIGENTES
+     * @return INSTANTE DEL ULTIMO MENSAJE LEIDO
+     */
+    private long leerVolcados(String nickname, long limite, List<ChatMessage> destino) throws IOException {
+        Path fichero = ficheroDe(nickname);
+        long ultimo = 0;
+        if (!Files.exists(fichero)) {
+            return ultimo;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(fichero)))) {
+            while (true) {
+                long instante;
+                try {
+                    instante = in.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                String remitente = in.readUTF();
+                String contenido = leerTexto(in);
+                ultimo = instante;
+                if (instante >= limite) {
+                    destino.add(new ChatMessage(remitente, contenido, MessageType.PRIVADO, nickname));
+                }
+            }
+        }
+        return ultimo;
+    }
+
+    /**
+     * ESCRIBO UN TEXTO DE CUALQUIER LONGITUD (WRITEUTF SE LIMITA A 64KB).
+     */
+    private static void escribirTexto(DataOutputStream out, String texto) throws IOException {
+        byte[] bytes = (texto == null ? "" : texto).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * LEO UN TEXTO ESCRITO CON ESCRIBIRTEXTO.
+     */
+    private static String leerTexto(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * CALCULO EL FICHERO DE UN USUARIO. EL NOMBRE VA EN HEXADECIMAL
+     * PARA QUE CUALQUIER NICKNAME SEA UN NOMBRE DE FICHERO VALIDO.
+     *
+     * @param nickname DESTINATARIO
+     * @return RUTA DEL FICHERO DE DESBORDE
+     */
+    private Path ficheroDe(String nickname) {
+        StringBuilder nombre = new StringBuilder();
+        for (byte b : nickname.getBytes(StandardCharsets.UTF_8)) {
+            nombre.append(String.format("%02x", b));
+        }
+        return directorio.resolve(nombre.append(".buzon").toString());
+    }
+
+    /**
+     * MENSAJE GUARDADO CON SU INSTANTE DE LLEGADA Y LO QUE OCUPA EN EL FICHERO.
+     */
+    private static class Entrada {
+        final long instante;
+        final ChatMessage mensaje;
+        final int bytes;
+
+        Entrada(long instante, ChatMessage mensaje) {
+            this.instante = instante;
+            this.mensaje = mensaje;
+            String contenido = mensaje.getContenido();
+            this.bytes = CABECERA_ENTRADA + mensaje.getRemitente().getBytes(StandardCharsets.UTF_8).length
+                    + (contenido == null ? 0 : contenido.getBytes(StandardCharsets.UTF_8).length);
+        }
+    }
+
+    /**
+     * MENSAJES PENDIENTES DE UN USUARIO.
+     */
+    private static class Casillero {
+        final String nickname;
+        final ArrayDeque<Entrada> memoria = new ArrayDeque<>();
+        long bytesMemoria;
+        int enDisco;
+        long bytesDisco;
+        long ultimoEnDisco;
+
+        Casillero(String nickname) {
+            this.nickname = nickname;
+        }
+
+        int total() {
+            return memoria.size() + enDisco;
+        }
+
+        long bytes() {
+            return bytesMemoria + bytesDisco;
+        }
+    }
+}
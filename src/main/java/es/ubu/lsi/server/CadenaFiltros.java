@@ -0,0 +1,106 @@
+package es.ubu.lsi.server;
+
+import es.ubu.lsi.common.ChatMessage;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CADENA DE ETAPAS DE FILTRO POR LAS QUE PASA CADA MENSAJE ANTES DEL
+ * BROADCAST. MIDE CUANTO TARDA CADA ETAPA Y CUANTOS MENSAJES CAMBIA O
+ * DESCARTA. LAS ETAPAS SE PUEDEN AÑADIR CON EL SERVIDOR EN MARCHA.
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public class CadenaFiltros {
+
+    /** ETAPAS EN EL ORDEN EN QUE SE APLICAN */
+    private final List<Medida> etapas = new CopyOnWriteArrayList<>();
+
+    /**
+     * AÑADO UNA ETAPA AL FINAL DE LA CADENA.
+     *
+     * @param etapa ETAPA A AÑADIR
+     */
+    public void agregar(EtapaFiltro etapa) {
+        etapas.add(new Medida(etapa));
+    }
+
+    /**
+     * PASO EL MENSAJE POR TODAS LAS ETAPAS.
+     *
+     * @param mensaje MENSAJE RECIBIDO
+     * @return MENSAJE A DIFUNDIR, O NULL SI ALGUNA ETAPA LO DESCARTO
+     */
+    public ChatMessage filtrar(ChatMessage mensaje) {
+        for (Medida medida : etapas) {
+            long inicio = System.nanoTime();
+            ChatMessage resultado = medida.etapa.aplicar(mensaje);
+            medida.registrar(System.nanoTime() - inicio, resultado, mensaje);
+            if (resultado == null) {
+                return null;
+            }
+            mensaje = resultado;
+        }
+        return mensaje;
+    }
+
+    /**
+     * @return TRUE SI NO HAY NINGUNA ETAPA
+     */
+    public boolean isVacia() {
+        return etapas.isEmpty();
+    }
+
+    /**
+     * @return METRICAS DE CADA ETAPA, UNA POR LINEA
+     */
+    public String getMetricas() {
+        StringBuilder texto = new StringBuilder();
+        for (Medida medida : etapas) {
+            if (texto.length() > 0) {
+                texto.append('\n');
+            }
+            texto.append(medida);
+        }
+        return texto.toString();
+    }
+
+    /**
+     * ETAPA CON SUS CONTADORES.
+     */
+    private static class Medida {
+        private final EtapaFiltro etapa;
+        private final AtomicLong mensajes = new AtomicLong();
+        private final AtomicLong cambiados = new AtomicLong();
+        private final AtomicLong descartados = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+        private final AtomicLong maximoNanos = new AtomicLong();
+
+        Medida(EtapaFiltro etapa) {
+            this.etapa = etapa;
+        }
+
+        void registrar(long duracion, ChatMessage resultado, ChatMessage original) {
+            mensajes.incrementAndGet();
+            nanos.addAndGet(duracion);
+            maximoNanos.accumulateAndGet(duracion, Math::max);
+            if (resultado == null) {
+                descartados.incrementAndGet();
+            } else if (resultado != original) {
+                cambiados.incrementAndGet();
+            }
+        }
+
+        @Override
+        public String toString() {
+            long total = mensajes.get();
+            return String.format("%s: mensajes=%d cambiados=%d descartados=%d media=%.1fus maximo=%.1fus",
+                    etapa.getNombre(), total, cambiados.get(), descartados.get(),
+                    total == 0 ? 0 : nanos.get() / 1e3 / total, maximoNanos.get() / 1e3);
+        }
+    }
+}
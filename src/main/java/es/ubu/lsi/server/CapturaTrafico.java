@@ -0,0 +1,287 @@
+package es.ubu.lsi.server;
+
+import es.ubu.lsi.common.ChatMessage;
+import es.ubu.lsi.common.MessageType;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * CAPTURA BINARIA DE LOS MENSAJES QUE LLEGAN AL SERVIDOR, CON EL
+ * INSTANTE DE CADA UNO, PARA REPRODUCIR DESPUES EL MISMO TRAFICO CONTRA
+ * OTRO SERVIDOR (HERRAMIENTAS.REPRODUCTORTRAFICO).
+ * NO SE USA LA SERIALIZACION DE JAVA: CADA REGISTRO ES EL TIEMPO DESDE
+ * EL ANTERIOR EN MICROSEGUNDOS, EL TIPO, UNOS BITS QUE DICEN QUE CAMPOS
+ * VIENEN Y LOS CAMPOS, CON LOS NUMEROS EN VARINT, ASI QUE UN MENSAJE
+ * CORTO OCUPA UNA VEINTENA DE BYTES. LOS TROZOS DE FICHERO NO SE GUARDAN.
+ *
+ * <pre>
+ * CABECERA: [int MAGICO][int VERSION][long INICIO EN MILISEGUNDOS]
+ * REGISTRO: [varint DELTA_US][byte TIPO][byte CAMPOS][REMITENTE][CONTENIDO][DESTINATARIO][varint ID]
+ * TEXTO:    [varint LONGITUD][UTF-8]
+ * </pre>
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public class CapturaTrafico implements Closeable {
+
+    /** MARCA DEL PRINCIPIO DE UNA CAPTURA ("CHAC") */
+    public static final int MAGICO = 0x43484143;
+
+    /** VERSION DEL FORMATO */
+    public static final int VERSION = 1;
+
+    /** BITS DE LOS CAMPOS PRESENTES */
+    private static final int CON_REMITENTE = 1;
+    private static final int CON_CONTENIDO = 2;
+    private static final int CON_DESTINATARIO = 4;
+    private static final int CON_ID = 8;
+
+    private final DataOutputStream salida;
+
+    /** INSTANTE DE REFERENCIA, EN NANOSEGUNDOS DEL RELOJ MONOTONO */
+    private final long origen = System.nanoTime();
+
+    /** MICROSEGUNDOS DEL ULTIMO REGISTRO DESDE EL ORIGEN */
+    private long ultimo;
+
+    private long registros;
+    private boolean cerrada;
+
+    /**
+     * CREO UNA CAPTURA NUEVA (SI EL FICHERO EXISTE, SE SUSTITUYE).
+     *
+     * @param ruta FICHERO DE LA CAPTURA
+     * @throws IOException SI NO SE PUEDE CREAR
+     */
+    public CapturaTrafico(Path ruta) throws IOException {
+        this(ruta, System.currentTimeMillis());
+    }
+
+    /**
+     * CREO UNA CAPTURA NUEVA CON OTRO INSTANTE DE INICIO (EL IMPORTADOR DE
+     * LOGS PONE EL DE LA PRIMERA LINEA).
+     *
+     * @param ruta FICHERO DE LA CAPTURA
+     * @param inicio INSTANTE DE INICIO EN MILISEGUNDOS
+     * @throws IOException SI NO SE PUEDE CREAR
+     */
+    public CapturaTrafico(Path ruta, long inicio) throws IOException {
+        salida = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(ruta), 64 * 1024));
+        salida.writeInt(MAGICO);
+        salida.writeInt(VERSION);
+        salida.writeLong(inicio);
+    }
+
+    /**
+     * GUARDO UN MENSAJE QUE ACABA DE LLEGAR.
+     *
+     * @param mensaje MENSAJE RECIBIDO DE UN CLIENTE
+     * @throws IOException SI FALLA LA ESCRITURA
+     */
+    public void registrar(ChatMessage mensaje) throws IOException {
+        registrar(mensaje, (System.nanoTime() - origen) / 1000);
+    }
+
+    /**
+     * GUARDO UN MENSAJE EN UN INSTANTE DADO. LOS INSTANTES NO PUEDEN IR
+     * HACIA ATRAS: SI LO HACEN, SE GUARDA EL DEL REGISTRO ANTERIOR.
+     *
+     * @param mensaje MENSAJE RECIBIDO DE UN CLIENTE
+     * @param micros MICROSEGUNDOS DESDE EL INICIO DE LA CAPTURA
+     * @throws IOException SI FALLA LA ESCRITURA
+     */
+    public synchronized void registrar(ChatMessage mensaje, long micros) throws IOException {
+        if (cerrada || mensaje.getTipo() == MessageType.FRAGMENTO_FICHERO) {
+            return;
+        }
+        micros = Math.max(micros, ultimo);
+        escribirVarint(micros - ultimo);
+        ultimo = micros;
+
+        int campos = (mensaje.getRemitente() != null ? CON_REMITENTE : 0)
+                | (mensaje.getContenido() != null ? CON_CONTENIDO : 0)
+                | (mensaje.getDestinatario() != null ? CON_DESTINATARIO : 0)
+                | (mensaje.getIdMensaje() != 0 ? CON_ID : 0);
+        salida.writeByte(mensaje.getTipo().ordinal());
+        salida.writeByte(campos);
+        if ((campos & CON_REMITENTE) != 0) {
+            escribirTexto(mensaje.getRemitente());
+        }
+        if ((campos & CON_CONTENIDO) != 0) {
+            escribirTexto(mensaje.getContenido());
+        }
+        if ((campos & CON_DESTINATARIO) != 0) {
+            escribirTexto(mensaje.getDestinatario());
+        }
+        if ((campos & CON_ID) != 0) {
+            escribirVarint(mensaje.getIdMensaje());
+        }
+        registros++;
+    }
+
+    /**
+     * @return MENSAJES GUARDADOS
+     */
+    public synchronized long getRegistros() {
+        return registros;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!cerrada) {
+            cerrada = true;
+            salida.close();
+        }
+    }
+
+    private void escribirTexto(String texto) throws IOException {
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        escribirVarint(bytes.length);
+        salida.write(bytes);
+    }
+
+    private void escribirVarint(long valor) throws IOException {
+        while ((valor & ~0x7FL) != 0) {
+            salida.writeByte((int) (valor & 0x7F) | 0x80);
+            valor >>>= 7;
+        }
+        salida.writeByte((int) valor);
+    }
+
+    /**
+     * MENSAJE LEIDO DE UNA CAPTURA CON SU INSTANTE.
+     */
+    public static final class Registro {
+        private final long micros;
+        private final ChatMessage mensaje;
+
+        Registro(long micros, ChatMessage mensaje) {
+            this.micros = micros;
+            this.mensaje = mensaje;
+        }
+
+        /**
+         * @return MICROSEGUNDOS DESDE EL INICIO DE LA CAPTURA
+         */
+        public long getMicros() {
+            return micros;
+        }
+
+        /**
+         * @return MENSAJE TAL COMO LLEGO
+         */
+        public ChatMessage getMensaje() {
+            return mensaje;
+        }
+    }
+
+    /**
+     * LECTOR SECUENCIAL DE UNA CAPTURA.
+     */
+    public static class Lector implements Closeable {
+        private final DataInputStream entrada;
+        private final long inicio;
+        private long micros;
+
+        /**
+         * ABRO UNA CAPTURA Y COMPRUEBO LA CABECERA.
+         *
+         * @param ruta FICHERO DE LA CAPTURA
+         * @throws IOException SI NO SE PUEDE LEER O NO ES UNA CAPTURA
+         */
+        public Lector(Path ruta) throws IOException {
+            entrada = new DataInputStream(new BufferedInputStream(Files.newInputStream(ruta), 64 * 1024));
+            try {
+                if (entrada.readInt() != MAGICO) {
+                    throw new StreamCorruptedException("NO ES UNA CAPTURA DE TRAFICO: " + ruta);
+                }
+                int version = entrada.readInt();
+                if (version != VERSION) {
+                    throw new StreamCorruptedException("VERSION DE CAPTURA NO SOPORTADA: " + version);
+                }
+                inicio = entrada.readLong();
+            } catch (IOException e) {
+                entrada.close();
+                throw e;
+            }
+        }
+
+        /**
+         * @return INSTANTE DE INICIO DE LA CAPTURA EN MILISEGUNDOS
+         */
+        public long getInicio() {
+            return inicio;
+        }
+
+        /**
+         * LEO EL SIGUIENTE MENSAJE.
+         *
+         * @return REGISTRO LEIDO, O NULL AL LLEGAR AL FINAL
+         * @throws IOException SI LA CAPTURA ESTA CORTADA O DAÑADA
+         */
+        public Registro siguiente() throws IOException {
+            int primero = entrada.read();
+            if (primero < 0) {
+                return null;
+            }
+            micros += leerVarint(primero);
+
+            int tipo = entrada.readUnsignedByte();
+            if (tipo >= MessageType.values().length) {
+                throw new StreamCorruptedException("TIPO DE MENSAJE NO VALIDO EN LA CAPTURA: " + tipo);
+            }
+            int campos = entrada.readUnsignedByte();
+            String remitente = (campos & CON_REMITENTE) != 0 ? leerTexto() : null;
+            String contenido = (campos & CON_CONTENIDO) != 0 ? leerTexto() : null;
+            String destinatario = (campos & CON_DESTINATARIO) != 0 ? leerTexto() : null;
+            long id = (campos & CON_ID) != 0 ? leerVarint(entrada.readUnsignedByte()) : 0;
+            return new Registro(micros, new ChatMessage(remitente, contenido,
+                    MessageType.values()[tipo], destinatario, id));
+        }
+
+        private String leerTexto() throws IOException {
+            long longitud = leerVarint(entrada.readUnsignedByte());
+            if (longitud > Integer.MAX_VALUE - 8) {
+                throw new StreamCorruptedException("TEXTO DEMASIADO LARGO EN LA CAPTURA: " + longitud);
+            }
+            byte[] bytes = new byte[(int) longitud];
+            entrada.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private long leerVarint(int primero) throws IOException {
+            long valor = primero & 0x7F;
+            int desplazamiento = 7;
+            int actual = primero;
+            while ((actual & 0x80) != 0) {
+                if (desplazamiento > 63) {
+                    throw new StreamCorruptedException("VARINT DEMASIADO LARGO EN LA CAPTURA");
+                }
+                actual = entrada.read();
+                if (actual < 0) {
+                    throw new EOFException("CAPTURA CORTADA");
+                }
+                valor |= (long) (actual & 0x7F) << desplazamiento;
+                desplazamiento += 7;
+            }
+            return valor;
+        }
+
+        @Override
+        public void close() throws IOException {
+            entrada.close();
+        }
+    }
+}
@@ -1,19 +1,39 @@
 package es.ubu.lsi.server;
 
 import es.ubu.lsi.common.ChatMessage;
+import es.ubu.lsi.common.CodecMensajes;
+import es.ubu.lsi.common.ContextoTls;
 import es.ubu.lsi.common.MessageType;
+import es.ubu.lsi.common.OfertaFichero;
+import es.ubu.lsi.common.Transporte;
+import es.ubu.lsi.common.TransporteCanal;
+import es.ubu.lsi.common.TransporteMemoria;
+import es.ubu.lsi.common.TransporteTls;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
+import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
 
@@ -25,26 +45,107 @@ import java.util.logging.SimpleFormatter;
 public class ChatServerImpl implements ChatServer {
 
     private static final int PUERTO = 1500;
-    private static final Logger logger = Logger.getLogger("ChatServer");
+    private static final long INTERVALO_RECARGA_MS = 5000;
 
-    private ServerSocket servidor;
+    // avisos del sistema: se crean (y se codifican) una vez y se reutilizan
+    static final PlantillaAviso AVISO_CONEXION = new PlantillaAviso("EL USUARIO ", " SE HA CONECTADO");
+    static final PlantillaAviso AVISO_DESCONEXION = new PlantillaAviso("El usuario ", " se ha desconectado");
+    private static final ChatMessage AVISO_CIERRE = ChatMessage.sistema("El servidor se está cerrando");
+
+    private ServerSocketChannel servidor;
+    private int puerto = PUERTO;
+    private String nombre;
+    private ServerSocketChannel servidorLocal;
+    private Path rutaSocketLocal;
+    private ContextoTls tls;
+    private final Path directorio;
+    private final Logger logger;
+    private volatile boolean traza = true;
+    private LongSupplier reloj = System::currentTimeMillis;
+    private BuzonOffline buzon;
+    private RegistroDeduplicacion deduplicacion = new RegistroDeduplicacion();
+    private IndiceBusqueda indice;
+    private AlmacenFicheros ficheros;
+    private EstadoUsuarios estado;
+    private CadenaFiltros filtros = new CadenaFiltros();
+    private DifusionParalela difusion = new DifusionParalela();
+    private DetectorAbusos abusos = new DetectorAbusos();
+    private volatile CapturaTrafico captura;
+    private int maximoTrama = CodecMensajes.MAXIMO_TRAMA;
+    private final AtomicLong tramasRechazadas = new AtomicLong();
+    private int maximoConexiones;
+    private int maximoMensajesPorSegundo;
+    private long segundoActual;
+    private int mensajesEnSegundo;
+    private final AtomicLong conexionesAceptadas = new AtomicLong();
+    private final AtomicLong conexionesRechazadas = new AtomicLong();
+    private final AtomicLong mensajesRecibidos = new AtomicLong();
+    private final AtomicLong mensajesLimitados = new AtomicLong();
+    private Thread vigilanteFiltro;
+    private ControlCarga carga = new ControlCarga();
+    private Thread controladorCarga;
     private List<ServerThreadForClient> clientes = new CopyOnWriteArrayList<>();
+    private ServerSocketChannel servidorPasarelas;
+    private int puertoPasarelas;
+    private List<EnlacePasarela> pasarelas = new CopyOnWriteArrayList<>();
     private Map<String, List<String>> usuariosBloqueados = new HashMap<>();
-    private boolean ejecutando = false;
+    private RelevoServidor relevo;
+    private volatile boolean relevando;
+    private Thread vigilanteRelevo;
+    // usuarios que estaban conectados al servidor anterior y aun no han vuelto, con sus bloqueos
+    private final Map<String, Set<String>> enRelevo = new ConcurrentHashMap<>();
+    private volatile boolean ejecutando = false;
 
     /**
-     * constructor del servidor
+     * constructor del servidor, con sus ficheros en el directorio actual
      */
     public ChatServerImpl() {
+        this(Paths.get(""));
+    }
+
+    /**
+     * constructor del servidor con sus ficheros (log, buzon, indice, estado
+     * y ficheros compartidos) en otro directorio, para tener varios en la
+     * misma maquina o uno de usar y tirar en las pruebas
+     *
+     * @param directorio directorio de trabajo del servidor
+     */
+    public ChatServerImpl(Path directorio) {
+        this.directorio = directorio;
+        this.logger = Logger.getLogger(directorio.toString().isEmpty()
+                ? "ChatServer" : "ChatServer." + directorio.toAbsolutePath());
+        this.buzon = new BuzonOffline(directorio.resolve("buzon"));
+
         // configuro el log para guardar mensajes
         try {
-            FileHandler fh = new FileHandler("chat_server.log", true);
+            FileHandler fh = new FileHandler(directorio.resolve("chat_server.log").toString(), true);
             fh.setFormatter(new SimpleFormatter());
             logger.addHandler(fh);
             logger.setLevel(Level.ALL);
         } catch (IOException e) {
             System.out.println("no pude crear el archivo de log");
         }
+
+        // abro el indice del historico; sin el, el chat funciona pero no se puede buscar
+        try {
+            indice = new IndiceBusqueda(directorio.resolve("indice"));
+        } catch (IOException e) {
+            System.out.println("no pude abrir el indice de busqueda: " + e.getMessage());
+        }
+
+        // estado de cada usuario (sus bloqueos) entre sesiones; se lee en cada login
+        try {
+            estado = new EstadoUsuarios(directorio.resolve("estado"));
+        } catch (IOException e) {
+            System.out.println("no pude abrir el estado de los usuarios: " + e.getMessage());
+        }
+
+        // directorio donde se guardan los ficheros compartidos mientras alguien los acepta
+        try {
+            ficheros = new AlmacenFicheros(directorio.resolve("ficheros"));
+        } catch (IOException e) {
+            System.out.println("no pude preparar el almacen de ficheros: " + e.getMessage());
+        }
     }
 
     /**
@@ -53,23 +154,23 @@ public class ChatServerImpl implements ChatServer {
     @Override
     public void startup() {
         try {
-            // inicio el socket del servidor para escuchar conexiones
-            servidor = new ServerSocket(PUERTO);
-            ejecutando = true;
-
-            log("servidor iniciado en el puerto " + PUERTO);
+            // inicio el socket del servidor para escuchar conexiones; en un relevo ya lo abrio relevo.tomar()
+            ServerSocketChannel canal;
+            if (relevo != null && relevo.getCanal() != null) {
+                canal = relevo.getCanal();
+            } else if (relevo != null) {
+                canal = RelevoServidor.abrirPuerto(puerto);
+            } else {
+                canal = ServerSocketChannel.open();
+                canal.bind(new InetSocketAddress(puerto));
+            }
+            iniciar(canal);
 
             // entro en un bucle para aceptar clientes
             while (ejecutando) {
                 try {
                     // acepto una conexion entrante
-                    Socket socket = servidor.accept();
-                    log("cliente conectado desde " + socket.getInetAddress());
-
-                    // creo un hilo para gestionar al cliente
-                    ServerThreadForClient hilo = new ServerThreadForClient(socket, this);
-                    clientes.add(hilo);
-                    hilo.start(); // inicio el hilo
+                    aceptar(servidor.accept());
                 } catch (IOException e) {
                     if (ejecutando) {
                         log("error al aceptar conexion: " + e.getMessage());
@@ -82,6 +183,215 @@ public class ChatServerImpl implements ChatServer {
         }
     }
 
+    /**
+     * pongo en marcha el servidor sobre un puerto ya abierto, sin bucle de
+     * aceptacion: las conexiones me las pasa quien acepte, el propio
+     * startup() o el anfitrion que reparte un solo hilo entre varios chats
+     *
+     * @param canal puerto del servidor, ya abierto
+     * @throws IOException si no se pueden abrir el socket unix o el puerto de pasarelas
+     */
+    void iniciar(ServerSocketChannel canal) throws IOException {
+        servidor = canal;
+        puerto = ((InetSocketAddress) canal.getLocalAddress()).getPort();
+        ejecutando = true;
+
+        log("servidor iniciado en el puerto " + puerto + (tls != null ? " con tls" : ""));
+
+        // recojo el estado del servidor anterior y me quedo atento a que otro me releve
+        if (relevo != null) {
+            iniciarRelevo();
+        }
+
+        // si me han dado una ruta, escucho tambien en un socket unix en otro hilo
+        if (rutaSocketLocal != null) {
+            iniciarSocketLocal();
+        }
+
+        // y si me han dado un puerto para pasarelas, tambien en el
+        if (puertoPasarelas > 0) {
+            iniciarPasarelas();
+        }
+
+        iniciarControlCarga();
+    }
+
+    /**
+     * arranco el hilo que cada intervalo mira lo pendiente en todas las colas
+     * y, si el servidor va sobrecargado, reparte credito de envio a los clientes.
+     * mientras se limita el credito se concede en cada vuelta, aunque no cambie,
+     * porque es lo que los clientes pueden enviar hasta la siguiente; a quien
+     * aun no ha recibido la anterior no se le encola otra, se le cambia el valor
+     */
+    private void iniciarControlCarga() {
+        controladorCarga = new Thread(() -> {
+            int concedido = ControlCarga.SIN_LIMITE;
+            while (ejecutando) {
+                try {
+                    Thread.sleep(ControlCarga.INTERVALO_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                int credito = carga.calcularCredito();
+                if (credito == ControlCarga.SIN_LIMITE && concedido == ControlCarga.SIN_LIMITE) {
+                    continue;
+                }
+                if (concedido == ControlCarga.SIN_LIMITE) {
+                    log("servidor sobrecargado, limito los envios: " + carga);
+                } else if (credito == ControlCarga.SIN_LIMITE) {
+                    log("carga normal otra vez, quito el limite: " + carga);
+                }
+                concederCredito(credito);
+                concedido = credito;
+            }
+        }, "control-carga" + (nombre != null ? "-" + nombre : ""));
+        controladorCarga.setDaemon(true);
+        controladorCarga.start();
+    }
+
+    /**
+     * envio a todos los clientes, tambien a los de las pasarelas, el credito
+     * de mensajes normales hasta la siguiente concesion. va por el carril
+     * de control, asi que adelanta a los mensajes que se estan frenando. cada
+     * conexion apunta lo concedido para descartar lo que un cliente envie de mas
+     *
+     * @param credito mensajes por cliente, 0 para que esperen o sin_limite
+     */
+    private void concederCredito(int credito) {
+        ChatMessage mensaje = new ChatMessage(ChatMessage.SERVIDOR, String.valueOf(credito), MessageType.CREDITO);
+        CodecMensajes.preparar(mensaje);
+        for (ServerThreadForClient cliente : clientes) {
+            cliente.concederCredito(mensaje, credito);
+        }
+        for (EnlacePasarela pasarela : pasarelas) {
+            pasarela.concederCredito(mensaje, credito);
+        }
+    }
+
+    /**
+     * atiendo una conexion tcp recien aceptada, con tls si lo tengo
+     *
+     * @param canal conexion aceptada, en modo bloqueante
+     */
+    void aceptar(SocketChannel canal) {
+        atenderConexion(tls != null
+                ? new TransporteTls(canal, tls, null, 0)
+                : new TransporteCanal(canal));
+    }
+
+    /**
+     * abro el socket unix y acepto sus conexiones en un hilo aparte.
+     * los clientes locales van en claro y se tratan igual que los de tcp
+     */
+    private void iniciarSocketLocal() throws IOException {
+        // borro el fichero del socket si quedo de una ejecucion anterior
+        Files.deleteIfExists(rutaSocketLocal);
+        servidorLocal = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        servidorLocal.bind(UnixDomainSocketAddress.of(rutaSocketLocal));
+        log("servidor escuchando tambien en " + rutaSocketLocal);
+
+        Thread aceptadorLocal = new Thread(() -> {
+            while (ejecutando) {
+                try {
+                    atenderConexion(new TransporteCanal(servidorLocal.accept()));
+                } catch (IOException e) {
+                    if (ejecutando) {
+                        log("error al aceptar conexion local: " + e.getMessage());
+                    }
+                }
+            }
+        }, "aceptador-local");
+        aceptadorLocal.setDaemon(true);
+        aceptadorLocal.start();
+    }
+
+    /**
+     * abro el puerto de las pasarelas y acepto sus enlaces en un hilo aparte.
+     * cada enlace trae muchos clientes; si hay tls, los enlaces tambien van cifrados
+     */
+    private void iniciarPasarelas() throws IOException {
+        servidorPasarelas = ServerSocketChannel.open();
+        servidorPasarelas.bind(new InetSocketAddress(puertoPasarelas));
+        log("servidor escuchando pasarelas en el puerto " + puertoPasarelas);
+
+        Thread aceptadorPasarelas = new Thread(() -> {
+            while (ejecutando) {
+                try {
+                    SocketChannel canal = servidorPasarelas.accept();
+                    EnlacePasarela enlace = new EnlacePasarela(tls != null
+                            ? new TransporteTls(canal, tls, null, 0)
+                            : new TransporteCanal(canal), this);
+                    log("pasarela conectada desde " + enlace.getTransporte().getDescripcion());
+                    pasarelas.add(enlace);
+                    enlace.start();
+                } catch (IOException e) {
+                    if (ejecutando) {
+                        log("error al aceptar pasarela: " + e.getMessage());
+                    }
+                }
+            }
+        }, "aceptador-pasarelas");
+        aceptadorPasarelas.setDaemon(true);
+        aceptadorPasarelas.start();
+    }
+
+    /**
+     * creo el hilo que gestiona a un cliente recien aceptado
+     *
+     * @param transporte transporte de la conexion aceptada
+     */
+    private void atenderConexion(Transporte transporte) {
+        // con el limite de conexiones lleno, cierro sin crear hilos
+        if (maximoConexiones > 0 && contarClientes() >= maximoConexiones) {
+            conexionesRechazadas.incrementAndGet();
+            log("conexion desde " + transporte.getDescripcion() + " rechazada: ya hay " + maximoConexiones);
+            try {
+                transporte.close();
+            } catch (IOException e) {
+                log("error al cerrar la conexion rechazada: " + e.getMessage());
+            }
+            return;
+        }
+        conexionesAceptadas.incrementAndGet();
+        log("cliente conectado desde " + transporte.getDescripcion());
+
+        // creo un hilo para gestionar al cliente (el handshake se hace en el)
+        ServerThreadForClient hilo = new ServerThreadForClient(transporte, this);
+        clientes.add(hilo);
+
+        EventosJfr.ConexionAceptada evento = new EventosJfr.ConexionAceptada();
+        if (evento.shouldCommit()) {
+            evento.origen = transporte.getDescripcion();
+            evento.clientes = contarClientes();
+            evento.commit();
+        }
+        hilo.start(); // inicio el hilo
+    }
+
+    /**
+     * abro una conexion en memoria con el servidor, sin sockets ni puertos.
+     * el servidor la atiende con su hilo como cualquier otra, aunque no se
+     * haya llamado a startup(); el cliente se conecta con el otro extremo
+     *
+     * @param nombre nombre de la conexion para el log
+     * @return extremo del cliente, para chatclientimpl.conectar(transporte)
+     */
+    public Transporte conectarEnMemoria(String nombre) {
+        TransporteMemoria[] par = TransporteMemoria.crearPar(nombre);
+        atenderConexion(par[1]);
+        return par[0];
+    }
+
+    /**
+     * apunto un cliente cuya conexion no es un hilo propio (los de la
+     * simulacion) para que reciba los broadcast como los demas
+     *
+     * @param cliente sesion del cliente
+     */
+    void agregarCliente(ServerThreadForClient cliente) {
+        clientes.add(cliente);
+    }
+
     /**
      * detengo el servidor y cierro todas las conexiones
      */
@@ -91,27 +401,282 @@ public class ChatServerImpl implements ChatServer {
             ejecutando = false;
 
             // notifico a todos los clientes
-            broadcast(new ChatMessage("Server", "El servidor se está cerrando", MessageType.SISTEMA));
+            broadcast(AVISO_CIERRE);
 
-            // cierro las conexiones con todos los clientes
+            // cierro las conexiones con todos los clientes y las pasarelas
             for (ServerThreadForClient cliente : clientes) {
                 cliente.cerrarConexion();
             }
+            for (EnlacePasarela pasarela : pasarelas) {
+                pasarela.cerrar();
+            }
 
             // limpio la lista de clientes
             clientes.clear();
 
             // cierro el socket del servidor si esta abierto
-            if (servidor != null && !servidor.isClosed()) {
+            if (servidor != null && servidor.isOpen()) {
                 servidor.close();
             }
+            if (servidorLocal != null && servidorLocal.isOpen()) {
+                servidorLocal.close();
+                Files.deleteIfExists(rutaSocketLocal);
+            }
+            if (servidorPasarelas != null && servidorPasarelas.isOpen()) {
+                servidorPasarelas.close();
+            }
 
+            cerrarRecursos();
             log("servidor detenido");
         } catch (IOException e) {
             log("error al cerrar el servidor: " + e.getMessage());
         }
     }
 
+    /**
+     * cierro los ficheros y los servicios del servidor y registro sus metricas.
+     * lo comparten el cierre normal y el relevo
+     */
+    private void cerrarRecursos() throws IOException {
+        if (vigilanteRelevo != null && vigilanteRelevo != Thread.currentThread()) {
+            vigilanteRelevo.interrupt();
+        }
+        if (tls != null) {
+            log("metricas tls: " + tls.getMetricas());
+        }
+        if (indice != null) {
+            indice.close();
+        }
+        buzon.cerrar();
+        if (ficheros != null) {
+            ficheros.close();
+        }
+        if (estado != null) {
+            estado.close();
+        }
+        if (vigilanteFiltro != null) {
+            vigilanteFiltro.interrupt();
+        }
+        if (controladorCarga != null) {
+            controladorCarga.interrupt();
+        }
+        if (carga.getLimitaciones() > 0) {
+            log("control de carga: " + carga);
+        }
+        if (difusion.getRepartidas() > 0) {
+            log("difusion paralela: " + difusion);
+        }
+        difusion.close();
+        if (!filtros.isVacia()) {
+            log("metricas de filtros:\n" + filtros.getMetricas());
+        }
+        if (captura != null) {
+            log("captura de trafico cerrada con " + captura.getRegistros() + " mensajes");
+            captura.close();
+            captura = null;
+        }
+        if (abusos.getMensajes() > 0) {
+            log("detector de abusos:\n" + abusos.getInforme());
+        }
+        if (tramasRechazadas.get() > 0) {
+            log("tramas rechazadas al decodificar: " + tramasRechazadas.get());
+        }
+    }
+
+    /**
+     * recojo lo que dejo el servidor anterior, anuncio que ahora soy yo el
+     * servidor y arranco el hilo que mira si otro proceso pide el relevo
+     */
+    private void iniciarRelevo() throws IOException {
+        InstantaneaServidor heredada = relevo.getHeredada();
+        if (heredada != null) {
+            for (String nickname : heredada.getUsuarios()) {
+                deduplicacion.importar(nickname, heredada.getIds(nickname));
+                enRelevo.put(nickname, heredada.getBloqueados(nickname));
+            }
+
+            // el puerto no ha rechazado conexiones, pero nadie las aceptaba desde que el anterior cerro el suyo
+            long sinAceptar = System.currentTimeMillis() - heredada.getCreada();
+            log("relevo tomado en " + relevo.getMilisDesdeInicio() + " ms: " + enRelevo.size()
+                    + " usuarios por volver, " + sinAceptar + " ms sin aceptar conexiones (objetivo "
+                    + relevo.getObjetivoMs() + " ms)" + (sinAceptar > relevo.getObjetivoMs() ? " SUPERADO" : ""));
+
+            // quien no vuelva a tiempo se da por desconectado
+            Thread caducidad = new Thread(() -> {
+                try {
+                    Thread.sleep(relevo.getVentanaMs() * 2 + INTERVALO_RECARGA_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (String nickname : new ArrayList<>(enRelevo.keySet())) {
+                    if (enRelevo.remove(nickname) != null) {
+                        broadcast(AVISO_DESCONEXION.para(nickname));
+                    }
+                }
+            }, "caducidad-relevo");
+            caducidad.setDaemon(true);
+            caducidad.start();
+        }
+
+        relevo.anunciar();
+        vigilanteRelevo = new Thread(() -> {
+            while (ejecutando) {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (relevo.isPedido()) {
+                    relevar();
+                    return;
+                }
+            }
+        }, "vigilante-relevo");
+        // no es demonio: al dejar de aceptar, startup() vuelve y el proceso debe seguir hasta entregar
+        vigilanteRelevo.start();
+    }
+
+    /**
+     * otro proceso me releva: dejo de aceptar (el sigue escuchando en el
+     * puerto), pido a los clientes que se reconecten repartidos en la
+     * ventana, cierro mis ficheros y le entrego el estado en memoria
+     */
+    private void relevar() {
+        long inicio = System.nanoTime();
+        log("otro proceso pide el relevo: dejo de aceptar y entrego el estado");
+        relevando = true;
+        ejecutando = false;
+        try {
+            servidor.close();
+            InstantaneaServidor instantanea = new InstantaneaServidor(System.currentTimeMillis());
+            if (servidorLocal != null && servidorLocal.isOpen()) {
+                servidorLocal.close();
+            }
+            if (servidorPasarelas != null && servidorPasarelas.isOpen()) {
+                servidorPasarelas.close();
+            }
+
+            // el aviso sale por el carril de control; los primeros vuelven enseguida y los ultimos al final de la ventana
+            List<ServerThreadForClient> conectados = new ArrayList<>(clientes);
+            int posicion = 0;
+            for (ServerThreadForClient cliente : conectados) {
+                long espera = relevo.getVentanaMs() * posicion++ / Math.max(1, conectados.size());
+                cliente.enviarMensaje(new ChatMessage(ChatMessage.SERVIDOR, String.valueOf(espera),
+                        MessageType.RECONECTAR, cliente.getNickname()));
+            }
+            for (ServerThreadForClient cliente : conectados) {
+                cliente.cerrarConexion();
+            }
+            for (EnlacePasarela pasarela : pasarelas) {
+                pasarela.cerrar();
+            }
+            clientes.clear();
+
+            // con las conexiones cerradas ya no llegan mensajes: las ventanas de duplicados estan completas
+            for (ServerThreadForClient cliente : conectados) {
+                if (cliente.getNickname() != null) {
+                    instantanea.agregar(cliente.getNickname(), cliente.getUsuariosBloqueados(),
+                            deduplicacion.exportar(cliente.getNickname()));
+                }
+            }
+            cerrarRecursos();
+            relevo.entregar(instantanea);
+            log("relevo entregado con " + instantanea.getUsuarios().size() + " usuarios en "
+                    + (System.nanoTime() - inicio) / 1_000_000 + " ms");
+        } catch (IOException e) {
+            log("error al entregar el relevo: " + e.getMessage());
+        }
+    }
+
+    /**
+     * un usuario hace login: si estaba conectado al servidor anterior, para
+     * los demas nunca se fue y no se anuncia su llegada
+     *
+     * @param nickname usuario que hace login
+     * @return true si vuelve de un relevo
+     */
+    boolean retomarSesion(String nickname) {
+        return nickname != null && enRelevo.remove(nickname) != null;
+    }
+
+    /**
+     * paso un mensaje por la cadena de filtros antes de difundirlo
+     *
+     * @param mensaje mensaje recibido de un cliente
+     * @return mensaje a difundir (quiza cambiado), o null si se descarta
+     */
+    public ChatMessage filtrar(ChatMessage mensaje) {
+        return filtros.filtrar(mensaje);
+    }
+
+    /**
+     * guardo en la captura un mensaje que acaba de llegar, si hay captura.
+     * si falla la escritura dejo de capturar, el chat sigue igual
+     *
+     * @param mensaje mensaje recibido de un cliente
+     */
+    void capturar(ChatMessage mensaje) {
+        CapturaTrafico actual = captura;
+        if (actual == null) {
+            return;
+        }
+        try {
+            actual.registrar(mensaje);
+        } catch (IOException e) {
+            log("error en la captura de trafico, la dejo: " + e.getMessage());
+            captura = null;
+            try {
+                actual.close();
+            } catch (IOException ignorada) {
+                // ya estaba rota
+            }
+        }
+    }
+
+    /**
+     * cuento un mensaje de chat en el detector de abusos antes de repartirlo.
+     * los castigos nuevos quedan en el log con lo que lleva el castigado
+     *
+     * @param nickname quien lo envia
+     * @param mensaje mensaje recibido
+     * @return veredicto del detector: solo los admitidos se reparten
+     */
+    DetectorAbusos.Veredicto registrarEnvio(String nickname, ChatMessage mensaje) {
+        mensajesRecibidos.incrementAndGet();
+        if (!carga.admitir(mensaje.getTipo())) {
+            // las colas de salida estan en la marca alta: los mensajes normales se pierden sin avisar
+            return DetectorAbusos.Veredicto.CASTIGADO;
+        }
+        if (maximoMensajesPorSegundo > 0 && !dentroDelLimite(reloj.getAsLong())) {
+            // el chat entero ha pasado su cupo: se pierde sin avisar, como en un castigo
+            mensajesLimitados.incrementAndGet();
+            return DetectorAbusos.Veredicto.CASTIGADO;
+        }
+        // los privados solo cuentan para el remitente: su texto no se repite a nadie
+        String contenido = mensaje.getTipo() == MessageType.PRIVADO ? null : mensaje.getContenido();
+        DetectorAbusos.Veredicto veredicto = abusos.registrar(nickname, contenido, reloj.getAsLong());
+        if (veredicto == DetectorAbusos.Veredicto.CASTIGO_NUEVO) {
+            log("castigado " + nickname + " por exceso de mensajes: lleva " + abusos.estimarRemitente(nickname)
+                    + ", su contenido se repite " + abusos.estimarContenido(mensaje.getContenido()));
+        }
+        return veredicto;
+    }
+
+    /**
+     * cuento el mensaje en el segundo actual del chat
+     *
+     * @param ahora milisegundos actuales
+     * @return true si el chat aun no ha pasado su cupo en este segundo
+     */
+    private synchronized boolean dentroDelLimite(long ahora) {
+        long segundo = ahora / 1000;
+        if (segundo != segundoActual) {
+            segundoActual = segundo;
+            mensajesEnSegundo = 0;
+        }
+        return ++mensajesEnSegundo <= maximoMensajesPorSegundo;
+    }
+
     /**
      * envio un mensaje a todos los clientes conectados
      *
@@ -119,18 +684,44 @@ public class ChatServerImpl implements ChatServer {
      */
     public void broadcast(ChatMessage mensaje) {
         log("broadcast: " + mensaje.getRemitente() + " -> " + mensaje.getContenido());
+        if (indice != null) {
+            indice.encolar(mensaje);
+        }
 
-        for (ServerThreadForClient cliente : clientes) {
-            // si es un mensaje normal, verifico bloqueos
-            if (mensaje.getTipo() == MessageType.MENSAJE) {
-                // si el cliente tiene bloqueado al remitente, no le envio el mensaje
-                if (cliente.tieneUsuarioBloqueado(mensaje.getRemitente())) {
-                    continue;
-                }
+        // lo codifico una vez aqui; las colas de todos los clientes comparten los mismos bytes
+        CodecMensajes.preparar(mensaje);
+
+        // si es un mensaje normal o un fichero, verifico bloqueos
+        boolean comprobarBloqueos = mensaje.getTipo() == MessageType.MENSAJE
+                || mensaje.getTipo() == MessageType.OFERTA_FICHERO;
+
+        EventosJfr.Difusion evento = new EventosJfr.Difusion();
+        evento.begin();
+
+        // en salas grandes la entrega se reparte entre varios hilos
+        boolean paralela = difusion.entregar(clientes, cliente -> {
+            // si el cliente tiene bloqueado al remitente, no le envio el mensaje
+            if (comprobarBloqueos && cliente.tieneUsuarioBloqueado(mensaje.getRemitente())) {
+                EventosJfr.bloqueoSaltado(mensaje.getRemitente(), cliente.getNickname(), mensaje.getTipo());
+                return;
             }
 
             // envio el mensaje al cliente
             cliente.enviarMensaje(mensaje);
+        });
+
+        // a cada pasarela le llega una sola vez y ella lo reparte a sus clientes
+        for (EnlacePasarela pasarela : pasarelas) {
+            pasarela.difundir(mensaje, comprobarBloqueos);
+        }
+
+        evento.end();
+        if (evento.shouldCommit()) {
+            evento.remitente = mensaje.getRemitente();
+            evento.tipo = mensaje.getTipo().name();
+            evento.audiencia = clientes.size() + pasarelas.size();
+            evento.paralela = paralela;
+            evento.commit();
         }
     }
 
@@ -138,7 +729,13 @@ public class ChatServerImpl implements ChatServer {
      * envio un mensaje privado a un cliente especifico
      *
      * @param mensaje el mensaje privado a enviar
-     * @return true si se entrego, false si no se encontro el destinatario
+     * si el destinatario no esta conectado, el mensaje se guarda en su buzon
+     * y se le entrega cuando vuelva a hacer login. si esta conectado pero su
+     * carril de privados esta lleno porque no lee, se rechaza y se avisa al
+     * remitente en lugar de dejar crecer la cola
+     *
+     * @return true si se entrego, se guardo o se rechazo avisando al remitente,
+     * false si no se pudo
      */
     public boolean enviarMensajePrivado(ChatMessage mensaje) {
         if (mensaje.getDestinatario() == null) {
@@ -147,30 +744,166 @@ public class ChatServerImpl implements ChatServer {
 
         log("mensaje privado: " + mensaje.getRemitente() + " -> " +
                 mensaje.getDestinatario() + ": " + mensaje.getContenido());
+        if (indice != null) {
+            indice.encolar(mensaje);
+        }
 
         boolean entregado = false;
+        boolean rechazado = false;
 
-        // busco al destinatario
-        for (ServerThreadForClient cliente : clientes) {
-            if (cliente.getNickname().equals(mensaje.getDestinatario())) {
-                // verifico si el destinatario ha bloqueado al remitente
-                if (!cliente.tieneUsuarioBloqueado(mensaje.getRemitente())) {
-                    cliente.enviarMensaje(mensaje);
-                    entregado = true;
-                }
-                break;
+        // busco al destinatario (con conexion propia o en una pasarela)
+        ServerThreadForClient destinatario = buscarCliente(mensaje.getDestinatario());
+        boolean encontrado = destinatario != null;
+        if (encontrado) {
+            // verifico si el destinatario ha bloqueado al remitente
+            if (!destinatario.tieneUsuarioBloqueado(mensaje.getRemitente())) {
+                entregado = destinatario.enviarMensaje(mensaje);
+                rechazado = !entregado;
+            } else {
+                EventosJfr.bloqueoSaltado(mensaje.getRemitente(), destinatario.getNickname(), mensaje.getTipo());
             }
         }
 
+        // si no esta conectado lo guardo para cuando haga login, pero solo si alguna vez entro:
+        // a un nickname inventado no se le abre buzon
+        boolean guardado = false;
+        if (!encontrado && esConocido(mensaje.getDestinatario()) && buzon.guardar(mensaje)) {
+            log("mensaje privado guardado para " + mensaje.getDestinatario());
+            guardado = true;
+        }
+
         // también envío el mensaje al remitente para que vea su propio mensaje privado
-        for (ServerThreadForClient cliente : clientes) {
-            if (cliente.getNickname().equals(mensaje.getRemitente())) {
-                cliente.enviarMensaje(mensaje);
-                break;
+        ServerThreadForClient remitente = buscarCliente(mensaje.getRemitente());
+        if (remitente != null && rechazado) {
+            log("mensaje privado rechazado, la cola de " + mensaje.getDestinatario() + " esta llena");
+            remitente.enviarMensaje(ChatMessage.sistema(
+                    "El usuario " + mensaje.getDestinatario() +
+                            " tiene demasiados mensajes sin leer, no se le ha entregado el tuyo",
+                    mensaje.getRemitente()));
+        } else if (remitente != null) {
+            remitente.enviarMensaje(mensaje);
+            if (guardado) {
+                remitente.enviarMensaje(ChatMessage.sistema(
+                        "El usuario " + mensaje.getDestinatario() +
+                                " no esta conectado, recibira tu mensaje al volver",
+                        mensaje.getRemitente()));
             }
         }
 
-        return entregado;
+        return entregado || guardado || rechazado && remitente != null;
+    }
+
+    /**
+     * preparo en el almacen un fichero que va a subir un usuario
+     *
+     * @param remitente usuario que lo comparte
+     * @param nombre nombre del fichero
+     * @param tamano tamaño anunciado en bytes
+     * @param destinatario usuario al que se ofrece, null para todos
+     * @return fichero vacio listo para recibir los trozos
+     * @throws IOException si no hay almacen o no se puede crear el fichero
+     */
+    public AlmacenFicheros.Fichero crearFichero(String remitente, String nombre, long tamano,
+                                                String destinatario) throws IOException {
+        if (ficheros == null) {
+            throw new IOException("el almacen de ficheros no esta disponible");
+        }
+        log("recibiendo fichero " + nombre + " (" + tamano + " bytes) de " + remitente);
+        return ficheros.crear(remitente, nombre, tamano, destinatario);
+    }
+
+    /**
+     * ofrezco un fichero que ya ha llegado entero: a todos o solo a su destinatario
+     *
+     * @param fichero fichero completo en el almacen
+     */
+    public void ofrecerFichero(AlmacenFicheros.Fichero fichero) {
+        ChatMessage oferta = OfertaFichero.crear(fichero.getRemitente(), fichero.getNombre(),
+                fichero.getTamano(), fichero.getDestinatario(), fichero.getId());
+        if (fichero.getDestinatario() == null) {
+            broadcast(oferta);
+            return;
+        }
+
+        log("fichero " + fichero.getNombre() + " de " + fichero.getRemitente() + " para " + fichero.getDestinatario());
+        ServerThreadForClient destinatario = buscarCliente(fichero.getDestinatario());
+        if (destinatario != null && !destinatario.tieneUsuarioBloqueado(fichero.getRemitente())) {
+            destinatario.enviarMensaje(oferta);
+            return;
+        }
+
+        // el destinatario no esta: se lo digo al remitente
+        ServerThreadForClient remitente = buscarCliente(fichero.getRemitente());
+        if (remitente != null) {
+            remitente.enviarMensaje(ChatMessage.sistema("El usuario " + fichero.getDestinatario() +
+                    " no esta conectado o no acepta tus ficheros", fichero.getRemitente()));
+        }
+        descartarFichero(fichero);
+    }
+
+    /**
+     * busco un fichero del almacen
+     *
+     * @param id identificador de la transferencia
+     * @return fichero, o null si no existe o ha caducado
+     */
+    public AlmacenFicheros.Fichero buscarFichero(long id) {
+        return ficheros == null ? null : ficheros.buscar(id);
+    }
+
+    /**
+     * borro un fichero que no se llego a completar o que ya no se puede entregar
+     *
+     * @param fichero fichero del almacen
+     */
+    public void descartarFichero(AlmacenFicheros.Fichero fichero) {
+        if (ficheros != null) {
+            ficheros.descartar(fichero);
+        }
+    }
+
+    /**
+     * compruebo si un mensaje con identificador ya se habia recibido
+     *
+     * @param remitente usuario que envia el mensaje
+     * @param idMensaje identificador que puso su cliente
+     * @return true si es un reenvio y hay que descartarlo
+     */
+    public boolean esRepetido(String remitente, long idMensaje) {
+        boolean repetido = deduplicacion.esRepetido(remitente, idMensaje);
+        if (repetido) {
+            log("descartado reenvio " + idMensaje + " de " + remitente);
+        }
+        return repetido;
+    }
+
+    /**
+     * busco en el historico de mensajes sin recorrer el log
+     *
+     * @param consulta consulta interpretada
+     * @param solicitante usuario que busca (solo ve sus propios privados)
+     * @return pagina de resultados
+     * @throws IOException si el indice no esta disponible o falla la lectura
+     */
+    public IndiceBusqueda.Pagina buscar(ConsultaBusqueda consulta, String solicitante) throws IOException {
+        if (indice == null) {
+            throw new IOException("el indice de busqueda no esta disponible");
+        }
+        return indice.buscar(consulta, solicitante);
+    }
+
+    /**
+     * retiro los mensajes privados que se guardaron mientras el usuario no estaba
+     *
+     * @param nickname usuario que acaba de hacer login
+     * @return mensajes pendientes en orden de llegada
+     */
+    public List<ChatMessage> retirarPendientes(String nickname) {
+        List<ChatMessage> pendientes = buzon.retirar(nickname);
+        if (!pendientes.isEmpty()) {
+            log("entregando " + pendientes.size() + " mensajes guardados a " + nickname);
+        }
+        return pendientes;
     }
 
     /**
@@ -184,13 +917,127 @@ public class ChatServerImpl implements ChatServer {
         }
 
         clientes.remove(cliente);
-        log("cliente " + cliente.getNickname() + " eliminado, quedan " + clientes.size());
+        log("cliente " + cliente.getNickname() + " eliminado, quedan " + contarClientes());
+
+        // en un relevo el usuario no se va: se reconecta al otro proceso
+        if (relevando) {
+            return;
+        }
 
-        // notifico a los demás que un usuario se ha desconectado
+        // notifico a los demás que un usuario se ha desconectado (el aviso se preparo en su login)
         if (cliente.getNickname() != null) {
-            broadcast(new ChatMessage("Server",
-                    "El usuario " + cliente.getNickname() + " se ha desconectado",
-                    MessageType.SISTEMA));
+            ChatMessage aviso = cliente.getAvisoDesconexion();
+            broadcast(aviso != null ? aviso : AVISO_DESCONEXION.para(cliente.getNickname()));
+        }
+    }
+
+    /**
+     * quito una pasarela que se ha desconectado; sus clientes los quita su enlace
+     *
+     * @param pasarela enlace de la pasarela
+     */
+    public void eliminarPasarela(EnlacePasarela pasarela) {
+        if (pasarelas.remove(pasarela)) {
+            log("pasarela desconectada, " + pasarela);
+        }
+    }
+
+    /**
+     * busco a un cliente conectado, tenga conexion propia o venga por una pasarela
+     *
+     * @param nickname nickname del cliente
+     * @return cliente, o null si no esta conectado
+     */
+    private ServerThreadForClient buscarCliente(String nickname) {
+        if (nickname == null) {
+            return null;
+        }
+        for (ServerThreadForClient cliente : clientes) {
+            if (nickname.equals(cliente.getNickname())) {
+                return cliente;
+            }
+        }
+        for (EnlacePasarela pasarela : pasarelas) {
+            ServerThreadForClient cliente = pasarela.buscar(nickname);
+            if (cliente != null) {
+                return cliente;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return clientes conectados, contando los de las pasarelas
+     */
+    int contarClientes() {
+        int total = clientes.size();
+        for (EnlacePasarela pasarela : pasarelas) {
+            total += pasarela.getSesiones();
+        }
+        return total;
+    }
+
+    /**
+     * leo los bloqueos que un usuario dejo guardados en otras sesiones
+     *
+     * @param nickname usuario que hace login
+     * @return usuarios que tiene bloqueados (vacio si no hay o no se pueden leer)
+     */
+    public Set<String> cargarBloqueos(String nickname) {
+        if (nickname == null) {
+            return Collections.emptySet();
+        }
+        // si viene de un relevo, sus bloqueos estan en la instantanea y no hace falta ir a disco
+        Set<String> heredados = enRelevo.get(nickname);
+        if (heredados != null) {
+            return heredados;
+        }
+        if (estado == null) {
+            return Collections.emptySet();
+        }
+        try {
+            Set<String> bloqueados = estado.cargar(nickname);
+            // la primera vez que entra queda apuntado: solo los usuarios conocidos tienen buzon
+            if (bloqueados.isEmpty() && estado.registrar(nickname)) {
+                log("usuario nuevo: " + nickname);
+            }
+            return bloqueados;
+        } catch (IOException e) {
+            log("no pude leer los bloqueos de " + nickname + ": " + e.getMessage());
+            return Collections.emptySet();
+        }
+    }
+
+    /**
+     * @param nickname usuario a consultar
+     * @return true si ha entrado alguna vez (o si no hay estado con que saberlo)
+     */
+    private boolean esConocido(String nickname) {
+        if (estado == null) {
+            return true;
+        }
+        try {
+            return estado.conocido(nickname);
+        } catch (IOException e) {
+            log("no pude consultar si conozco a " + nickname + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * guardo los bloqueos actuales de un usuario para las proximas sesiones
+     *
+     * @param nickname usuario
+     * @param bloqueados usuarios que tiene bloqueados ahora
+     */
+    private void guardarBloqueos(String nickname, Set<String> bloqueados) {
+        if (estado == null) {
+            return;
+        }
+        try {
+            estado.guardar(nickname, bloqueados);
+        } catch (IOException e) {
+            log("no pude guardar los bloqueos de " + nickname + ": " + e.getMessage());
         }
     }
 
@@ -202,12 +1049,11 @@ public class ChatServerImpl implements ChatServer {
      */
     public void bloquearUsuario(String bloqueador, String bloqueado) {
         // busco al cliente que bloquea
-        for (ServerThreadForClient cliente : clientes) {
-            if (cliente.getNickname().equals(bloqueador)) {
-                cliente.bloquearUsuario(bloqueado);
-                log("usuario " + bloqueador + " ha bloqueado a " + bloqueado);
-                break;
-            }
+        ServerThreadForClient cliente = buscarCliente(bloqueador);
+        if (cliente != null) {
+            cliente.bloquearUsuario(bloqueado);
+            guardarBloqueos(bloqueador, cliente.getUsuariosBloqueados());
+            log("usuario " + bloqueador + " ha bloqueado a " + bloqueado);
         }
     }
 
@@ -219,13 +1065,272 @@ public class ChatServerImpl implements ChatServer {
      */
     public void desbloquearUsuario(String desbloqueador, String desbloqueado) {
         // busco al cliente que desbloquea
-        for (ServerThreadForClient cliente : clientes) {
-            if (cliente.getNickname().equals(desbloqueador)) {
-                cliente.desbloquearUsuario(desbloqueado);
-                log("usuario " + desbloqueador + " ha desbloqueado a " + desbloqueado);
-                break;
+        ServerThreadForClient cliente = buscarCliente(desbloqueador);
+        if (cliente != null) {
+            cliente.desbloquearUsuario(desbloqueado);
+            guardarBloqueos(desbloqueador, cliente.getUsuariosBloqueados());
+            log("usuario " + desbloqueador + " ha desbloqueado a " + desbloqueado);
+        }
+    }
+
+    /**
+     * activo tls para las conexiones que se acepten a partir de ahora
+     *
+     * @param tls contexto tls del servidor, null para ir en claro
+     */
+    public void setTls(ContextoTls tls) {
+        this.tls = tls;
+    }
+
+    /**
+     * escucho tambien en un socket unix para los clientes de la misma maquina.
+     * hay que llamarlo antes de startup()
+     *
+     * @param ruta ruta del fichero del socket, null para no usarlo
+     */
+    public void setRutaSocketLocal(Path ruta) {
+        this.rutaSocketLocal = ruta;
+    }
+
+    /**
+     * acepto enlaces de pasarelas en este puerto. hay que llamarlo antes de startup()
+     *
+     * @param puerto puerto para las pasarelas, 0 para no aceptarlas
+     */
+    public void setPuertoPasarelas(int puerto) {
+        this.puertoPasarelas = puerto;
+    }
+
+    /**
+     * activo el filtro de terminos prohibidos con la lista de un fichero.
+     * un hilo mira cada pocos segundos si el fichero ha cambiado y, si es asi,
+     * lo recarga sin parar el trafico
+     *
+     * @param ruta fichero con un termino por linea
+     * @param accion que hacer con los mensajes que contienen alguno
+     * @throws IOException si no se puede leer el fichero
+     */
+    public void activarFiltroTerminos(Path ruta, FiltroTerminos.Accion accion) throws IOException {
+        FiltroTerminos filtro = new FiltroTerminos(accion);
+        filtro.cargar(ruta);
+        filtro.setAlMarcar(m -> log("mensaje marcado de " + m.getRemitente() + ": " + m.getContenido()));
+        filtros.agregar(filtro);
+        log("filtro de terminos activo con " + filtro.getTerminos() + " terminos de " + ruta);
+
+        vigilanteFiltro = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    Thread.sleep(INTERVALO_RECARGA_MS);
+                    if (filtro.recargarSiCambio()) {
+                        log("lista de terminos recargada: " + filtro.getTerminos() + " terminos");
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException e) {
+                    log("no pude recargar la lista de terminos: " + e.getMessage());
+                }
             }
+        }, "vigilante-filtro");
+        vigilanteFiltro.setDaemon(true);
+        vigilanteFiltro.start();
+    }
+
+    /**
+     * cambio cuando se reparte un broadcast entre varios hilos.
+     * hay que llamarlo antes de startup()
+     *
+     * @param difusion difusion con su umbral y su tamaño de particion
+     */
+    public void setDifusion(DifusionParalela difusion) {
+        this.difusion = difusion;
+    }
+
+    /**
+     * cambio las marcas del control global de carga, o le doy el suyo dentro
+     * de uno que comparten varios chats del mismo proceso (crearinquilino).
+     * hay que llamarlo antes de startup()
+     *
+     * @param carga control de carga al que cuentan todas las colas de salida
+     */
+    public void setControlCarga(ControlCarga carga) {
+        this.carga = carga;
+    }
+
+    /**
+     * @return control global de carga del servidor
+     */
+    public ControlCarga getControlCarga() {
+        return carga;
+    }
+
+    /**
+     * empiezo a guardar en un fichero todos los mensajes que llegan, con
+     * su instante, para reproducirlos despues con reproductortrafico
+     *
+     * @param ruta fichero de la captura (se sustituye si existe)
+     * @throws IOException si no se puede crear
+     */
+    public void activarCaptura(Path ruta) throws IOException {
+        captura = new CapturaTrafico(ruta);
+        log("capturando el trafico entrante en " + ruta);
+    }
+
+    /**
+     * activo o quito el eco de cada evento en la consola y en el log.
+     * con miles de clientes simulados el log cuesta mas que el propio chat
+     *
+     * @param traza false para no registrar nada
+     */
+    public void setTraza(boolean traza) {
+        this.traza = traza;
+    }
+
+    /**
+     * cambio el reloj con el que se miden las ventanas del detector de abusos.
+     * la simulacion pone su tiempo virtual para que todo dependa de la semilla
+     *
+     * @param reloj milisegundos actuales
+     */
+    void setReloj(LongSupplier reloj) {
+        this.reloj = reloj;
+    }
+
+    /**
+     * activo el relevo sin cortar el puerto: al arrancar recojo el estado
+     * que haya tomado el relevo y me quedo atento a que otro proceso me
+     * pida el mio. hay que llamarlo antes de startup()
+     *
+     * @param relevo relevo, con el puerto y la instantanea ya tomados si habia otro servidor
+     */
+    public void setRelevo(RelevoServidor relevo) {
+        this.relevo = relevo;
+    }
+
+    /**
+     * limito el tamaño de las tramas que acepto de los clientes y las pasarelas.
+     * una longitud mayor se rechaza sin leer la trama y se corta la conexion
+     *
+     * @param maximoTrama bytes maximos de una trama, hasta CodecMensajes.MAXIMO_TRAMA
+     */
+    public void setMaximoTrama(int maximoTrama) {
+        if (maximoTrama <= 0 || maximoTrama > CodecMensajes.MAXIMO_TRAMA) {
+            throw new IllegalArgumentException("tamaño maximo de trama no valido: " + maximoTrama);
         }
+        this.maximoTrama = maximoTrama;
+    }
+
+    /**
+     * @return bytes maximos de una trama que acepto
+     */
+    int getMaximoTrama() {
+        return maximoTrama;
+    }
+
+    /**
+     * apunto las tramas que ha rechazado el lector de una conexion al cerrarla
+     *
+     * @param rechazadas tramas rechazadas por tamaño o por contenido
+     */
+    void contarRechazadas(int rechazadas) {
+        tramasRechazadas.addAndGet(rechazadas);
+    }
+
+    /**
+     * @return tramas rechazadas al decodificar en todas las conexiones
+     */
+    public long getTramasRechazadas() {
+        return tramasRechazadas.get();
+    }
+
+    /**
+     * cambio el puerto tcp; con 0 elige uno libre el sistema.
+     * hay que llamarlo antes de startup()
+     *
+     * @param puerto puerto de los clientes
+     */
+    public void setPuerto(int puerto) {
+        this.puerto = puerto;
+    }
+
+    /**
+     * @return puerto tcp, el que se abrio de verdad si ya esta en marcha
+     */
+    public int getPuerto() {
+        return puerto;
+    }
+
+    /**
+     * doy nombre al servidor para distinguir sus lineas en la consola
+     * cuando hay varios en el mismo proceso
+     *
+     * @param nombre nombre del chat
+     */
+    public void setNombre(String nombre) {
+        this.nombre = nombre;
+    }
+
+    /**
+     * limito lo que puede gastar este chat cuando comparte proceso con otros.
+     * las conexiones de mas se cierran al aceptarlas y los mensajes de chat
+     * por encima del cupo se descartan como los de un castigado
+     *
+     * @param conexiones conexiones a la vez, 0 sin limite
+     * @param mensajesPorSegundo mensajes de chat por segundo entre todos, 0 sin limite
+     */
+    public void setLimites(int conexiones, int mensajesPorSegundo) {
+        if (conexiones < 0 || mensajesPorSegundo < 0) {
+            throw new IllegalArgumentException("limites no validos: " + conexiones + ", " + mensajesPorSegundo);
+        }
+        this.maximoConexiones = conexiones;
+        this.maximoMensajesPorSegundo = mensajesPorSegundo;
+    }
+
+    /**
+     * @return metricas del chat en una linea: conexiones, mensajes, limites, difusion y carga
+     */
+    public String getMetricas() {
+        return String.format("clientes=%d aceptadas=%d rechazadas=%d mensajes=%d limitados=%d castigos=%d"
+                        + " tramasRechazadas=%d difusion=[%s] carga=[%s]",
+                contarClientes(), conexionesAceptadas.get(), conexionesRechazadas.get(), mensajesRecibidos.get(),
+                mensajesLimitados.get(), abusos.getCastigos(), tramasRechazadas.get(), difusion, carga);
+    }
+
+    /**
+     * @return directorio de trabajo del servidor
+     */
+    public Path getDirectorio() {
+        return directorio;
+    }
+
+    /**
+     * cambio el detector de abusos, por ejemplo para darle umbrales de castigo.
+     * hay que llamarlo antes de startup()
+     *
+     * @param abusos detector con sus umbrales
+     */
+    public void setDetectorAbusos(DetectorAbusos abusos) {
+        this.abusos = abusos;
+    }
+
+    /**
+     * @return detector de abusos, para consultar en vivo quien mas envia y que se repite
+     */
+    public DetectorAbusos getDetectorAbusos() {
+        return abusos;
+    }
+
+    /**
+     * @return cadena de filtros de los mensajes, para añadir etapas o ver sus metricas
+     */
+    public CadenaFiltros getFiltros() {
+        return filtros;
+    }
+
+    /**
+     * @return contexto tls del servidor, null si va en claro
+     */
+    public ContextoTls getTls() {
+        return tls;
     }
 
     /**
@@ -234,19 +1339,158 @@ public class ChatServerImpl implements ChatServer {
      * @param mensaje texto a registrar
      */
     private void log(String mensaje) {
+        if (!traza) {
+            return;
+        }
         SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
         String timestamp = sdf.format(new Date());
-        System.out.println("[" + timestamp + "] " + mensaje);
+        System.out.println("[" + timestamp + "] " + (nombre != null ? "[" + nombre + "] " : "") + mensaje);
         logger.info(mensaje);
     }
 
+    /**
+     * cargo las clases que usa el arranque mientras el servidor anterior
+     * sigue atendiendo, para que el tiempo sin aceptar sea solo el de abrir
+     * los ficheros
+     */
+    private static void precargar() {
+        Class<?>[] clases = {IndiceBusqueda.class, EstadoUsuarios.class, AlmacenFicheros.class,
+                BuzonOffline.class, ServerThreadForClient.class, PlanificadorSalida.class,
+                InstantaneaServidor.class, FileHandler.class, SimpleFormatter.class, CodecMensajes.class};
+        for (Class<?> clase : clases) {
+            try {
+                Class.forName(clase.getName(), true, clase.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                // no puede pasar: la clase ya esta referenciada
+            }
+        }
+        new SimpleFormatter().format(new LogRecord(Level.INFO, "precarga"));
+    }
+
     /**
      * metodo main para lanzar el servidor desde consola
      *
      * @param args argumentos de linea de comandos
      */
     public static void main(String[] args) {
+        // puerto de los clientes (-Dchat.puerto=1500)
+        int puerto = Integer.getInteger("chat.puerto", PUERTO);
+
+        // relevo de otro servidor en marcha (-Dchat.relevo=/ruta/relevo.bin -Dchat.relevo.ventana=2000
+        // -Dchat.relevo.objetivo=500 -Dchat.relevo.espera=10000); se toma antes de abrir mis ficheros
+        RelevoServidor relevo = null;
+        String rutaRelevo = System.getProperty("chat.relevo");
+        if (rutaRelevo != null) {
+            try {
+                relevo = new RelevoServidor(Paths.get(rutaRelevo),
+                        Long.getLong("chat.relevo.ventana", RelevoServidor.VENTANA_MS),
+                        Long.getLong("chat.relevo.objetivo", RelevoServidor.OBJETIVO_MS));
+                precargar();
+                if (relevo.tomar(puerto, Long.getLong("chat.relevo.espera", RelevoServidor.ESPERA_MS))) {
+                    System.out.println("estado del servidor anterior recibido en " + relevo.getMilisDesdeInicio() + " ms");
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                System.out.println("no pude tomar el relevo: " + e.getMessage());
+                return;
+            }
+        }
+
         ChatServerImpl servidor = new ChatServerImpl();
+        servidor.setPuerto(puerto);
+        if (relevo != null) {
+            servidor.setRelevo(relevo);
+        }
+
+        // si me pasan un almacen de claves, activo tls (-Dchat.tls.almacen=... -Dchat.tls.clave=...)
+        String almacen = System.getProperty("chat.tls.almacen");
+        if (almacen != null) {
+            try {
+                char[] clave = System.getProperty("chat.tls.clave", "").toCharArray();
+                servidor.setTls(ContextoTls.paraServidor(Paths.get(almacen), clave));
+            } catch (IOException e) {
+                System.out.println("no pude cargar el almacen tls: " + e.getMessage());
+                return;
+            }
+        }
+
+        // socket unix para los clientes locales (-Dchat.unix=/ruta/chat.sock)
+        String rutaLocal = System.getProperty("chat.unix");
+        if (rutaLocal != null) {
+            servidor.setRutaSocketLocal(Paths.get(rutaLocal));
+        }
+
+        // pasarelas que concentran muchos clientes en pocas conexiones (-Dchat.pasarelas.puerto=1501)
+        servidor.setPuertoPasarelas(Integer.getInteger("chat.pasarelas.puerto", 0));
+
+        // reparto de los broadcast en salas grandes (-Dchat.difusion.umbral=512 -Dchat.difusion.particion=128)
+        try {
+            servidor.setDifusion(new DifusionParalela(
+                    Integer.getInteger("chat.difusion.umbral", DifusionParalela.UMBRAL),
+                    Integer.getInteger("chat.difusion.particion", DifusionParalela.PARTICION)));
+        } catch (IllegalArgumentException e) {
+            System.out.println("configuracion de difusion no valida: " + e.getMessage());
+            return;
+        }
+
+        // tamaño maximo de las tramas que se aceptan (-Dchat.trama.maximo=65536)
+        try {
+            servidor.setMaximoTrama(Integer.getInteger("chat.trama.maximo", CodecMensajes.MAXIMO_TRAMA));
+        } catch (IllegalArgumentException e) {
+            System.out.println("tamaño maximo de trama no valido: " + e.getMessage());
+            return;
+        }
+
+        // control global de carga por los mensajes pendientes en todas las colas de salida
+        // (-Dchat.carga.bajo=50000 -Dchat.carga.alto=200000 -Dchat.carga.credito=32)
+        try {
+            servidor.setControlCarga(new ControlCarga(
+                    Long.getLong("chat.carga.bajo", ControlCarga.BAJO),
+                    Long.getLong("chat.carga.alto", ControlCarga.ALTO),
+                    Integer.getInteger("chat.carga.credito", ControlCarga.CREDITO_MAXIMO)));
+        } catch (IllegalArgumentException e) {
+            System.out.println("configuracion del control de carga no valida: " + e.getMessage());
+            return;
+        }
+
+        // castigo automatico a quien mas envia o al contenido mas repetido, en mensajes por ventana
+        // (-Dchat.abusos.remitente=200 -Dchat.abusos.contenido=50 -Dchat.abusos.ventana=10000 -Dchat.abusos.castigo=30000).
+        // el castigo de contenido solo retiene a quien ya habia enviado ese texto, nunca a los privados
+        // ni a textos de menos de DetectorAbusos.MINIMO_CONTENIDO letras, y lo retenido no lo renueva
+        try {
+            servidor.setDetectorAbusos(new DetectorAbusos(
+                    Long.getLong("chat.abusos.remitente", 0),
+                    Long.getLong("chat.abusos.contenido", 0),
+                    Long.getLong("chat.abusos.ventana", DetectorAbusos.VENTANA_MS),
+                    Long.getLong("chat.abusos.castigo", DetectorAbusos.CASTIGO_MS)));
+        } catch (IllegalArgumentException e) {
+            System.out.println("configuracion del detector de abusos no valida: " + e.getMessage());
+            return;
+        }
+
+        // captura de los mensajes entrantes para reproducirlos (-Dchat.captura=/ruta/trafico.cap)
+        String rutaCaptura = System.getProperty("chat.captura");
+        if (rutaCaptura != null) {
+            try {
+                servidor.activarCaptura(Paths.get(rutaCaptura));
+            } catch (IOException e) {
+                System.out.println("no pude crear la captura de trafico: " + e.getMessage());
+                return;
+            }
+        }
+
+        // filtro de terminos prohibidos (-Dchat.filtro=/ruta/terminos.txt -Dchat.filtro.accion=enmascarar|descartar|marcar)
+        String rutaFiltro = System.getProperty("chat.filtro");
+        if (rutaFiltro != null) {
+            try {
+                FiltroTerminos.Accion accion = FiltroTerminos.Accion.valueOf(
+                        System.getProperty("chat.filtro.accion", "enmascarar").toUpperCase());
+                servidor.activarFiltroTerminos(Paths.get(rutaFiltro), accion);
+            } catch (IOException | IllegalArgumentException e) {
+                System.out.println("no pude activar el filtro de terminos: " + e.getMessage());
+                return;
+            }
+        }
+
         servidor.startup();
     }
 }
\ No newline at end of file
@@ -0,0 +1,49 @@
+package es.ubu.lsi.server;
+
+import es.ubu.lsi.common.ChatMessage;
+import es.ubu.lsi.common.LectorTramas;
+import es.ubu.lsi.common.Transporte;
+
+import java.io.OutputStream;
+
+/**
+ * CONEXION QUE LLEVA LAS SESIONES DE MUCHOS CLIENTES: EL ENLACE DE UNA
+ * PASARELA O LA SIMULACION. SUS SESIONES SON SERVERTHREADFORCLIENT QUE
+ * NO SE ARRANCAN COMO HILOS: QUIEN LEE LA CONEXION LES PASA LOS MENSAJES
+ * Y LO QUE ELLAS ENVIAN VUELVE A LA CONEXION.
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+interface ConexionCompartida {
+
+    /**
+     * @return NOMBRE DE LA CONEXION, PARA NOMBRAR A SUS SESIONES
+     */
+    String getName();
+
+    /**
+     * @return TRANSPORTE DE LA CONEXION, LO COMPARTEN SUS SESIONES
+     */
+    Transporte getTransporte();
+
+    /**
+     * @return LECTOR DE LA CONEXION, SOLO LO USA QUIEN LA LEE
+     */
+    LectorTramas getEntrada();
+
+    /**
+     * @return FLUJO DE SALIDA DE LA CONEXION, SOLO LO USA QUIEN ESCRIBE EN ELLA
+     */
+    OutputStream getSalida();
+
+    /**
+     * DEJO UN MENSAJE PARA UNA SESION EN LA SALIDA DE LA CONEXION.
+     *
+     * @param mensaje MENSAJE A ENVIAR
+     * @param sesion SESION DESTINATARIA
+     * @return TRUE SI SE ENCOLO, FALSE SI SE DESCARTO
+     */
+    boolean encolar(ChatMessage mensaje, ServerThreadForClient sesion);
+}
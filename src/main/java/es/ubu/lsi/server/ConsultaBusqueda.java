@@ -0,0 +1,136 @@
+package es.ubu.lsi.server;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CONSULTA SOBRE EL HISTORICO DE MENSAJES.
+ * SE ESCRIBE COMO TEXTO LIBRE CON FILTROS OPCIONALES, POR EJEMPLO:
+ * "hola mundo de:ana desde:2025-03-01 hasta:2025-03-02T18:00 pagina:2".
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public class ConsultaBusqueda {
+
+    /** ULTIMA PAGINA QUE SE PUEDE PEDIR; MAS ALLA HAY QUE AFINAR LA BUSQUEDA */
+    public static final int MAXIMO_PAGINA = 100;
+
+    /** TERMINOS QUE DEBEN APARECER TODOS EN EL MENSAJE */
+    private final List<String> terminos = new ArrayList<>();
+
+    /** REMITENTE DE LOS MENSAJES, NULL PARA CUALQUIERA */
+    private String remitente;
+
+    /** INSTANTE MINIMO (INCLUIDO) EN MILISEGUNDOS */
+    private long desde = Long.MIN_VALUE;
+
+    /** INSTANTE MAXIMO (INCLUIDO) EN MILISEGUNDOS */
+    private long hasta = Long.MAX_VALUE;
+
+    /** PAGINA DE RESULTADOS, EMPEZANDO EN 1 */
+    private int pagina = 1;
+
+    /**
+     * INTERPRETO EL TEXTO DE UNA CONSULTA.
+     *
+     * @param texto CONSULTA ESCRITA POR EL USUARIO
+     * @return CONSULTA INTERPRETADA
+     * @throws IllegalArgumentException SI ALGUN FILTRO NO ES VALIDO
+     */
+    public static ConsultaBusqueda interpretar(String texto) {
+        ConsultaBusqueda consulta = new ConsultaBusqueda();
+        if (texto == null) {
+            return consulta;
+        }
+
+        for (String parte : texto.trim().split("\\s+")) {
+            if (parte.isEmpty()) {
+                continue;
+            }
+            if (parte.startsWith("de:")) {
+                consulta.remitente = parte.substring(3);
+            } else if (parte.startsWith("desde:")) {
+                consulta.desde = interpretarFecha(parte.substring(6), false);
+            } else if (parte.startsWith("hasta:")) {
+                consulta.hasta = interpretarFecha(parte.substring(6), true);
+            } else if (parte.startsWith("pagina:")) {
+                try {
+                    consulta.pagina = Math.max(1, Integer.parseInt(parte.substring(7)));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("PAGINA NO VALIDA: " + parte.substring(7));
+                }
+                if (consulta.pagina > MAXIMO_PAGINA) {
+                    throw new IllegalArgumentException("COMO MUCHO SE PUEDE PEDIR LA PAGINA " + MAXIMO_PAGINA
+                            + ", AFINA LA BUSQUEDA CON MAS TERMINOS O FECHAS");
+                }
+            } else {
+                consulta.terminos.addAll(IndiceBusqueda.tokenizar(parte));
+            }
+        }
+        return consulta;
+    }
+
+    /**
+     * INTERPRETO UNA FECHA (yyyy-MM-dd) O FECHA Y HORA (yyyy-MM-ddTHH:mm).
+     * UNA FECHA SOLA EN EL LIMITE SUPERIOR INCLUYE TODO ESE DIA.
+     *
+     * @param texto FECHA ESCRITA POR EL USUARIO
+     * @param finDelDia TRUE SI ES EL LIMITE SUPERIOR
+     * @return INSTANTE EN MILISEGUNDOS
+     */
+    private static long interpretarFecha(String texto, boolean finDelDia) {
+        ZoneId zona = ZoneId.systemDefault();
+        try {
+            if (texto.contains("T")) {
+                return LocalDateTime.parse(texto).atZone(zona).toInstant().toEpochMilli();
+            }
+            LocalDate dia = LocalDate.parse(texto);
+            return finDelDia
+                    ? dia.plusDays(1).atStartOfDay(zona).toInstant().toEpochMilli() - 1
+                    : dia.atStartOfDay(zona).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("FECHA NO VALIDA: " + texto);
+        }
+    }
+
+    /**
+     * @return TERMINOS NORMALIZADOS DE LA CONSULTA
+     */
+    public List<String> getTerminos() {
+        return terminos;
+    }
+
+    /**
+     * @return REMITENTE BUSCADO, NULL PARA CUALQUIERA
+     */
+    public String getRemitente() {
+        return remitente;
+    }
+
+    /**
+     * @return INSTANTE MINIMO EN MILISEGUNDOS
+     */
+    public long getDesde() {
+        return desde;
+    }
+
+    /**
+     * @return INSTANTE MAXIMO EN MILISEGUNDOS
+     */
+    public long getHasta() {
+        return hasta;
+    }
+
+    /**
+     * @return PAGINA PEDIDA, EMPEZANDO EN 1
+     */
+    public int getPagina() {
+        return pagina;
+    }
+}
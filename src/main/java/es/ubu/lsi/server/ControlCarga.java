@@ -0,0 +1,279 @@
+package es.ubu.lsi.server;
+
+import es.ubu.lsi.common.MessageType;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * CONTROL GLOBAL DE CARGA DEL SERVIDOR. LOS LIMITES POR CONEXION NO
+ * SIRVEN CUANDO MUCHOS USUARIOS QUE SE PORTAN BIEN DIFUNDEN ENTRE TODOS
+ * MAS DE LO QUE EL SERVIDOR PUEDE REPARTIR: LAS COLAS DE SALIDA CRECEN
+ * HASTA QUE SE ACABA LA MEMORIA. AQUI SE CUENTAN LOS MENSAJES PENDIENTES
+ * EN TODAS LAS COLAS A LA VEZ Y, SEGUN DOS MARCAS:
+ * <ul>
+ * <li>POR DEBAJO DE LA BAJA NO SE LIMITA NADA.</li>
+ * <li>ENTRE LAS DOS SE CONCEDE A CADA CLIENTE UN CREDITO DE MENSAJES
+ * NORMALES POR INTERVALO, MENOR CUANTO MAS CERCA DE LA ALTA.</li>
+ * <li>EN LA ALTA EL CREDITO ES CERO Y LOS MENSAJES NORMALES QUE AUN
+ * LLEGUEN SE DESCARTAN. LOS PRIVADOS Y LOS DEL SISTEMA NUNCA.</li>
+ * </ul>
+ * PARA NO OSCILAR, UNA VEZ QUE SE EMPIEZA A LIMITAR NO SE DEJA DE HACERLO
+ * HASTA BAJAR DE LA MITAD DE LA MARCA BAJA, Y EL CREDITO VUELVE A SUBIR
+ * POCO A POCO A MEDIDA QUE SE VACIAN LAS COLAS.
+ * <p>
+ * CUANDO VARIOS CHATS COMPARTEN PROCESO, CADA UNO TIENE SU PROPIO CONTROL
+ * (CREARINQUILINO) QUE CUENTA SUS COLAS Y LAS SUMA AL GLOBAL. MIENTRAS EL
+ * GLOBAL NO PASA DE SU MARCA BAJA NO SE LIMITA A NADIE; SI PASA, CADA
+ * CHAT SE MIDE CONTRA SU PARTE DE LAS MARCAS (LAS GLOBALES ENTRE EL
+ * NUMERO DE CHATS), ASI QUE SOLO SE FRENA Y SE DESCARTA EN LOS CHATS QUE
+ * SE PASAN DE SU PARTE, Y NO EN LOS DEMAS.
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public class ControlCarga {
+
+    /** MENSAJES PENDIENTES EN TOTAL A PARTIR DE LOS CUALES SE EMPIEZA A LIMITAR */
+    public static final long BAJO = 50_000;
+
+    /** MENSAJES PENDIENTES EN TOTAL A PARTIR DE LOS CUALES SE DESCARTAN LOS NORMALES */
+    public static final long ALTO = 200_000;
+
+    /** CREDITO QUE SE CONCEDE JUSTO AL EMPEZAR A LIMITAR */
+    public static final int CREDITO_MAXIMO = 32;
+
+    /** CADA CUANTO SE RECALCULA Y SE CONCEDE EL CREDITO */
+    public static final long INTERVALO_MS = 250;
+
+    /** CREDITO QUE SIGNIFICA QUE NO HAY LIMITE */
+    public static final int SIN_LIMITE = -1;
+
+    private final long bajo;
+    private final long alto;
+    private final int creditoMaximo;
+
+    /** MENSAJES PENDIENTES EN TODAS LAS COLAS; LO TOCAN TODOS LOS HILOS QUE ENCOLAN */
+    private final LongAdder pendientes = new LongAdder();
+
+    /** MENSAJES NORMALES DESCARTADOS POR ESTAR EN LA MARCA ALTA */
+    private final AtomicLong descartados = new AtomicLong();
+
+    /** MENSAJES NORMALES DESCARTADOS POR PASARSE SU REMITENTE DEL CREDITO CONCEDIDO */
+    private final AtomicLong sinCredito = new AtomicLong();
+
+    /** VECES QUE SE HA EMPEZADO A LIMITAR */
+    private final AtomicLong limitaciones = new AtomicLong();
+
+    /** INDICA SI SE ESTA LIMITANDO, SOLO LO TOCA CALCULARCREDITO() */
+    private boolean limitando;
+
+    /** CONTROL GLOBAL AL QUE PERTENECE ESTE CHAT, NULL SI ES EL GLOBAL */
+    private final ControlCarga global;
+
+    /** CHATS QUE SE REPARTEN ESTE CONTROL GLOBAL */
+    private final AtomicInteger inquilinos = new AtomicInteger();
+
+    /**
+     * CONSTRUCTOR CON LAS MARCAS POR DEFECTO.
+     */
+    public ControlCarga() {
+        this(BAJO, ALTO, CREDITO_MAXIMO);
+    }
+
+    /**
+     * CONSTRUCTOR.
+     *
+     * @param bajo PENDIENTES A PARTIR DE LOS CUALES SE LIMITA
+     * @param alto PENDIENTES A PARTIR DE LOS CUALES SE DESCARTAN LOS NORMALES
+     * @param creditoMaximo CREDITO POR INTERVALO AL EMPEZAR A LIMITAR
+     */
+    public ControlCarga(long bajo, long alto, int creditoMaximo) {
+        if (bajo <= 0 || alto <= bajo || creditoMaximo <= 0) {
+            throw new IllegalArgumentException("MARCAS DE CARGA NO VALIDAS: " + bajo + ", " + alto + ", " + creditoMaximo);
+        }
+        this.bajo = bajo;
+        this.alto = alto;
+        this.creditoMaximo = creditoMaximo;
+        this.global = null;
+    }
+
+    /**
+     * CONSTRUCTOR DEL CONTROL DE UN CHAT DENTRO DE UNO GLOBAL.
+     *
+     * @param global CONTROL GLOBAL DEL PROCESO
+     */
+    private ControlCarga(ControlCarga global) {
+        this.bajo = global.bajo;
+        this.alto = global.alto;
+        this.creditoMaximo = global.creditoMaximo;
+        this.global = global;
+    }
+
+    /**
+     * CREO EL CONTROL DE UN CHAT MAS QUE COMPARTE ESTE. SUS COLAS CUENTAN
+     * TAMBIEN AQUI, Y SUS MARCAS SON UNA PARTE DE LAS DE ESTE.
+     *
+     * @return CONTROL DEL CHAT
+     */
+    public ControlCarga crearInquilino() {
+        if (global != null) {
+            return global.crearInquilino();
+        }
+        inquilinos.incrementAndGet();
+        return new ControlCarga(this);
+    }
+
+    /**
+     * QUITO ESTE CHAT DEL REPARTO DEL CONTROL GLOBAL AL CERRARLO.
+     */
+    public void retirar() {
+        if (global != null) {
+            global.inquilinos.decrementAndGet();
+        }
+    }
+
+    /**
+     * CUENTO UN MENSAJE QUE ENTRA EN UNA COLA DE SALIDA.
+     */
+    void encolado() {
+        pendientes.increment();
+        if (global != null) {
+            global.encolado();
+        }
+    }
+
+    /**
+     * CUENTO UN MENSAJE QUE SALE DE UNA COLA DE SALIDA.
+     */
+    void enviado() {
+        pendientes.decrement();
+        if (global != null) {
+            global.enviado();
+        }
+    }
+
+    /**
+     * DESCUENTO LOS MENSAJES QUE SE QUEDARON EN UNA COLA AL CERRARLA.
+     *
+     * @param mensajes MENSAJES QUE NO LLEGARON A SALIR
+     */
+    void liberar(int mensajes) {
+        pendientes.add(-mensajes);
+        if (global != null) {
+            global.liberar(mensajes);
+        }
+    }
+
+    /**
+     * CUENTO UN MENSAJE NORMAL DESCARTADO PORQUE SU REMITENTE SE PASO DEL
+     * CREDITO QUE SE LE HABIA CONCEDIDO.
+     */
+    public void sinCredito() {
+        sinCredito.incrementAndGet();
+    }
+
+    /**
+     * DECIDO SI UN MENSAJE RECIBIDO SE REPARTE. SOLO SE DESCARTAN LOS
+     * NORMALES, Y SOLO CON LAS COLAS EN LA MARCA ALTA. EN UN CHAT QUE
+     * COMPARTE PROCESO, SOLO SI EL GLOBAL PASA DE SU MARCA BAJA Y EL CHAT
+     * LLEGA A SU PARTE DE LA ALTA.
+     *
+     * @param tipo TIPO DEL MENSAJE RECIBIDO
+     * @return TRUE SI SE PUEDE REPARTIR
+     */
+    public boolean admitir(MessageType tipo) {
+        if (tipo != MessageType.MENSAJE || pendientes.sum() < getAlto()
+                || global != null && global.getPendientes() < global.bajo) {
+            return true;
+        }
+        descartados.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * CALCULO EL CREDITO QUE SE CONCEDE A CADA CLIENTE PARA EL SIGUIENTE
+     * INTERVALO. BAJA EN LINEA RECTA DESDE EL MAXIMO EN LA MARCA BAJA
+     * HASTA UNO JUSTO ANTES DE LA ALTA, Y EN LA ALTA ES CERO.
+     *
+     * @return MENSAJES NORMALES POR CLIENTE, O SIN_LIMITE
+     */
+    public synchronized int calcularCredito() {
+        long actual = pendientes.sum();
+        long bajo = getBajo();
+        long alto = getAlto();
+        boolean presion = global == null || global.getPendientes() >= (limitando ? global.bajo / 2 : global.bajo);
+        if (!presion || actual < (limitando ? bajo / 2 : bajo)) {
+            limitando = false;
+            return SIN_LIMITE;
+        }
+        if (!limitando) {
+            limitando = true;
+            limitaciones.incrementAndGet();
+        }
+        if (actual >= alto) {
+            return 0;
+        }
+        long margen = alto - 1 - Math.max(actual, bajo);
+        return (int) (1 + (creditoMaximo - 1) * margen / Math.max(1, alto - 1 - bajo));
+    }
+
+    /**
+     * @return MARCA BAJA DE ESTE CONTROL: LA GLOBAL, O SU PARTE SI ES DE UN CHAT
+     */
+    private long getBajo() {
+        return global == null ? bajo : Math.max(1, bajo / Math.max(1, global.inquilinos.get()));
+    }
+
+    /**
+     * @return MARCA ALTA DE ESTE CONTROL: LA GLOBAL, O SU PARTE SI ES DE UN CHAT
+     */
+    private long getAlto() {
+        return global == null ? alto : Math.max(getBajo() + 1, alto / Math.max(1, global.inquilinos.get()));
+    }
+
+    /**
+     * @return MENSAJES PENDIENTES EN TODAS LAS COLAS
+     */
+    public long getPendientes() {
+        return pendientes.sum();
+    }
+
+    /**
+     * @return MENSAJES NORMALES DESCARTADOS EN LA MARCA ALTA
+     */
+    public long getDescartados() {
+        return descartados.get();
+    }
+
+    /**
+     * @return MENSAJES NORMALES DESCARTADOS POR PASARSE DEL CREDITO
+     */
+    public long getSinCredito() {
+        return sinCredito.get();
+    }
+
+    /**
+     * @return VECES QUE SE HA EMPEZADO A LIMITAR
+     */
+    public long getLimitaciones() {
+        return limitaciones.get();
+    }
+
+    /**
+     * @return TRUE SI EL ULTIMO CALCULO DEL CREDITO LIMITABA
+     */
+    public synchronized boolean isLimitando() {
+        return limitando;
+    }
+
+    @Override
+    public String toString() {
+        return "pendientes=" + getPendientes() + " bajo=" + getBajo() + " alto=" + getAlto()
+                + (global == null && inquilinos.get() > 0 ? " chats=" + inquilinos.get() : " limitando=" + isLimitando())
+                + " limitaciones=" + getLimitaciones() + " descartados=" + getDescartados()
+                + " sinCredito=" + getSinCredito();
+    }
+}
@@ -0,0 +1,429 @@
+package es.ubu.lsi.server;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * DETECTOR DE LOS REMITENTES Y LOS CONTENIDOS QUE MAS CARGAN EL CHAT.
+ * CADA MENSAJE QUE LLEGA SUMA EN DOS SKETCHES COUNT-MIN (UNO POR
+ * REMITENTE Y OTRO POR HASH DEL CONTENIDO) Y CADA SKETCH ALIMENTA UNA
+ * LISTA DE LOS K MAS FRECUENTES QUE SE PUEDE CONSULTAR EN CUALQUIER
+ * MOMENTO. AL ACABAR CADA VENTANA LAS CUENTAS SE DIVIDEN ENTRE DOS, ASI
+ * QUE MIDEN LO RECIENTE: LA VENTANA ACTUAL, MAS LA MITAD DE LA ANTERIOR,
+ * MAS UN CUARTO DE LA OTRA...
+ * SI SE DAN UMBRALES, EL REMITENTE O EL CONTENIDO QUE LOS PASA QUEDA
+ * CASTIGADO UN TIEMPO Y SUS MENSAJES NO SE REPARTEN. UN CONTENIDO
+ * CASTIGADO SOLO RETIENE A QUIEN YA LO HABIA ENVIADO (UN TERCER SKETCH
+ * CUENTA CADA PAREJA REMITENTE-CONTENIDO): QUIEN LO ESCRIBE POR PRIMERA
+ * VEZ NO QUEDA CALLADO POR LO QUE HICIERAN OTROS. LOS CONTENIDOS CORTOS
+ * ("HOLA", "OK", "JAJA"), QUE SE REPITEN SOLOS, NUNCA SE CASTIGAN, Y LOS
+ * MENSAJES RETENIDOS NO SUMAN AL CONTENIDO, ASI QUE SU CASTIGO SE ACABA
+ * AUNQUE LOS BOTS SIGAN INSISTIENDO. TODO OCUPA LO MISMO PASEN LOS
+ * USUARIOS Y MENSAJES QUE PASEN: LOS SKETCHES SON FIJOS, LAS LISTAS
+ * TIENEN K ENTRADAS Y LOS CASTIGOS UN MAXIMO.
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public class DetectorAbusos {
+
+    /**
+     * QUE HACER CON UN MENSAJE DESPUES DE CONTARLO.
+     */
+    public enum Veredicto {
+        /** SE REPARTE NORMALMENTE */
+        ADMITIDO,
+        /** ESTE MENSAJE ACABA DE PROVOCAR UN CASTIGO: NO SE REPARTE Y SE AVISA AL REMITENTE */
+        CASTIGO_NUEVO,
+        /** EL REMITENTE O EL CONTENIDO YA ESTABA CASTIGADO: NO SE REPARTE */
+        CASTIGADO
+    }
+
+    /** ENTRADAS EN CADA LISTA DE FRECUENTES */
+    public static final int TOP = 10;
+
+    /** DURACION DE UNA VENTANA POR DEFECTO */
+    public static final long VENTANA_MS = 10000;
+
+    /** DURACION DE UN CASTIGO POR DEFECTO */
+    public static final long CASTIGO_MS = 30000;
+
+    /** CASTIGOS QUE SE RECUERDAN A LA VEZ DE CADA TIPO */
+    public static final int MAXIMO_CASTIGOS = 256;
+
+    /** LETRAS (SIN CONTAR ESPACIOS) QUE DEBE TENER UN CONTENIDO PARA PODER CASTIGARLO */
+    public static final int MINIMO_CONTENIDO = 12;
+
+    /** LETRAS DEL CONTENIDO QUE SE GUARDAN PARA ENSEÑARLO EN LA LISTA */
+    private static final int MUESTRA = 40;
+
+    /** SEMILLAS PARA QUE UN NICK Y UN CONTENIDO IGUALES NO DEN LA MISMA CLAVE */
+    private static final long SEMILLA_REMITENTE = 0x52454d4954454e54L;
+    private static final long SEMILLA_CONTENIDO = 0x434f4e54454e4944L;
+
+    private final SketchFrecuencias remitentes = new SketchFrecuencias();
+    private final SketchFrecuencias contenidos = new SketchFrecuencias();
+    private final SketchFrecuencias parejas = new SketchFrecuencias();
+    private final Frecuentes topRemitentes = new Frecuentes(TOP);
+    private final Frecuentes topContenidos = new Frecuentes(TOP);
+
+    /** MENSAJES POR VENTANA A PARTIR DE LOS QUE SE CASTIGA, 0 PARA NO CASTIGAR */
+    private final long umbralRemitente;
+    private final long umbralContenido;
+
+    private final long ventana;
+    private final long castigo;
+
+    /** INSTANTE EN QUE ACABA LA VENTANA ACTUAL */
+    private volatile long finVentana;
+
+    /** FIN DE CADA CASTIGO, POR CLAVE, LOS MAS ANTIGUOS SE OLVIDAN PRIMERO */
+    private final Map<Long, Long> remitentesCastigados = castigos();
+    private final Map<Long, Long> contenidosCastigados = castigos();
+
+    private final AtomicLong mensajes = new AtomicLong();
+    private final AtomicLong retenidos = new AtomicLong();
+    private final AtomicLong castigosImpuestos = new AtomicLong();
+
+    /**
+     * CONSTRUCTOR QUE SOLO MIDE, SIN CASTIGAR A NADIE.
+     */
+    public DetectorAbusos() {
+        this(0, 0, VENTANA_MS, CASTIGO_MS);
+    }
+
+    /**
+     * CONSTRUCTOR.
+     *
+     * @param umbralRemitente MENSAJES POR VENTANA DE UN REMITENTE PARA CASTIGARLO, 0 PARA NO HACERLO
+     * @param umbralContenido REPETICIONES POR VENTANA DE UN CONTENIDO PARA CASTIGARLO, 0 PARA NO HACERLO
+     * @param ventana MILISEGUNDOS ENTRE CADA ENVEJECIMIENTO DE LAS CUENTAS
+     * @param castigo MILISEGUNDOS QUE DURA UN CASTIGO
+     */
+    public DetectorAbusos(long umbralRemitente, long umbralContenido, long ventana, long castigo) {
+        if (umbralRemitente < 0 || umbralContenido < 0 || ventana <= 0 || castigo <= 0) {
+            throw new IllegalArgumentException("LOS UMBRALES NO PUEDEN SER NEGATIVOS NI LOS TIEMPOS CERO");
+        }
+        this.umbralRemitente = umbralRemitente;
+        this.umbralContenido = umbralContenido;
+        this.ventana = ventana;
+        this.castigo = castigo;
+    }
+
+    /**
+     * CUENTO UN MENSAJE Y DECIDO SI SE PUEDE REPARTIR. AL REMITENTE LE
+     * CUENTAN TAMBIEN SUS MENSAJES RETENIDOS, ASI QUE QUIEN SIGUE
+     * INSISTIENDO VUELVE A QUEDAR CASTIGADO EN CUANTO ACABA SU CASTIGO; AL
+     * CONTENIDO NO, PARA QUE SU CASTIGO NO SE RENUEVE SOLO CON LO RETENIDO.
+     *
+     * @param remitente NICKNAME DE QUIEN LO ENVIA
+     * @param contenido TEXTO DEL MENSAJE, NULL PARA CONTAR SOLO AL REMITENTE
+     * (LOS PRIVADOS, QUE NO SE REPITEN A NADIE MAS)
+     * @param ahora INSTANTE ACTUAL EN MILISEGUNDOS
+     * @return VEREDICTO SOBRE EL MENSAJE
+     */
+    public Veredicto registrar(String remitente, String contenido, long ahora) {
+        if (ahora >= finVentana) {
+            envejecer(ahora);
+        }
+        mensajes.incrementAndGet();
+        if (remitente == null) {
+            remitente = "";
+        }
+
+        long claveRemitente = SketchFrecuencias.hash(remitente, SEMILLA_REMITENTE, false);
+        long cuentaRemitente = remitentes.sumar(claveRemitente);
+        topRemitentes.ofrecer(claveRemitente, remitente, cuentaRemitente);
+
+        boolean nuevo = false;
+        boolean retenidoPorContenido = false;
+        if (contenido != null) {
+            // EL CONTENIDO SE COMPARA SIN MAYUSCULAS NI ESPACIOS PARA QUE NO BASTE CON CAMBIARLOS
+            long claveContenido = SketchFrecuencias.hash(contenido, SEMILLA_CONTENIDO, true);
+            long clavePareja = SketchFrecuencias.hash(contenido, claveRemitente, true);
+            if (castigado(contenidosCastigados, claveContenido, ahora) && parejas.estimar(clavePareja) > 0) {
+                // YA LO HABIA ENVIADO: ES DE LOS QUE LO HAN REPETIDO
+                retenidoPorContenido = true;
+            } else {
+                long cuentaContenido = contenidos.sumar(claveContenido);
+                parejas.sumar(clavePareja);
+                topContenidos.ofrecer(claveContenido, contenido, cuentaContenido);
+                if (umbralContenido > 0 && cuentaContenido >= umbralContenido
+                        && letras(contenido) >= MINIMO_CONTENIDO) {
+                    nuevo = castigar(contenidosCastigados, claveContenido, ahora);
+                }
+            }
+        }
+        if (umbralRemitente > 0 && cuentaRemitente >= umbralRemitente) {
+            nuevo |= castigar(remitentesCastigados, claveRemitente, ahora);
+        }
+        if (nuevo) {
+            castigosImpuestos.incrementAndGet();
+            retenidos.incrementAndGet();
+            return Veredicto.CASTIGO_NUEVO;
+        }
+        if (retenidoPorContenido || castigado(remitentesCastigados, claveRemitente, ahora)) {
+            retenidos.incrementAndGet();
+            return Veredicto.CASTIGADO;
+        }
+        return Veredicto.ADMITIDO;
+    }
+
+    /**
+     * @param remitente NICKNAME
+     * @return MENSAJES RECIENTES ESTIMADOS DE ESE REMITENTE
+     */
+    public long estimarRemitente(String remitente) {
+        return remitentes.estimar(SketchFrecuencias.hash(remitente, SEMILLA_REMITENTE, false));
+    }
+
+    /**
+     * @param contenido TEXTO
+     * @return REPETICIONES RECIENTES ESTIMADAS DE ESE CONTENIDO
+     */
+    public long estimarContenido(String contenido) {
+        return contenidos.estimar(SketchFrecuencias.hash(contenido, SEMILLA_CONTENIDO, true));
+    }
+
+    /**
+     * @return REMITENTES CON MAS MENSAJES RECIENTES, DE MAS A MENOS
+     */
+    public List<Frecuente> getRemitentesFrecuentes() {
+        return topRemitentes.listar();
+    }
+
+    /**
+     * @return CONTENIDOS MAS REPETIDOS RECIENTEMENTE, DE MAS A MENOS
+     */
+    public List<Frecuente> getContenidosFrecuentes() {
+        return topContenidos.listar();
+    }
+
+    /**
+     * @param remitente NICKNAME
+     * @param ahora INSTANTE ACTUAL EN MILISEGUNDOS
+     * @return TRUE SI EL REMITENTE ESTA CASTIGADO
+     */
+    public boolean isCastigado(String remitente, long ahora) {
+        return castigado(remitentesCastigados, SketchFrecuencias.hash(remitente, SEMILLA_REMITENTE, false), ahora);
+    }
+
+    /**
+     * @return MENSAJES CONTADOS
+     */
+    public long getMensajes() {
+        return mensajes.get();
+    }
+
+    /**
+     * @return MENSAJES QUE NO SE REPARTIERON POR UN CASTIGO
+     */
+    public long getRetenidos() {
+        return retenidos.get();
+    }
+
+    /**
+     * @return CASTIGOS IMPUESTOS DESDE EL PRINCIPIO
+     */
+    public long getCastigos() {
+        return castigosImpuestos.get();
+    }
+
+    /**
+     * @return RESUMEN DE LOS MAS FRECUENTES Y DE LOS CASTIGOS, PARA EL LOG
+     */
+    public String getInforme() {
+        StringBuilder texto = new StringBuilder();
+        texto.append("remitentes frecuentes:");
+        for (Frecuente frecuente : getRemitentesFrecuentes()) {
+            texto.append(' ').append(frecuente);
+        }
+        texto.append("\ncontenidos frecuentes:");
+        for (Frecuente frecuente : getContenidosFrecuentes()) {
+            texto.append(" \"").append(frecuente.getEtiqueta()).append("\"=").append(frecuente.getCuenta());
+        }
+        texto.append(String.format("%nmensajes=%d retenidos=%d castigos=%d memoria=%dKB",
+                mensajes.get(), retenidos.get(), castigosImpuestos.get(),
+                (remitentes.getBytes() + contenidos.getBytes() + parejas.getBytes()) / 1024));
+        return texto.toString();
+    }
+
+    /**
+     * CIERRO LA VENTANA: LAS CUENTAS PASAN A VALER LA MITAD. SOLO LO HACE
+     * UN HILO AUNQUE VARIOS VEAN A LA VEZ QUE SE HA ACABADO.
+     */
+    private synchronized void envejecer(long ahora) {
+        if (ahora < finVentana) {
+            return;
+        }
+        // LA PRIMERA VEZ SOLO SE ABRE LA VENTANA
+        if (finVentana != 0) {
+            remitentes.envejecer();
+            contenidos.envejecer();
+            parejas.envejecer();
+            topRemitentes.envejecer();
+            topContenidos.envejecer();
+        }
+        finVentana = ahora + ventana;
+    }
+
+    /**
+     * @return TRUE SI EL CASTIGO ES NUEVO, FALSE SI YA ESTABA CASTIGADO
+     */
+    private boolean castigar(Map<Long, Long> castigados, long clave, long ahora) {
+        synchronized (castigados) {
+            Long fin = castigados.get(clave);
+            castigados.put(clave, ahora + castigo);
+            return fin == null || fin <= ahora;
+        }
+    }
+
+    private static boolean castigado(Map<Long, Long> castigados, long clave, long ahora) {
+        synchronized (castigados) {
+            Long fin = castigados.get(clave);
+            return fin != null && fin > ahora;
+        }
+    }
+
+    /**
+     * @return LETRAS DEL TEXTO SIN CONTAR LOS ESPACIOS, COMO LO COMPARA EL HASH
+     */
+    private static int letras(String texto) {
+        int letras = 0;
+        for (int i = 0; i < texto.length(); i++) {
+            if (!Character.isWhitespace(texto.charAt(i))) {
+                letras++;
+            }
+        }
+        return letras;
+    }
+
+    private static Map<Long, Long> castigos() {
+        return new LinkedHashMap<Long, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Long> mayor) {
+                return size() > MAXIMO_CASTIGOS;
+            }
+        };
+    }
+
+    /**
+     * ENTRADA DE UNA LISTA DE FRECUENTES.
+     */
+    public static class Frecuente {
+        private final String etiqueta;
+        private final long cuenta;
+
+        Frecuente(String etiqueta, long cuenta) {
+            this.etiqueta = etiqueta;
+            this.cuenta = cuenta;
+        }
+
+        /**
+         * @return NICKNAME, O EL PRINCIPIO DEL CONTENIDO
+         */
+        public String getEtiqueta() {
+            return etiqueta;
+        }
+
+        /**
+         * @return CUENTA ESTIMADA CON EL ENVEJECIMIENTO APLICADO
+         */
+        public long getCuenta() {
+            return cuenta;
+        }
+
+        @Override
+        public String toString() {
+            return etiqueta + "=" + cuenta;
+        }
+    }
+
+    /**
+     * LAS K CLAVES CON MAS CUENTA SEGUN EL SKETCH. UNA CLAVE NUEVA ENTRA
+     * SI SU ESTIMACION SUPERA A LA MENOR DE LA LISTA, QUE SALE.
+     */
+    private static class Frecuentes {
+        private final long[] claves;
+        private final String[] etiquetas;
+        private final long[] cuentas;
+        private int ocupadas;
+
+        /** MENOR CUENTA DE LA LISTA LLENA: POR DEBAJO NI SE COGE EL CERROJO */
+        private volatile long minimo;
+        private volatile boolean llena;
+
+        Frecuentes(int k) {
+            claves = new long[k];
+            etiquetas = new String[k];
+            cuentas = new long[k];
+        }
+
+        void ofrecer(long clave, String etiqueta, long cuenta) {
+            // CASI TODOS LOS MENSAJES SE QUEDAN AQUI SIN TOCAR LA LISTA
+            if (llena && cuenta <= minimo) {
+                return;
+            }
+            synchronized (this) {
+                int sitio = -1;
+                for (int i = 0; i < ocupadas; i++) {
+                    if (claves[i] == clave) {
+                        sitio = i;
+                        break;
+                    }
+                }
+                if (sitio < 0) {
+                    if (ocupadas < claves.length) {
+                        sitio = ocupadas++;
+                    } else {
+                        sitio = menor();
+                        if (cuentas[sitio] >= cuenta) {
+                            return;
+                        }
+                    }
+                    claves[sitio] = clave;
+                    etiquetas[sitio] = etiqueta.length() > MUESTRA ? etiqueta.substring(0, MUESTRA) : etiqueta;
+                }
+                cuentas[sitio] = Math.max(cuentas[sitio], cuenta);
+                actualizarMinimo();
+            }
+        }
+
+        synchronized void envejecer() {
+            for (int i = 0; i < ocupadas; i++) {
+                cuentas[i] >>= 1;
+            }
+            actualizarMinimo();
+        }
+
+        synchronized List<Frecuente> listar() {
+            List<Frecuente> lista = new ArrayList<>(ocupadas);
+            for (int i = 0; i < ocupadas; i++) {
+                if (cuentas[i] > 0) {
+                    lista.add(new Frecuente(etiquetas[i], cuentas[i]));
+                }
+            }
+            lista.sort((a, b) -> Long.compare(b.cuenta, a.cuenta));
+            return lista;
+        }
+
+        private int menor() {
+            int menor = 0;
+            for (int i = 1; i < ocupadas; i++) {
+                if (cuentas[i] < cuentas[menor]) {
+                    menor = i;
+                }
+            }
+            return menor;
+        }
+
+        private void actualizarMinimo() {
+            llena = ocupadas == claves.length;
+            minimo = llena ? cuentas[menor()] : 0;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package es.ubu.lsi.server;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * REPARTE LA ENTREGA DE UN BROADCAST ENTRE VARIOS NUCLEOS CUANDO LA SALA
+ * ES GRANDE. POR DEBAJO DEL UMBRAL SE ENTREGA EN EL MISMO HILO, QUE ES LO
+ * MAS BARATO; POR ENCIMA, LOS DESTINATARIOS SE PARTEN EN TROZOS QUE
+ * ENTREGA UN POOL FORK-JOIN (LOS HILOS LIBRES ROBAN TROZOS A LOS OCUPADOS).
+ * QUIEN DIFUNDE ESPERA A QUE TERMINEN TODOS LOS TROZOS, ASI QUE SU
+ * SIGUIENTE MENSAJE NUNCA ADELANTA AL ANTERIOR EN NINGUN DESTINATARIO.
+ * VARIOS SERVIDORES PUEDEN COMPARTIR UN POOL; CADA UNO LIMITA ENTONCES
+ * CUANTAS DIFUSIONES SUYAS REPARTE A LA VEZ Y LAS DEMAS LAS ENTREGA EN
+ * SU HILO, PARA QUE UNA SALA MUY ACTIVA NO ACAPARE EL POOL DE TODOS.
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public class DifusionParalela {
+
+    /** DESTINATARIOS A PARTIR DE LOS CUALES SE REPARTE POR DEFECTO */
+    public static final int UMBRAL = 512;
+
+    /** DESTINATARIOS QUE ENTREGA CADA TROZO POR DEFECTO */
+    public static final int PARTICION = 128;
+
+    /** DESTINATARIOS A PARTIR DE LOS CUALES SE REPARTE */
+    private final int umbral;
+
+    /** DESTINATARIOS QUE ENTREGA CADA TROZO */
+    private final int particion;
+
+    /** POOL QUE ENTREGA LOS TROZOS, SE CREA CON LA PRIMERA DIFUSION GRANDE */
+    private volatile ForkJoinPool pool;
+
+    /** INDICA SI EL POOL ES DE OTRO Y NO SE DEBE CERRAR */
+    private final boolean compartido;
+
+    /** DIFUSIONES QUE SE PUEDEN REPARTIR A LA VEZ EN EL POOL, NULL SIN LIMITE */
+    private final Semaphore enPool;
+
+    /** INDICA SI YA SE CERRO EL POOL */
+    private volatile boolean cerrada;
+
+    /** DIFUSIONES QUE SE HAN REPARTIDO */
+    private final AtomicLong repartidas = new AtomicLong();
+
+    /** NANOSEGUNDOS ACUMULADOS EN DIFUSIONES REPARTIDAS */
+    private final AtomicLong nanosRepartidas = new AtomicLong();
+
+    /** DIFUSIONES GRANDES QUE SE ENTREGARON EN SU HILO PORQUE EL LIMITE ESTABA LLENO */
+    private final AtomicLong limitadas = new AtomicLong();
+
+    /**
+     * CONSTRUCTOR CON LOS VALORES POR DEFECTO.
+     */
+    public DifusionParalela() {
+        this(UMBRAL, PARTICION);
+    }
+
+    /**
+     * CONSTRUCTOR COMPLETO.
+     *
+     * @param umbral DESTINATARIOS A PARTIR DE LOS CUALES SE REPARTE
+     * @param particion DESTINATARIOS QUE ENTREGA CADA TROZO
+     */
+    public DifusionParalela(int umbral, int particion) {
+        if (particion < 1) {
+            throw new IllegalArgumentException("LA PARTICION DEBE SER POSITIVA: " + particion);
+        }
+        this.umbral = umbral;
+        this.particion = particion;
+        this.compartido = false;
+        this.enPool = null;
+    }
+
+    /**
+     * CONSTRUCTOR SOBRE UN POOL COMPARTIDO CON OTROS SERVIDORES.
+     * CERRAR ESTA DIFUSION NO CIERRA EL POOL.
+     *
+     * @param umbral DESTINATARIOS A PARTIR DE LOS CUALES SE REPARTE
+     * @param particion DESTINATARIOS QUE ENTREGA CADA TROZO
+     * @param pool POOL COMPARTIDO
+     * @param maximoEnPool DIFUSIONES DE ESTE SERVIDOR QUE SE REPARTEN A LA VEZ
+     */
+    public DifusionParalela(int umbral, int particion, ForkJoinPool pool, int maximoEnPool) {
+        if (particion < 1 || maximoEnPool < 1) {
+            throw new IllegalArgumentException("PARTICION O MAXIMO EN EL POOL NO VALIDOS");
+        }
+        this.umbral = umbral;
+        this.particion = particion;
+        this.pool = pool;
+        this.compartido = true;
+        this.enPool = new Semaphore(maximoEnPool);
+    }
+
+    /**
+     * ENTREGO A TODOS LOS DESTINATARIOS Y VUELVO CUANDO HAN RECIBIDO TODOS.
+     *
+     * @param destinatarios DESTINATARIOS (SE RECORRE UNA COPIA SI SE REPARTE)
+     * @param entrega LO QUE SE HACE CON CADA UNO; PUEDE LLAMARSE DESDE VARIOS HILOS
+     * @param <T> TIPO DE LOS DESTINATARIOS
+     * @return TRUE SI SE REPARTIO EN EL POOL, FALSE SI SE ENTREGO EN ESTE HILO
+     */
+    public <T> boolean entregar(List<T> destinatarios, Consumer<? super T> entrega) {
+        // DESPUES DE CERRAR EL POOL (AVISOS DE LOS ULTIMOS QUE SE VAN) TAMBIEN SE ENTREGA AQUI
+        if (destinatarios.size() < umbral || cerrada) {
+            for (T destinatario : destinatarios) {
+                entrega.accept(destinatario);
+            }
+            return false;
+        }
+
+        // CON EL POOL COMPARTIDO, SI YA TENGO MUCHAS DIFUSIONES EN EL LA ENTREGO YO
+        if (enPool != null && !enPool.tryAcquire()) {
+            limitadas.incrementAndGet();
+            for (T destinatario : destinatarios) {
+                entrega.accept(destinatario);
+            }
+            return false;
+        }
+
+        long inicio = System.nanoTime();
+        Object[] copia = destinatarios.toArray();
+        try {
+            getPool().invoke(new Trozo<T>(copia, 0, copia.length, particion, entrega));
+        } catch (RejectedExecutionException e) {
+            // SE HA CERRADO EL POOL JUSTO AHORA: NO HA EMPEZADO NINGUN TROZO
+            for (Object destinatario : copia) {
+                entregarUno(entrega, destinatario);
+            }
+            return false;
+        } finally {
+            if (enPool != null) {
+                enPool.release();
+            }
+        }
+        repartidas.incrementAndGet();
+        nanosRepartidas.addAndGet(System.nanoTime() - inicio);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void entregarUno(Consumer<? super T> entrega, Object destinatario) {
+        entrega.accept((T) destinatario);
+    }
+
+    /**
+     * @return POOL DE ENTREGA, CREANDOLO SI HACE FALTA
+     */
+    private ForkJoinPool getPool() {
+        ForkJoinPool actual = pool;
+        if (actual == null) {
+            synchronized (this) {
+                if (pool == null) {
+                    pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+                }
+                actual = pool;
+            }
+        }
+        return actual;
+    }
+
+    /**
+     * @return DESTINATARIOS A PARTIR DE LOS CUALES SE REPARTE
+     */
+    public int getUmbral() {
+        return umbral;
+    }
+
+    /**
+     * @return DIFUSIONES QUE SE HAN REPARTIDO
+     */
+    public long getRepartidas() {
+        return repartidas.get();
+    }
+
+    /**
+     * @return DIFUSIONES GRANDES QUE SE ENTREGARON SIN EL POOL POR EL LIMITE
+     */
+    public long getLimitadas() {
+        return limitadas.get();
+    }
+
+    /**
+     * CIERRO EL POOL SI ES PROPIO, ESPERANDO UN MOMENTO A LO QUE QUEDE EN MARCHA.
+     */
+    public void close() {
+        cerrada = true;
+        ForkJoinPool actual = pool;
+        if (actual != null && !compartido) {
+            actual.shutdown();
+            try {
+                actual.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        long total = repartidas.get();
+        return String.format("umbral=%d particion=%d repartidas=%d media=%.1fus limitadas=%d",
+                umbral, particion, total, total == 0 ? 0 : nanosRepartidas.get() / 1e3 / total, limitadas.get());
+    }
+
+    /**
+     * TROZO DE DESTINATARIOS: SI ES GRANDE SE PARTE EN DOS, SI NO SE ENTREGA.
+     * LAS TAREAS FORK-JOIN SON SERIALIZABLES AUNQUE ESTAS NUNCA SE SERIALIZAN.
+     */
+    private static class Trozo<T> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Object[] destinatarios;
+        private final int desde;
+        private final int hasta;
+        private final int particion;
+        private final Consumer<? super T> entrega;
+
+        Trozo(Object[] destinatarios, int desde, int hasta, int particion, Consumer<? super T> entrega) {
+            this.destinatarios = destinatarios;
+            this.desde = desde;
+            this.hasta = hasta;
+            this.particion = particion;
+            this.entrega = entrega;
+        }
+
+        @Override
+        protected void compute() {
+            if (hasta - desde <= particion) {
+                for (int i = desde; i < hasta; i++) {
+                    entregarUno(entrega, destinatarios[i]);
+                }
+                return;
+            }
+            int mitad = (desde + hasta) >>> 1;
+            invokeAll(new Trozo<T>(destinatarios, desde, mitad, particion, entrega),
+                    new Trozo<T>(destinatarios, mitad, hasta, particion, entrega));
+        }
+    }
+}
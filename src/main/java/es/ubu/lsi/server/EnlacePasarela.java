@@ -0,0 +1,431 @@
+package es.ubu.lsi.server;
+
+import es.ubu.lsi.common.ChatMessage;
+import es.ubu.lsi.common.CodecMensajes;
+import es.ubu.lsi.common.LectorTramas;
+import es.ubu.lsi.common.MessageType;
+import es.ubu.lsi.common.Transporte;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * CONEXION CON UNA PASARELA QUE CONCENTRA LOS CLIENTES DE OTRA MAQUINA.
+ * CADA TRAMA LLEVA DELANTE EL NUMERO DE SESION DEL CLIENTE: EL HILO
+ * LECTOR SE LA PASA A SU SESION (UN SERVERTHREADFORCLIENT QUE NO SE
+ * ARRANCA) Y LA PRIMERA TRAMA DE UN NUMERO NUEVO ABRE LA SESION.
+ * TODO LO QUE SALE HACIA LA PASARELA VA POR UNA SOLA COLA DE SALIDA,
+ * Y LOS BROADCAST SE ENVIAN UNA VEZ CON LA LISTA DE SESIONES QUE NO
+ * LOS DEBEN RECIBIR: EL REPARTO A CADA CLIENTE LO HACE LA PASARELA.
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public class EnlacePasarela extends Thread implements ConexionCompartida {
+
+    /** SESIONES QUE SE SALTA UN BROADCAST QUE VA A TODAS */
+    private static final int[] NINGUNA = new int[0];
+
+    /** TIEMPO MAXIMO QUE SE ESPERA A QUE SALGA LO PENDIENTE AL CERRAR */
+    private static final long ESPERA_CIERRE_MS = 500;
+
+    /** TAMAÑO DEL BUFFER DE SALIDA: LAS TRAMAS SE AGRUPAN HASTA EL FLUSH */
+    private static final int TAMANO_BUFFER_SALIDA = 64 * 1024;
+
+    /** TRANSPORTE DE LA CONEXION CON LA PASARELA */
+    private final Transporte transporte;
+
+    /** REFERENCIA AL SERVIDOR PRINCIPAL */
+    private final ChatServerImpl servidor;
+
+    /** SESIONES ABIERTAS EN ESTA PASARELA POR SU NUMERO */
+    private final Map<Integer, ServerThreadForClient> sesiones = new ConcurrentHashMap<>();
+
+    /** COLA DE SALIDA COMPARTIDA POR TODAS LAS SESIONES */
+    private final PlanificadorSalida planificador;
+
+    /** LECTOR DE LAS TRAMAS QUE ENVIA LA PASARELA */
+    private LectorTramas entrada;
+
+    /** FLUJO DE SALIDA CON BUFFER, SOLO LO USA EL HILO ESCRITOR */
+    private OutputStream salida;
+
+    /** HILO QUE ESCRIBE LOS MENSAJES DE LA COLA DE SALIDA */
+    private Thread escritor;
+
+    /** INDICA SI LA PASARELA ESTA CONECTADA */
+    private volatile boolean conectado = true;
+
+    /** ULTIMA CONCESION DE CREDITO QUE AUN NO HA SALIDO; SI LLEGA OTRA, LA SUSTITUYE EN LA COLA */
+    private final AtomicReference<ChatMessage> creditoPendiente = new AtomicReference<>();
+
+    /** BROADCAST ENVIADOS A LA PASARELA */
+    private final AtomicLong difusiones = new AtomicLong();
+
+    /** ENTREGAS QUE HA HECHO LA PASARELA EN LUGAR DEL SERVIDOR */
+    private final AtomicLong entregas = new AtomicLong();
+
+    /**
+     * CONSTRUCTOR DEL ENLACE.
+     *
+     * @param transporte TRANSPORTE DE LA CONEXION CON LA PASARELA
+     * @param servidor REFERENCIA AL SERVIDOR PRINCIPAL
+     */
+    public EnlacePasarela(Transporte transporte, ChatServerImpl servidor) {
+        super("pasarela-" + transporte.getDescripcion());
+        this.transporte = transporte;
+        this.servidor = servidor;
+        this.planificador = new PlanificadorSalida(servidor.getControlCarga());
+    }
+
+    /**
+     * TAREA PRINCIPAL DEL HILO: LEER LAS TRAMAS DE TODAS LAS SESIONES
+     * Y PASARSELAS A LA SUYA.
+     */
+    @Override
+    public void run() {
+        String motivo = "FIN DEL FLUJO";
+        try {
+            transporte.iniciar();
+            salida = new BufferedOutputStream(transporte.getSalida(), TAMANO_BUFFER_SALIDA);
+            entrada = new LectorTramas(transporte.getEntrada(), servidor.getMaximoTrama());
+
+            escritor = new Thread(this::escribirPendientes, getName() + "-escritor");
+            escritor.setDaemon(true);
+            escritor.start();
+
+            ChatMessage mensaje;
+            while (conectado && (mensaje = entrada.leer()) != null) {
+                int numero = entrada.getSesion();
+                if (numero == 0) {
+                    // SIN SESION NO SE DE QUIEN ES: LA DESCARTO (SI ES UN TROZO, EL LECTOR LO SALTA)
+                    System.out.println("TRAMA SIN SESION DESDE " + getName() + ", DESCARTADA");
+                    continue;
+                }
+
+                ServerThreadForClient sesion = sesiones.get(numero);
+                if (sesion == null) {
+                    // UN LOGOUT DE UNA SESION QUE YA NO EXISTE NO ABRE OTRA
+                    if (mensaje.getTipo() == MessageType.LOGOUT) {
+                        continue;
+                    }
+                    sesion = abrirSesion(numero);
+                }
+
+                sesion.recibir(mensaje);
+                if (!sesion.isConectado()) {
+                    sesiones.remove(numero);
+                    sesion.terminar("LOGOUT");
+                }
+            }
+        } catch (InvalidClassException e) {
+            System.out.println("TRAMA DE LA PASARELA " + getName() + " RECHAZADA POR EL FILTRO DE CLASES: " + e.getMessage());
+            motivo = "TRAMA RECHAZADA POR EL FILTRO: " + e.getMessage();
+            servidor.contarRechazadas(Math.max(1, entrada.getRechazadas()));
+        } catch (IOException e) {
+            System.out.println("PASARELA " + getName() + " DESCONECTADA O ERROR: " + e.getMessage());
+            motivo = conectado ? "PASARELA CAIDA: " + e.getMessage() : "CERRADA POR EL SERVIDOR";
+            if (entrada != null && entrada.getRechazadas() > 0) {
+                servidor.contarRechazadas(entrada.getRechazadas());
+            }
+        } catch (ClassNotFoundException e) {
+            System.out.println("TRAMA DE LA PASARELA " + getName() + " RECHAZADA, CLASE DESCONOCIDA: " + e.getMessage());
+            motivo = "MENSAJE NO VALIDO: " + e.getMessage();
+            servidor.contarRechazadas(Math.max(1, entrada.getRechazadas()));
+        } finally {
+            cerrar();
+            servidor.eliminarPasarela(this);
+
+            // LOS CLIENTES DE LA PASARELA SE VAN CON ELLA
+            for (Integer numero : sesiones.keySet()) {
+                ServerThreadForClient sesion = sesiones.remove(numero);
+                if (sesion != null) {
+                    sesion.terminar(motivo);
+                }
+            }
+        }
+    }
+
+    /**
+     * CREO LA SESION DE UN CLIENTE NUEVO DE LA PASARELA.
+     *
+     * @param numero NUMERO QUE LE HA DADO LA PASARELA
+     * @return SESION CREADA
+     */
+    private ServerThreadForClient abrirSesion(int numero) {
+        ServerThreadForClient sesion = new ServerThreadForClient(this, numero, servidor);
+        sesiones.put(numero, sesion);
+
+        EventosJfr.ConexionAceptada evento = new EventosJfr.ConexionAceptada();
+        if (evento.shouldCommit()) {
+            evento.origen = transporte.getDescripcion() + "#" + numero;
+            evento.clientes = servidor.contarClientes();
+            evento.commit();
+        }
+        return sesion;
+    }
+
+    /**
+     * DEJO EN LA COLA UN MENSAJE PARA UNA SESION. SI SE LLENA EL CARRIL
+     * DE CONTROL, LA PASARELA NO ESTA LEYENDO Y SE CORTA EL ENLACE.
+     *
+     * @param mensaje MENSAJE A ENVIAR
+     * @param sesion SESION DESTINATARIA
+     * @return TRUE SI SE ENCOLO
+     */
+    @Override
+    public boolean encolar(ChatMessage mensaje, ServerThreadForClient sesion) {
+        if (!conectado) {
+            return false;
+        }
+        if (planificador.encolar(mensaje, sesion)) {
+            return true;
+        }
+        if (planificador.estaDesbordado()) {
+            System.out.println("LA COLA DE CONTROL DE " + getName() + " ESTA LLENA, CORTO EL ENLACE");
+            cortar();
+        }
+        return false;
+    }
+
+    /**
+     * DEJO EN LA COLA UN BROADCAST PARA TODA LA PASARELA. SI HAY QUE
+     * RESPETAR LOS BLOQUEOS, SE APUNTAN LAS SESIONES QUE TIENEN
+     * BLOQUEADO AL REMITENTE PARA QUE LA PASARELA SE LAS SALTE.
+     *
+     * @param mensaje MENSAJE YA CODIFICADO
+     * @param comprobarBloqueos TRUE SI LOS BLOQUEOS AFECTAN A ESTE TIPO DE MENSAJE
+     * @return TRUE SI SE HA ENCOLADO
+     */
+    boolean difundir(ChatMessage mensaje, boolean comprobarBloqueos) {
+        if (!conectado || sesiones.isEmpty()) {
+            return false;
+        }
+
+        int[] excluidas = NINGUNA;
+        int cuantas = 0;
+        if (comprobarBloqueos) {
+            for (ServerThreadForClient sesion : sesiones.values()) {
+                if (sesion.tieneUsuarioBloqueado(mensaje.getRemitente())) {
+                    if (cuantas == excluidas.length) {
+                        excluidas = Arrays.copyOf(excluidas, Math.max(4, cuantas * 2));
+                    }
+                    excluidas[cuantas++] = sesion.getSesion();
+                    EventosJfr.bloqueoSaltado(mensaje.getRemitente(), sesion.getNickname(), mensaje.getTipo());
+                }
+            }
+            if (cuantas < excluidas.length) {
+                excluidas = Arrays.copyOf(excluidas, cuantas);
+            }
+        }
+
+        if (planificador.encolar(mensaje, excluidas)) {
+            difusiones.incrementAndGet();
+            entregas.addAndGet(sesiones.size() - cuantas);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * CONCEDO CREDITO A TODAS LAS SESIONES DE LA PASARELA CON UN SOLO
+     * BROADCAST. SI EL ANTERIOR AUN ESTA EN LA COLA, EL NUEVO OCUPA SU SITIO.
+     *
+     * @param mensaje MENSAJE CREDITO YA CODIFICADO
+     * @param credito VALOR CONCEDIDO
+     */
+    void concederCredito(ChatMessage mensaje, int credito) {
+        for (ServerThreadForClient sesion : sesiones.values()) {
+            sesion.anotarCredito(credito);
+        }
+        if (creditoPendiente.getAndSet(mensaje) == null && !difundir(mensaje, false)) {
+            creditoPendiente.set(null);
+        }
+    }
+
+    /**
+     * TAREA DEL HILO ESCRITOR: VACIAR LA COLA DE SALIDA. CADA TRAMA
+     * SALE DETRAS DE LA CABECERA DE SU SESION O, SI ES UN BROADCAST,
+     * DE LA LISTA DE SESIONES EXCLUIDAS. UN MENSAJE QUE NO SE PUEDE
+     * CODIFICAR SE PIERDE ANTES DE ESCRIBIR SU CABECERA, Y SI EL HILO
+     * TERMINA POR OTRO FALLO SE CIERRA LA PASARELA.
+     */
+    private void escribirPendientes() {
+        try {
+            ChatMessage mensaje;
+            while ((mensaje = planificador.siguiente()) != null) {
+                EventosJfr.EscrituraMensaje evento = new EventosJfr.EscrituraMensaje();
+                evento.begin();
+                Object destino = planificador.getDestino();
+                if (mensaje.getTipo() == MessageType.CREDITO && !(destino instanceof ServerThreadForClient)) {
+                    // SALE LA CONCESION MAS RECIENTE, NO LA QUE SE ENCOLO
+                    ChatMessage ultimo = creditoPendiente.getAndSet(null);
+                    mensaje = ultimo != null ? ultimo : mensaje;
+                }
+                if (mensaje.getTipo() != MessageType.FRAGMENTO_FICHERO) {
+                    try {
+                        CodecMensajes.preparar(mensaje);
+                    } catch (RuntimeException e) {
+                        System.out.println("DESCARTO UN MENSAJE " + mensaje.getTipo() + " PARA LA PASARELA " + getName()
+                                + ": " + e.getMessage());
+                        if (planificador.estaVacio()) {
+                            salida.flush();
+                        }
+                        continue;
+                    }
+                }
+                int bytes;
+                String destinatario;
+                if (destino instanceof ServerThreadForClient) {
+                    ServerThreadForClient sesion = (ServerThreadForClient) destino;
+                    destinatario = sesion.getNickname();
+                    if (mensaje.getTipo() == MessageType.FRAGMENTO_FICHERO) {
+                        // LA SESION ESCRIBE SU CABECERA SI AUN TIENE EL FICHERO ABIERTO
+                        bytes = sesion.enviarFragmento(mensaje);
+                    } else {
+                        CodecMensajes.escribirCabeceraSesion(sesion.getSesion(), salida);
+                        bytes = CodecMensajes.CABECERA_SESION + CodecMensajes.escribir(mensaje, salida);
+                    }
+                } else {
+                    destinatario = getName();
+                    bytes = CodecMensajes.escribirCabeceraDifusion((int[]) destino, salida)
+                            + CodecMensajes.escribir(mensaje, salida);
+                }
+                boolean vaciar = planificador.estaVacio();
+                if (vaciar) {
+                    salida.flush();
+                }
+                evento.end();
+                if (evento.shouldCommit()) {
+                    evento.destinatario = destinatario;
+                    evento.tipo = mensaje.getTipo().name();
+                    evento.bytes = bytes;
+                    evento.flush = vaciar;
+                    evento.commit();
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("NO PUDE ENVIAR A LA PASARELA " + getName() + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            cortar();
+        }
+    }
+
+    /**
+     * CIERRO EL TRANSPORTE SIN ESPERAR A NADIE PARA QUE EL HILO LECTOR
+     * TERMINE Y DESCARTE LO PENDIENTE.
+     */
+    private void cortar() {
+        if (conectado) {
+            conectado = false;
+            planificador.cerrar();
+            try {
+                transporte.close();
+            } catch (IOException ignorada) {
+                // YA ESTABA CERRADO
+            }
+        }
+    }
+
+    /**
+     * CIERRO LA CONEXION CON LA PASARELA. EL HILO LECTOR TERMINA Y
+     * CIERRA LAS SESIONES DE SUS CLIENTES.
+     */
+    public void cerrar() {
+        try {
+            if (conectado) {
+                System.out.println("COLA DE SALIDA DE " + getName() + ": " + planificador);
+            }
+            conectado = false;
+            planificador.cerrar();
+
+            // DEJO QUE EL ESCRITOR ENVIE LO QUE QUEDA (POR EJEMPLO EL AVISO DE CIERRE)
+            if (escritor != null && escritor != Thread.currentThread()) {
+                escritor.join(ESPERA_CIERRE_MS);
+            }
+            planificador.descartarPendientes();
+            if (entrada != null) entrada.close();
+            transporte.close();
+        } catch (IOException e) {
+            System.out.println("ERROR AL CERRAR LA PASARELA " + getName());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * BUSCO UNA SESION POR EL NICKNAME DE SU CLIENTE.
+     *
+     * @param nickname NICKNAME BUSCADO
+     * @return SESION, O NULL SI NO ESTA EN ESTA PASARELA
+     */
+    ServerThreadForClient buscar(String nickname) {
+        for (ServerThreadForClient sesion : sesiones.values()) {
+            if (nickname.equals(sesion.getNickname())) {
+                return sesion;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return SESIONES ABIERTAS EN ESTA PASARELA
+     */
+    public int getSesiones() {
+        return sesiones.size();
+    }
+
+    /**
+     * @return BROADCAST ENVIADOS A LA PASARELA
+     */
+    public long getDifusiones() {
+        return difusiones.get();
+    }
+
+    /**
+     * @return ENTREGAS A CLIENTES QUE HA HECHO LA PASARELA EN LUGAR DEL SERVIDOR
+     */
+    public long getEntregas() {
+        return entregas.get();
+    }
+
+    /**
+     * @return TRANSPORTE DEL ENLACE, LO COMPARTEN SUS SESIONES
+     */
+    @Override
+    public Transporte getTransporte() {
+        return transporte;
+    }
+
+    /**
+     * @return LECTOR DEL ENLACE, SOLO LO USA SU HILO LECTOR
+     */
+    @Override
+    public LectorTramas getEntrada() {
+        return entrada;
+    }
+
+    /**
+     * @return FLUJO DE SALIDA DEL ENLACE, SOLO LO USA SU HILO ESCRITOR
+     */
+    @Override
+    public OutputStream getSalida() {
+        return salida;
+    }
+
+    @Override
+    public String toString() {
+        return getName() + ": sesiones=" + sesiones.size() + " difusiones=" + difusiones
+                + " entregas=" + entregas;
+    }
+}
@@ -0,0 +1,419 @@
+package es.ubu.lsi.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * ESTADO PERSISTENTE DE CADA USUARIO (SUS BLOQUEOS) ENTRE SESIONES Y
+ * REINICIOS DEL SERVIDOR. TODO USUARIO QUE HA ENTRADO ALGUNA VEZ TIENE
+ * SU REGISTRO, AUNQUE NO BLOQUEE A NADIE, ASI QUE TAMBIEN SIRVE PARA
+ * SABER SI UN NICKNAME ES DE ALGUIEN CONOCIDO. CADA CAMBIO SE AÑADE AL FINAL DE UN FICHERO
+ * DE REGISTROS CON EL ESTADO COMPLETO DEL USUARIO, Y UN INDICE DE
+ * CUBETAS MAPEADO EN MEMORIA APUNTA AL ULTIMO REGISTRO DE CADA CUBETA;
+ * CADA REGISTRO APUNTA AL ANTERIOR DE SU CUBETA. ABRIR EL ALMACEN NO LEE
+ * NINGUN REGISTRO: EL ESTADO DE UN USUARIO SE LEE CUANDO HACE LOGIN
+ * RECORRIENDO SOLO SU CUBETA. CUANDO MAS DE LA MITAD DEL FICHERO SON
+ * ESTADOS SUPERADOS, SE REESCRIBE CON LOS VIGENTES.
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public class EstadoUsuarios implements Closeable {
+
+    /** CUBETAS DEL INDICE POR DEFECTO */
+    public static final int CUBETAS = 1 << 16;
+
+    /** TAMAÑO MINIMO DEL FICHERO DE REGISTROS PARA COMPACTARLO */
+    public static final long MINIMO_COMPACTAR = 1 << 20;
+
+    /** MARCA DEL FICHERO DE INDICE ("EST1") */
+    private static final int MAGICO = 0x45535431;
+
+    /** CABECERA DEL INDICE: MAGICO, CUBETAS, BYTES SUPERADOS Y MARCA DE SUCIO */
+    private static final int CABECERA = 24;
+
+    /** POSICION DE LOS BYTES SUPERADOS EN LA CABECERA */
+    private static final int POS_SUPERADOS = 8;
+
+    /** POSICION DE LA MARCA DE SUCIO EN LA CABECERA */
+    private static final int POS_SUCIO = 16;
+
+    /** DIRECTORIO DEL ALMACEN */
+    private final Path directorio;
+
+    /** NUMERO DE CUBETAS DEL INDICE */
+    private final int cubetas;
+
+    /** MINIMO PARA COMPACTAR */
+    private final long minimoCompactar;
+
+    /** FICHERO DE REGISTROS */
+    private FileChannel registros;
+
+    /** FICHERO DEL INDICE */
+    private final FileChannel canalIndice;
+
+    /** INDICE MAPEADO: CABECERA Y, POR CUBETA, POSICION + 1 DE SU ULTIMO REGISTRO (0 SI VACIA) */
+    private final MappedByteBuffer indice;
+
+    /** VECES QUE SE HA COMPACTADO */
+    private int compactaciones;
+
+    /**
+     * CONSTRUCTOR CON LOS VALORES POR DEFECTO.
+     *
+     * @param directorio DIRECTORIO DEL ALMACEN
+     * @throws IOException SI NO SE PUEDEN ABRIR LOS FICHEROS
+     */
+    public EstadoUsuarios(Path directorio) throws IOException {
+        this(directorio, CUBETAS, MINIMO_COMPACTAR);
+    }
+
+    /**
+     * CONSTRUCTOR COMPLETO. SI EL INDICE FALTA, NO CUADRA O SE QUEDO A
+     * MEDIAS, SE RECONSTRUYE LEYENDO LOS REGISTROS UNA VEZ.
+     *
+     * @param directorio DIRECTORIO DEL ALMACEN
+     * @param cubetas NUMERO DE CUBETAS DEL INDICE
+     * @param minimoCompactar TAMAÑO MINIMO DEL FICHERO PARA COMPACTARLO
+     * @throws IOException SI NO SE PUEDEN ABRIR LOS FICHEROS
+     */
+    public EstadoUsuarios(Path directorio, int cubetas, long minimoCompactar) throws IOException {
+        this.directorio = directorio;
+        this.cubetas = cubetas;
+        this.minimoCompactar = minimoCompactar;
+        Files.createDirectories(directorio);
+        registros = abrirRegistros();
+
+        Path rutaIndice = directorio.resolve("estado.idx");
+        long tamanoIndice = CABECERA + 8L * cubetas;
+        boolean existia = Files.exists(rutaIndice) && Files.size(rutaIndice) == tamanoIndice;
+        canalIndice = FileChannel.open(rutaIndice, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        indice = canalIndice.map(FileChannel.MapMode.READ_WRITE, 0, tamanoIndice);
+
+        if (!existia || indice.getInt(0) != MAGICO || indice.getInt(4) != cubetas
+                || indice.getInt(POS_SUCIO) != 0 || !cabezasValidas()) {
+            reconstruir();
+        }
+    }
+
+    /**
+     * LEO EL ESTADO GUARDADO DE UN USUARIO.
+     *
+     * @param nickname USUARIO QUE HACE LOGIN
+     * @return USUARIOS QUE TIENE BLOQUEADOS (VACIO SI NO HAY NADA GUARDADO)
+     * @throws IOException SI FALLA LA LECTURA
+     */
+    public synchronized Set<String> cargar(String nickname) throws IOException {
+        Registro registro = buscar(nickname);
+        return registro == null ? new HashSet<String>() : new HashSet<>(registro.bloqueados);
+    }
+
+    /**
+     * @param nickname USUARIO A CONSULTAR
+     * @return TRUE SI HA ENTRADO ALGUNA VEZ
+     * @throws IOException SI FALLA LA LECTURA
+     */
+    public synchronized boolean conocido(String nickname) throws IOException {
+        return buscar(nickname) != null;
+    }
+
+    /**
+     * APUNTO A UN USUARIO QUE ENTRA POR PRIMERA VEZ, SIN BLOQUEOS.
+     *
+     * @param nickname USUARIO QUE HACE LOGIN
+     * @return TRUE SI NO SE LE CONOCIA
+     * @throws IOException SI FALLA LA ESCRITURA
+     */
+    public synchronized boolean registrar(String nickname) throws IOException {
+        if (buscar(nickname) != null) {
+            return false;
+        }
+        guardar(nickname, Collections.<String>emptyList());
+        return true;
+    }
+
+    /**
+     * GUARDO EL ESTADO COMPLETO DE UN USUARIO, QUE SUSTITUYE AL ANTERIOR.
+     *
+     * @param nickname USUARIO
+     * @param bloqueados USUARIOS QUE TIENE BLOQUEADOS AHORA
+     * @throws IOException SI FALLA LA ESCRITURA
+     */
+    public synchronized void guardar(String nickname, Collection<String> bloqueados) throws IOException {
+        Registro previo = buscar(nickname);
+        int cubeta = cubetaDe(nickname);
+        long posicion = registros.size();
+        escribir(posicion, nickname, new ArrayList<>(bloqueados), getCabeza(cubeta));
+
+        // EL INDICE SE CAMBIA DESPUES: SI SE CAE ANTES, EL REGISTRO QUEDA SIN APUNTAR
+        setCabeza(cubeta, posicion + 1);
+        if (previo != null) {
+            indice.putLong(POS_SUPERADOS, indice.getLong(POS_SUPERADOS) + previo.longitud);
+        }
+
+        long tamano = registros.size();
+        if (tamano >= minimoCompactar && indice.getLong(POS_SUPERADOS) * 2 > tamano) {
+            compactar();
+        }
+    }
+
+    /**
+     * REESCRIBO EL FICHERO SOLO CON EL ULTIMO ESTADO DE CADA USUARIO
+     * CONOCIDO. MIENTRAS DURA, EL INDICE QUEDA MARCADO COMO
+     * SUCIO PARA QUE UNA CAIDA A MEDIAS SE ARREGLE RECONSTRUYENDOLO.
+     *
+     * @throws IOException SI FALLA LA ESCRITURA
+     */
+    public synchronized void compactar() throws IOException {
+        Path temporal = directorio.resolve("estado.log.tmp");
+        long[] cabezas = new long[cubetas];
+        try (FileChannel nuevo = FileChannel.open(temporal, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileChannel viejo = registros;
+            registros = nuevo;
+            try {
+                for (int cubeta = 0; cubeta < cubetas; cubeta++) {
+                    Set<String> vistos = new HashSet<>();
+                    long siguiente = getCabeza(cubeta);
+                    while (siguiente != 0) {
+                        Registro registro = leer(viejo, siguiente - 1);
+                        if (registro == null) {
+                            break;
+                        }
+                        if (vistos.add(registro.nickname)) {
+                            long posicion = nuevo.size();
+                            escribir(posicion, registro.nickname, registro.bloqueados, cabezas[cubeta]);
+                            cabezas[cubeta] = posicion + 1;
+                        }
+                        siguiente = registro.anterior;
+                    }
+                }
+                nuevo.force(true);
+            } finally {
+                registros = viejo;
+            }
+        }
+
+        indice.putInt(POS_SUCIO, 1);
+        indice.force();
+        registros.close();
+        Files.move(temporal, directorio.resolve("estado.log"),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        registros = abrirRegistros();
+        for (int cubeta = 0; cubeta < cubetas; cubeta++) {
+            setCabeza(cubeta, cabezas[cubeta]);
+        }
+        indice.putLong(POS_SUPERADOS, 0);
+        indice.putInt(POS_SUCIO, 0);
+        indice.force();
+        compactaciones++;
+    }
+
+    /**
+     * @return TAMAÑO DEL FICHERO DE REGISTROS EN BYTES
+     * @throws IOException SI NO SE PUEDE CONSULTAR
+     */
+    public synchronized long getTamano() throws IOException {
+        return registros.size();
+    }
+
+    /**
+     * @return VECES QUE SE HA COMPACTADO DESDE QUE SE ABRIO
+     */
+    public synchronized int getCompactaciones() {
+        return compactaciones;
+    }
+
+    /**
+     * CIERRO EL ALMACEN DEJANDO EL INDICE EN DISCO.
+     *
+     * @throws IOException SI FALLA EL CIERRE
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        indice.force();
+        canalIndice.close();
+        registros.force(true);
+        registros.close();
+    }
+
+    /**
+     * BUSCO EL ULTIMO REGISTRO DE UN USUARIO RECORRIENDO SU CUBETA.
+     *
+     * @return REGISTRO, O NULL SI NO TIENE
+     */
+    private Registro buscar(String nickname) throws IOException {
+        long siguiente = getCabeza(cubetaDe(nickname));
+        while (siguiente != 0) {
+            Registro registro = leer(registros, siguiente - 1);
+            if (registro == null) {
+                break;
+            }
+            if (registro.nickname.equals(nickname)) {
+                return registro;
+            }
+            siguiente = registro.anterior;
+        }
+        return null;
+    }
+
+    /**
+     * AÑADO UN REGISTRO: [LONGITUD][ANTERIOR][NICKNAME][N][BLOQUEADOS...].
+     */
+    private void escribir(long posicion, String nickname, List<String> bloqueados, long anterior)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeLong(anterior);
+        out.writeUTF(nickname);
+        out.writeInt(bloqueados.size());
+        for (String bloqueado : bloqueados) {
+            out.writeUTF(bloqueado);
+        }
+        ByteBuffer registro = ByteBuffer.wrap(bytes.toByteArray());
+        registro.putInt(0, registro.remaining() - 4);
+        while (registro.hasRemaining()) {
+            registros.write(registro, posicion + registro.position());
+        }
+    }
+
+    /**
+     * LEO EL REGISTRO QUE EMPIEZA EN UNA POSICION.
+     *
+     * @return REGISTRO, O NULL SI ESTA A MEDIAS
+     */
+    private static Registro leer(FileChannel canal, long posicion) throws IOException {
+        ByteBuffer cabecera = ByteBuffer.allocate(4);
+        if (leerCompleto(canal, cabecera, posicion) < 4) {
+            return null;
+        }
+        int longitud = cabecera.getInt(0);
+        if (longitud < 14 || posicion + 4 + longitud > canal.size()) {
+            return null;
+        }
+        ByteBuffer cuerpo = ByteBuffer.allocate(longitud);
+        leerCompleto(canal, cuerpo, posicion + 4);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(cuerpo.array()));
+        long anterior = in.readLong();
+        String nickname = in.readUTF();
+        int n = in.readInt();
+        List<String> bloqueados = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            bloqueados.add(in.readUTF());
+        }
+        return new Registro(nickname, bloqueados, anterior, 4 + longitud);
+    }
+
+    private static int leerCompleto(FileChannel canal, ByteBuffer destino, long posicion) throws IOException {
+        while (destino.hasRemaining()) {
+            if (canal.read(destino, posicion + destino.position()) < 0) {
+                break;
+            }
+        }
+        return destino.position();
+    }
+
+    /**
+     * RECONSTRUYO EL INDICE LEYENDO TODOS LOS REGISTROS EN ORDEN. SOLO SE
+     * HACE SI EL INDICE NO ES FIABLE; UN REGISTRO A MEDIAS AL FINAL SE DESCARTA.
+     */
+    private void reconstruir() throws IOException {
+        for (int cubeta = 0; cubeta < cubetas; cubeta++) {
+            setCabeza(cubeta, 0);
+        }
+        Map<String, Integer> vigentes = new HashMap<>();
+        long posicion = 0;
+        long fin = registros.size();
+        long superados = 0;
+        while (posicion < fin) {
+            Registro registro = leer(registros, posicion);
+            if (registro == null) {
+                registros.truncate(posicion);
+                break;
+            }
+            setCabeza(cubetaDe(registro.nickname), posicion + 1);
+            Integer previo = vigentes.put(registro.nickname, registro.longitud);
+            if (previo != null) {
+                superados += previo;
+            }
+            posicion += registro.longitud;
+        }
+        indice.putInt(0, MAGICO);
+        indice.putInt(4, cubetas);
+        indice.putLong(POS_SUPERADOS, superados);
+        indice.putInt(POS_SUCIO, 0);
+        indice.force();
+    }
+
+    /**
+     * @return TRUE SI NINGUNA CUBETA APUNTA MAS ALLA DEL FINAL DE LOS REGISTROS
+     */
+    private boolean cabezasValidas() throws IOException {
+        long tamano = registros.size();
+        for (int cubeta = 0; cubeta < cubetas; cubeta++) {
+            if (getCabeza(cubeta) > tamano) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private FileChannel abrirRegistros() throws IOException {
+        return FileChannel.open(directorio.resolve("estado.log"), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private int cubetaDe(String nickname) {
+        int hash = nickname.hashCode();
+        return ((hash ^ (hash >>> 16)) & 0x7fffffff) % cubetas;
+    }
+
+    private long getCabeza(int cubeta) {
+        return indice.getLong(CABECERA + 8 * cubeta);
+    }
+
+    private void setCabeza(int cubeta, long valor) {
+        indice.putLong(CABECERA + 8 * cubeta, valor);
+    }
+
+    /**
+     * ESTADO GUARDADO DE UN USUARIO.
+     */
+    private static class Registro {
+        final String nickname;
+        final List<String> bloqueados;
+        final long anterior;
+        final int longitud;
+
+        Registro(String nickname, List<String> bloqueados, long anterior, int longitud) {
+            this.nickname = nickname;
+            this.bloqueados = bloqueados;
+            this.anterior = anterior;
+            this.longitud = longitud;
+        }
+    }
+}
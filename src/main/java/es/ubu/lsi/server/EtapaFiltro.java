@@ -0,0 +1,29 @@
+package es.ubu.lsi.server;
+
+import es.ubu.lsi.common.ChatMessage;
+
+/**
+ * ETAPA DE LA CADENA DE FILTROS QUE PASAN LOS MENSAJES ANTES DE
+ * DIFUNDIRSE. CADA ETAPA PUEDE DEJAR EL MENSAJE COMO ESTA, CAMBIARLO
+ * POR OTRO O DESCARTARLO. SE LLAMA DESDE LOS HILOS DE LOS CLIENTES,
+ * ASI QUE TIENE QUE PODER USARSE DESDE VARIOS HILOS A LA VEZ.
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public interface EtapaFiltro {
+
+    /**
+     * @return NOMBRE DE LA ETAPA PARA LAS METRICAS
+     */
+    String getNombre();
+
+    /**
+     * APLICO LA ETAPA A UN MENSAJE.
+     *
+     * @param mensaje MENSAJE RECIBIDO
+     * @return EL MISMO MENSAJE, OTRO QUE LO SUSTITUYE, O NULL PARA DESCARTARLO
+     */
+    ChatMessage aplicar(ChatMessage mensaje);
+}
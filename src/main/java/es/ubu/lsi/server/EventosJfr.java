@@ -0,0 +1,177 @@
+package es.ubu.lsi.server;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * EVENTOS PROPIOS PARA JAVA FLIGHT RECORDER CON EL CICLO DE VIDA DE LOS
+ * MENSAJES EN EL SERVIDOR. SI NO HAY UNA GRABACION EN MARCHA, CREAR UN
+ * EVENTO Y LLAMAR A COMMIT NO HACE NADA (EL JIT LO ELIMINA), Y LOS
+ * CAMPOS SOLO SE RELLENAN SI SHOULDCOMMIT() DICE QUE SE VA A GUARDAR.
+ * LOS EVENTOS CON DURACION TIENEN UN UMBRAL POR DEFECTO PARA QUE SOLO
+ * SALGAN LOS ATASCOS; CHAT.JFC LOS QUITA PARA VER CADA MENSAJE:
+ *
+ * <pre>
+ * java -XX:StartFlightRecording:filename=chat.jfr,settings=default,settings=src/main/resources/chat.jfc ...
+ * jfr print --events es.ubu.lsi.Difusion chat.jfr
+ * </pre>
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public final class EventosJfr {
+
+    private EventosJfr() {
+    }
+
+    /**
+     * CONEXION ACEPTADA POR EL SERVIDOR (TCP O SOCKET LOCAL).
+     */
+    @Name("es.ubu.lsi.ConexionAceptada")
+    @Label("Conexion aceptada")
+    @Category({"Chat", "Conexiones"})
+    @StackTrace(false)
+    public static class ConexionAceptada extends Event {
+        @Label("Origen")
+        public String origen;
+
+        @Label("Clientes")
+        @Description("Clientes conectados contando este")
+        public int clientes;
+    }
+
+    /**
+     * PROCESADO DE UN MENSAJE LEIDO DE UN CLIENTE, DESDE QUE SE LEE HASTA
+     * QUE SE HA ENCOLADO TODO LO QUE PROVOCA (INCLUIDO EL BROADCAST).
+     */
+    @Name("es.ubu.lsi.MensajeLeido")
+    @Label("Mensaje leido")
+    @Category({"Chat", "Mensajes"})
+    @StackTrace(false)
+    @Threshold("1 ms")
+    public static class MensajeLeido extends Event {
+        @Label("Remitente")
+        public String remitente;
+
+        @Label("Tipo")
+        public String tipo;
+
+        @Label("Bytes")
+        @DataAmount
+        public int bytes;
+    }
+
+    /**
+     * BROADCAST DE UN MENSAJE, DE PRINCIPIO A FIN DEL REPARTO.
+     */
+    @Name("es.ubu.lsi.Difusion")
+    @Label("Difusion")
+    @Category({"Chat", "Mensajes"})
+    @StackTrace(false)
+    @Threshold("1 ms")
+    public static class Difusion extends Event {
+        @Label("Remitente")
+        public String remitente;
+
+        @Label("Tipo")
+        public String tipo;
+
+        @Label("Audiencia")
+        @Description("Conexiones a las que se reparte (cada pasarela cuenta una vez), antes de quitar los bloqueos")
+        public int audiencia;
+
+        @Label("Paralela")
+        @Description("Si el reparto se hizo en el pool fork-join")
+        public boolean paralela;
+    }
+
+    /**
+     * ESCRITURA DE UN MENSAJE EN LA CONEXION DE UN CLIENTE, EN SU HILO
+     * ESCRITOR. SI TARDA ES QUE EL CLIENTE NO LEE O LA RED VA LENTA.
+     */
+    @Name("es.ubu.lsi.EscrituraMensaje")
+    @Label("Escritura de mensaje")
+    @Category({"Chat", "Mensajes"})
+    @StackTrace(false)
+    @Threshold("5 ms")
+    public static class EscrituraMensaje extends Event {
+        @Label("Destinatario")
+        public String destinatario;
+
+        @Label("Tipo")
+        public String tipo;
+
+        @Label("Bytes")
+        @DataAmount
+        public int bytes;
+
+        @Label("Con flush")
+        public boolean flush;
+    }
+
+    /**
+     * MENSAJE QUE NO SE ENTREGA PORQUE EL DESTINATARIO BLOQUEA AL REMITENTE.
+     */
+    @Name("es.ubu.lsi.BloqueoSaltado")
+    @Label("Bloqueo saltado")
+    @Category({"Chat", "Mensajes"})
+    @StackTrace(false)
+    public static class BloqueoSaltado extends Event {
+        @Label("Remitente")
+        public String remitente;
+
+        @Label("Destinatario")
+        public String destinatario;
+
+        @Label("Tipo")
+        public String tipo;
+    }
+
+    /**
+     * CLIENTE QUE SE DESCONECTA.
+     */
+    @Name("es.ubu.lsi.Desconexion")
+    @Label("Desconexion")
+    @Category({"Chat", "Conexiones"})
+    @StackTrace(false)
+    public static class Desconexion extends Event {
+        @Label("Usuario")
+        public String usuario;
+
+        @Label("Motivo")
+        public String motivo;
+
+        @Label("Duracion de la sesion")
+        @Timespan(Timespan.NANOSECONDS)
+        public long duracionSesion;
+
+        @Label("Pendientes")
+        @Description("Mensajes que quedaban en la cola de salida")
+        public int pendientes;
+    }
+
+    /**
+     * APUNTO QUE UN MENSAJE SE HA SALTADO POR UN BLOQUEO.
+     *
+     * @param remitente USUARIO BLOQUEADO
+     * @param destinatario USUARIO QUE LO BLOQUEA
+     * @param tipo TIPO DEL MENSAJE
+     */
+    static void bloqueoSaltado(String remitente, String destinatario, Object tipo) {
+        BloqueoSaltado evento = new BloqueoSaltado();
+        if (evento.shouldCommit()) {
+            evento.remitente = remitente;
+            evento.destinatario = destinatario;
+            evento.tipo = String.valueOf(tipo);
+            evento.commit();
+        }
+    }
+}
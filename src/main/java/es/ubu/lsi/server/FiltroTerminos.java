@@ -0,0 +1,188 @@
+package es.ubu.lsi.server;
+
+import es.ubu.lsi.common.ChatMessage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * ETAPA DE FILTRO QUE BUSCA TERMINOS PROHIBIDOS EN LOS MENSAJES CON UN
+ * AUTOMATA DE AHO-CORASICK, EN UNA SOLA PASADA POR EL TEXTO AUNQUE HAYA
+ * MILES DE TERMINOS. LA LISTA SE PUEDE CAMBIAR EN CALIENTE: EL AUTOMATA
+ * NUEVO SE COMPILA APARTE Y SE PUBLICA DE GOLPE, ASI QUE LOS MENSAJES
+ * NO ESPERAN NUNCA A LA RECARGA.
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public class FiltroTerminos implements EtapaFiltro {
+
+    /**
+     * QUE SE HACE CON UN MENSAJE QUE CONTIENE ALGUN TERMINO.
+     */
+    public enum Accion {
+        /** SE TAPAN LOS TERMINOS CON ASTERISCOS */
+        ENMASCARAR,
+        /** EL MENSAJE NO SE DIFUNDE */
+        DESCARTAR,
+        /** EL MENSAJE SE DIFUNDE IGUAL PERO SE AVISA */
+        MARCAR
+    }
+
+    /** AUTOMATA CON LA LISTA DE TERMINOS ACTUAL */
+    private volatile AutomataTerminos automata = AutomataTerminos.VACIO;
+
+    /** ACCION CON LOS MENSAJES QUE COINCIDEN */
+    private volatile Accion accion;
+
+    /** AVISO PARA LOS MENSAJES MARCADOS, PUEDE SER NULL */
+    private volatile Consumer<ChatMessage> alMarcar;
+
+    /** FICHERO DE TERMINOS DEL QUE SE CARGO LA LISTA, PUEDE SER NULL */
+    private Path fichero;
+
+    /** FECHA DE MODIFICACION DEL FICHERO CUANDO SE CARGO */
+    private long modificado;
+
+    /** MENSAJES QUE CONTENIAN ALGUN TERMINO */
+    private final AtomicLong coincidencias = new AtomicLong();
+
+    /** VECES QUE SE HA CAMBIADO LA LISTA */
+    private final AtomicLong recargas = new AtomicLong();
+
+    /**
+     * CONSTRUCTOR.
+     *
+     * @param accion ACCION CON LOS MENSAJES QUE COINCIDEN
+     */
+    public FiltroTerminos(Accion accion) {
+        this.accion = accion;
+    }
+
+    @Override
+    public String getNombre() {
+        return "terminos(" + accion.name().toLowerCase() + ")";
+    }
+
+    @Override
+    public ChatMessage aplicar(ChatMessage mensaje) {
+        String contenido = mensaje.getContenido();
+        if (contenido == null) {
+            return mensaje;
+        }
+
+        // LEO EL AUTOMATA UNA VEZ: SI LO CAMBIAN AHORA, ESTE MENSAJE SIGUE CON EL VIEJO
+        AutomataTerminos actual = automata;
+        Accion modo = accion;
+        if (modo == Accion.ENMASCARAR) {
+            char[] enmascarado = actual.enmascarar(contenido);
+            if (enmascarado == null) {
+                return mensaje;
+            }
+            coincidencias.incrementAndGet();
+            return new ChatMessage(mensaje.getRemitente(), new String(enmascarado), mensaje.getTipo(),
+                    mensaje.getDestinatario(), mensaje.getIdMensaje());
+        }
+
+        if (!actual.contiene(contenido)) {
+            return mensaje;
+        }
+        coincidencias.incrementAndGet();
+        if (modo == Accion.DESCARTAR) {
+            return null;
+        }
+        Consumer<ChatMessage> aviso = alMarcar;
+        if (aviso != null) {
+            aviso.accept(mensaje);
+        }
+        return mensaje;
+    }
+
+    /**
+     * CAMBIO LA LISTA DE TERMINOS.
+     *
+     * @param terminos TERMINOS NUEVOS
+     */
+    public void setTerminos(Collection<String> terminos) {
+        automata = new AutomataTerminos(terminos);
+        recargas.incrementAndGet();
+    }
+
+    /**
+     * CARGO LA LISTA DE UN FICHERO DE TEXTO CON UN TERMINO POR LINEA.
+     * LAS LINEAS VACIAS Y LAS QUE EMPIEZAN POR # SE IGNORAN.
+     *
+     * @param ruta FICHERO DE TERMINOS
+     * @throws IOException SI NO SE PUEDE LEER
+     */
+    public synchronized void cargar(Path ruta) throws IOException {
+        long fecha = Files.getLastModifiedTime(ruta).toMillis();
+        List<String> terminos = new ArrayList<>();
+        for (String linea : Files.readAllLines(ruta, StandardCharsets.UTF_8)) {
+            String termino = linea.trim();
+            if (!termino.isEmpty() && !termino.startsWith("#")) {
+                terminos.add(termino);
+            }
+        }
+        setTerminos(terminos);
+        fichero = ruta;
+        modificado = fecha;
+    }
+
+    /**
+     * VUELVO A CARGAR EL FICHERO DE TERMINOS SI HA CAMBIADO DESDE LA ULTIMA VEZ.
+     *
+     * @return TRUE SI SE HA RECARGADO
+     * @throws IOException SI NO SE PUEDE LEER
+     */
+    public synchronized boolean recargarSiCambio() throws IOException {
+        if (fichero == null || Files.getLastModifiedTime(fichero).toMillis() == modificado) {
+            return false;
+        }
+        cargar(fichero);
+        return true;
+    }
+
+    /**
+     * @param accion ACCION CON LOS MENSAJES QUE COINCIDEN
+     */
+    public void setAccion(Accion accion) {
+        this.accion = accion;
+    }
+
+    /**
+     * @param alMarcar AVISO PARA CADA MENSAJE MARCADO
+     */
+    public void setAlMarcar(Consumer<ChatMessage> alMarcar) {
+        this.alMarcar = alMarcar;
+    }
+
+    /**
+     * @return NUMERO DE TERMINOS DE LA LISTA ACTUAL
+     */
+    public int getTerminos() {
+        return automata.getTerminos();
+    }
+
+    /**
+     * @return MENSAJES QUE CONTENIAN ALGUN TERMINO
+     */
+    public long getCoincidencias() {
+        return coincidencias.get();
+    }
+
+    /**
+     * @return VECES QUE SE HA CAMBIADO LA LISTA
+     */
+    public long getRecargas() {
+        return recargas.get();
+    }
+}
@@ -0,0 +1,653 @@
+package es.ubu.lsi.server;
+
+import es.ubu.lsi.common.ChatMessage;
+import es.ubu.lsi.common.MessageType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * INDICE INVERTIDO INCREMENTAL SOBRE LOS MENSAJES DEL CHAT.
+ * CADA MENSAJE ES UN DOCUMENTO NUMERADO EN ORDEN DE LLEGADA: SU TEXTO
+ * SE GUARDA EN UN FICHERO Y SUS TERMINOS (Y SU REMITENTE) EN UN
+ * SEGMENTO EN MEMORIA QUE, AL LLENARSE, SE COMPRIME. LOS SEGMENTOS
+ * CONSECUTIVOS DE TAMAÑO PARECIDO SE FUSIONAN, ASI QUE SOLO HAY UN
+ * NUMERO LOGARITMICO DE ELLOS. COMO LOS DOCUMENTOS ESTAN EN ORDEN DE
+ * LLEGADA, UN RANGO DE FECHAS ES UN RANGO DE DOCUMENTOS.
+ * <p>
+ * EL SERVIDOR NO INDEXA AL DIFUNDIR: DEJA LOS MENSAJES EN UNA COLA QUE
+ * VACIA UN HILO INDEXADOR, Y SI LA COLA SE LLENA LOS QUE NO CABEN NO SE
+ * INDEXAN. LAS BUSQUEDAS SOLO TOMAN EL CERROJO PARA COPIAR LAS LISTAS
+ * QUE NECESITAN; LAS LECTURAS DEL DISCO SE HACEN SIN EL, ASI QUE UNA
+ * BUSQUEDA LARGA NO FRENA LA INDEXACION. CADA BUSQUEDA LEE COMO MUCHO
+ * MAXIMO_LEIDOS DOCUMENTOS.
+ * <p>
+ * LIMITACION CONOCIDA: LA MEMORIA CRECE CON EL HISTORICO (DIECISEIS
+ * BYTES POR DOCUMENTO MAS LOS SEGMENTOS COMPRIMIDOS) Y LOS SEGMENTOS
+ * NO SE GUARDAN, ASI QUE AL ARRANCAR SE VUELVE A INDEXAR TODO EL FICHERO.
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public class IndiceBusqueda implements Closeable {
+
+    /** DOCUMENTOS DEL SEGMENTO EN MEMORIA ANTES DE COMPRIMIRLO */
+    public static final int DOCUMENTOS_POR_SEGMENTO = 4096;
+
+    /** RESULTADOS POR PAGINA */
+    public static final int TAMANO_PAGINA = 20;
+
+    /** LONGITUD MAXIMA DE UN TERMINO INDEXADO */
+    private static final int LONGITUD_MAXIMA_TERMINO = 40;
+
+    /** DOCUMENTOS QUE LEE DEL DISCO COMO MUCHO UNA BUSQUEDA */
+    public static final int MAXIMO_LEIDOS = 5000;
+
+    /** MENSAJES QUE PUEDEN ESPERAR A INDEXARSE */
+    public static final int MAXIMO_EN_COLA = 10_000;
+
+    /** PREFIJO DE LOS TERMINOS QUE INDEXAN AL REMITENTE */
+    private static final String PREFIJO_REMITENTE = "@de:";
+
+    /** FICHERO CON EL TEXTO DE LOS DOCUMENTOS */
+    private final FileChannel documentos;
+
+    /** SEGMENTOS COMPRIMIDOS, DEL MAS ANTIGUO AL MAS NUEVO */
+    private final List<SegmentoIndice> segmentos = new ArrayList<>();
+
+    /** LISTAS DEL SEGMENTO EN MEMORIA */
+    private Map<String, ListaEnteros> activo = new HashMap<>();
+
+    /** DOCUMENTOS DEL SEGMENTO EN MEMORIA */
+    private int documentosActivo;
+
+    /** POSICION DE CADA DOCUMENTO EN EL FICHERO */
+    private long[] posiciones = new long[1024];
+
+    /** INSTANTE DE LLEGADA DE CADA DOCUMENTO (NO DECRECIENTE) */
+    private long[] instantes = new long[1024];
+
+    /** NUMERO TOTAL DE DOCUMENTOS */
+    private int total;
+
+    /** MENSAJES QUE ESPERAN AL HILO INDEXADOR */
+    private final BlockingQueue<Pendiente> cola = new ArrayBlockingQueue<>(MAXIMO_EN_COLA);
+
+    /** HILO QUE VACIA LA COLA */
+    private final Thread indexador;
+
+    /** INDICA SI YA SE CERRO EL INDICE */
+    private volatile boolean cerrado;
+
+    /** MENSAJES QUE NO SE INDEXARON POR TENER LA COLA LLENA */
+    private final AtomicLong descartados = new AtomicLong();
+
+    /** MARCA QUE DETIENE AL INDEXADOR */
+    private static final Pendiente FIN = new Pendiente(null, 0);
+
+    /**
+     * ABRO EL INDICE. SI YA HABIA DOCUMENTOS DE OTRA EJECUCION,
+     * VUELVO A INDEXARLOS LEYENDO EL FICHERO UNA VEZ.
+     *
+     * @param directorio DIRECTORIO DEL INDICE
+     * @throws IOException SI NO SE PUEDE ABRIR EL FICHERO
+     */
+    public IndiceBusqueda(Path directorio) throws IOException {
+        Files.createDirectories(directorio);
+        documentos = FileChannel.open(directorio.resolve("documentos.bin"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        long posicion = 0;
+        long fin = documentos.size();
+        while (posicion < fin) {
+            Documento doc = leer(posicion);
+            if (doc == null) {
+                // REGISTRO A MEDIAS DE UNA CAIDA: LO DESCARTO
+                documentos.truncate(posicion);
+                break;
+            }
+            agregar(doc.mensaje, doc.instante, posicion);
+            posicion += doc.longitud;
+        }
+
+        indexador = new Thread(this::vaciarCola, "indexador-" + directorio.getFileName());
+        indexador.setDaemon(true);
+        indexador.start();
+    }
+
+    /**
+     * DEJO UN MENSAJE EN LA COLA DEL INDEXADOR, CON EL INSTANTE ACTUAL.
+     * NO ESPERA AL DISCO NI A LAS BUSQUEDAS; SI LA COLA ESTA LLENA EL
+     * MENSAJE NO SE INDEXA.
+     *
+     * @param mensaje MENSAJE RECIBIDO POR EL SERVIDOR
+     */
+    public void encolar(ChatMessage mensaje) {
+        if (cerrado || mensaje.getTipo() != MessageType.MENSAJE && mensaje.getTipo() != MessageType.PRIVADO) {
+            return;
+        }
+        if (!cola.offer(new Pendiente(mensaje, System.currentTimeMillis()))
+                && descartados.incrementAndGet() % 1000 == 1) {
+            System.out.println("COLA DEL INDICE LLENA, MENSAJES SIN INDEXAR: " + descartados.get());
+        }
+    }
+
+    /**
+     * TAREA DEL HILO INDEXADOR: INDEXAR LO QUE LLEGA A LA COLA HASTA LA MARCA DE FIN.
+     */
+    private void vaciarCola() {
+        try {
+            Pendiente pendiente;
+            while ((pendiente = cola.take()) != FIN) {
+                indexar(pendiente.mensaje, pendiente.instante);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * ESPERO A QUE EL INDEXADOR HAYA INDEXADO TODO LO ENCOLADO HASTA AHORA.
+     *
+     * @param esperaMs TIEMPO MAXIMO DE ESPERA
+     * @return TRUE SI LA COLA SE VACIO A TIEMPO
+     * @throws InterruptedException SI SE INTERRUMPE LA ESPERA
+     */
+    boolean esperarCola(long esperaMs) throws InterruptedException {
+        long limite = System.currentTimeMillis() + esperaMs;
+        while (!cola.isEmpty() && System.currentTimeMillis() < limite) {
+            Thread.sleep(5);
+        }
+        // EL ULTIMO QUE SALIO DE LA COLA PUEDE ESTAR INDEXANDOSE: ESPERO AL CERROJO
+        synchronized (this) {
+            return cola.isEmpty();
+        }
+    }
+
+    /**
+     * INDEXO UN MENSAJE NORMAL O PRIVADO CON EL INSTANTE ACTUAL.
+     *
+     * @param mensaje MENSAJE RECIBIDO POR EL SERVIDOR
+     */
+    public void indexar(ChatMessage mensaje) {
+        if (mensaje.getTipo() == MessageType.MENSAJE || mensaje.getTipo() == MessageType.PRIVADO) {
+            indexar(mensaje, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * ESCRIBO UN MENSAJE EN EL FICHERO Y LO AÑADO AL SEGMENTO EN MEMORIA.
+     */
+    private synchronized void indexar(ChatMessage mensaje, long instante) {
+        try {
+            long posicion = documentos.size();
+            ByteBuffer registro = codificar(mensaje, instante);
+            while (registro.hasRemaining()) {
+                documentos.write(registro, posicion + registro.position());
+            }
+            agregar(mensaje, instante, posicion);
+        } catch (IOException e) {
+            System.out.println("NO PUDE INDEXAR EL MENSAJE: " + e.getMessage());
+        }
+    }
+
+    /**
+     * BUSCO UNA PAGINA DE RESULTADOS, DEL MAS NUEVO AL MAS ANTIGUO.
+     * LOS MENSAJES PRIVADOS SOLO LOS VEN SU REMITENTE Y SU DESTINATARIO.
+     * CON EL CERROJO SOLO SE COPIA LO NECESARIO; LOS SEGMENTOS NO CAMBIAN
+     * Y LOS DOCUMENTOS YA ESCRITOS TAMPOCO, ASI QUE EL RESTO VA SIN EL.
+     * SI SE LLEGA A MAXIMO_LEIDOS LA PAGINA TERMINA AHI Y SE AVISA DE QUE
+     * PUEDE HABER MAS.
+     *
+     * @param consulta CONSULTA INTERPRETADA
+     * @param solicitante USUARIO QUE HACE LA BUSQUEDA
+     * @return PAGINA DE RESULTADOS
+     * @throws IOException SI NO SE PUEDEN LEER LOS DOCUMENTOS
+     */
+    public Pagina buscar(ConsultaBusqueda consulta, String solicitante) throws IOException {
+        Set<String> terminos = new LinkedHashSet<>(consulta.getTerminos());
+        if (consulta.getRemitente() != null) {
+            terminos.add(PREFIJO_REMITENTE + consulta.getRemitente());
+        }
+
+        int primero;
+        int fin;
+        long[] posicionesVistas;
+        List<SegmentoIndice> segmentosVistos;
+        Map<String, int[]> activoVisto = new HashMap<>();
+        synchronized (this) {
+            // EL RANGO DE FECHAS ES UN RANGO DE DOCUMENTOS
+            primero = limiteInferior(consulta.getDesde());
+            fin = consulta.getHasta() == Long.MAX_VALUE ? total : limiteInferior(consulta.getHasta() + 1);
+            // EL ARRAY SOLO SE SUSTITUYE AL CRECER, Y LO YA ESCRITO EN EL NO CAMBIA
+            posicionesVistas = posiciones;
+            segmentosVistos = new ArrayList<>(segmentos);
+            for (String termino : terminos) {
+                ListaEnteros lista = activo.get(termino);
+                activoVisto.put(termino, lista == null ? new int[0] : lista.aArray());
+            }
+        }
+
+        // INTERSECO LAS LISTAS DE TODOS LOS TERMINOS
+        int[] candidatos = null;
+        for (String termino : terminos) {
+            int[] docs = listaCompleta(segmentosVistos, activoVisto.get(termino), termino);
+            candidatos = candidatos == null ? docs : intersecar(candidatos, docs);
+            if (candidatos.length == 0) {
+                break;
+            }
+        }
+
+        long saltar = (long) (consulta.getPagina() - 1) * TAMANO_PAGINA;
+        List<Resultado> resultados = new ArrayList<>();
+        boolean hayMas = false;
+        int leidos = 0;
+        int i = candidatos == null ? fin - 1 : candidatos.length - 1;
+        for (; i >= 0; i--) {
+            int doc = candidatos == null ? i : candidatos[i];
+            if (doc >= fin) {
+                continue;
+            }
+            if (doc < primero) {
+                break;
+            }
+            if (leidos++ == MAXIMO_LEIDOS) {
+                hayMas = true;
+                break;
+            }
+
+            Documento leido = leer(posicionesVistas[doc]);
+            if (leido == null || !visible(leido.mensaje, solicitante)) {
+                continue;
+            }
+            if (saltar > 0) {
+                saltar--;
+            } else if (resultados.size() == TAMANO_PAGINA) {
+                hayMas = true;
+                break;
+            } else {
+                resultados.add(new Resultado(leido.instante, leido.mensaje));
+            }
+        }
+        return new Pagina(consulta.getPagina(), resultados, hayMas);
+    }
+
+    /**
+     * @return NUMERO DE DOCUMENTOS INDEXADOS
+     */
+    public synchronized int getTotalDocumentos() {
+        return total;
+    }
+
+    /**
+     * @return NUMERO DE SEGMENTOS COMPRIMIDOS
+     */
+    public synchronized int getSegmentos() {
+        return segmentos.size();
+    }
+
+    /**
+     * @return MENSAJES QUE NO SE INDEXARON POR TENER LA COLA LLENA
+     */
+    public long getDescartados() {
+        return descartados.get();
+    }
+
+    /**
+     * CIERRO EL INDICE DESPUES DE INDEXAR LO QUE QUEDABA EN LA COLA.
+     *
+     * @throws IOException SI FALLA EL CIERRE DEL FICHERO
+     */
+    @Override
+    public void close() throws IOException {
+        cerrado = true;
+        try {
+            cola.put(FIN);
+            indexador.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            documentos.close();
+        }
+    }
+
+    /**
+     * DIVIDO UN TEXTO EN TERMINOS EN MINUSCULAS (LETRAS Y DIGITOS).
+     *
+     * @param texto TEXTO A DIVIDIR
+     * @return TERMINOS EN ORDEN DE APARICION
+     */
+    public static List<String> tokenizar(String texto) {
+        List<String> terminos = new ArrayList<>();
+        if (texto == null) {
+            return terminos;
+        }
+
+        StringBuilder actual = new StringBuilder();
+        for (int i = 0; i <= texto.length(); i++) {
+            char c = i < texto.length() ? texto.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                actual.append(Character.toLowerCase(c));
+            } else if (actual.length() > 0) {
+                if (actual.length() <= LONGITUD_MAXIMA_TERMINO) {
+                    terminos.add(actual.toString());
+                }
+                actual.setLength(0);
+            }
+        }
+        return terminos;
+    }
+
+    /**
+     * AÑADO UN DOCUMENTO AL SEGMENTO EN MEMORIA.
+     */
+    private void agregar(ChatMessage mensaje, long instante, long posicion) {
+        int doc = total++;
+        if (doc == posiciones.length) {
+            posiciones = Arrays.copyOf(posiciones, doc * 2);
+            instantes = Arrays.copyOf(instantes, doc * 2);
+        }
+        posiciones[doc] = posicion;
+        // EL RELOJ PUEDE IR HACIA ATRAS: MANTENGO LOS INSTANTES ORDENADOS
+        instantes[doc] = doc > 0 ? Math.max(instante, instantes[doc - 1]) : instante;
+
+        Set<String> terminos = new LinkedHashSet<>(tokenizar(mensaje.getContenido()));
+        terminos.add(PREFIJO_REMITENTE + mensaje.getRemitente());
+        for (String termino : terminos) {
+            ListaEnteros lista = activo.get(termino);
+            if (lista == null) {
+                lista = new ListaEnteros();
+                activo.put(termino, lista);
+            }
+            lista.agregar(doc);
+        }
+
+        if (++documentosActivo >= DOCUMENTOS_POR_SEGMENTO) {
+            comprimirActivo();
+        }
+    }
+
+    /**
+     * COMPRIMO EL SEGMENTO EN MEMORIA Y FUSIONO LOS SEGMENTOS FINALES
+     * MIENTRAS EL ULTIMO SEA AL MENOS TAN GRANDE COMO EL ANTERIOR.
+     */
+    private void comprimirActivo() {
+        Map<String, int[]> listas = new HashMap<>();
+        for (Map.Entry<String, ListaEnteros> entrada : activo.entrySet()) {
+            listas.put(entrada.getKey(), entrada.getValue().aArray());
+        }
+        segmentos.add(SegmentoIndice.crear(listas, documentosActivo));
+        activo = new HashMap<>();
+        documentosActivo = 0;
+
+        int n = segmentos.size();
+        while (n >= 2 && segmentos.get(n - 1).getDocumentos() >= segmentos.get(n - 2).getDocumentos()) {
+            SegmentoIndice fusionado = SegmentoIndice.fusionar(segmentos.get(n - 2), segmentos.get(n - 1));
+            segmentos.remove(n - 1);
+            segmentos.set(n - 2, fusionado);
+            n--;
+        }
+    }
+
+    /**
+     * JUNTO LA LISTA DE UN TERMINO EN TODOS LOS SEGMENTOS Y EN LA COPIA
+     * DEL SEGMENTO EN MEMORIA.
+     */
+    private static int[] listaCompleta(List<SegmentoIndice> segmentos, int[] enMemoria, String termino) {
+        ListaEnteros resultado = new ListaEnteros();
+        for (SegmentoIndice segmento : segmentos) {
+            for (int doc : segmento.buscar(termino)) {
+                resultado.agregar(doc);
+            }
+        }
+        for (int doc : enMemoria) {
+            resultado.agregar(doc);
+        }
+        return resultado.aArray();
+    }
+
+    /**
+     * INTERSECO DOS LISTAS ORDENADAS.
+     */
+    private static int[] intersecar(int[] a, int[] b) {
+        int[] resultado = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                resultado[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(resultado, n);
+    }
+
+    /**
+     * BUSCO EL PRIMER DOCUMENTO CON INSTANTE MAYOR O IGUAL AL INDICADO.
+     */
+    private int limiteInferior(long instante) {
+        int bajo = 0;
+        int alto = total;
+        while (bajo < alto) {
+            int medio = (bajo + alto) >>> 1;
+            if (instantes[medio] < instante) {
+                bajo = medio + 1;
+            } else {
+                alto = medio;
+            }
+        }
+        return bajo;
+    }
+
+    /**
+     * COMPRUEBO SI UN USUARIO PUEDE VER UN MENSAJE.
+     */
+    private static boolean visible(ChatMessage mensaje, String solicitante) {
+        return mensaje.getTipo() != MessageType.PRIVADO
+                || mensaje.getRemitente().equals(solicitante)
+                || solicitante != null && solicitante.equals(mensaje.getDestinatario());
+    }
+
+    /**
+     * CODIFICO UN DOCUMENTO COMO [LONGITUD][INSTANTE][TIPO][REMITENTE][DESTINATARIO][TEXTO].
+     */
+    private static ByteBuffer codificar(ChatMessage mensaje, long instante) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeLong(instante);
+        out.writeBoolean(mensaje.getTipo() == MessageType.PRIVADO);
+        out.writeUTF(mensaje.getRemitente());
+        out.writeUTF(mensaje.getDestinatario() == null ? "" : mensaje.getDestinatario());
+        byte[] texto = (mensaje.getContenido() == null ? "" : mensaje.getContenido())
+                .getBytes(StandardCharsets.UTF_8);
+        out.writeInt(texto.length);
+        out.write(texto);
+
+        ByteBuffer registro = ByteBuffer.wrap(bytes.toByteArray());
+        registro.putInt(0, registro.capacity());
+        return registro;
+    }
+
+    /**
+     * LEO EL DOCUMENTO QUE EMPIEZA EN LA POSICION INDICADA.
+     *
+     * @return DOCUMENTO LEIDO O NULL SI EL REGISTRO ESTA INCOMPLETO
+     */
+    private Documento leer(long posicion) throws IOException {
+        ByteBuffer cabecera = ByteBuffer.allocate(4);
+        if (leerCompleto(cabecera, posicion) < 4) {
+            return null;
+        }
+        int longitud = cabecera.getInt(0);
+        if (longitud < 4 || posicion + longitud > documentos.size()) {
+            return null;
+        }
+        ByteBuffer registro = ByteBuffer.allocate(longitud - 4);
+        leerCompleto(registro, posicion + 4);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(registro.array()));
+        long instante = in.readLong();
+        boolean privado = in.readBoolean();
+        String remitente = in.readUTF();
+        String destinatario = in.readUTF();
+        byte[] texto = new byte[in.readInt()];
+        in.readFully(texto);
+
+        ChatMessage mensaje = new ChatMessage(remitente,
+                new String(texto, StandardCharsets.UTF_8),
+                privado ? MessageType.PRIVADO : MessageType.MENSAJE,
+                destinatario.isEmpty() ? null : destinatario);
+        return new Documento(instante, mensaje, longitud);
+    }
+
+    /**
+     * LLENO EL BUFFER DESDE LA POSICION INDICADA DEL FICHERO.
+     */
+    private int leerCompleto(ByteBuffer buffer, long posicion) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (documentos.read(buffer, posicion + buffer.position()) < 0) {
+                break;
+            }
+        }
+        return buffer.position();
+    }
+
+    /**
+     * RESULTADO DE UNA BUSQUEDA.
+     */
+    public static class Resultado {
+        private final long instante;
+        private final ChatMessage mensaje;
+
+        Resultado(long instante, ChatMessage mensaje) {
+            this.instante = instante;
+            this.mensaje = mensaje;
+        }
+
+        /**
+         * @return INSTANTE EN EL QUE EL SERVIDOR RECIBIO EL MENSAJE
+         */
+        public long getInstante() {
+            return instante;
+        }
+
+        /**
+         * @return MENSAJE ENCONTRADO
+         */
+        public ChatMessage getMensaje() {
+            return mensaje;
+        }
+    }
+
+    /**
+     * PAGINA DE RESULTADOS DE UNA BUSQUEDA.
+     */
+    public static class Pagina {
+        private final int numero;
+        private final List<Resultado> resultados;
+        private final boolean hayMas;
+
+        Pagina(int numero, List<Resultado> resultados, boolean hayMas) {
+            this.numero = numero;
+            this.resultados = resultados;
+            this.hayMas = hayMas;
+        }
+
+        /**
+         * @return NUMERO DE PAGINA, EMPEZANDO EN 1
+         */
+        public int getNumero() {
+            return numero;
+        }
+
+        /**
+         * @return RESULTADOS DE LA PAGINA, DEL MAS NUEVO AL MAS ANTIGUO
+         */
+        public List<Resultado> getResultados() {
+            return resultados;
+        }
+
+        /**
+         * @return TRUE SI HAY MAS RESULTADOS EN LA PAGINA SIGUIENTE
+         */
+        public boolean hayMas() {
+            return hayMas;
+        }
+    }
+
+    /**
+     * DOCUMENTO LEIDO DEL FICHERO.
+     */
+    private static class Documento {
+        final long instante;
+        final ChatMessage mensaje;
+        final int longitud;
+
+        Documento(long instante, ChatMessage mensaje, int longitud) {
+            this.instante = instante;
+            this.mensaje = mensaje;
+            this.longitud = longitud;
+        }
+    }
+
+    /**
+     * MENSAJE QUE ESPERA EN LA COLA DEL INDEXADOR, CON SU INSTANTE DE LLEGADA.
+     */
+    private static class Pendiente {
+        final ChatMessage mensaje;
+        final long instante;
+
+        Pendiente(ChatMessage mensaje, long instante) {
+            this.mensaje = mensaje;
+            this.instante = instante;
+        }
+    }
+
+    /**
+     * LISTA DE ENTEROS QUE CRECE SIN CREAR UN OBJETO POR ELEMENTO.
+     */
+    private static class ListaEnteros {
+        int[] valores = new int[4];
+        int tamano;
+
+        void agregar(int valor) {
+            if (tamano == valores.length) {
+                valores = Arrays.copyOf(valores, tamano * 2);
+            }
+            valores[tamano++] = valor;
+        }
+
+        int[] aArray() {
+            return Arrays.copyOf(valores, tamano);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package es.ubu.lsi.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * ESTADO EN MEMORIA QUE UN SERVIDOR LE PASA AL PROCESO QUE LE RELEVA:
+ * QUIEN ESTABA CONECTADO, LOS BLOQUEOS DE CADA UNO Y LOS ULTIMOS
+ * IDENTIFICADORES DE SUS MENSAJES, PARA QUE LOS REENVIOS QUE HAGAN AL
+ * RECONECTARSE SE DESCARTEN. LO QUE YA ESTA EN DISCO (BUZON, INDICE,
+ * ESTADO DE LOS USUARIOS) NO SE REPITE AQUI.
+ *
+ * <pre>
+ * CABECERA: [int MAGICO][int VERSION][long CREADA EN MILISEGUNDOS][varint USUARIOS]
+ * USUARIO:  [utf NICKNAME][varint BLOQUEOS][utf BLOQUEADO]...[varint IDS][varint PRIMERO][zigzag DIFERENCIA]...
+ * </pre>
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public class InstantaneaServidor {
+
+    /** MARCA DEL PRINCIPIO DE UNA INSTANTANEA ("CHIS") */
+    public static final int MAGICO = 0x43484953;
+
+    /** VERSION DEL FORMATO */
+    public static final int VERSION = 1;
+
+    /** INSTANTE EN QUE EL SERVIDOR ANTERIOR DEJO DE ACEPTAR CONEXIONES */
+    private final long creada;
+
+    /** SESIONES POR NICKNAME, EN EL ORDEN EN QUE SE AÑADIERON */
+    private final Map<String, Sesion> sesiones = new LinkedHashMap<>();
+
+    /**
+     * CONSTRUCTOR.
+     *
+     * @param creada INSTANTE EN QUE EL SERVIDOR DEJO DE ACEPTAR, EN MILISEGUNDOS
+     */
+    public InstantaneaServidor(long creada) {
+        this.creada = creada;
+    }
+
+    /**
+     * AÑADO UN USUARIO CONECTADO.
+     *
+     * @param nickname NICKNAME DEL USUARIO
+     * @param bloqueados USUARIOS QUE TIENE BLOQUEADOS
+     * @param ids ULTIMOS IDENTIFICADORES DE SUS MENSAJES, DEL MAS ANTIGUO AL MAS RECIENTE
+     */
+    public void agregar(String nickname, Set<String> bloqueados, long[] ids) {
+        sesiones.put(nickname, new Sesion(new LinkedHashSet<>(bloqueados), ids));
+    }
+
+    /**
+     * @return INSTANTE EN QUE EL SERVIDOR ANTERIOR DEJO DE ACEPTAR, EN MILISEGUNDOS
+     */
+    public long getCreada() {
+        return creada;
+    }
+
+    /**
+     * @return NICKNAMES QUE ESTABAN CONECTADOS
+     */
+    public Set<String> getUsuarios() {
+        return Collections.unmodifiableSet(sesiones.keySet());
+    }
+
+    /**
+     * @param nickname NICKNAME DEL USUARIO
+     * @return USUARIOS QUE TENIA BLOQUEADOS (VACIO SI NO ESTABA)
+     */
+    public Set<String> getBloqueados(String nickname) {
+        Sesion sesion = sesiones.get(nickname);
+        return sesion == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(sesion.bloqueados);
+    }
+
+    /**
+     * @param nickname NICKNAME DEL USUARIO
+     * @return ULTIMOS IDENTIFICADORES DE SUS MENSAJES (VACIO SI NO ESTABA)
+     */
+    public long[] getIds(String nickname) {
+        Sesion sesion = sesiones.get(nickname);
+        return sesion == null ? new long[0] : sesion.ids.clone();
+    }
+
+    /**
+     * GUARDO LA INSTANTANEA DE UNA VEZ: SE ESCRIBE APARTE Y SE MUEVE AL
+     * FINAL, ASI QUE QUIEN ESPERA EL FICHERO NUNCA LO VE A MEDIAS.
+     *
+     * @param ruta FICHERO DE LA INSTANTANEA
+     * @throws IOException SI NO SE PUEDE ESCRIBIR
+     */
+    public void guardar(Path ruta) throws IOException {
+        Path temporal = ruta.resolveSibling(ruta.getFileName() + ".tmp");
+        try (DataOutputStream salida = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temporal), 64 * 1024))) {
+            salida.writeInt(MAGICO);
+            salida.writeInt(VERSION);
+            salida.writeLong(creada);
+            escribirVarint(salida, sesiones.size());
+            for (Map.Entry<String, Sesion> entrada : sesiones.entrySet()) {
+                salida.writeUTF(entrada.getKey());
+                Sesion sesion = entrada.getValue();
+                escribirVarint(salida, sesion.bloqueados.size());
+                for (String bloqueado : sesion.bloqueados) {
+                    salida.writeUTF(bloqueado);
+                }
+                // LOS IDENTIFICADORES DE UN CLIENTE SON CORRELATIVOS: SE GUARDA LA DIFERENCIA CON EL ANTERIOR
+                escribirVarint(salida, sesion.ids.length);
+                long anterior = 0;
+                for (long id : sesion.ids) {
+                    long diferencia = id - anterior;
+                    escribirVarint(salida, (diferencia << 1) ^ (diferencia >> 63));
+                    anterior = id;
+                }
+            }
+        }
+        Files.move(temporal, ruta, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * LEO UNA INSTANTANEA.
+     *
+     * @param ruta FICHERO DE LA INSTANTANEA
+     * @return INSTANTANEA LEIDA
+     * @throws IOException SI NO SE PUEDE LEER O ESTA DAÑADA
+     */
+    public static InstantaneaServidor leer(Path ruta) throws IOException {
+        try (DataInputStream entrada = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(ruta), 64 * 1024))) {
+            if (entrada.readInt() != MAGICO) {
+                throw new StreamCorruptedException("NO ES UNA INSTANTANEA DEL SERVIDOR: " + ruta);
+            }
+            int version = entrada.readInt();
+            if (version != VERSION) {
+                throw new StreamCorruptedException("VERSION DE INSTANTANEA NO SOPORTADA: " + version);
+            }
+            InstantaneaServidor instantanea = new InstantaneaServidor(entrada.readLong());
+            int usuarios = leerCantidad(entrada);
+            for (int i = 0; i < usuarios; i++) {
+                String nickname = entrada.readUTF();
+                Set<String> bloqueados = new LinkedHashSet<>();
+                int numeroBloqueados = leerCantidad(entrada);
+                for (int j = 0; j < numeroBloqueados; j++) {
+                    bloqueados.add(entrada.readUTF());
+                }
+                long[] ids = new long[leerCantidad(entrada)];
+                long anterior = 0;
+                for (int j = 0; j < ids.length; j++) {
+                    long zigzag = leerVarint(entrada);
+                    anterior += (zigzag >>> 1) ^ -(zigzag & 1);
+                    ids[j] = anterior;
+                }
+                instantanea.sesiones.put(nickname, new Sesion(bloqueados, ids));
+            }
+            return instantanea;
+        }
+    }
+
+    private static void escribirVarint(DataOutputStream salida, long valor) throws IOException {
+        while ((valor & ~0x7FL) != 0) {
+            salida.writeByte((int) (valor & 0x7F) | 0x80);
+            valor >>>= 7;
+        }
+        salida.writeByte((int) valor);
+    }
+
+    private static int leerCantidad(DataInputStream entrada) throws IOException {
+        long cantidad = leerVarint(entrada);
+        if (cantidad > 1 << 24) {
+            throw new StreamCorruptedException("CANTIDAD NO VALIDA EN LA INSTANTANEA: " + cantidad);
+        }
+        return (int) cantidad;
+    }
+
+    private static long leerVarint(DataInputStream entrada) throws IOException {
+        long valor = 0;
+        for (int desplazamiento = 0; desplazamiento < 64; desplazamiento += 7) {
+            int actual = entrada.read();
+            if (actual < 0) {
+                throw new EOFException("INSTANTANEA CORTADA");
+            }
+            valor |= (long) (actual & 0x7F) << desplazamiento;
+            if ((actual & 0x80) == 0) {
+                return valor;
+            }
+        }
+        throw new StreamCorruptedException("VARINT DEMASIADO LARGO EN LA INSTANTANEA");
+    }
+
+    /**
+     * LO QUE SE GUARDA DE CADA USUARIO.
+     */
+    private static final class Sesion {
+        final Set<String> bloqueados;
+        final long[] ids;
+
+        Sesion(Set<String> bloqueados, long[] ids) {
+            this.bloqueados = bloqueados;
+            this.ids = ids;
+        }
+    }
+}
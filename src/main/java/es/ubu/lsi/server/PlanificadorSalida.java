@@ -0,0 +1,374 @@
+package es.ubu.lsi.server;
+
+import es.ubu.lsi.common.ChatMessage;
+import es.ubu.lsi.common.MessageType;
+
+import java.util.Arrays;
+
+/**
+ * COLA DE SALIDA DE UNA CONEXION CON CARRILES DE PRIORIDAD.
+ * LOS MENSAJES DE CONTROL (SISTEMA, CONFIRMACIONES...) VAN POR DELANTE
+ * DE LOS PRIVADOS Y ESTOS POR DELANTE DE LOS NORMALES, PERO EL REPARTO
+ * ES POR PESOS: EN CADA RONDA CADA CARRIL CON MENSAJES TIENE SU CUOTA,
+ * ASI QUE UNA INUNDACION EN UN CARRIL NO DEJA SIN SALIDA A LOS DEMAS.
+ * LOS FICHEROS VAN EN EL ULTIMO CARRIL A TROZO POR TURNO.
+ * SE MIDE EL TIEMPO QUE CADA MENSAJE PASA EN LA COLA POR CARRIL.
+ * CADA MENSAJE PUEDE LLEVAR UN DESTINO (LO USAN LOS ENLACES CON LAS
+ * PASARELAS, QUE MEZCLAN EN UNA COLA LOS MENSAJES DE MUCHAS SESIONES).
+ * SI TIENE UN CONTROL DE CARGA, LE CUENTA LO QUE ENTRA Y LO QUE SALE PARA
+ * QUE EL SERVIDOR SEPA LO PENDIENTE EN TODAS LAS COLAS A LA VEZ.
+ * NINGUN CARRIL CRECE SIN LIMITE: LOS NORMALES SE DESCARTAN CON LA COLA
+ * LLENA, LOS PRIVADOS CON SU CARRIL LLENO (Y EL SERVIDOR SE LO DICE AL
+ * REMITENTE), Y SI SE LLENA EL DE CONTROL LA COLA QUEDA DESBORDADA PARA
+ * QUE QUIEN LA VACIA CORTE LA CONEXION, PORQUE EL OTRO LADO NO LEE.
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public class PlanificadorSalida {
+
+    /** CARRIL DE CONTROL Y MENSAJES DEL SISTEMA */
+    public static final int CONTROL = 0;
+
+    /** CARRIL DE MENSAJES PRIVADOS Y RESPUESTAS DIRIGIDAS */
+    public static final int PRIVADO = 1;
+
+    /** CARRIL DE MENSAJES NORMALES DIFUNDIDOS A TODOS */
+    public static final int MENSAJE = 2;
+
+    /** CARRIL DE TROZOS DE FICHERO */
+    public static final int FICHERO = 3;
+
+    /** NOMBRES DE LOS CARRILES PARA LOS LOGS */
+    private static final String[] NOMBRES = {"control", "privado", "mensaje", "fichero"};
+
+    /** MENSAJES QUE SALEN DE CADA CARRIL EN UNA RONDA */
+    private static final int[] PESOS = {8, 4, 1, 1};
+
+    /** MENSAJES PENDIENTES A PARTIR DE LOS CUALES SE DESCARTAN LOS NORMALES */
+    public static final int MAXIMO_PENDIENTES = 10000;
+
+    /** MENSAJES PENDIENTES EN EL CARRIL PRIVADO A PARTIR DE LOS CUALES SE RECHAZAN */
+    public static final int MAXIMO_PRIVADOS = 2000;
+
+    /** MENSAJES PENDIENTES EN EL CARRIL DE CONTROL A PARTIR DE LOS CUALES LA COLA SE DESBORDA */
+    public static final int MAXIMO_CONTROL = 5000;
+
+    /** COLAS DE CADA CARRIL */
+    private final Carril[] carriles = new Carril[NOMBRES.length];
+
+    /** CUOTA QUE LE QUEDA A CADA CARRIL EN LA RONDA ACTUAL */
+    private final int[] cuotas = new int[NOMBRES.length];
+
+    /** MENSAJES PENDIENTES EN TOTAL */
+    private int pendientes;
+
+    /** MENSAJES DESCARTADOS POR COLA O CARRIL LLENO */
+    private long descartados;
+
+    /** INDICA SI LA COLA SE HA CERRADO */
+    private boolean cerrado;
+
+    /** INDICA SI SE LLENO EL CARRIL DE CONTROL */
+    private boolean desbordado;
+
+    /** DESTINO DEL ULTIMO MENSAJE QUE SALIO, SOLO LO LEE EL HILO QUE VACIA LA COLA */
+    private Object destino;
+
+    /** CONTROL DE CARGA DEL SERVIDOR, NULL SI NO SE CUENTA */
+    private final ControlCarga carga;
+
+    /**
+     * CONSTRUCTOR DEL PLANIFICADOR SIN CONTROL DE CARGA.
+     */
+    public PlanificadorSalida() {
+        this(null);
+    }
+
+    /**
+     * CONSTRUCTOR DEL PLANIFICADOR.
+     *
+     * @param carga CONTROL DE CARGA AL QUE SE CUENTAN LOS PENDIENTES, O NULL
+     */
+    public PlanificadorSalida(ControlCarga carga) {
+        this.carga = carga;
+        for (int i = 0; i < carriles.length; i++) {
+            carriles[i] = new Carril();
+        }
+        System.arraycopy(PESOS, 0, cuotas, 0, PESOS.length);
+    }
+
+    /**
+     * OBTENGO EL CARRIL QUE LE CORRESPONDE A UN TIPO DE MENSAJE.
+     *
+     * @param tipo TIPO DEL MENSAJE
+     * @return CARRIL (CONTROL, PRIVADO, MENSAJE O FICHERO)
+     */
+    public static int carrilDe(MessageType tipo) {
+        switch (tipo) {
+            case MENSAJE:
+                return MENSAJE;
+            case PRIVADO:
+            case RESULTADO_BUSQUEDA:
+            case OFERTA_FICHERO:
+                return PRIVADO;
+            case FRAGMENTO_FICHERO:
+                return FICHERO;
+            default:
+                return CONTROL;
+        }
+    }
+
+    /**
+     * AÑADO UN MENSAJE A SU CARRIL.
+     * CON LA COLA LLENA SE DESCARTAN LOS MENSAJES NORMALES; LOS PRIVADOS Y
+     * LOS DE CONTROL SOLO CUANDO SE LLENA SU PROPIO CARRIL.
+     *
+     * @param mensaje MENSAJE A ENVIAR
+     * @return TRUE SI SE ENCOLO
+     */
+    public boolean encolar(ChatMessage mensaje) {
+        return encolar(mensaje, null);
+    }
+
+    /**
+     * AÑADO UN MENSAJE A SU CARRIL APUNTANDO A DONDE VA. EL DESTINO SE
+     * RECUPERA CON GETDESTINO() DESPUES DE SACARLO CON SIGUIENTE().
+     *
+     * @param mensaje MENSAJE A ENVIAR
+     * @param destino DESTINO DEL MENSAJE, NULL SI LA COLA ES DE UNA SOLA CONEXION
+     * @return TRUE SI SE ENCOLO
+     */
+    public synchronized boolean encolar(ChatMessage mensaje, Object destino) {
+        int carril = carrilDe(mensaje.getTipo());
+        if (cerrado) {
+            return false;
+        }
+        if (carril == MENSAJE && pendientes >= MAXIMO_PENDIENTES
+                || carril == PRIVADO && carriles[PRIVADO].tamano >= MAXIMO_PRIVADOS) {
+            descartados++;
+            return false;
+        }
+        if (carril == CONTROL && carriles[CONTROL].tamano >= MAXIMO_CONTROL) {
+            descartados++;
+            desbordado = true;
+            return false;
+        }
+
+        carriles[carril].agregarAlFinal(mensaje, destino, System.nanoTime());
+        pendientes++;
+        if (carga != null) {
+            carga.encolado();
+        }
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * SACO EL SIGUIENTE MENSAJE SEGUN LAS PRIORIDADES Y LOS PESOS.
+     * ESPERA SI NO HAY NADA QUE ENVIAR.
+     *
+     * @return SIGUIENTE MENSAJE, O NULL SI LA COLA SE CERRO
+     * @throws InterruptedException SI SE INTERRUMPE LA ESPERA
+     */
+    public synchronized ChatMessage siguiente() throws InterruptedException {
+        while (pendientes == 0 && !cerrado) {
+            wait();
+        }
+        if (pendientes == 0) {
+            return null;
+        }
+
+        int elegido = elegirCarril();
+        if (elegido < 0) {
+            // TODOS LOS CARRILES CON MENSAJES HAN GASTADO SU CUOTA: NUEVA RONDA
+            System.arraycopy(PESOS, 0, cuotas, 0, PESOS.length);
+            elegido = elegirCarril();
+        }
+
+        cuotas[elegido]--;
+        pendientes--;
+        if (carga != null) {
+            carga.enviado();
+        }
+        Carril carril = carriles[elegido];
+        destino = carril.destinos[carril.inicio];
+        return carril.sacarDelPrincipio(System.nanoTime());
+    }
+
+    /**
+     * @return DESTINO DEL ULTIMO MENSAJE DEVUELTO POR SIGUIENTE()
+     */
+    public synchronized Object getDestino() {
+        return destino;
+    }
+
+    /**
+     * BUSCO EL CARRIL MAS PRIORITARIO CON MENSAJES Y CUOTA.
+     *
+     * @return CARRIL ELEGIDO O -1 SI NINGUNO TIENE CUOTA
+     */
+    private int elegirCarril() {
+        for (int i = 0; i < carriles.length; i++) {
+            if (carriles[i].tamano > 0 && cuotas[i] > 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return TRUE SI NO QUEDAN MENSAJES PENDIENTES
+     */
+    public synchronized boolean estaVacio() {
+        return pendientes == 0;
+    }
+
+    /**
+     * @return MENSAJES PENDIENTES EN TODOS LOS CARRILES
+     */
+    public synchronized int getPendientes() {
+        return pendientes;
+    }
+
+    /**
+     * @return TRUE SI SE LLENO EL CARRIL DE CONTROL Y HAY QUE CORTAR LA CONEXION
+     */
+    public synchronized boolean estaDesbordado() {
+        return desbordado;
+    }
+
+    /**
+     * @return MENSAJES DESCARTADOS POR COLA O CARRIL LLENO
+     */
+    public synchronized long getDescartados() {
+        return descartados;
+    }
+
+    /**
+     * @param carril CARRIL A CONSULTAR
+     * @return MENSAJES QUE HAN SALIDO POR ESE CARRIL
+     */
+    public synchronized long getEnviados(int carril) {
+        return carriles[carril].enviados;
+    }
+
+    /**
+     * @param carril CARRIL A CONSULTAR
+     * @return ESPERA MEDIA EN COLA DE ESE CARRIL EN MICROSEGUNDOS
+     */
+    public synchronized double getEsperaMediaMicros(int carril) {
+        Carril c = carriles[carril];
+        return c.enviados == 0 ? 0 : c.esperaTotal / 1000.0 / c.enviados;
+    }
+
+    /**
+     * @param carril CARRIL A CONSULTAR
+     * @return ESPERA MAXIMA EN COLA DE ESE CARRIL EN MICROSEGUNDOS
+     */
+    public synchronized long getEsperaMaximaMicros(int carril) {
+        return carriles[carril].esperaMaxima / 1000;
+    }
+
+    /**
+     * CIERRO LA COLA Y DESPIERTO AL HILO QUE ESPERA MENSAJES.
+     */
+    public synchronized void cerrar() {
+        cerrado = true;
+        notifyAll();
+    }
+
+    /**
+     * TIRO LO QUE QUEDE EN LA COLA YA CERRADA, QUE NO VA A SALIR, Y SE
+     * LO DESCUENTO AL CONTROL DE CARGA.
+     *
+     * @return MENSAJES DESCARTADOS
+     */
+    public synchronized int descartarPendientes() {
+        int quedaban = pendientes;
+        for (Carril carril : carriles) {
+            carril.vaciar();
+        }
+        pendientes = 0;
+        if (carga != null && quedaban > 0) {
+            carga.liberar(quedaban);
+        }
+        return quedaban;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder texto = new StringBuilder();
+        for (int i = 0; i < carriles.length; i++) {
+            texto.append(NOMBRES[i]).append(": n=").append(carriles[i].enviados)
+                    .append(String.format(" media=%.0fus", getEsperaMediaMicros(i)))
+                    .append(" max=").append(getEsperaMaximaMicros(i)).append("us  ");
+        }
+        return texto.append("descartados=").append(descartados).toString();
+    }
+
+    /**
+     * COLA CIRCULAR DE UN CARRIL. GUARDA EL MENSAJE, SU DESTINO Y EL INSTANTE
+     * EN ARRAYS PARALELOS PARA NO CREAR UN OBJETO POR MENSAJE ENCOLADO.
+     */
+    private static class Carril {
+        ChatMessage[] mensajes = new ChatMessage[16];
+        Object[] destinos = new Object[16];
+        long[] instantes = new long[16];
+        int inicio;
+        int tamano;
+        long enviados;
+        long esperaTotal;
+        long esperaMaxima;
+
+        void agregarAlFinal(ChatMessage mensaje, Object destino, long instante) {
+            if (tamano == mensajes.length) {
+                crecer();
+            }
+            int pos = (inicio + tamano) % mensajes.length;
+            mensajes[pos] = mensaje;
+            destinos[pos] = destino;
+            instantes[pos] = instante;
+            tamano++;
+        }
+
+        ChatMessage sacarDelPrincipio(long ahora) {
+            ChatMessage mensaje = mensajes[inicio];
+            long espera = ahora - instantes[inicio];
+            mensajes[inicio] = null;
+            destinos[inicio] = null;
+            inicio = (inicio + 1) % mensajes.length;
+            tamano--;
+
+            enviados++;
+            esperaTotal += espera;
+            if (espera > esperaMaxima) {
+                esperaMaxima = espera;
+            }
+            return mensaje;
+        }
+
+        void vaciar() {
+            Arrays.fill(mensajes, null);
+            Arrays.fill(destinos, null);
+            inicio = 0;
+            tamano = 0;
+        }
+
+        void crecer() {
+            ChatMessage[] nuevosMensajes = new ChatMessage[mensajes.length * 2];
+            Object[] nuevosDestinos = new Object[mensajes.length * 2];
+            long[] nuevosInstantes = new long[mensajes.length * 2];
+            for (int i = 0; i < tamano; i++) {
+                nuevosMensajes[i] = mensajes[(inicio + i) % mensajes.length];
+                nuevosDestinos[i] = destinos[(inicio + i) % mensajes.length];
+                nuevosInstantes[i] = instantes[(inicio + i) % mensajes.length];
+            }
+            mensajes = nuevosMensajes;
+            destinos = nuevosDestinos;
+            instantes = nuevosInstantes;
+            inicio = 0;
+        }
+    }
+}
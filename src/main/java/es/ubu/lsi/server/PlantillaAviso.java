@@ -0,0 +1,64 @@
+package es.ubu.lsi.server;
+
+import es.ubu.lsi.common.ChatMessage;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * PLANTILLA DE UN AVISO DEL SISTEMA QUE LLEVA EL NOMBRE DE UN USUARIO,
+ * COMO "EL USUARIO ana SE HA CONECTADO". GUARDA LOS AVISOS YA CREADOS
+ * DE LOS ULTIMOS USUARIOS, ASI QUE CUANDO ALGUIEN SE RECONECTA SE
+ * REUTILIZA EL MISMO MENSAJE (Y SU TRAMA YA CODIFICADA) EN LUGAR DE
+ * VOLVER A CONCATENAR Y SERIALIZAR.
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public class PlantillaAviso {
+
+    /** AVISOS RECORDADOS POR PLANTILLA */
+    public static final int MAXIMO_AVISOS = 1024;
+
+    /** TEXTO ANTES DEL NOMBRE */
+    private final String antes;
+
+    /** TEXTO DESPUES DEL NOMBRE */
+    private final String despues;
+
+    /** AVISOS YA CREADOS POR NOMBRE, EN ORDEN DE USO */
+    private final Map<String, ChatMessage> avisos =
+            new LinkedHashMap<String, ChatMessage>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ChatMessage> mayor) {
+                    return size() > MAXIMO_AVISOS;
+                }
+            };
+
+    /**
+     * CONSTRUCTOR DE LA PLANTILLA.
+     *
+     * @param antes TEXTO ANTES DEL NOMBRE
+     * @param despues TEXTO DESPUES DEL NOMBRE
+     */
+    public PlantillaAviso(String antes, String despues) {
+        this.antes = antes;
+        this.despues = despues;
+    }
+
+    /**
+     * OBTENGO EL AVISO PARA UN USUARIO.
+     *
+     * @param nickname USUARIO DEL AVISO
+     * @return MENSAJE DE SISTEMA CON EL TEXTO COMPLETO
+     */
+    public synchronized ChatMessage para(String nickname) {
+        ChatMessage aviso = avisos.get(nickname);
+        if (aviso == null) {
+            aviso = ChatMessage.sistema(antes + nickname + despues);
+            avisos.put(nickname, aviso);
+        }
+        return aviso;
+    }
+}
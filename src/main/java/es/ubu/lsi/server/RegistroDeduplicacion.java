@@ -0,0 +1,144 @@
+package es.ubu.lsi.server;
+
+import es.ubu.lsi.common.ChatMessage;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * REGISTRO DE LOS ULTIMOS IDENTIFICADORES DE MENSAJE DE CADA REMITENTE.
+ * SIRVE PARA DESCARTAR LOS REENVIOS DE UN CLIENTE ANTES DE DIFUNDIRLOS.
+ * CADA REMITENTE TIENE UNA VENTANA CIRCULAR DE TAMAÑO FIJO Y SOLO SE
+ * GUARDAN LAS VENTANAS DE LOS REMITENTES USADOS MAS RECIENTEMENTE,
+ * ASI QUE LA MEMORIA ESTA ACOTADA.
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public class RegistroDeduplicacion {
+
+    /** IDENTIFICADORES RECORDADOS POR REMITENTE: TODOS LOS QUE UN CLIENTE PUEDE REINTENTAR */
+    public static final int TAMANO_VENTANA = ChatMessage.MAXIMO_SIN_CONFIRMAR;
+
+    /** REMITENTES RECORDADOS A LA VEZ */
+    public static final int MAXIMO_REMITENTES = 10000;
+
+    /** TAMAÑO DE CADA VENTANA */
+    private final int tamanoVentana;
+
+    /** VENTANAS POR REMITENTE, EN ORDEN DE USO PARA DESCARTAR LA MAS ANTIGUA */
+    private final Map<String, Ventana> ventanas;
+
+    /**
+     * CONSTRUCTOR CON LOS VALORES POR DEFECTO.
+     */
+    public RegistroDeduplicacion() {
+        this(TAMANO_VENTANA, MAXIMO_REMITENTES);
+    }
+
+    /**
+     * CONSTRUCTOR COMPLETO.
+     *
+     * @param tamanoVentana IDENTIFICADORES RECORDADOS POR REMITENTE
+     * @param maximoRemitentes REMITENTES RECORDADOS A LA VEZ
+     */
+    public RegistroDeduplicacion(int tamanoVentana, final int maximoRemitentes) {
+        this.tamanoVentana = tamanoVentana;
+        this.ventanas = new LinkedHashMap<String, Ventana>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Ventana> mayor) {
+                return size() > maximoRemitentes;
+            }
+        };
+    }
+
+    /**
+     * COMPRUEBO SI UN MENSAJE YA SE HABIA RECIBIDO Y, SI NO, LO ANOTO.
+     *
+     * @param remitente NICKNAME DEL REMITENTE
+     * @param idMensaje IDENTIFICADOR QUE PUSO EL CLIENTE
+     * @return TRUE SI ES UN REENVIO QUE HAY QUE DESCARTAR
+     */
+    public synchronized boolean esRepetido(String remitente, long idMensaje) {
+        Ventana ventana = ventanas.get(remitente);
+        if (ventana == null) {
+            ventana = new Ventana(tamanoVentana);
+            ventanas.put(remitente, ventana);
+        }
+        return !ventana.anotar(idMensaje);
+    }
+
+    /**
+     * COPIO LA VENTANA DE UN REMITENTE, PARA PASARSELA A OTRO SERVIDOR
+     * EN UN RELEVO Y QUE SIGA DESCARTANDO LOS REENVIOS.
+     *
+     * @param remitente NICKNAME DEL REMITENTE
+     * @return IDENTIFICADORES DEL MAS ANTIGUO AL MAS RECIENTE (VACIO SI NO HAY)
+     */
+    public synchronized long[] exportar(String remitente) {
+        Ventana ventana = ventanas.get(remitente);
+        if (ventana == null) {
+            return new long[0];
+        }
+        long[] ids = new long[ventana.ocupados];
+        int primero = ventana.ocupados < ventana.ids.length ? 0 : ventana.siguiente;
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = ventana.ids[(primero + i) % ventana.ids.length];
+        }
+        return ids;
+    }
+
+    /**
+     * ANOTO LOS IDENTIFICADORES QUE TRAE UN RELEVO PARA UN REMITENTE.
+     *
+     * @param remitente NICKNAME DEL REMITENTE
+     * @param ids IDENTIFICADORES DEL MAS ANTIGUO AL MAS RECIENTE
+     */
+    public synchronized void importar(String remitente, long[] ids) {
+        for (long id : ids) {
+            esRepetido(remitente, id);
+        }
+    }
+
+    /**
+     * VENTANA CIRCULAR CON LOS ULTIMOS IDENTIFICADORES DE UN REMITENTE.
+     * RECORRER EL ARRAY ES MAS BARATO QUE MANTENER UN CONJUNTO Y NO CREA
+     * OBJETOS POR MENSAJE. EMPIEZA PEQUEÑA Y CRECE HASTA SU TAMAÑO, PARA
+     * QUE LOS REMITENTES QUE ENVIAN POCO NO OCUPEN LA VENTANA ENTERA.
+     */
+    private static class Ventana {
+        final int tamano;
+        long[] ids;
+        int siguiente;
+        int ocupados;
+
+        Ventana(int tamano) {
+            this.tamano = tamano;
+            this.ids = new long[Math.min(tamano, 16)];
+        }
+
+        /**
+         * @return FALSE SI EL IDENTIFICADOR YA ESTABA EN LA VENTANA
+         */
+        boolean anotar(long id) {
+            for (int i = 0; i < ocupados; i++) {
+                if (ids[i] == id) {
+                    return false;
+                }
+            }
+            if (ocupados == ids.length && ids.length < tamano) {
+                // AUN NO HA DADO LA VUELTA: LOS IDENTIFICADORES ESTAN EN ORDEN DESDE EL PRINCIPIO
+                ids = Arrays.copyOf(ids, Math.min(tamano, ids.length * 2));
+                siguiente = ocupados;
+            }
+            ids[siguiente] = id;
+            siguiente = (siguiente + 1) % ids.length;
+            if (ocupados < ids.length) {
+                ocupados++;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package es.ubu.lsi.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * RELEVO ENTRE DOS PROCESOS DEL SERVIDOR SIN DEJAR EL PUERTO CERRADO.
+ * JAVA NO PUEDE PASAR DESCRIPTORES DE FICHERO ENTRE PROCESOS, ASI QUE
+ * NO SE HEREDAN LOS SOCKETS: LOS DOS ESCUCHAN EN EL MISMO PUERTO CON
+ * SO_REUSEPORT Y EL SISTEMA GUARDA LAS CONEXIONES NUEVAS EN LA COLA DEL
+ * PROCESO NUEVO MIENTRAS ESTE ARRANCA.
+ *
+ * SE COORDINAN CON FICHEROS JUNTO A LA INSTANTANEA:
+ * <ol>
+ * <li>EL SERVIDOR EN MARCHA DEJA SU PID EN "RUTA.activo".</li>
+ * <li>EL NUEVO ABRE EL PUERTO Y DEJA SU PID EN "RUTA.pedido".</li>
+ * <li>EL ANTERIOR DEJA DE ACEPTAR, PIDE A SUS CLIENTES QUE SE RECONECTEN
+ * ESCALONADOS (MENSAJE RECONECTAR), CIERRA SUS FICHEROS Y ESCRIBE LA
+ * INSTANTANEA EN "RUTA".</li>
+ * <li>EL NUEVO LA LEE, ABRE SUS FICHEROS Y EMPIEZA A ACEPTAR.</li>
+ * </ol>
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public class RelevoServidor {
+
+    /** VENTANA EN LA QUE SE REPARTEN LAS RECONEXIONES DE LOS CLIENTES */
+    public static final long VENTANA_MS = 2000;
+
+    /** TIEMPO SIN ACEPTAR QUE SE DA POR BUENO EN UN RELEVO */
+    public static final long OBJETIVO_MS = 500;
+
+    /** ESPERA MAXIMA A QUE EL SERVIDOR ANTERIOR ENTREGUE SU ESTADO */
+    public static final long ESPERA_MS = 10000;
+
+    /** COLA DE CONEXIONES PENDIENTES: DEBE AGUANTAR LAS QUE LLEGAN DURANTE EL ARRANQUE */
+    private static final int COLA_CONEXIONES = 4096;
+
+    /** CADA CUANTO SE MIRAN LOS FICHEROS DEL OTRO PROCESO */
+    private static final long INTERVALO_MS = 10;
+
+    private final Path ruta;
+    private final Path pedido;
+    private final Path activo;
+    private final long ventanaMs;
+    private final long objetivoMs;
+
+    private ServerSocketChannel canal;
+    private InstantaneaServidor heredada;
+    private long inicioNanos;
+
+    /**
+     * CONSTRUCTOR CON LA VENTANA Y EL OBJETIVO POR DEFECTO.
+     *
+     * @param ruta FICHERO DE LA INSTANTANEA
+     */
+    public RelevoServidor(Path ruta) {
+        this(ruta, VENTANA_MS, OBJETIVO_MS);
+    }
+
+    /**
+     * CONSTRUCTOR.
+     *
+     * @param ruta FICHERO DE LA INSTANTANEA
+     * @param ventanaMs VENTANA EN LA QUE SE REPARTEN LAS RECONEXIONES
+     * @param objetivoMs TIEMPO SIN ACEPTAR QUE SE DA POR BUENO
+     */
+    public RelevoServidor(Path ruta, long ventanaMs, long objetivoMs) {
+        if (ventanaMs < 0 || objetivoMs <= 0) {
+            throw new IllegalArgumentException("VENTANA U OBJETIVO DE RELEVO NO VALIDOS");
+        }
+        this.ruta = ruta;
+        this.pedido = ruta.resolveSibling(ruta.getFileName() + ".pedido");
+        this.activo = ruta.resolveSibling(ruta.getFileName() + ".activo");
+        this.ventanaMs = ventanaMs;
+        this.objetivoMs = objetivoMs;
+    }
+
+    /**
+     * ABRO UN PUERTO QUE OTRO PROCESO PUEDE ABRIR A LA VEZ.
+     *
+     * @param puerto PUERTO TCP
+     * @return CANAL ESCUCHANDO
+     * @throws IOException SI NO SE PUEDE ABRIR
+     */
+    public static ServerSocketChannel abrirPuerto(int puerto) throws IOException {
+        ServerSocketChannel canal = ServerSocketChannel.open();
+        try {
+            if (canal.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                canal.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            canal.bind(new InetSocketAddress(puerto), COLA_CONEXIONES);
+            return canal;
+        } catch (IOException e) {
+            canal.close();
+            throw e;
+        }
+    }
+
+    /**
+     * LADO NUEVO: ABRO EL PUERTO Y, SI HAY OTRO SERVIDOR EN MARCHA, LE PIDO
+     * EL RELEVO Y ESPERO SU INSTANTANEA. HAY QUE LLAMARLO ANTES DE CREAR EL
+     * SERVIDOR, PORQUE SUS FICHEROS SIGUEN ABIERTOS EN EL OTRO PROCESO
+     * HASTA QUE ENTREGA.
+     *
+     * @param puerto PUERTO TCP DEL SERVIDOR
+     * @param esperaMs ESPERA MAXIMA A LA INSTANTANEA
+     * @return TRUE SI HABIA OTRO SERVIDOR Y ENTREGO SU ESTADO
+     * @throws IOException SI NO SE PUEDE ABRIR EL PUERTO O LEER LA INSTANTANEA
+     */
+    public boolean tomar(int puerto, long esperaMs) throws IOException {
+        inicioNanos = System.nanoTime();
+        canal = abrirPuerto(puerto);
+
+        long anterior = leerPid(activo);
+        if (anterior <= 0 || anterior == pidPropio() || !ProcessHandle.of(anterior).map(ProcessHandle::isAlive).orElse(false)) {
+            return false;
+        }
+
+        // UNA INSTANTANEA QUE SOBRASE DE OTRO RELEVO NO VALE
+        Files.deleteIfExists(ruta);
+        Files.write(pedido, String.valueOf(pidPropio()).getBytes(StandardCharsets.US_ASCII));
+        long limite = System.nanoTime() + esperaMs * 1_000_000L;
+        while (!Files.exists(ruta)) {
+            Optional<ProcessHandle> proceso = ProcessHandle.of(anterior);
+            if (System.nanoTime() > limite || !proceso.isPresent() || !proceso.get().isAlive()) {
+                Files.deleteIfExists(pedido);
+                return false;
+            }
+            try {
+                Thread.sleep(INTERVALO_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        heredada = InstantaneaServidor.leer(ruta);
+        Files.deleteIfExists(ruta);
+        return true;
+    }
+
+    /**
+     * LADO EN MARCHA: DEJO CONSTANCIA DE QUE ESTE PROCESO ES EL SERVIDOR.
+     *
+     * @throws IOException SI NO SE PUEDE ESCRIBIR
+     */
+    public void anunciar() throws IOException {
+        Files.write(activo, String.valueOf(pidPropio()).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * @return TRUE SI OTRO PROCESO HA PEDIDO EL RELEVO
+     */
+    public boolean isPedido() {
+        long pid = leerPid(pedido);
+        return pid > 0 && pid != pidPropio();
+    }
+
+    /**
+     * LADO EN MARCHA: ENTREGO EL ESTADO. LA INSTANTANEA ES LO ULTIMO QUE SE
+     * ESCRIBE PORQUE ES LA SEÑAL DE QUE LOS FICHEROS YA ESTAN CERRADOS.
+     *
+     * @param instantanea ESTADO EN MEMORIA DEL SERVIDOR
+     * @throws IOException SI NO SE PUEDE ESCRIBIR
+     */
+    public void entregar(InstantaneaServidor instantanea) throws IOException {
+        if (leerPid(activo) == pidPropio()) {
+            Files.deleteIfExists(activo);
+        }
+        instantanea.guardar(ruta);
+        Files.deleteIfExists(pedido);
+    }
+
+    /**
+     * @return CANAL ABIERTO EN TOMAR(), O NULL
+     */
+    public ServerSocketChannel getCanal() {
+        return canal;
+    }
+
+    /**
+     * @return INSTANTANEA RECIBIDA EN TOMAR(), O NULL SI NO HUBO RELEVO
+     */
+    public InstantaneaServidor getHeredada() {
+        return heredada;
+    }
+
+    /**
+     * @return MILISEGUNDOS DESDE QUE SE LLAMO A TOMAR()
+     */
+    public long getMilisDesdeInicio() {
+        return inicioNanos == 0 ? 0 : (System.nanoTime() - inicioNanos) / 1_000_000;
+    }
+
+    /**
+     * @return VENTANA EN LA QUE SE REPARTEN LAS RECONEXIONES
+     */
+    public long getVentanaMs() {
+        return ventanaMs;
+    }
+
+    /**
+     * @return TIEMPO SIN ACEPTAR QUE SE DA POR BUENO
+     */
+    public long getObjetivoMs() {
+        return objetivoMs;
+    }
+
+    private static long pidPropio() {
+        return ProcessHandle.current().pid();
+    }
+
+    private static long leerPid(Path fichero) {
+        try {
+            return Long.parseLong(new String(Files.readAllBytes(fichero), StandardCharsets.US_ASCII).trim());
+        } catch (NoSuchFileException e) {
+            return 0;
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package es.ubu.lsi.server;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SEGMENTO INMUTABLE DEL INDICE INVERTIDO.
+ * GUARDA LOS TERMINOS ORDENADOS Y, PARA CADA UNO, SU LISTA DE
+ * DOCUMENTOS CODIFICADA COMO DIFERENCIAS EN ENTEROS DE LONGITUD
+ * VARIABLE, ASI QUE UN DOCUMENTO CERCANO AL ANTERIOR OCUPA UN BYTE.
+ * CADA SEGMENTO CUBRE UN RANGO CONSECUTIVO DE DOCUMENTOS.
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public class SegmentoIndice {
+
+    /** TERMINOS ORDENADOS */
+    private final String[] terminos;
+
+    /** POSICION EN POSTINGS DONDE EMPIEZA LA LISTA DE CADA TERMINO */
+    private final int[] inicios;
+
+    /** NUMERO DE DOCUMENTOS DE CADA TERMINO */
+    private final int[] frecuencias;
+
+    /** LISTAS DE DOCUMENTOS COMPRIMIDAS, UNA DETRAS DE OTRA */
+    private final byte[] postings;
+
+    /** NUMERO DE DOCUMENTOS QUE CUBRE EL SEGMENTO */
+    private final int documentos;
+
+    /**
+     * CONSTRUCTOR PRIVADO, LOS SEGMENTOS SE CREAN CON CREAR O FUSIONAR.
+     */
+    private SegmentoIndice(String[] terminos, int[] inicios, int[] frecuencias, byte[] postings, int documentos) {
+        this.terminos = terminos;
+        this.inicios = inicios;
+        this.frecuencias = frecuencias;
+        this.postings = postings;
+        this.documentos = documentos;
+    }
+
+    /**
+     * CREO UN SEGMENTO A PARTIR DEL INDICE EN MEMORIA.
+     *
+     * @param listas DOCUMENTOS (ORDENADOS) DE CADA TERMINO
+     * @param documentos NUMERO DE DOCUMENTOS QUE CUBRE
+     * @return SEGMENTO COMPRIMIDO
+     */
+    public static SegmentoIndice crear(Map<String, int[]> listas, int documentos) {
+        String[] terminos = listas.keySet().toArray(new String[0]);
+        Arrays.sort(terminos);
+
+        int[] inicios = new int[terminos.length];
+        int[] frecuencias = new int[terminos.length];
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        for (int i = 0; i < terminos.length; i++) {
+            int[] docs = listas.get(terminos[i]);
+            inicios[i] = salida.size();
+            frecuencias[i] = docs.length;
+            codificar(docs, docs.length, salida);
+        }
+        return new SegmentoIndice(terminos, inicios, frecuencias, salida.toByteArray(), documentos);
+    }
+
+    /**
+     * FUSIONO DOS SEGMENTOS CONSECUTIVOS EN UNO SOLO.
+     * COMO EL PRIMERO CUBRE DOCUMENTOS ANTERIORES AL SEGUNDO, BASTA
+     * CON CONCATENAR LAS LISTAS DE CADA TERMINO.
+     *
+     * @param a SEGMENTO CON LOS DOCUMENTOS MAS ANTIGUOS
+     * @param b SEGMENTO CON LOS DOCUMENTOS MAS NUEVOS
+     * @return SEGMENTO FUSIONADO
+     */
+    public static SegmentoIndice fusionar(SegmentoIndice a, SegmentoIndice b) {
+        List<String> terminos = new ArrayList<>();
+        List<Integer> inicios = new ArrayList<>();
+        List<Integer> frecuencias = new ArrayList<>();
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+
+        int i = 0;
+        int j = 0;
+        while (i < a.terminos.length || j < b.terminos.length) {
+            int cmp = i >= a.terminos.length ? 1
+                    : j >= b.terminos.length ? -1
+                    : a.terminos[i].compareTo(b.terminos[j]);
+            String termino = cmp <= 0 ? a.terminos[i] : b.terminos[j];
+            int[] docsA = cmp <= 0 ? a.decodificar(i++) : new int[0];
+            int[] docsB = cmp >= 0 ? b.decodificar(j++) : new int[0];
+
+            int[] docs = Arrays.copyOf(docsA, docsA.length + docsB.length);
+            System.arraycopy(docsB, 0, docs, docsA.length, docsB.length);
+
+            terminos.add(termino);
+            inicios.add(salida.size());
+            frecuencias.add(docs.length);
+            codificar(docs, docs.length, salida);
+        }
+
+        int[] ini = new int[inicios.size()];
+        int[] fre = new int[frecuencias.size()];
+        for (int k = 0; k < ini.length; k++) {
+            ini[k] = inicios.get(k);
+            fre[k] = frecuencias.get(k);
+        }
+        return new SegmentoIndice(terminos.toArray(new String[0]), ini, fre,
+                salida.toByteArray(), a.documentos + b.documentos);
+    }
+
+    /**
+     * OBTENGO LOS DOCUMENTOS DE UN TERMINO.
+     *
+     * @param termino TERMINO BUSCADO
+     * @return DOCUMENTOS EN ORDEN CRECIENTE (VACIO SI NO APARECE)
+     */
+    public int[] buscar(String termino) {
+        int pos = Arrays.binarySearch(terminos, termino);
+        return pos < 0 ? new int[0] : decodificar(pos);
+    }
+
+    /**
+     * @return NUMERO DE DOCUMENTOS QUE CUBRE EL SEGMENTO
+     */
+    public int getDocumentos() {
+        return documentos;
+    }
+
+    /**
+     * @return BYTES QUE OCUPAN LAS LISTAS COMPRIMIDAS
+     */
+    public int getBytesPostings() {
+        return postings.length;
+    }
+
+    /**
+     * DESCOMPRIMO LA LISTA DEL TERMINO EN LA POSICION INDICADA.
+     */
+    private int[] decodificar(int pos) {
+        int[] docs = new int[frecuencias[pos]];
+        int p = inicios[pos];
+        int anterior = 0;
+        for (int k = 0; k < docs.length; k++) {
+            int valor = 0;
+            int desplazamiento = 0;
+            byte b;
+            do {
+                b = postings[p++];
+                valor |= (b & 0x7F) << desplazamiento;
+                desplazamiento += 7;
+            } while ((b & 0x80) != 0);
+            anterior += valor;
+            docs[k] = anterior;
+        }
+        return docs;
+    }
+
+    /**
+     * COMPRIMO UNA LISTA ORDENADA COMO DIFERENCIAS EN VARINT.
+     */
+    static void codificar(int[] docs, int cantidad, ByteArrayOutputStream salida) {
+        int anterior = 0;
+        for (int k = 0; k < cantidad; k++) {
+            int valor = docs[k] - anterior;
+            anterior = docs[k];
+            while ((valor & ~0x7F) != 0) {
+                salida.write((valor & 0x7F) | 0x80);
+                valor >>>= 7;
+            }
+            salida.write(valor);
+        }
+    }
+}
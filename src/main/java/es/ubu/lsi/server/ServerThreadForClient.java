@@ -1,17 +1,30 @@
 package es.ubu.lsi.server;
 
 import es.ubu.lsi.common.ChatMessage;
+import es.ubu.lsi.common.CodecMensajes;
+import es.ubu.lsi.common.LectorTramas;
 import es.ubu.lsi.common.MessageType;
+import es.ubu.lsi.common.OfertaFichero;
+import es.ubu.lsi.common.Transporte;
 
 import java.io.*;
-import java.net.Socket;
-import java.util.HashSet;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * HILO PARA MANEJAR CADA CLIENTE CONECTADO AL SERVIDOR.
  * GESTIONA LA COMUNICACION CON UN CLIENTE ESPECIFICO,
  * PROCESANDO LOS MENSAJES RECIBIDOS Y ENVIANDO LOS MENSAJES.
+ * LOS CLIENTES QUE LLEGAN POR UNA PASARELA (O LOS DE LA SIMULACION) NO TIENEN HILO PROPIO:
+ * SU ENLACE LES PASA LOS MENSAJES Y ENVIA LOS SUYOS POR SU CONEXION.
  *
  * @author MARIO FLORES
  * @version 1.0
@@ -19,17 +32,23 @@ import java.util.Set;
  */
 public class ServerThreadForClient extends Thread {
 
-    /** SOCKET DE CONEXION CON EL CLIENTE */
-    private Socket socket;
+    /** TRANSPORTE (EN CLARO O CIFRADO) DE LA CONEXION CON EL CLIENTE */
+    private Transporte transporte;
+
+    /** ENLACE DE LA PASARELA (O SIMULACION) POR LA QUE LLEGA EL CLIENTE, NULL SI TIENE CONEXION PROPIA */
+    private final ConexionCompartida enlace;
+
+    /** NUMERO DE SESION DEL CLIENTE DENTRO DE SU PASARELA */
+    private final int sesion;
 
     /** REFERENCIA AL SERVIDOR PRINCIPAL */
     private ChatServerImpl servidor;
 
-    /** FLUJO DE ENTRADA PARA RECIBIR MENSAJES */
-    private ObjectInputStream entrada;
+    /** LECTOR DE LAS TRAMAS QUE ENVIA EL CLIENTE */
+    private LectorTramas entrada;
 
-    /** FLUJO DE SALIDA PARA ENVIAR MENSAJES */
-    private ObjectOutputStream salida;
+    /** FLUJO DE SALIDA CON BUFFER, SOLO LO USA EL HILO ESCRITOR */
+    private OutputStream salida;
 
     /** NOMBRE DE USUARIO DEL CLIENTE */
     private String nickname;
@@ -38,22 +57,92 @@ public class ServerThreadForClient extends Thread {
     private Set<String> usuariosBloqueados;
 
     /** INDICA SI EL CLIENTE ESTA CONECTADO */
-    private boolean conectado;
+    private volatile boolean conectado;
+
+    /** COLA DE SALIDA CON CARRILES DE PRIORIDAD */
+    private final PlanificadorSalida planificador;
+
+    /** FICHEROS QUE ESTA SUBIENDO EL CLIENTE, POR EL IDENTIFICADOR QUE LES PUSO EL */
+    private final Map<Long, AlmacenFicheros.Fichero> subidas = new ConcurrentHashMap<>();
+
+    /** FICHEROS QUE SE ESTAN ENVIANDO AL CLIENTE, POR IDENTIFICADOR DE TRANSFERENCIA */
+    private final Map<Long, EnvioFichero> envios = new ConcurrentHashMap<>();
+
+    /** HILO QUE ESCRIBE LOS MENSAJES DE LA COLA DE SALIDA */
+    private Thread escritor;
+
+    /** ULTIMA CONCESION DE CREDITO QUE AUN NO HA SALIDO; SI LLEGA OTRA, LA SUSTITUYE EN LA COLA */
+    private final AtomicReference<ChatMessage> creditoPendiente = new AtomicReference<>();
+
+    /** CREDITO CONCEDIDO EN ESTE INTERVALO Y EN EL ANTERIOR */
+    private volatile int creditoConcedido = ControlCarga.SIN_LIMITE;
+    private volatile int creditoAnterior = ControlCarga.SIN_LIMITE;
+
+    /** MENSAJES NORMALES RECIBIDOS EN ESTE INTERVALO DE CREDITO */
+    private final AtomicInteger normalesIntervalo = new AtomicInteger();
+
+    /** AVISO QUE SE DIFUNDE CUANDO ESTE CLIENTE SE VA, SE PREPARA EN EL LOGIN */
+    private ChatMessage avisoDesconexion;
+
+    /** INSTANTE EN QUE SE ACEPTO LA CONEXION (PARA LA DURACION DE LA SESION) */
+    private final long inicioSesion = System.nanoTime();
+
+    /** POR QUE TERMINO LA CONEXION, PARA EL EVENTO DE DESCONEXION */
+    private String motivoDesconexion;
+
+    /** TIEMPO MAXIMO QUE SE ESPERA A QUE SALGA LO PENDIENTE AL CERRAR */
+    private static final long ESPERA_CIERRE_MS = 500;
+
+    /** TAMAÑO DEL BUFFER DE SALIDA: LAS TRAMAS SE AGRUPAN HASTA EL FLUSH */
+    private static final int TAMANO_BUFFER_SALIDA = 8192;
+
+    /** CARACTERES QUE SE MUESTRAN DE CADA MENSAJE ENCONTRADO */
+    static final int FRAGMENTO_BUSQUEDA = 200;
+
+    /** CARACTERES MAXIMOS DE UNA RESPUESTA DE BUSQUEDA, MUY POR DEBAJO DE UNA TRAMA */
+    static final int MAXIMO_RESPUESTA_BUSQUEDA = 64 * 1024;
 
     /**
      * CONSTRUCTOR DEL HILO PARA CADA CLIENTE.
      * INICIALIZA LOS RECURSOS NECESARIOS PARA LA COMUNICACION.
      *
-     * @param socket SOCKET DE CONEXION CON EL CLIENTE
+     * @param transporte TRANSPORTE DE LA CONEXION CON EL CLIENTE
      * @param servidor REFERENCIA AL SERVIDOR PRINCIPAL
      */
-    public ServerThreadForClient(Socket socket, ChatServerImpl servidor) {
-        this.socket = socket;
+    public ServerThreadForClient(Transporte transporte, ChatServerImpl servidor) {
+        this.transporte = transporte;
         this.servidor = servidor;
-        this.usuariosBloqueados = new HashSet<>();
+        this.enlace = null;
+        this.sesion = 0;
+        this.planificador = new PlanificadorSalida(servidor.getControlCarga());
+        // LO CONSULTAN LOS HILOS QUE DIFUNDEN MIENTRAS ESTE LO CAMBIA
+        this.usuariosBloqueados = ConcurrentHashMap.newKeySet();
         this.conectado = true;
     }
 
+    /**
+     * CONSTRUCTOR DE UN CLIENTE QUE LLEGA POR UNA PASARELA O POR LA
+     * SIMULACION. NO SE ARRANCA COMO HILO: USA LOS FLUJOS DEL ENLACE,
+     * QUE SON DEL HILO LECTOR Y DEL HILO ESCRITOR DEL ENLACE.
+     *
+     * @param enlace CONEXION QUE COMPARTE CON OTROS CLIENTES
+     * @param sesion NUMERO DE SESION DENTRO DE LA PASARELA
+     * @param servidor REFERENCIA AL SERVIDOR PRINCIPAL
+     */
+    ServerThreadForClient(ConexionCompartida enlace, int sesion, ChatServerImpl servidor) {
+        this.transporte = enlace.getTransporte();
+        this.entrada = enlace.getEntrada();
+        this.salida = enlace.getSalida();
+        this.servidor = servidor;
+        this.enlace = enlace;
+        this.sesion = sesion;
+        // SUS MENSAJES VAN POR LA COLA DEL ENLACE, QUE ES LA QUE CUENTA LA CARGA
+        this.planificador = new PlanificadorSalida();
+        this.usuariosBloqueados = ConcurrentHashMap.newKeySet();
+        this.conectado = true;
+        setName(enlace.getName() + "-sesion-" + sesion);
+    }
+
     /**
      * TAREA PRINCIPAL DEL HILO: LEER MENSAJES DEL CLIENTE.
      * PROCESA LOS MENSAJES RECIBIDOS SEGUN SU TIPO.
@@ -61,72 +150,283 @@ public class ServerThreadForClient extends Thread {
     @Override
     public void run() {
         try {
+            // PREPARO EL TRANSPORTE (HANDSHAKE SI VA CIFRADO) EN ESTE HILO
+            // PARA NO FRENAR EL BUCLE DE ACEPTACION DEL SERVIDOR
+            transporte.iniciar();
+
             // CREO LOS FLUJOS DE ENTRADA Y SALIDA
-            salida = new ObjectOutputStream(socket.getOutputStream());
-            entrada = new ObjectInputStream(socket.getInputStream());
+            salida = new BufferedOutputStream(transporte.getSalida(), TAMANO_BUFFER_SALIDA);
+            entrada = new LectorTramas(transporte.getEntrada(), servidor.getMaximoTrama());
+
+            // LAS ESCRITURAS LAS HACE OTRO HILO QUE VACIA LA COLA DE SALIDA
+            escritor = new Thread(this::escribirPendientes, getName() + "-escritor");
+            escritor.setDaemon(true);
+            escritor.start();
 
             // LEO LOS MENSAJES QUE LLEGAN DESDE EL CLIENTE
             ChatMessage mensaje;
-            while (conectado && (mensaje = (ChatMessage) entrada.readObject()) != null) {
-                // GUARDO EL NICKNAME DEL CLIENTE SI ES EL PRIMER MENSAJE
-                if (nickname == null && mensaje.getRemitente() != null) {
-                    nickname = mensaje.getRemitente();
-                }
-
-                // PROCESO SEGUN EL TIPO DE MENSAJE
-                switch (mensaje.getTipo()) {
-                    case LOGIN:
-                        procesarLogin(mensaje);
-                        break;
-
-                    case LOGOUT:
-                        procesarLogout(mensaje);
-                        break;
-
-                    case PRIVADO:
-                        procesarMensajePrivado(mensaje);
-                        break;
-
-                    case BAN:
-                        procesarBan(mensaje);
-                        break;
-
-                    case UNBAN:
-                        procesarUnban(mensaje);
-                        break;
-
-                    case MENSAJE:
-                    default:
-                        // REENVIO EL MENSAJE A TODOS
-                        servidor.broadcast(mensaje);
-                        break;
-                }
+            while (conectado && (mensaje = entrada.leer()) != null) {
+                recibir(mensaje);
+            }
+            if (motivoDesconexion == null) {
+                motivoDesconexion = conectado ? "FIN DEL FLUJO" : "LOGOUT";
             }
+        } catch (InvalidClassException e) {
+            System.out.println("TRAMA DE " + nickname + " RECHAZADA POR EL FILTRO DE CLASES: " + e.getMessage());
+            motivoDesconexion = "TRAMA RECHAZADA POR EL FILTRO: " + e.getMessage();
+            servidor.contarRechazadas(Math.max(1, entrada.getRechazadas()));
         } catch (IOException e) {
             // EL CLIENTE SE DESCONECTO ABRUPTAMENTE O HUBO UN ERROR
             System.out.println("CLIENTE " + nickname + " DESCONECTADO O ERROR: " + e.getMessage());
+            motivoDesconexion = conectado ? "ERROR: " + e.getMessage() : "CERRADA POR EL SERVIDOR";
+            if (entrada != null && entrada.getRechazadas() > 0) {
+                // LA TRAMA NO PASO EL LIMITE DE TAMAÑO O NO ERA UN MENSAJE
+                motivoDesconexion = "TRAMA RECHAZADA: " + e.getMessage();
+                servidor.contarRechazadas(entrada.getRechazadas());
+            }
         } catch (ClassNotFoundException e) {
-            System.out.println("ERROR AL PROCESAR MENSAJE: " + e.getMessage());
+            System.out.println("TRAMA DE " + nickname + " RECHAZADA, CLASE DESCONOCIDA: " + e.getMessage());
+            motivoDesconexion = "MENSAJE NO VALIDO: " + e.getMessage();
+            servidor.contarRechazadas(Math.max(1, entrada.getRechazadas()));
         } finally {
-            cerrarConexion();
-            servidor.eliminarCliente(this);
+            terminar(motivoDesconexion);
+        }
+    }
+
+    /**
+     * PROCESO UN MENSAJE LEIDO DEL CLIENTE Y APUNTO CUANTO HA COSTADO.
+     * LO LLAMA EL HILO LECTOR, O EL DEL ENLACE SI VIENE POR UNA PASARELA.
+     *
+     * @param mensaje MENSAJE RECIBIDO
+     */
+    void recibir(ChatMessage mensaje) {
+        servidor.capturar(mensaje);
+        EventosJfr.MensajeLeido evento = new EventosJfr.MensajeLeido();
+        evento.begin();
+        procesar(mensaje);
+        evento.end();
+        if (evento.shouldCommit()) {
+            evento.remitente = nickname;
+            evento.tipo = mensaje.getTipo().name();
+            evento.bytes = mensaje.getTipo() == MessageType.FRAGMENTO_FICHERO
+                    ? entrada.getLongitudFragmento() : entrada.getLongitudTrama();
+            evento.commit();
+        }
+    }
+
+    /**
+     * TERMINO LA SESION: CIERRO LA CONEXION Y ME QUITO DEL SERVIDOR.
+     *
+     * @param motivo POR QUE TERMINA, PARA EL EVENTO DE DESCONEXION
+     */
+    void terminar(String motivo) {
+        EventosJfr.Desconexion evento = new EventosJfr.Desconexion();
+        if (evento.shouldCommit()) {
+            evento.usuario = nickname;
+            evento.motivo = motivo;
+            evento.duracionSesion = System.nanoTime() - inicioSesion;
+            evento.pendientes = enlace == null ? planificador.getPendientes() : 0;
+            evento.commit();
+        }
+        cerrarConexion();
+        servidor.eliminarCliente(this);
+    }
+
+    /**
+     * PROCESO UN MENSAJE LEIDO DEL CLIENTE SEGUN SU TIPO.
+     *
+     * @param mensaje MENSAJE RECIBIDO
+     */
+    private void procesar(ChatMessage mensaje) {
+        // LOS TROZOS DE FICHERO NO SON MENSAJES: VAN DIRECTOS AL ALMACEN
+        if (mensaje.getTipo() == MessageType.FRAGMENTO_FICHERO) {
+            recibirFragmento(mensaje);
+            return;
+        }
+
+        // GUARDO EL NICKNAME DEL CLIENTE SI ES EL PRIMER MENSAJE
+        if (nickname == null && mensaje.getRemitente() != null) {
+            nickname = mensaje.getRemitente();
+        }
+
+        // SI EL CLIENTE YA ME HABIA ENVIADO ESTE MENSAJE, SOLO LE CONFIRMO OTRA VEZ
+        long idMensaje = mensaje.getIdMensaje();
+        if (idMensaje != 0 && servidor.esRepetido(nickname, idMensaje)) {
+            confirmar(idMensaje);
+            return;
+        }
+
+        // LOS MENSAJES DE CHAT PASAN POR EL DETECTOR DE ABUSOS; SI NO LOS ADMITE SOLO LOS CONFIRMO
+        if ((mensaje.getTipo() == MessageType.MENSAJE || mensaje.getTipo() == MessageType.PRIVADO)
+                && !admitir(mensaje)) {
+            if (idMensaje != 0) {
+                confirmar(idMensaje);
+            }
+            return;
+        }
+
+        // PROCESO SEGUN EL TIPO DE MENSAJE
+        switch (mensaje.getTipo()) {
+            case LOGIN:
+                procesarLogin(mensaje);
+                break;
+
+            case LOGOUT:
+                procesarLogout(mensaje);
+                break;
+
+            case PRIVADO:
+                procesarMensajePrivado(mensaje);
+                break;
+
+            case BAN:
+                procesarBan(mensaje);
+                break;
+
+            case UNBAN:
+                procesarUnban(mensaje);
+                break;
+
+            case BUSQUEDA:
+                procesarBusqueda(mensaje);
+                break;
+
+            case OFERTA_FICHERO:
+                procesarOferta(mensaje);
+                break;
+
+            case ACEPTAR_FICHERO:
+                procesarAceptacion(mensaje);
+                break;
+
+            case MENSAJE:
+            default:
+                // REENVIO EL MENSAJE A TODOS SI PASA LOS FILTROS
+                procesarMensaje(mensaje);
+                break;
+        }
+
+        // CONFIRMO LA RECEPCION PARA QUE EL CLIENTE DEJE DE REINTENTAR
+        if (idMensaje != 0) {
+            confirmar(idMensaje);
+        }
+    }
+
+    /**
+     * CUENTO EL MENSAJE EN EL DETECTOR DE ABUSOS DEL SERVIDOR. SI ACABA
+     * DE CASTIGARME, ME AVISA UNA VEZ; MIENTRAS DURE, MIS MENSAJES SE
+     * PIERDEN SIN MAS AVISOS PARA NO DEVOLVER TANTO COMO SE ENVIA.
+     *
+     * @param mensaje MENSAJE RECIBIDO
+     * @return TRUE SI SE PUEDE REPARTIR
+     */
+    private boolean admitir(ChatMessage mensaje) {
+        if (mensaje.getTipo() == MessageType.MENSAJE && !dentroDelCredito()) {
+            servidor.getControlCarga().sinCredito();
+            return false;
+        }
+        switch (servidor.registrarEnvio(nickname, mensaje)) {
+            case CASTIGO_NUEVO:
+                enviarMensaje(ChatMessage.sistema(
+                        "TU MENSAJE NO SE HA ENVIADO: ENVIAS DEMASIADO O SE REPITE MUCHO. DURANTE UN RATO NO SE REPARTIRA", nickname));
+                return false;
+            case CASTIGADO:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * CUENTO UN MENSAJE NORMAL CONTRA EL CREDITO CONCEDIDO. UN CLIENTE QUE
+     * NO HACE CASO DE LAS CONCESIONES NO PASA DE ELLAS: LO QUE ENVIE DE MAS
+     * SE PIERDE. SE LE CONSIENTE TAMBIEN LO QUE LE QUEDARA DEL INTERVALO
+     * ANTERIOR, PORQUE PUEDE NO HABERLE LLEGADO AUN LA NUEVA CONCESION, Y
+     * EL PRIMER INTERVALO LIMITADO NO SE CUENTA.
+     *
+     * @return TRUE SI EL MENSAJE CABE EN EL CREDITO
+     */
+    boolean dentroDelCredito() {
+        int concedido = creditoConcedido;
+        int anterior = creditoAnterior;
+        if (concedido == ControlCarga.SIN_LIMITE || anterior == ControlCarga.SIN_LIMITE) {
+            return true;
+        }
+        return normalesIntervalo.incrementAndGet() <= concedido + anterior;
+    }
+
+    /**
+     * APUNTO EL CREDITO DE UN INTERVALO NUEVO Y EMPIEZO A CONTAR OTRA VEZ.
+     *
+     * @param credito MENSAJES NORMALES DEL INTERVALO, O SIN_LIMITE
+     */
+    void anotarCredito(int credito) {
+        creditoAnterior = creditoConcedido;
+        creditoConcedido = credito;
+        normalesIntervalo.set(0);
+    }
+
+    /**
+     * CONCEDO CREDITO AL CLIENTE. SI LA CONCESION ANTERIOR AUN ESTA EN LA
+     * COLA, LA NUEVA OCUPA SU SITIO EN LUGAR DE ENCOLAR OTRA: A UN CLIENTE
+     * QUE NO LEE NO SE LE ACUMULAN CONCESIONES. LAS SESIONES DE UN ENLACE
+     * NO TIENEN COLA PROPIA Y SE LES ENVIA SIEMPRE.
+     *
+     * @param mensaje MENSAJE CREDITO YA CODIFICADO
+     * @param credito VALOR CONCEDIDO
+     */
+    void concederCredito(ChatMessage mensaje, int credito) {
+        anotarCredito(credito);
+        if (enlace != null || creditoPendiente.getAndSet(mensaje) == null) {
+            enviarMensaje(mensaje);
         }
     }
 
     /**
      * PROCESO UN MENSAJE DE LOGIN.
-     * NOTIFICA A TODOS LOS USUARIOS DE LA NUEVA CONEXION.
+     * RECUPERA LOS BLOQUEOS GUARDADOS DEL USUARIO, NOTIFICA A TODOS LOS
+     * USUARIOS DE LA NUEVA CONEXION Y ENTREGA DE UNA VEZ LOS MENSAJES
+     * PRIVADOS QUE LLEGARON MIENTRAS NO ESTABA.
      *
      * @param mensaje MENSAJE DE LOGIN RECIBIDO
      */
     private void procesarLogin(ChatMessage mensaje) {
-        // NOTIFICO A TODOS LOS USUARIOS DE LA NUEVA CONEXION
-        ChatMessage notificacion = new ChatMessage(
-                "Server",
-                "EL USUARIO " + mensaje.getRemitente() + " SE HA CONECTADO",
-                MessageType.SISTEMA
-        );
-        servidor.broadcast(notificacion);
+        // CARGO SUS BLOQUEOS DE OTRAS SESIONES Y SE LOS DEVUELVO A SU CLIENTE
+        // LA LISTA SALE SIEMPRE, AUNQUE ESTE VACIA, PARA QUE EL CLIENTE SEPA
+        // QUE DESBLOQUEOS HECHOS SIN CONEXION TIENE QUE MANDAR
+        Set<String> guardados = servidor.cargarBloqueos(mensaje.getRemitente());
+        usuariosBloqueados.addAll(guardados);
+        enviarMensaje(new ChatMessage(ChatMessage.SERVIDOR, String.join("\n", guardados),
+                MessageType.BAN, mensaje.getRemitente()));
+
+        // NOTIFICO A TODOS LOS USUARIOS DE LA NUEVA CONEXION (LOS AVISOS SALEN DE PLANTILLAS),
+        // SALVO SI VUELVE TRAS UN RELEVO DEL SERVIDOR: PARA LOS DEMAS NUNCA SE FUE
+        if (!servidor.retomarSesion(mensaje.getRemitente())) {
+            servidor.broadcast(ChatServerImpl.AVISO_CONEXION.para(mensaje.getRemitente()));
+        }
+        avisoDesconexion = ChatServerImpl.AVISO_DESCONEXION.para(mensaje.getRemitente());
+
+        // ENTREGO LOS MENSAJES GUARDADOS EN EL BUZON
+        List<ChatMessage> pendientes = servidor.retirarPendientes(mensaje.getRemitente());
+        if (!pendientes.isEmpty()) {
+            enviarLote(pendientes);
+        }
+    }
+
+    /**
+     * PROCESO UN MENSAJE PARA TODOS.
+     * LO PASA POR LA CADENA DE FILTROS DEL SERVIDOR ANTES DEL BROADCAST;
+     * SI ALGUN FILTRO LO DESCARTA, SOLO SE AVISA AL REMITENTE.
+     *
+     * @param mensaje MENSAJE RECIBIDO
+     */
+    private void procesarMensaje(ChatMessage mensaje) {
+        ChatMessage filtrado = servidor.filtrar(mensaje);
+        if (filtrado != null) {
+            servidor.broadcast(filtrado);
+        } else {
+            enviarMensaje(ChatMessage.sistema("TU MENSAJE NO SE HA ENVIADO: CONTIENE TERMINOS NO PERMITIDOS", nickname));
+        }
     }
 
     /**
@@ -152,11 +452,9 @@ public class ServerThreadForClient extends Thread {
 
         // SI NO SE PUDO ENTREGAR, NOTIFICO AL REMITENTE
         if (!entregado) {
-            ChatMessage error = new ChatMessage(
-                    "Server",
+            ChatMessage error = ChatMessage.sistema(
                     "NO SE PUDO ENTREGAR TU MENSAJE. EL USUARIO " +
                             mensaje.getDestinatario() + " NO EXISTE O TE HA BLOQUEADO.",
-                    MessageType.SISTEMA,
                     mensaje.getRemitente()
             );
             enviarMensaje(error);
@@ -165,77 +463,428 @@ public class ServerThreadForClient extends Thread {
 
     /**
      * PROCESO UN MENSAJE DE BLOQUEO.
-     * REGISTRA EL BLOQUEO Y NOTIFICA A TODOS LOS USUARIOS.
+     * REGISTRA EL BLOQUEO Y NOTIFICA A TODOS LOS USUARIOS. SI YA ESTABA
+     * BLOQUEADO NO HACE NADA, ASI QUE REPETIR EL BAN NO SE DIFUNDE.
      *
      * @param mensaje MENSAJE DE BLOQUEO RECIBIDO
      */
     private void procesarBan(ChatMessage mensaje) {
         String bloqueado = mensaje.getDestinatario();
+        if (bloqueado == null || bloqueado.trim().isEmpty() || tieneUsuarioBloqueado(bloqueado)) {
+            return;
+        }
         bloquearUsuario(bloqueado);
         servidor.bloquearUsuario(nickname, bloqueado);
 
         // NOTIFICO A TODOS LOS USUARIOS
-        ChatMessage notificacion = new ChatMessage(
-                "Server",
-                mensaje.getContenido(),
-                MessageType.SISTEMA
-        );
-        servidor.broadcast(notificacion);
+        servidor.broadcast(ChatMessage.sistema(mensaje.getContenido()));
     }
 
     /**
      * PROCESO UN MENSAJE DE DESBLOQUEO.
-     * ELIMINA EL BLOQUEO Y NOTIFICA A TODOS LOS USUARIOS.
+     * ELIMINA EL BLOQUEO Y NOTIFICA A TODOS LOS USUARIOS. SI NO ESTABA
+     * BLOQUEADO NO HACE NADA.
      *
      * @param mensaje MENSAJE DE DESBLOQUEO RECIBIDO
      */
     private void procesarUnban(ChatMessage mensaje) {
         String desbloqueado = mensaje.getDestinatario();
+        if (!tieneUsuarioBloqueado(desbloqueado)) {
+            return;
+        }
         desbloquearUsuario(desbloqueado);
         servidor.desbloquearUsuario(nickname, desbloqueado);
 
         // NOTIFICO A TODOS LOS USUARIOS
-        ChatMessage notificacion = new ChatMessage(
-                "Server",
-                mensaje.getContenido(),
-                MessageType.SISTEMA
-        );
-        servidor.broadcast(notificacion);
+        servidor.broadcast(ChatMessage.sistema(mensaje.getContenido()));
+    }
+
+    /**
+     * PROCESO UNA PETICION DE BUSQUEDA.
+     * RESPONDE SOLO A ESTE CLIENTE CON UNA PAGINA DE RESULTADOS.
+     *
+     * @param mensaje MENSAJE CON LA CONSULTA
+     */
+    private void procesarBusqueda(ChatMessage mensaje) {
+        String respuesta;
+        try {
+            respuesta = formatearBusqueda(servidor.buscar(
+                    ConsultaBusqueda.interpretar(mensaje.getContenido()), nickname));
+        } catch (IllegalArgumentException | IOException e) {
+            respuesta = recortar("NO SE PUDO BUSCAR: " + e.getMessage(), FRAGMENTO_BUSQUEDA);
+        }
+
+        enviarMensaje(new ChatMessage(ChatMessage.SERVIDOR, respuesta, MessageType.RESULTADO_BUSQUEDA, nickname));
+    }
+
+    /**
+     * ESCRIBO UNA PAGINA DE RESULTADOS, UNO POR LINEA. DE CADA MENSAJE SOLO
+     * VA UN FRAGMENTO, PORQUE VEINTE MENSAJES ENTEROS PUEDEN NO CABER EN UNA
+     * TRAMA. SI AUN ASI LA RESPUESTA SE PASA DEL MAXIMO, LA PAGINA TERMINA
+     * ANTES Y SE AVISA DE QUE HAY MAS.
+     *
+     * @param pagina PAGINA DEL INDICE
+     * @return TEXTO DE LA RESPUESTA
+     */
+    static String formatearBusqueda(IndiceBusqueda.Pagina pagina) {
+        SimpleDateFormat formato = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        StringBuilder lineas = new StringBuilder();
+        int mostrados = 0;
+        boolean hayMas = pagina.hayMas();
+
+        for (IndiceBusqueda.Resultado resultado : pagina.getResultados()) {
+            ChatMessage encontrado = resultado.getMensaje();
+            StringBuilder linea = new StringBuilder();
+            linea.append('\n').append('[').append(formato.format(new Date(resultado.getInstante())))
+                    .append("] ").append(recortar(encontrado.getRemitente(), FRAGMENTO_BUSQUEDA));
+            if (encontrado.getTipo() == MessageType.PRIVADO) {
+                linea.append(" -> ").append(recortar(encontrado.getDestinatario(), FRAGMENTO_BUSQUEDA)).append(" (PRIVADO)");
+            }
+            linea.append(": ").append(recortar(encontrado.getContenido(), FRAGMENTO_BUSQUEDA));
+
+            if (lineas.length() + linea.length() > MAXIMO_RESPUESTA_BUSQUEDA) {
+                hayMas = true;
+                break;
+            }
+            lineas.append(linea);
+            mostrados++;
+        }
+
+        StringBuilder respuesta = new StringBuilder();
+        respuesta.append("PAGINA ").append(pagina.getNumero())
+                .append(" (").append(mostrados).append(" RESULTADOS)").append(lineas);
+        if (hayMas && pagina.getNumero() >= ConsultaBusqueda.MAXIMO_PAGINA) {
+            respuesta.append("\nHAY MAS RESULTADOS, AFINA LA BUSQUEDA CON MAS TERMINOS O FECHAS");
+        } else if (hayMas) {
+            respuesta.append("\nHAY MAS RESULTADOS, PIDE pagina:").append(pagina.getNumero() + 1);
+        }
+        return respuesta.toString();
+    }
+
+    /**
+     * CORTO UN TEXTO A UN MAXIMO DE CARACTERES, MARCANDO EL CORTE.
+     *
+     * @param texto TEXTO, PUEDE SER NULL
+     * @param maximo CARACTERES MAXIMOS
+     * @return TEXTO CORTADO
+     */
+    private static String recortar(String texto, int maximo) {
+        if (texto == null || texto.length() <= maximo) {
+            return texto;
+        }
+        return texto.substring(0, maximo) + "...";
+    }
+
+    /**
+     * PROCESO LA OFERTA DE UN FICHERO QUE VA A SUBIR EL CLIENTE.
+     * PREPARO EL FICHERO EN EL ALMACEN; LOS DEMAS RECIBEN LA OFERTA
+     * CUANDO HAYA LLEGADO ENTERO.
+     *
+     * @param mensaje OFERTA CON EL TAMAÑO Y EL NOMBRE
+     */
+    private void procesarOferta(ChatMessage mensaje) {
+        try {
+            AlmacenFicheros.Fichero fichero = servidor.crearFichero(nickname,
+                    OfertaFichero.nombreDe(mensaje), OfertaFichero.tamanoDe(mensaje), mensaje.getDestinatario());
+            subidas.put(mensaje.getIdMensaje(), fichero);
+        } catch (IllegalArgumentException | IOException e) {
+            // SI NO LO ACEPTO, EL LECTOR SE SALTA LOS TROZOS QUE LLEGUEN
+            enviarMensaje(ChatMessage.sistema("NO SE PUEDE COMPARTIR EL FICHERO: " + e.getMessage(), nickname));
+        }
+    }
+
+    /**
+     * GUARDO UN TROZO DE UN FICHERO QUE ESTA SUBIENDO EL CLIENTE.
+     * EL TROZO VACIO INDICA QUE YA HA LLEGADO ENTERO.
+     *
+     * @param cabecera CABECERA DEL TROZO (EL IDENTIFICADOR ES EL DEL CLIENTE)
+     */
+    private void recibirFragmento(ChatMessage cabecera) {
+        AlmacenFicheros.Fichero fichero = subidas.get(cabecera.getIdMensaje());
+        if (fichero == null) {
+            return;
+        }
+
+        try {
+            if (entrada.getLongitudFragmento() > 0) {
+                fichero.recibir(entrada);
+                return;
+            }
+            subidas.remove(cabecera.getIdMensaje());
+            if (fichero.completar()) {
+                servidor.ofrecerFichero(fichero);
+            } else {
+                servidor.descartarFichero(fichero);
+                enviarMensaje(ChatMessage.sistema("EL FICHERO " + fichero.getNombre() + " LLEGO INCOMPLETO", nickname));
+            }
+        } catch (IOException e) {
+            subidas.remove(cabecera.getIdMensaje());
+            servidor.descartarFichero(fichero);
+            enviarMensaje(ChatMessage.sistema("NO SE PUDO GUARDAR EL FICHERO: " + e.getMessage(), nickname));
+        }
+    }
+
+    /**
+     * PROCESO LA ACEPTACION DE UN FICHERO OFRECIDO.
+     * EL ENVIO SE HACE A TROZOS DESDE EL HILO ESCRITOR, INTERCALADO CON
+     * LOS MENSAJES, EN EL CARRIL DE FICHEROS DE LA COLA DE SALIDA.
+     *
+     * @param mensaje ACEPTACION CON EL IDENTIFICADOR DE LA OFERTA
+     */
+    private void procesarAceptacion(ChatMessage mensaje) {
+        AlmacenFicheros.Fichero fichero = null;
+        try {
+            fichero = servidor.buscarFichero(Long.parseLong(mensaje.getContenido().trim()));
+        } catch (NumberFormatException | NullPointerException e) {
+            // SE TRATA COMO UNA OFERTA QUE NO EXISTE
+        }
+        if (fichero == null || !fichero.isCompleto() || !fichero.esPara(nickname)
+                || tieneUsuarioBloqueado(fichero.getRemitente())) {
+            enviarMensaje(ChatMessage.sistema("EL FICHERO " + mensaje.getContenido() + " NO ESTA DISPONIBLE", nickname));
+            return;
+        }
+        if (envios.containsKey(fichero.getId())) {
+            return;
+        }
+
+        try {
+            EnvioFichero envio = new EnvioFichero(fichero.getId(), fichero.abrirLectura(), fichero.getTamano());
+            envios.put(envio.id, envio);
+            encolar(envio.marca);
+        } catch (IOException e) {
+            enviarMensaje(ChatMessage.sistema("NO SE PUDO ABRIR EL FICHERO: " + e.getMessage(), nickname));
+        }
     }
 
     /**
      * ENVIO UN MENSAJE AL CLIENTE.
-     * EL MENSAJE SE SERIALIZA Y SE ENVIA AL CLIENTE.
+     * EL MENSAJE SE DEJA EN SU CARRIL DE LA COLA DE SALIDA Y EL HILO
+     * ESCRITOR LO SERIALIZA, ASI QUE QUIEN ENVIA NO SE BLOQUEA AUNQUE
+     * EL CLIENTE SEA LENTO. EL MENSAJE SE CODIFICA AQUI, EN EL HILO QUE
+     * ENVIA, PARA QUE SI NO CABE EN UNA TRAMA EL ERROR SALGA AQUI Y NO EN
+     * EL ESCRITOR.
      *
      * @param mensaje EL MENSAJE A ENVIAR
+     * @return TRUE SI QUEDO EN LA COLA, FALSE SI SE DESCARTO
      */
-    public void enviarMensaje(ChatMessage mensaje) {
+    public boolean enviarMensaje(ChatMessage mensaje) {
         if (!conectado) {
-            return;
+            return false;
+        }
+        if (mensaje.getTipo() != MessageType.FRAGMENTO_FICHERO) {
+            try {
+                CodecMensajes.preparar(mensaje);
+            } catch (RuntimeException e) {
+                System.out.println("NO SE PUEDE ENVIAR UN MENSAJE " + mensaje.getTipo() + " A " + nickname + ": " + e.getMessage());
+                return false;
+            }
+        }
+        return encolar(mensaje);
+    }
+
+    /**
+     * DEJO UN MENSAJE EN LA COLA DE SALIDA: LA MIA, O LA DEL ENLACE SI
+     * EL CLIENTE LLEGA POR UNA PASARELA. SI SE LLENA MI CARRIL DE CONTROL
+     * EL CLIENTE NO ESTA LEYENDO: CORTO LA CONEXION SIN ESPERAR AL
+     * ESCRITOR, Y EL HILO LECTOR TERMINA LA SESION.
+     *
+     * @param mensaje MENSAJE A ENVIAR
+     * @return TRUE SI SE ENCOLO
+     */
+    private boolean encolar(ChatMessage mensaje) {
+        if (enlace != null) {
+            return enlace.encolar(mensaje, this);
         }
+        if (planificador.encolar(mensaje)) {
+            return true;
+        }
+        if (planificador.estaDesbordado()) {
+            System.out.println("LA COLA DE CONTROL DE " + nickname + " ESTA LLENA, CORTO LA CONEXION");
+            cortar();
+        }
+        return false;
+    }
 
+    /**
+     * ENVIO AL CLIENTE LA CONFIRMACION DE UN MENSAJE SUYO.
+     *
+     * @param idMensaje IDENTIFICADOR DEL MENSAJE CONFIRMADO
+     */
+    private void confirmar(long idMensaje) {
+        enviarMensaje(ChatMessage.confirmacion(idMensaje));
+    }
+
+    /**
+     * ENVIO VARIOS MENSAJES AL CLIENTE CON UN SOLO FLUSH.
+     * SE SALTAN LOS MENSAJES DE USUARIOS BLOQUEADOS.
+     *
+     * @param mensajes LOS MENSAJES A ENVIAR, EN ORDEN
+     */
+    public void enviarLote(List<ChatMessage> mensajes) {
+        // EL ESCRITOR SOLO HACE FLUSH CUANDO SE VACIA LA COLA,
+        // ASI QUE EL LOTE SALE JUNTO
+        for (ChatMessage mensaje : mensajes) {
+            if (!tieneUsuarioBloqueado(mensaje.getRemitente())) {
+                enviarMensaje(mensaje);
+            } else {
+                EventosJfr.bloqueoSaltado(mensaje.getRemitente(), nickname, mensaje.getTipo());
+            }
+        }
+    }
+
+    /**
+     * TAREA DEL HILO ESCRITOR: VACIAR LA COLA DE SALIDA.
+     * SOLO HACE FLUSH CUANDO NO QUEDA NADA PENDIENTE PARA AGRUPAR ESCRITURAS.
+     * LOS MENSAJES YA LLEGAN CODIFICADOS, ASI QUE AQUI SOLO SE COPIAN BYTES.
+     * SI AUN ASI UNO NO SE PUEDE CODIFICAR, SE PIERDE SOLO ESE; Y SI EL
+     * HILO TERMINA POR CUALQUIER OTRO FALLO, SE CIERRA LA CONEXION PARA
+     * QUE SUS COLAS NO SIGAN CRECIENDO SIN NADIE QUE LAS VACIE.
+     */
+    private void escribirPendientes() {
         try {
-            salida.writeObject(mensaje);
-            salida.flush();
+            ChatMessage mensaje;
+            while ((mensaje = planificador.siguiente()) != null) {
+                EventosJfr.EscrituraMensaje evento = new EventosJfr.EscrituraMensaje();
+                evento.begin();
+                if (mensaje.getTipo() == MessageType.CREDITO) {
+                    // SALE LA CONCESION MAS RECIENTE, NO LA QUE SE ENCOLO
+                    ChatMessage ultimo = creditoPendiente.getAndSet(null);
+                    mensaje = ultimo != null ? ultimo : mensaje;
+                }
+                int bytes = 0;
+                if (mensaje.getTipo() == MessageType.FRAGMENTO_FICHERO) {
+                    bytes = enviarFragmento(mensaje);
+                } else {
+                    try {
+                        bytes = CodecMensajes.escribir(mensaje, salida);
+                    } catch (RuntimeException e) {
+                        // AL FALLAR LA CODIFICACION AUN NO SE HA ESCRITO NADA DE ESTE MENSAJE
+                        System.out.println("DESCARTO UN MENSAJE " + mensaje.getTipo() + " PARA " + nickname + ": " + e.getMessage());
+                    }
+                }
+                boolean vaciar = planificador.estaVacio();
+                if (vaciar) {
+                    salida.flush();
+                }
+                evento.end();
+                if (evento.shouldCommit()) {
+                    evento.destinatario = nickname;
+                    evento.tipo = mensaje.getTipo().name();
+                    evento.bytes = bytes;
+                    evento.flush = vaciar;
+                    evento.commit();
+                }
+            }
         } catch (IOException e) {
             System.out.println("NO PUDE ENVIAR MENSAJE A " + nickname + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            cortar();
+        }
+    }
+
+    /**
+     * CIERRO EL TRANSPORTE SIN ESPERAR A NADIE PARA QUE EL HILO LECTOR
+     * TERMINE Y DESCARTE LO PENDIENTE.
+     */
+    private void cortar() {
+        if (conectado) {
             conectado = false;
+            planificador.cerrar();
+            try {
+                transporte.close();
+            } catch (IOException ignorada) {
+                // YA ESTABA CERRADO
+            }
         }
     }
 
+    /**
+     * ENVIO EL SIGUIENTE TROZO DE UN FICHERO Y VUELVO A PONER SU MARCA AL
+     * FINAL DEL CARRIL, ASI QUE CADA TURNO DEL CARRIL ES UN SOLO TROZO.
+     * LOS BYTES VAN DEL FICHERO AL SOCKET SIN COPIARSE EN EL HEAP.
+     * SI EL CLIENTE VIENE POR UNA PASARELA LO LLAMA EL ESCRITOR DEL ENLACE,
+     * Y EL TROZO VA DETRAS DE LA CABECERA DE SU SESION.
+     *
+     * @param marca MARCA DE LA TRANSFERENCIA EN LA COLA
+     * @return BYTES ESCRITOS
+     * @throws IOException SI FALLA LA LECTURA O EL ENVIO
+     */
+    int enviarFragmento(ChatMessage marca) throws IOException {
+        EnvioFichero envio = envios.get(marca.getIdMensaje());
+        if (envio == null) {
+            return 0;
+        }
+
+        // EL CIERRE DE LA SESION PUEDE CERRAR EL FICHERO DESDE OTRO HILO
+        int trozo;
+        synchronized (envio) {
+            if (!envio.canal.isOpen()) {
+                return 0;
+            }
+            if (enlace != null) {
+                CodecMensajes.escribirCabeceraSesion(sesion, salida);
+            }
+
+            trozo = (int) Math.min(CodecMensajes.TAMANO_FRAGMENTO, envio.tamano - envio.posicion);
+            CodecMensajes.escribirCabeceraFragmento(envio.id, trozo, salida);
+            if (trozo == 0) {
+                // TROZO VACIO: FIN DEL FICHERO
+                envios.remove(envio.id);
+                envio.canal.close();
+                return CodecMensajes.CABECERA_FRAGMENTO;
+            }
+
+            salida.flush();
+            transporte.transferir(envio.canal, envio.posicion, trozo);
+            envio.posicion += trozo;
+        }
+        encolar(marca);
+        return CodecMensajes.CABECERA_FRAGMENTO + trozo;
+    }
+
     /**
      * CIERRO LA CONEXION CON EL CLIENTE.
-     * LIBERA TODOS LOS RECURSOS ASOCIADOS A LA CONEXION.
+     * LIBERA TODOS LOS RECURSOS ASOCIADOS A LA CONEXION. SI EL CLIENTE
+     * LLEGA POR UNA PASARELA, LA CONEXION ES DEL ENLACE Y SIGUE ABIERTA.
      */
     public void cerrarConexion() {
         try {
+            if (conectado && enlace == null) {
+                System.out.println("COLA DE SALIDA DE " + nickname + ": " + planificador);
+            }
             conectado = false;
+            planificador.cerrar();
+
+            // DEJO QUE EL ESCRITOR ENVIE LO QUE QUEDA (POR EJEMPLO EL AVISO DE CIERRE)
+            if (escritor != null && escritor != Thread.currentThread()) {
+                escritor.join(ESPERA_CIERRE_MS);
+            }
+            planificador.descartarPendientes();
+
+            // LO QUE SE ESTABA SUBIENDO O ENVIANDO SE PIERDE
+            for (EnvioFichero envio : envios.values()) {
+                synchronized (envio) {
+                    envio.canal.close();
+                }
+            }
+            envios.clear();
+            for (AlmacenFicheros.Fichero fichero : subidas.values()) {
+                servidor.descartarFichero(fichero);
+            }
+            subidas.clear();
 
+            // EL FLUJO DE SALIDA SOLO LO TOCA EL ESCRITOR: CIERRO EL TRANSPORTE DEBAJO
+            if (enlace != null) {
+                return;
+            }
             if (entrada != null) entrada.close();
-            if (salida != null) salida.close();
-            if (socket != null && !socket.isClosed()) socket.close();
+            if (transporte != null) transporte.close();
         } catch (IOException e) {
             System.out.println("ERROR AL CERRAR LA CONEXION DEL CLIENTE " + nickname);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -270,7 +919,48 @@ public class ServerThreadForClient extends Thread {
      * @return TRUE SI ESTA BLOQUEADO, FALSE EN CASO CONTRARIO
      */
     public boolean tieneUsuarioBloqueado(String usuario) {
-        return usuariosBloqueados.contains(usuario);
+        return usuario != null && usuariosBloqueados.contains(usuario);
+    }
+
+    /**
+     * OBTENGO LOS USUARIOS BLOQUEADOS POR ESTE CLIENTE (PARA GUARDARLOS).
+     *
+     * @return VISTA DE SOLO LECTURA DEL CONJUNTO DE BLOQUEADOS
+     */
+    public Set<String> getUsuariosBloqueados() {
+        return Collections.unmodifiableSet(usuariosBloqueados);
+    }
+
+    /**
+     * OBTENGO LA COLA DE SALIDA DEL CLIENTE (PARA SUS METRICAS).
+     *
+     * @return PLANIFICADOR DE SALIDA
+     */
+    public PlanificadorSalida getPlanificador() {
+        return planificador;
+    }
+
+    /**
+     * OBTENGO EL AVISO QUE HAY QUE DIFUNDIR CUANDO ESTE CLIENTE SE VA.
+     *
+     * @return AVISO DE DESCONEXION, NULL SI NUNCA HIZO LOGIN
+     */
+    public ChatMessage getAvisoDesconexion() {
+        return avisoDesconexion;
+    }
+
+    /**
+     * @return FALSE CUANDO EL CLIENTE HA HECHO LOGOUT O SE HA CERRADO SU SESION
+     */
+    boolean isConectado() {
+        return conectado;
+    }
+
+    /**
+     * @return NUMERO DE SESION DENTRO DE SU PASARELA, 0 SI TIENE CONEXION PROPIA
+     */
+    int getSesion() {
+        return sesion;
     }
 
     /**
@@ -281,4 +971,22 @@ public class ServerThreadForClient extends Thread {
     public String getNickname() {
         return nickname;
     }
-}
\ No newline at end of file
+
+    /**
+     * ESTADO DEL ENVIO DE UN FICHERO AL CLIENTE.
+     */
+    private static class EnvioFichero {
+        final long id;
+        final FileChannel canal;
+        final long tamano;
+        final ChatMessage marca;
+        long posicion;
+
+        EnvioFichero(long id, FileChannel canal, long tamano) {
+            this.id = id;
+            this.canal = canal;
+            this.tamano = tamano;
+            this.marca = new ChatMessage(null, null, MessageType.FRAGMENTO_FICHERO, null, id);
+        }
+    }
+}
@@ -0,0 +1,531 @@
+package es.ubu.lsi.server;
+
+import es.ubu.lsi.common.ChatMessage;
+import es.ubu.lsi.common.CodecMensajes;
+import es.ubu.lsi.common.LectorTramas;
+import es.ubu.lsi.common.MessageType;
+import es.ubu.lsi.common.Transporte;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * SIMULACION DETERMINISTA DEL SERVIDOR CON MILES DE CLIENTES EN UN SOLO
+ * HILO Y CON TIEMPO VIRTUAL. LOS CLIENTES SON OBJETOS (NO HILOS NI
+ * SOCKETS) Y LO QUE HACEN SON EVENTOS EN UNA COLA ORDENADA POR INSTANTE
+ * VIRTUAL; LOS EMPATES SALEN EN EL ORDEN EN QUE SE PROGRAMARON. CADA
+ * CLIENTE TIENE EN EL SERVIDOR UNA SESION SIN HILO (COMO LAS DE LAS
+ * PASARELAS) Y LAS LATENCIAS SALEN DE UN RANDOM CON SEMILLA, ASI QUE LA
+ * MISMA SEMILLA Y EL MISMO ESCENARIO DAN SIEMPRE LAS MISMAS ENTREGAS EN
+ * EL MISMO ORDEN, Y UN FALLO DE ORDEN SE PUEDE REPETIR LAS VECES QUE HAGA
+ * FALTA.
+ * EL SERVIDOR DECODIFICA CADA TRAMA QUE LE LLEGA Y CODIFICA CADA ENTREGA,
+ * Y SOLO ESO SE CUENTA COMO SU TIEMPO DE CPU: ASI SE MIDE LO QUE CUESTA
+ * CADA MENSAJE SIN EL RUIDO DE LA RED.
+ * EL SERVIDOR TIENE QUE SER SOLO PARA LA SIMULACION: SE LE QUITA EL
+ * REPARTO PARALELO DE LOS BROADCAST Y SE LE PONE EL RELOJ VIRTUAL. LOS
+ * FICHEROS COMPARTIDOS NO SE SIMULAN.
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public class SimulacionChat implements ConexionCompartida {
+
+    /** LATENCIAS DE RED POR DEFECTO, EN MILISEGUNDOS VIRTUALES */
+    public static final long LATENCIA_MINIMA = 1;
+    public static final long LATENCIA_MAXIMA = 20;
+
+    private final ChatServerImpl servidor;
+    private final Random azar;
+    private final PriorityQueue<Evento> eventos = new PriorityQueue<>();
+
+    /** USUARIOS POR NUMERO DE SESION MENOS UNO */
+    private final List<UsuarioSimulado> usuarios = new ArrayList<>();
+
+    /** LO QUE LEE EL SERVIDOR: CADA TRAMA SE DEJA AQUI JUSTO ANTES DE LEERLA */
+    private final Alimentador alimentador = new Alimentador();
+    private final LectorTramas lector = new LectorTramas(alimentador);
+
+    /** DONDE EL SERVIDOR CODIFICA LAS ENTREGAS, CONTANDO LOS BYTES */
+    private final Sumidero sumidero = new Sumidero();
+
+    private final ThreadMXBean hilos = ManagementFactory.getThreadMXBean();
+
+    private long latenciaMinima = LATENCIA_MINIMA;
+    private long latenciaMaxima = LATENCIA_MAXIMA;
+    private long ahora;
+    private long secuencia;
+
+    private long procesados;
+    private long entrantes;
+    private long entregas;
+    private long nanosCpuServidor;
+    private long huella = 17;
+
+    /**
+     * CONSTRUCTOR.
+     *
+     * @param servidor SERVIDOR SOLO PARA LA SIMULACION, SIN ARRANCAR
+     * @param semilla SEMILLA DE LAS LATENCIAS
+     */
+    public SimulacionChat(ChatServerImpl servidor, long semilla) {
+        this.servidor = servidor;
+        this.azar = new Random(semilla);
+        // EN UN SOLO HILO EL ORDEN DE LAS ENTREGAS NO DEPENDE DEL PLANIFICADOR DEL SISTEMA
+        servidor.setDifusion(new DifusionParalela(Integer.MAX_VALUE, DifusionParalela.PARTICION));
+        servidor.setReloj(() -> ahora);
+    }
+
+    /**
+     * CAMBIO LAS LATENCIAS DE LA RED SIMULADA. CADA TRAMA TARDA UN VALOR
+     * AL AZAR ENTRE LAS DOS, PERO NUNCA ADELANTA A LA ANTERIOR DE SU
+     * MISMA CONEXION, COMO EN TCP.
+     *
+     * @param minima MILISEGUNDOS VIRTUALES COMO MINIMO
+     * @param maxima MILISEGUNDOS VIRTUALES COMO MAXIMO
+     */
+    public void setLatencia(long minima, long maxima) {
+        if (minima < 0 || maxima < minima) {
+            throw new IllegalArgumentException("LATENCIAS NO VALIDAS: " + minima + ".." + maxima);
+        }
+        this.latenciaMinima = minima;
+        this.latenciaMaxima = maxima;
+    }
+
+    /**
+     * CREO UN USUARIO QUE SE CONECTA EN UN INSTANTE VIRTUAL.
+     *
+     * @param nickname NOMBRE DEL USUARIO
+     * @param instante MILISEGUNDO VIRTUAL EN QUE HACE LOGIN
+     * @return USUARIO PARA PROGRAMAR LO QUE HACE
+     */
+    public UsuarioSimulado crearUsuario(String nickname, long instante) {
+        UsuarioSimulado usuario = new UsuarioSimulado(nickname, usuarios.size() + 1);
+        usuarios.add(usuario);
+        programar(instante, () -> usuario.enviar(new ChatMessage(nickname, "conectandose", MessageType.LOGIN)));
+        return usuario;
+    }
+
+    /**
+     * PROGRAMO UNA ACCION EN UN INSTANTE VIRTUAL. SI YA HA PASADO, SE
+     * HACE EN EL INSTANTE ACTUAL, DETRAS DE LO QUE YA HAYA PROGRAMADO.
+     *
+     * @param instante MILISEGUNDO VIRTUAL
+     * @param accion LO QUE HAY QUE HACER
+     */
+    public void programar(long instante, Runnable accion) {
+        eventos.add(new Evento(Math.max(instante, ahora), secuencia++, accion));
+    }
+
+    /**
+     * AVANZO EL TIEMPO VIRTUAL HASTA UN INSTANTE, HACIENDO EN ORDEN TODO
+     * LO PROGRAMADO HASTA ENTONCES (TAMBIEN LO QUE SE PROGRAME POR EL CAMINO).
+     *
+     * @param hasta MILISEGUNDO VIRTUAL FINAL
+     * @return EVENTOS PROCESADOS
+     */
+    public long ejecutar(long hasta) {
+        long hechos = procesarHasta(hasta);
+        ahora = Math.max(ahora, hasta);
+        return hechos;
+    }
+
+    /**
+     * HAGO TODO LO PROGRAMADO HASTA QUE NO QUEDE NADA. EL TIEMPO VIRTUAL
+     * SE QUEDA EN EL ULTIMO EVENTO.
+     *
+     * @return EVENTOS PROCESADOS
+     */
+    public long ejecutarTodo() {
+        return procesarHasta(Long.MAX_VALUE);
+    }
+
+    private long procesarHasta(long hasta) {
+        long antes = procesados;
+        while (!eventos.isEmpty() && eventos.peek().instante <= hasta) {
+            Evento evento = eventos.poll();
+            ahora = evento.instante;
+            evento.accion.run();
+            procesados++;
+        }
+        return procesados - antes;
+    }
+
+    /**
+     * LLEGA AL SERVIDOR UNA TRAMA DE UN USUARIO: LA DECODIFICA Y LA
+     * PROCESA SU SESION. ES LO UNICO QUE SE MIDE COMO CPU DEL SERVIDOR,
+     * JUNTO CON LAS ENTREGAS QUE PROVOCA.
+     */
+    private void llegarAlServidor(UsuarioSimulado usuario, byte[] trama) {
+        long inicio = cpu();
+        alimentador.poner(trama);
+        ChatMessage mensaje;
+        try {
+            mensaje = lector.leer();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("TRAMA NO VALIDA DE " + usuario.nickname, e);
+        }
+
+        if (usuario.sesion == null) {
+            // COMO EN LAS PASARELAS, UN LOGOUT DE UNA SESION QUE NO EXISTE NO ABRE OTRA
+            if (mensaje.getTipo() == MessageType.LOGOUT) {
+                return;
+            }
+            usuario.sesion = new ServerThreadForClient(this, usuario.numero, servidor);
+            servidor.agregarCliente(usuario.sesion);
+        }
+        ServerThreadForClient sesion = usuario.sesion;
+        sesion.recibir(mensaje);
+        if (!sesion.isConectado()) {
+            usuario.sesion = null;
+            sesion.terminar("LOGOUT");
+        }
+        nanosCpuServidor += cpu() - inicio;
+        entrantes++;
+    }
+
+    /**
+     * EL SERVIDOR ENVIA UN MENSAJE A UNA SESION: SE CODIFICA COMO LO
+     * HARIA SU ESCRITOR Y LLEGA AL USUARIO DESPUES DE LA LATENCIA.
+     */
+    @Override
+    public boolean encolar(ChatMessage mensaje, ServerThreadForClient sesion) {
+        try {
+            CodecMensajes.escribir(mensaje, sumidero);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        UsuarioSimulado usuario = usuarios.get(sesion.getSesion() - 1);
+        usuario.ultimaBajada = llegada(usuario.ultimaBajada);
+        programar(usuario.ultimaBajada, () -> usuario.recibir(mensaje));
+        return true;
+    }
+
+    /**
+     * INSTANTE DE LLEGADA DE UNA TRAMA QUE SALE AHORA POR UNA CONEXION.
+     */
+    private long llegada(long anterior) {
+        long latencia = latenciaMinima + (latenciaMaxima > latenciaMinima
+                ? (long) (azar.nextDouble() * (latenciaMaxima - latenciaMinima + 1)) : 0);
+        return Math.max(ahora + latencia, anterior);
+    }
+
+    private long cpu() {
+        return hilos.isCurrentThreadCpuTimeSupported() ? hilos.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    @Override
+    public Transporte getTransporte() {
+        // NO HAY TRANSPORTE DEBAJO: LOS FICHEROS NO SE SIMULAN
+        return null;
+    }
+
+    @Override
+    public LectorTramas getEntrada() {
+        return lector;
+    }
+
+    @Override
+    public OutputStream getSalida() {
+        return sumidero;
+    }
+
+    @Override
+    public String getName() {
+        return "simulacion";
+    }
+
+    /**
+     * @return MILISEGUNDO VIRTUAL ACTUAL
+     */
+    public long getAhora() {
+        return ahora;
+    }
+
+    /**
+     * @return EVENTOS PROCESADOS HASTA AHORA
+     */
+    public long getProcesados() {
+        return procesados;
+    }
+
+    /**
+     * @return EVENTOS QUE QUEDAN PROGRAMADOS
+     */
+    public int getPendientes() {
+        return eventos.size();
+    }
+
+    /**
+     * @return TRAMAS DE LOS USUARIOS PROCESADAS POR EL SERVIDOR
+     */
+    public long getEntrantes() {
+        return entrantes;
+    }
+
+    /**
+     * @return MENSAJES ENTREGADOS A LOS USUARIOS
+     */
+    public long getEntregas() {
+        return entregas;
+    }
+
+    /**
+     * @return BYTES QUE HA CODIFICADO EL SERVIDOR PARA LAS ENTREGAS
+     */
+    public long getBytesSalida() {
+        return sumidero.bytes;
+    }
+
+    /**
+     * @return NANOSEGUNDOS DE CPU DEL SERVIDOR (DECODIFICAR, PROCESAR Y CODIFICAR)
+     */
+    public long getNanosCpuServidor() {
+        return nanosCpuServidor;
+    }
+
+    /**
+     * @return RESUMEN DE TODAS LAS ENTREGAS EN ORDEN: CON LA MISMA SEMILLA SALE IGUAL
+     */
+    public long getHuella() {
+        return huella;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("t=%dms eventos=%d entrantes=%d entregas=%d bytes=%d cpu/entrante=%.1fus huella=%016x",
+                ahora, procesados, entrantes, entregas, sumidero.bytes,
+                entrantes == 0 ? 0 : nanosCpuServidor / 1e3 / entrantes, huella);
+    }
+
+    /**
+     * USUARIO SIMULADO. TODO LO QUE HACE SE PROGRAMA EN LA SIMULACION, Y
+     * SUS METODOS SOLO SE PUEDEN LLAMAR DESDE EL HILO QUE LA EJECUTA.
+     */
+    public final class UsuarioSimulado {
+        private final String nickname;
+        private final int numero;
+        private ServerThreadForClient sesion;
+        private Consumer<ChatMessage> oyente;
+        private long ultimoId;
+        private long ultimaSubida;
+        private long ultimaBajada;
+        private long recibidos;
+
+        private UsuarioSimulado(String nickname, int numero) {
+            this.nickname = nickname;
+            this.numero = numero;
+        }
+
+        /**
+         * ENVIO UN MENSAJE AL SERVIDOR; LLEGA DESPUES DE LA LATENCIA. LOS
+         * MENSAJES NORMALES Y PRIVADOS LLEVAN IDENTIFICADOR COMO LOS DEL
+         * CLIENTE REAL, ASI QUE EL SERVIDOR LOS CONFIRMA.
+         *
+         * @param mensaje MENSAJE A ENVIAR
+         */
+        public void enviar(ChatMessage mensaje) {
+            if (mensaje.getIdMensaje() == 0
+                    && (mensaje.getTipo() == MessageType.MENSAJE || mensaje.getTipo() == MessageType.PRIVADO)) {
+                mensaje = mensaje.conIdMensaje(++ultimoId);
+            }
+            // LA CODIFICACION ES DEL CLIENTE: NO CUENTA COMO CPU DEL SERVIDOR
+            ByteArrayOutputStream trama = new ByteArrayOutputStream(128);
+            try {
+                CodecMensajes.escribir(mensaje, trama);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            byte[] bytes = trama.toByteArray();
+            ultimaSubida = llegada(ultimaSubida);
+            programar(ultimaSubida, () -> llegarAlServidor(this, bytes));
+        }
+
+        /**
+         * @param texto MENSAJE PARA TODOS
+         */
+        public void escribir(String texto) {
+            enviar(new ChatMessage(nickname, texto, MessageType.MENSAJE));
+        }
+
+        /**
+         * @param destinatario NICKNAME DEL DESTINATARIO
+         * @param texto MENSAJE PRIVADO
+         */
+        public void escribirPrivado(String destinatario, String texto) {
+            enviar(new ChatMessage(nickname, texto, MessageType.PRIVADO, destinatario));
+        }
+
+        /**
+         * HAGO LOGOUT.
+         */
+        public void desconectar() {
+            enviar(new ChatMessage(nickname, "desconectandose", MessageType.LOGOUT));
+        }
+
+        /**
+         * @param oyente QUIEN VE CADA MENSAJE QUE LE LLEGA AL USUARIO, PUEDE SER NULL
+         */
+        public void setOyente(Consumer<ChatMessage> oyente) {
+            this.oyente = oyente;
+        }
+
+        private void recibir(ChatMessage mensaje) {
+            recibidos++;
+            entregas++;
+            huella = huella * 31 + numero;
+            huella = huella * 31 + mensaje.getTipo().ordinal();
+            huella = huella * 31 + String.valueOf(mensaje.getRemitente()).hashCode();
+            huella = huella * 31 + String.valueOf(mensaje.getContenido()).hashCode();
+            if (oyente != null) {
+                oyente.accept(mensaje);
+            }
+        }
+
+        /**
+         * @return NICKNAME DEL USUARIO
+         */
+        public String getNickname() {
+            return nickname;
+        }
+
+        /**
+         * @return TRUE SI TIENE SESION ABIERTA EN EL SERVIDOR
+         */
+        public boolean isConectado() {
+            return sesion != null;
+        }
+
+        /**
+         * @return MENSAJES QUE LE HAN LLEGADO
+         */
+        public long getRecibidos() {
+            return recibidos;
+        }
+    }
+
+    /**
+     * ACCION PROGRAMADA EN UN INSTANTE VIRTUAL.
+     */
+    private static class Evento implements Comparable<Evento> {
+        final long instante;
+        final long orden;
+        final Runnable accion;
+
+        Evento(long instante, long orden, Runnable accion) {
+            this.instante = instante;
+            this.orden = orden;
+            this.accion = accion;
+        }
+
+        @Override
+        public int compareTo(Evento otro) {
+            int comparacion = Long.compare(instante, otro.instante);
+            return comparacion != 0 ? comparacion : Long.compare(orden, otro.orden);
+        }
+    }
+
+    /**
+     * FLUJO DEL QUE LEE EL SERVIDOR: DA LA TRAMA QUE SE LE HA PUESTO.
+     */
+    private static class Alimentador extends InputStream {
+        private byte[] datos = new byte[0];
+        private int posicion;
+
+        void poner(byte[] trama) {
+            datos = trama;
+            posicion = 0;
+        }
+
+        @Override
+        public int read() {
+            return posicion < datos.length ? datos[posicion++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (posicion >= datos.length) {
+                return -1;
+            }
+            int leidos = Math.min(len, datos.length - posicion);
+            System.arraycopy(datos, posicion, b, off, leidos);
+            posicion += leidos;
+            return leidos;
+        }
+    }
+
+    /**
+     * FLUJO QUE DESCARTA LO QUE SE ESCRIBE Y SOLO LO CUENTA.
+     */
+    private static class Sumidero extends OutputStream {
+        long bytes;
+
+        @Override
+        public void write(int b) {
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bytes += len;
+        }
+    }
+
+    /**
+     * ESCENARIO SEMBRADO: LOS USUARIOS ENTRAN DURANTE EL PRIMER SEGUNDO,
+     * ESCRIBEN AL AZAR DURANTE DIEZ SEGUNDOS (UNO DE CADA DIEZ MENSAJES
+     * EN PRIVADO) Y SE VAN. EL SERVIDOR TRABAJA EN UN DIRECTORIO TEMPORAL.
+     *
+     * @param args [USUARIOS] [MENSAJES_POR_USUARIO] [SEMILLA]
+     * @throws IOException SI NO SE PUEDE CREAR EL DIRECTORIO DEL SERVIDOR
+     */
+    public static void main(String[] args) throws IOException {
+        int numeroUsuarios = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int mensajesPorUsuario = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        long semilla = args.length > 2 ? Long.parseLong(args[2]) : 1;
+
+        Path directorio = Files.createTempDirectory("simulacion-chat");
+        ChatServerImpl servidor = new ChatServerImpl(directorio);
+        servidor.setTraza(false);
+        SimulacionChat simulacion = new SimulacionChat(servidor, semilla);
+
+        Random escenario = new Random(semilla);
+        List<UsuarioSimulado> todos = new ArrayList<>();
+        for (int i = 0; i < numeroUsuarios; i++) {
+            UsuarioSimulado usuario = simulacion.crearUsuario("u" + i, escenario.nextInt(1000));
+            todos.add(usuario);
+            for (int n = 0; n < mensajesPorUsuario; n++) {
+                long instante = 1000 + escenario.nextInt(10000);
+                if (escenario.nextInt(10) == 0) {
+                    String destino = "u" + escenario.nextInt(numeroUsuarios);
+                    simulacion.programar(instante, () -> usuario.escribirPrivado(destino, "privado " + instante));
+                } else {
+                    simulacion.programar(instante, () -> usuario.escribir("mensaje " + instante));
+                }
+            }
+            simulacion.programar(11000 + escenario.nextInt(1000), usuario::desconectar);
+        }
+
+        long inicio = System.nanoTime();
+        simulacion.ejecutarTodo();
+        long duracion = System.nanoTime() - inicio;
+
+        System.out.println(simulacion);
+        System.out.printf("usuarios=%d tiempo real=%.1fs entregas/s reales=%.0f%n", todos.size(),
+                duracion / 1e9, simulacion.getEntregas() / (duracion / 1e9));
+        servidor.shutdown();
+    }
+}
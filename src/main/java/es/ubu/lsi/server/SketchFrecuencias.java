@@ -0,0 +1,142 @@
+package es.ubu.lsi.server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * SKETCH COUNT-MIN PARA CONTAR CON CUANTA FRECUENCIA APARECE CADA CLAVE
+ * EN UN FLUJO SIN GUARDAR LAS CLAVES. OCUPA SIEMPRE LO MISMO (ANCHO POR
+ * PROFUNDIDAD CONTADORES) AUNQUE PASEN MILLONES DE CLAVES DISTINTAS, Y
+ * LA ESTIMACION NUNCA SE QUEDA POR DEBAJO DE LA CUENTA REAL: COMO MUCHO
+ * SE PASA EN UNA FRACCION DEL TOTAL QUE DEPENDE DEL ANCHO.
+ * SE SUMA CON ACTUALIZACION CONSERVADORA (SOLO SUBEN LAS CELDAS QUE
+ * ESTAN EN EL MINIMO), QUE REDUCE MUCHO ESE ERROR, Y SIN CERROJOS, ASI
+ * QUE LOS HILOS DE LOS CLIENTES PUEDEN SUMAR A LA VEZ.
+ *
+ * @author MARIO FLORES
+ * @version 1.0
+ * @since MARZO 2025
+ */
+public class SketchFrecuencias {
+
+    /** CONTADORES POR FILA POR DEFECTO */
+    public static final int ANCHO = 2048;
+
+    /** FILAS (FUNCIONES HASH) POR DEFECTO */
+    public static final int PROFUNDIDAD = 4;
+
+    /** FILAS SEGUIDAS EN UN SOLO ARRAY: LA CELDA J DE LA FILA I ES I * ANCHO + J */
+    private final AtomicLongArray celdas;
+
+    /** MASCARA PARA QUEDARSE CON UNA COLUMNA (EL ANCHO ES POTENCIA DE DOS) */
+    private final int mascara;
+
+    private final int ancho;
+    private final int profundidad;
+
+    /**
+     * CONSTRUCTOR CON EL TAMAÑO POR DEFECTO (64 KB).
+     */
+    public SketchFrecuencias() {
+        this(ANCHO, PROFUNDIDAD);
+    }
+
+    /**
+     * CONSTRUCTOR.
+     *
+     * @param ancho CONTADORES POR FILA, POTENCIA DE DOS
+     * @param profundidad NUMERO DE FILAS
+     */
+    public SketchFrecuencias(int ancho, int profundidad) {
+        if (ancho < 2 || Integer.bitCount(ancho) != 1 || profundidad < 1) {
+            throw new IllegalArgumentException("EL ANCHO DEBE SER POTENCIA DE DOS Y HABER AL MENOS UNA FILA");
+        }
+        this.ancho = ancho;
+        this.profundidad = profundidad;
+        this.mascara = ancho - 1;
+        this.celdas = new AtomicLongArray(ancho * profundidad);
+    }
+
+    /**
+     * SUMO UNA APARICION DE LA CLAVE.
+     *
+     * @param clave HASH DE 64 BITS DE LO QUE SE CUENTA
+     * @return ESTIMACION DE LA CUENTA DESPUES DE SUMAR
+     */
+    public long sumar(long clave) {
+        long nueva = estimar(clave) + 1;
+        // ACTUALIZACION CONSERVADORA: NINGUNA CELDA TIENE QUE PASAR DE LA NUEVA ESTIMACION
+        for (int fila = 0; fila < profundidad; fila++) {
+            celdas.accumulateAndGet(celda(clave, fila), nueva, Math::max);
+        }
+        return nueva;
+    }
+
+    /**
+     * @param clave HASH DE 64 BITS DE LO QUE SE CUENTA
+     * @return ESTIMACION DE CUANTAS VECES HA APARECIDO (NUNCA MENOS DE LAS REALES)
+     */
+    public long estimar(long clave) {
+        long minimo = Long.MAX_VALUE;
+        for (int fila = 0; fila < profundidad; fila++) {
+            minimo = Math.min(minimo, celdas.get(celda(clave, fila)));
+        }
+        return minimo;
+    }
+
+    /**
+     * DIVIDO TODOS LOS CONTADORES ENTRE DOS, PARA QUE LO ANTIGUO PESE
+     * CADA VEZ MENOS. SI A LA VEZ SE ESTA SUMANDO, ALGUNA SUMA PUEDE
+     * PERDERSE, QUE EN UNA ESTIMACION NO IMPORTA.
+     */
+    public void envejecer() {
+        for (int i = 0; i < celdas.length(); i++) {
+            celdas.getAndUpdate(i, cuenta -> cuenta >> 1);
+        }
+    }
+
+    /**
+     * @return BYTES QUE OCUPAN LOS CONTADORES
+     */
+    public long getBytes() {
+        return (long) celdas.length() * Long.BYTES;
+    }
+
+    /**
+     * CELDA DE UNA CLAVE EN UNA FILA. CADA FILA USA UN HASH DISTINTO
+     * SACADO DE LAS DOS MITADES DE LA CLAVE (DOBLE HASHING).
+     */
+    private int celda(long clave, int fila) {
+        int h1 = (int) clave;
+        int h2 = (int) (clave >>> 32) | 1;
+        return fila * ancho + ((h1 + fila * h2) & mascara);
+    }
+
+    /**
+     * HASH DE 64 BITS DE UN TEXTO (FNV-1A CON UNA MEZCLA FINAL PARA QUE
+     * LOS BITS BAJOS Y ALTOS SALGAN BIEN REPARTIDOS).
+     *
+     * @param texto TEXTO A RESUMIR
+     * @param semilla VALOR DISTINTO PARA CADA TIPO DE CLAVE
+     * @param normalizar SI SE IGNORAN MAYUSCULAS Y ESPACIOS
+     * @return HASH DEL TEXTO
+     */
+    public static long hash(String texto, long semilla, boolean normalizar) {
+        long h = 0xcbf29ce484222325L ^ semilla;
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            if (normalizar) {
+                if (Character.isWhitespace(c)) {
+                    continue;
+                }
+                c = Character.toLowerCase(c);
+            }
+            h = (h ^ c) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
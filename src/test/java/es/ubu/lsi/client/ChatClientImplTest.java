@@ -0,0 +1,109 @@
+package es.ubu.lsi.client;
+
+import es.ubu.lsi.common.ChatMessage;
+import es.ubu.lsi.common.CodecMensajes;
+import es.ubu.lsi.common.LectorTramas;
+import es.ubu.lsi.common.MessageType;
+import es.ubu.lsi.common.TransporteMemoria;
+import junit.framework.TestCase;
+
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PRUEBAS DEL CLIENTE CONTRA UN SERVIDOR FALSO EN MEMORIA.
+ */
+public class ChatClientImplTest extends TestCase {
+
+    /**
+     * UN LISTENER QUE CONTESTA SIN CREDITO NO BLOQUEA AL RECEPTOR: LA
+     * RESPUESTA SE RETIENE Y SALE CON LA SIGUIENTE CONCESION.
+     */
+    public void testRespuestaDelListenerSinCredito() throws Exception {
+        TransporteMemoria[] par = TransporteMemoria.crearPar("credito");
+        ChatClientImpl cliente = new ChatClientImpl("ana");
+        CountDownLatch contestado = new CountDownLatch(1);
+        cliente.setListener(mensaje -> {
+            if ("luis".equals(mensaje.getRemitente())) {
+                cliente.enviarMensaje(new ChatMessage("ana", "respuesta", MessageType.MENSAJE));
+                contestado.countDown();
+            }
+        });
+        cliente.conectar(par[0]);
+
+        LectorTramas servidor = new LectorTramas(par[1].getEntrada());
+        assertEquals(MessageType.LOGIN, servidor.leer().getTipo());
+
+        OutputStream salida = par[1].getSalida();
+        CodecMensajes.escribir(credito(0), salida);
+        CodecMensajes.escribir(new ChatMessage("luis", "hola", MessageType.MENSAJE), salida);
+        salida.flush();
+        assertTrue("EL RECEPTOR SE HA QUEDADO ESPERANDO CREDITO", contestado.await(5, TimeUnit.SECONDS));
+        assertEquals(0, par[1].getPendientes());
+
+        CodecMensajes.escribir(credito(1), salida);
+        salida.flush();
+        ChatMessage respuesta = servidor.leer();
+        assertEquals(MessageType.MENSAJE, respuesta.getTipo());
+        assertEquals("respuesta", respuesta.getContenido());
+        assertEquals(0, cliente.getCredito());
+        cliente.desconectar();
+    }
+
+    /**
+     * AL VOLVER, LO QUE SE DESBLOQUEO O BLOQUEO SIN CONEXION SE LE MANDA AL
+     * SERVIDOR AUNQUE SU LISTA ESTE VACIA, Y NO SE RECUPERA LO DESBLOQUEADO.
+     */
+    public void testBloqueosSinConexion() throws Exception {
+        ChatClientImpl cliente = new ChatClientImpl("ana");
+        LectorTramas servidor = entrar(cliente, "luis");
+        long limite = System.currentTimeMillis() + 5000;
+        while (!cliente.estaUsuarioBloqueado("luis") && System.currentTimeMillis() < limite) {
+            Thread.sleep(10);
+        }
+        assertTrue(cliente.estaUsuarioBloqueado("luis"));
+        cliente.desconectar();
+        // DEJO TERMINAR AL RECEPTOR DE LA CONEXION ANTERIOR ANTES DE VOLVER
+        Thread.sleep(200);
+
+        cliente.desbloquearUsuario("luis");
+        cliente.bloquearUsuario("eva");
+        servidor = entrar(cliente, "luis");
+        ChatMessage primero = servidor.leer();
+        ChatMessage segundo = servidor.leer();
+        assertEquals(MessageType.BAN, primero.getTipo());
+        assertEquals("eva", primero.getDestinatario());
+        assertEquals(MessageType.UNBAN, segundo.getTipo());
+        assertEquals("luis", segundo.getDestinatario());
+        assertFalse(cliente.estaUsuarioBloqueado("luis"));
+        cliente.desconectar();
+
+        // SIN NADA GUARDADO EN EL SERVIDOR, EL BLOQUEO LOCAL SE VUELVE A MANDAR
+        ChatClientImpl nuevo = new ChatClientImpl("eva");
+        nuevo.bloquearUsuario("ana");
+        servidor = entrar(nuevo, "");
+        ChatMessage ban = servidor.leer();
+        assertEquals(MessageType.BAN, ban.getTipo());
+        assertEquals("ana", ban.getDestinatario());
+        nuevo.desconectar();
+    }
+
+    /**
+     * CONECTO EL CLIENTE A UN SERVIDOR FALSO QUE LE DEVUELVE SUS BLOQUEOS.
+     */
+    private static LectorTramas entrar(ChatClientImpl cliente, String bloqueos) throws Exception {
+        TransporteMemoria[] par = TransporteMemoria.crearPar("bloqueos");
+        cliente.conectar(par[0]);
+        LectorTramas servidor = new LectorTramas(par[1].getEntrada());
+        assertEquals(MessageType.LOGIN, servidor.leer().getTipo());
+        OutputStream salida = par[1].getSalida();
+        CodecMensajes.escribir(new ChatMessage(ChatMessage.SERVIDOR, bloqueos, MessageType.BAN, "ana"), salida);
+        salida.flush();
+        return servidor;
+    }
+
+    private static ChatMessage credito(int concedido) {
+        return new ChatMessage(ChatMessage.SERVIDOR, String.valueOf(concedido), MessageType.CREDITO);
+    }
+}
@@ -0,0 +1,93 @@
+package es.ubu.lsi.client;
+
+import es.ubu.lsi.common.ChatMessage;
+import es.ubu.lsi.common.MessageType;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * PRUEBAS DE LA PANTALLA POR LOTES DEL CLIENTE DE CONSOLA.
+ */
+public class PantallaConsolaTest extends TestCase {
+
+    /**
+     * UN REFRESCO PINTA TODO LO PENDIENTE DE UNA VEZ Y CON EL FORMATO DE SIEMPRE.
+     */
+    public void testRefrescoPorLotes() throws Exception {
+        ByteArrayOutputStream consola = new ByteArrayOutputStream();
+        PantallaConsola pantalla = new PantallaConsola(consola, 0, 10);
+        assertFalse(pantalla.refrescar());
+
+        pantalla.onMensajeRecibido(new ChatMessage("ana", "hola", MessageType.MENSAJE));
+        pantalla.onMensajeRecibido(new ChatMessage("luis", "secreto", MessageType.PRIVADO, "ana"));
+        assertEquals(0, consola.size());
+        assertTrue(pantalla.refrescar());
+
+        String fin = System.lineSeparator();
+        assertEquals("MARIO FLORES PATROCINA EL MENSAJE:" + fin + "[ana]: hola" + fin
+                + "MARIO FLORES PATROCINA EL MENSAJE:" + fin + "[PRIVADO de luis]: secreto" + fin,
+                consola.toString());
+        assertFalse(pantalla.refrescar());
+    }
+
+    /**
+     * UNA RAFAGA MAYOR QUE EL REFRESCO SE RESUME Y SE QUEDAN LOS MAS RECIENTES.
+     */
+    public void testRafagaResumida() throws Exception {
+        ByteArrayOutputStream consola = new ByteArrayOutputStream();
+        PantallaConsola pantalla = new PantallaConsola(consola, 0, 3);
+        for (int i = 0; i < 100; i++) {
+            pantalla.onMensajeRecibido(new ChatMessage("ana", "m" + i, MessageType.MENSAJE));
+        }
+        pantalla.refrescar();
+
+        String texto = consola.toString();
+        assertTrue(texto, texto.startsWith("... +97 MENSAJES MAS"));
+        assertFalse(texto, texto.contains("[ana]: m96" + System.lineSeparator()));
+        assertTrue(texto, texto.contains("[ana]: m97") && texto.contains("[ana]: m99"));
+        assertEquals(97, pantalla.getOmitidos());
+    }
+
+    /**
+     * CON LA CONSOLA ATASCADA EL RECEPTOR SIGUE ENTREGANDO SIN ESPERAR.
+     */
+    public void testConsolaAtascadaNoFrenaAlReceptor() throws Exception {
+        CountDownLatch soltar = new CountDownLatch(1);
+        OutputStream atascada = new OutputStream() {
+            @Override
+            public void write(int b) {
+                esperar();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                esperar();
+            }
+
+            private void esperar() {
+                try {
+                    soltar.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        PantallaConsola pantalla = new PantallaConsola(atascada, 10, 50);
+        pantalla.iniciar();
+        try {
+            long inicio = System.nanoTime();
+            for (int i = 0; i < 100000; i++) {
+                pantalla.onMensajeRecibido(new ChatMessage("ana", "m" + i, MessageType.MENSAJE));
+            }
+            long ms = (System.nanoTime() - inicio) / 1_000_000;
+            assertTrue("EL RECEPTOR HA TARDADO " + ms + " MS", ms < 2000);
+            assertTrue(pantalla.getOmitidos() > 99000);
+        } finally {
+            soltar.countDown();
+            pantalla.close();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package es.ubu.lsi.client;
+
+import es.ubu.lsi.common.ChatMessage;
+import es.ubu.lsi.common.MessageType;
+import junit.framework.TestCase;
+
+import java.io.EOFException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * PRUEBAS DE LA DEMANDA DEL PUBLICADOR DE MENSAJES RECIBIDOS.
+ */
+public class PublicadorMensajesTest extends TestCase {
+
+    /**
+     * SUSCRIPTOR QUE APUNTA TODO LO QUE LE LLEGA Y NO PIDE NADA SOLO.
+     */
+    private static class Apuntador implements Flow.Subscriber<ChatMessage> {
+        final List<ChatMessage> recibidos = new CopyOnWriteArrayList<>();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        volatile Flow.Subscription suscripcion;
+        volatile boolean completado;
+
+        public void onSubscribe(Flow.Subscription suscripcion) {
+            this.suscripcion = suscripcion;
+        }
+
+        public void onNext(ChatMessage mensaje) {
+            recibidos.add(mensaje);
+        }
+
+        public void onError(Throwable error) {
+            this.error.set(error);
+        }
+
+        public void onComplete() {
+            completado = true;
+        }
+    }
+
+    /**
+     * EL HILO QUE PUBLICA SE QUEDA ESPERANDO HASTA QUE EL SUSCRIPTOR PIDE.
+     */
+    public void testPublicarEsperaALaDemanda() throws Exception {
+        PublicadorMensajes publicador = new PublicadorMensajes();
+        Apuntador apuntador = new Apuntador();
+        publicador.subscribe(apuntador);
+
+        Thread receptor = new Thread(() -> {
+            try {
+                for (int i = 0; i < 3; i++) {
+                    publicador.publicar(new ChatMessage("ana", "m" + i, MessageType.MENSAJE));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        receptor.start();
+
+        receptor.join(200);
+        assertTrue(receptor.isAlive());
+        assertTrue(apuntador.recibidos.isEmpty());
+
+        apuntador.suscripcion.request(2);
+        receptor.join(200);
+        assertTrue(receptor.isAlive());
+        assertEquals(2, apuntador.recibidos.size());
+
+        apuntador.suscripcion.request(1);
+        receptor.join(TimeUnit.SECONDS.toMillis(5));
+        assertFalse(receptor.isAlive());
+        assertEquals("m2", apuntador.recibidos.get(2).getContenido());
+    }
+
+    /**
+     * AL TERMINAR SE AVISA DEL FINAL O DEL ERROR, Y SE ADMITE OTRO SUSCRIPTOR.
+     */
+    public void testTerminarAvisaYLiberaLaSuscripcion() throws Exception {
+        PublicadorMensajes publicador = new PublicadorMensajes();
+        Apuntador primero = new Apuntador();
+        publicador.subscribe(primero);
+
+        Apuntador segundo = new Apuntador();
+        publicador.subscribe(segundo);
+        assertTrue(segundo.error.get() instanceof IllegalStateException);
+
+        publicador.terminar(null);
+        assertTrue(primero.completado);
+        assertFalse(publicador.tieneSuscriptor());
+
+        Apuntador tercero = new Apuntador();
+        publicador.subscribe(tercero);
+        assertTrue(publicador.tieneSuscriptor());
+        publicador.terminar(new EOFException());
+        assertTrue(tercero.error.get() instanceof EOFException);
+        assertFalse(tercero.completado);
+    }
+
+    /**
+     * PEDIR CERO MENSAJES CANCELA LA SUSCRIPCION CON UN ERROR.
+     */
+    public void testDemandaNoPositiva() throws Exception {
+        PublicadorMensajes publicador = new PublicadorMensajes();
+        Apuntador apuntador = new Apuntador();
+        publicador.subscribe(apuntador);
+        apuntador.suscripcion.request(0);
+        assertTrue(apuntador.error.get() instanceof IllegalArgumentException);
+        assertFalse(publicador.tieneSuscriptor());
+    }
+}
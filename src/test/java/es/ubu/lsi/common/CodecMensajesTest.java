@@ -0,0 +1,231 @@
+package es.ubu.lsi.common;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * PRUEBAS DE LA CODIFICACION DE MENSAJES EN TRAMAS.
+ */
+public class CodecMensajesTest extends TestCase {
+
+    /**
+     * VARIOS MENSAJES SEGUIDOS SE LEEN IGUAL QUE SE ESCRIBIERON.
+     */
+    public void testIdaYVuelta() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CodecMensajes.escribir(new ChatMessage("ana", "hola", MessageType.MENSAJE), bytes);
+        CodecMensajes.escribir(new ChatMessage("ana", "adios", MessageType.PRIVADO, "luis", 42), bytes);
+
+        LectorTramas lector = new LectorTramas(new ByteArrayInputStream(bytes.toByteArray()));
+        ChatMessage primero = lector.leer();
+        ChatMessage segundo = lector.leer();
+        assertEquals("hola", primero.getContenido());
+        assertEquals(MessageType.MENSAJE, primero.getTipo());
+        assertEquals("luis", segundo.getDestinatario());
+        assertEquals(42, segundo.getIdMensaje());
+        assertNull(lector.leer());
+    }
+
+    /**
+     * LA CONFIRMACION HECHA CON LA PLANTILLA ES IGUAL QUE SERIALIZARLA.
+     */
+    public void testConfirmacionDesdePlantilla() throws Exception {
+        long id = 0x0123456789ABCDEFL;
+        byte[] plantilla = ChatMessage.confirmacion(id).getTrama();
+        byte[] serializada = CodecMensajes.codificar(
+                new ChatMessage(ChatMessage.SERVIDOR, null, MessageType.ACK, null, id));
+        assertTrue(Arrays.equals(serializada, plantilla));
+
+        ChatMessage leida = new LectorTramas(new ByteArrayInputStream(plantilla)).leer();
+        assertEquals(MessageType.ACK, leida.getTipo());
+        assertEquals(id, leida.getIdMensaje());
+    }
+
+    /**
+     * LOS NICKNAMES DE MENSAJES DISTINTOS SON LA MISMA INSTANCIA AL LEERLOS.
+     */
+    public void testNombresInternados() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CodecMensajes.escribir(new ChatMessage(new String("eva"), "uno", MessageType.MENSAJE), bytes);
+        CodecMensajes.escribir(new ChatMessage(new String("eva"), "dos", MessageType.MENSAJE), bytes);
+
+        LectorTramas lector = new LectorTramas(new ByteArrayInputStream(bytes.toByteArray()));
+        assertSame(lector.leer().getRemitente(), lector.leer().getRemitente());
+    }
+
+    /**
+     * UNA LONGITUD IMPOSIBLE SE RECHAZA SIN INTENTAR LEER LA TRAMA.
+     */
+    public void testLongitudNoValida() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new DataOutputStream(bytes).writeInt(CodecMensajes.MAXIMO_TRAMA + 1);
+        try {
+            new LectorTramas(new ByteArrayInputStream(bytes.toByteArray())).leer();
+            fail("DEBERIA RECHAZAR LA TRAMA");
+        } catch (StreamCorruptedException e) {
+            // ESPERADO
+        }
+    }
+
+    /**
+     * CON UN MAXIMO MAS BAJO, UNA TRAMA MAYOR SE RECHAZA CON SOLO LEER SU LONGITUD
+     * Y SE CUENTA EN LA CONEXION.
+     */
+    public void testMaximoPropio() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CodecMensajes.escribir(new ChatMessage("ana", "corto", MessageType.MENSAJE), bytes);
+        // SOLO LA LONGITUD: SI EL LECTOR INTENTASE LEER LA TRAMA SE QUEDARIA SIN DATOS
+        new DataOutputStream(bytes).writeInt(4096);
+
+        LectorTramas lector = new LectorTramas(new ByteArrayInputStream(bytes.toByteArray()), 1024);
+        assertEquals("corto", lector.leer().getContenido());
+        assertEquals(0, lector.getRechazadas());
+        try {
+            lector.leer();
+            fail("DEBERIA RECHAZAR LA TRAMA");
+        } catch (StreamCorruptedException e) {
+            // ESPERADO
+        }
+        assertEquals(1, lector.getRechazadas());
+    }
+
+    /**
+     * EL DESERIALIZADOR SOLO ADMITE UN MENSAJE: OTRAS CLASES O UNA CADENA SUELTA SE RECHAZAN.
+     */
+    public void testSoloMensajes() throws Exception {
+        LectorTramas lector = new LectorTramas(new ByteArrayInputStream(tramaDe(new ArrayList<>(Arrays.asList("a", "b")))));
+        try {
+            lector.leer();
+            fail("DEBERIA RECHAZAR LA CLASE");
+        } catch (InvalidClassException e) {
+            // ESPERADO
+        }
+        assertEquals(1, lector.getRechazadas());
+
+        lector = new LectorTramas(new ByteArrayInputStream(tramaDe("hola")));
+        try {
+            lector.leer();
+            fail("DEBERIA RECHAZAR LA CADENA");
+        } catch (StreamCorruptedException e) {
+            // ESPERADO
+        }
+        assertEquals(1, lector.getRechazadas());
+
+        // UNA CLASE QUE NO EXISTE TAMBIEN CUENTA COMO RECHAZADA
+        byte[] trama = tramaDe(new ChatMessage("ana", "hola", MessageType.MENSAJE));
+        String original = new String(trama, "ISO-8859-1");
+        int posicion = original.indexOf("ChatMessage") + "ChatMessage".length() - 1;
+        trama[posicion] = 'X';
+        lector = new LectorTramas(new ByteArrayInputStream(trama));
+        try {
+            lector.leer();
+            fail("DEBERIA RECHAZAR LA CLASE DESCONOCIDA");
+        } catch (ClassNotFoundException e) {
+            // ESPERADO
+        }
+        assertEquals(1, lector.getRechazadas());
+    }
+
+    /**
+     * LAS TRAMAS DE PASARELA LLEVAN SU SESION O SUS EXCLUIDAS, Y LA
+     * ETIQUETA NO SE ARRASTRA A LA SIGUIENTE TRAMA.
+     */
+    public void testTramasDePasarela() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CodecMensajes.escribirCabeceraSesion(7, bytes);
+        CodecMensajes.escribir(new ChatMessage("ana", "hola", MessageType.MENSAJE), bytes);
+        CodecMensajes.escribirCabeceraSesion(9, bytes);
+        CodecMensajes.escribirCabeceraFragmento(5, 3, bytes);
+        bytes.write(new byte[]{1, 2, 3});
+        CodecMensajes.escribirCabeceraDifusion(new int[]{4, 12}, bytes);
+        CodecMensajes.escribir(new ChatMessage("luis", "a todos", MessageType.MENSAJE), bytes);
+        CodecMensajes.escribir(ChatMessage.sistema("sin etiqueta"), bytes);
+
+        LectorTramas lector = new LectorTramas(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals("hola", lector.leer().getContenido());
+        assertEquals(7, lector.getSesion());
+        assertFalse(lector.isDifusion());
+
+        ChatMessage trozo = lector.leer();
+        assertEquals(MessageType.FRAGMENTO_FICHERO, trozo.getTipo());
+        assertEquals(9, lector.getSesion());
+        assertEquals(3, lector.getLongitudFragmento());
+
+        // EL TROZO NO SE HA COPIADO: EL LECTOR SE LO SALTA
+        assertEquals("a todos", lector.leer().getContenido());
+        assertTrue(lector.isDifusion());
+        assertEquals(0, lector.getSesion());
+        assertTrue(Arrays.equals(new int[]{4, 12}, lector.getExcluidas()));
+
+        assertEquals("sin etiqueta", lector.leer().getContenido());
+        assertEquals(0, lector.getSesion());
+        assertFalse(lector.isDifusion());
+    }
+
+    /**
+     * UNA ETIQUETA DE SESION NO PUEDE ENVOLVER A OTRA.
+     */
+    public void testSesionAnidada() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CodecMensajes.escribirCabeceraSesion(1, bytes);
+        CodecMensajes.escribirCabeceraSesion(2, bytes);
+        CodecMensajes.escribir(new ChatMessage("ana", "hola", MessageType.MENSAJE), bytes);
+        try {
+            new LectorTramas(new ByteArrayInputStream(bytes.toByteArray())).leer();
+            fail("DEBERIA RECHAZAR LA TRAMA");
+        } catch (StreamCorruptedException e) {
+            // ESPERADO
+        }
+    }
+
+    /**
+     * ESCRIBIR UN MENSAJE YA CODIFICADO EN MUCHAS CONEXIONES NO RESERVA MEMORIA.
+     */
+    public void testDifusionSinReservas() throws Exception {
+        ChatMessage mensaje = new ChatMessage("ana", "para todos", MessageType.MENSAJE);
+        OutputStream sumidero = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+        CodecMensajes.preparar(mensaje);
+        for (int i = 0; i < 10000; i++) {
+            CodecMensajes.escribir(mensaje, sumidero);
+        }
+
+        com.sun.management.ThreadMXBean hilos =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        long antes = hilos.getThreadAllocatedBytes(id);
+        for (int i = 0; i < 100000; i++) {
+            CodecMensajes.escribir(mensaje, sumidero);
+        }
+        long reservados = hilos.getThreadAllocatedBytes(id) - antes;
+        assertTrue("RESERVADOS " + reservados + " BYTES", reservados < 100000);
+    }
+
+    private static byte[] tramaDe(Object objeto) throws Exception {
+        ByteArrayOutputStream serializado = new ByteArrayOutputStream();
+        try (ObjectOutputStream salida = new ObjectOutputStream(serializado)) {
+            salida.writeObject(objeto);
+        }
+        ByteArrayOutputStream trama = new ByteArrayOutputStream();
+        new DataOutputStream(trama).writeInt(serializado.size());
+        serializado.writeTo(trama);
+        return trama.toByteArray();
+    }
+}
@@ -0,0 +1,67 @@
+package es.ubu.lsi.common;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * PRUEBAS DEL TRANSPORTE EN MEMORIA.
+ */
+public class TransporteMemoriaTest extends TestCase {
+
+    /**
+     * LAS TRAMAS PASAN DE UN EXTREMO AL OTRO EN LOS DOS SENTIDOS.
+     */
+    public void testIdaYVuelta() throws Exception {
+        TransporteMemoria[] par = TransporteMemoria.crearPar("prueba");
+        CodecMensajes.escribir(new ChatMessage("ana", "hola", MessageType.MENSAJE), par[0].getSalida());
+        ChatMessage leido = new LectorTramas(par[1].getEntrada()).leer();
+        assertEquals("hola", leido.getContenido());
+
+        CodecMensajes.escribir(ChatMessage.sistema("bienvenida"), par[1].getSalida());
+        assertEquals("bienvenida", new LectorTramas(par[0].getEntrada()).leer().getContenido());
+        assertEquals("memoria:prueba", par[1].getDescripcion());
+    }
+
+    /**
+     * SI NADIE LEE, EL QUE ESCRIBE ESPERA; AL CERRAR, EL OTRO LEE LO
+     * QUE QUEDABA, DESPUES FIN DEL FLUJO, Y YA NO PUEDE ESCRIBIR.
+     */
+    public void testEsperaYCierre() throws Exception {
+        TransporteMemoria[] par = TransporteMemoria.crearPar("lleno", 16);
+        OutputStream salida = par[0].getSalida();
+        Thread escritor = new Thread(() -> {
+            try {
+                salida.write(new byte[40]);
+            } catch (IOException e) {
+                // NO DEBE PASAR: EL LECTOR VA VACIANDO
+            }
+        });
+        escritor.start();
+        escritor.join(200);
+        assertTrue(escritor.isAlive());
+        assertEquals(16, par[1].getPendientes());
+
+        InputStream entrada = par[1].getEntrada();
+        byte[] buffer = new byte[64];
+        int total = 0;
+        while (total < 40) {
+            total += entrada.read(buffer, 0, buffer.length);
+        }
+        escritor.join(5000);
+        assertFalse(escritor.isAlive());
+
+        salida.write(7);
+        par[0].close();
+        assertEquals(7, entrada.read());
+        assertEquals(-1, entrada.read());
+        try {
+            par[1].getSalida().write(1);
+            fail("NO SE PUEDE ESCRIBIR EN UNA CONEXION CERRADA");
+        } catch (IOException e) {
+            // ESPERADO
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package es.ubu.lsi.common;
+
+import junit.framework.TestCase;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * PRUEBAS DEL TRANSPORTE TLS CON UN CERTIFICADO AUTOFIRMADO EN LOOPBACK.
+ */
+public class TransporteTlsTest extends TestCase {
+
+    private static final char[] CLAVE = "secreto".toCharArray();
+
+    private Path directorio;
+    private Path almacen;
+
+    @Override
+    protected void setUp() throws Exception {
+        directorio = Files.createTempDirectory("tls");
+        almacen = directorio.resolve("servidor.p12");
+
+        // GENERO EL CERTIFICADO AUTOFIRMADO CON EL KEYTOOL DE LA JDK
+        String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+        Process proceso = new ProcessBuilder(keytool, "-genkeypair", "-alias", "chat",
+                "-keyalg", "RSA", "-keysize", "2048", "-validity", "1",
+                "-dname", "CN=localhost", "-storetype", "PKCS12",
+                "-keystore", almacen.toString(), "-storepass", new String(CLAVE))
+                .redirectErrorStream(true).start();
+        assertEquals(0, proceso.waitFor());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Files.deleteIfExists(almacen);
+        Files.deleteIfExists(directorio);
+    }
+
+    /**
+     * LA SEGUNDA CONEXION DEL MISMO CLIENTE REANUDA LA SESION.
+     */
+    public void testReconexionReanudaSesion() throws Exception {
+        final ContextoTls tlsServidor = ContextoTls.paraServidor(almacen, CLAVE);
+        ContextoTls tlsCliente = ContextoTls.paraCliente(almacen, CLAVE);
+
+        final ServerSocketChannel escucha = ServerSocketChannel.open();
+        escucha.bind(new InetSocketAddress("localhost", 0));
+        int puerto = ((InetSocketAddress) escucha.getLocalAddress()).getPort();
+
+        // SERVIDOR DE ECO QUE ATIENDE DOS CONEXIONES
+        Thread servidor = new Thread(() -> {
+            try {
+                for (int i = 0; i < 2; i++) {
+                    try (TransporteTls transporte = new TransporteTls(escucha.accept(), tlsServidor, null, 0)) {
+                        transporte.iniciar();
+                        DataInputStream in = new DataInputStream(transporte.getEntrada());
+                        DataOutputStream out = new DataOutputStream(transporte.getSalida());
+                        out.writeUTF(in.readUTF());
+                        out.flush();
+                        in.read();
+                    }
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        servidor.start();
+
+        for (int i = 0; i < 2; i++) {
+            SocketChannel canal = SocketChannel.open(new InetSocketAddress("localhost", puerto));
+            try (TransporteTls transporte = new TransporteTls(canal, tlsCliente, "localhost", puerto)) {
+                transporte.iniciar();
+                DataOutputStream out = new DataOutputStream(transporte.getSalida());
+                out.writeUTF("hola " + i);
+                out.flush();
+                assertEquals("hola " + i, new DataInputStream(transporte.getEntrada()).readUTF());
+            }
+            Thread.sleep(20);
+        }
+
+        servidor.join(5000);
+        escucha.close();
+
+        MetricasTls metricas = tlsServidor.getMetricas();
+        assertEquals(2, metricas.getHandshakes());
+        assertEquals(1, metricas.getReanudados());
+        assertEquals(0.5, metricas.getRatioReanudacion(), 0.0001);
+        assertEquals(1, tlsCliente.getMetricas().getReanudados());
+    }
+
+    /**
+     * LOS MENSAJES GRANDES SE PARTEN EN VARIOS REGISTROS TLS.
+     */
+    public void testMensajeMayorQueUnRegistro() throws Exception {
+        final ContextoTls tlsServidor = ContextoTls.paraServidor(almacen, CLAVE);
+        ContextoTls tlsCliente = ContextoTls.paraCliente(almacen, CLAVE);
+
+        final ServerSocketChannel escucha = ServerSocketChannel.open();
+        escucha.bind(new InetSocketAddress("localhost", 0));
+        int puerto = ((InetSocketAddress) escucha.getLocalAddress()).getPort();
+
+        final byte[] recibido = new byte[100000];
+        Thread servidor = new Thread(() -> {
+            try (TransporteTls transporte = new TransporteTls(escucha.accept(), tlsServidor, null, 0)) {
+                transporte.iniciar();
+                new DataInputStream(transporte.getEntrada()).readFully(recibido);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        servidor.start();
+
+        byte[] enviado = new byte[recibido.length];
+        for (int i = 0; i < enviado.length; i++) {
+            enviado[i] = (byte) i;
+        }
+        SocketChannel canal = SocketChannel.open(new InetSocketAddress("localhost", puerto));
+        try (TransporteTls transporte = new TransporteTls(canal, tlsCliente, "localhost", puerto)) {
+            transporte.iniciar();
+            transporte.getSalida().write(enviado);
+            servidor.join(5000);
+        }
+        escucha.close();
+
+        assertTrue(java.util.Arrays.equals(enviado, recibido));
+    }
+}
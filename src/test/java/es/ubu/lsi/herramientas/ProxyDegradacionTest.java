@@ -0,0 +1,128 @@
+package es.ubu.lsi.herramientas;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * PRUEBAS DEL PROXY QUE DEGRADA LA RED, CONTRA UN SERVIDOR DE ECO.
+ */
+public class ProxyDegradacionTest extends TestCase {
+
+    private ServerSocket eco;
+    private ProxyDegradacion proxy;
+
+    @Override
+    protected void setUp() throws IOException {
+        eco = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread hilo = new Thread(() -> {
+            while (true) {
+                try {
+                    Socket s = eco.accept();
+                    Thread copia = new Thread(() -> {
+                        try {
+                            InputStream entrada = s.getInputStream();
+                            OutputStream salida = s.getOutputStream();
+                            byte[] buffer = new byte[4096];
+                            int n;
+                            while ((n = entrada.read(buffer)) >= 0) {
+                                salida.write(buffer, 0, n);
+                            }
+                            s.close();
+                        } catch (IOException e) {
+                            // EL PROXY CORTO LA CONEXION
+                        }
+                    });
+                    copia.setDaemon(true);
+                    copia.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        hilo.setDaemon(true);
+        hilo.start();
+        proxy = new ProxyDegradacion(0, "localhost", eco.getLocalPort());
+        proxy.iniciar();
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        proxy.close();
+        eco.close();
+    }
+
+    /**
+     * LA LATENCIA SE APLICA EN CADA SENTIDO Y LOS BYTES LLEGAN EN ORDEN.
+     */
+    public void testLatenciaEnLosDosSentidos() throws IOException {
+        proxy.setPerfil(ProxyDegradacion.Perfil.leer("latencia=100,jitter=20"));
+        try (Socket s = new Socket(InetAddress.getLoopbackAddress(), proxy.getPuerto())) {
+            long inicio = System.nanoTime();
+            for (int i = 0; i < 50; i++) {
+                s.getOutputStream().write(i);
+            }
+            for (int i = 0; i < 50; i++) {
+                assertEquals(i, s.getInputStream().read());
+            }
+            long ms = (System.nanoTime() - inicio) / 1_000_000;
+            assertTrue("IDA Y VUELTA DEMASIADO RAPIDA: " + ms, ms >= 160);
+        }
+    }
+
+    /**
+     * EL ANCHO DE BANDA LIMITA LO QUE TARDA UN BLOQUE GRANDE.
+     */
+    public void testAnchoDeBanda() throws IOException {
+        proxy.setPerfil(ProxyDegradacion.Perfil.leer("ancho=32k"));
+        try (Socket s = new Socket(InetAddress.getLoopbackAddress(), proxy.getPuerto())) {
+            byte[] datos = new byte[16 * 1024];
+            long inicio = System.nanoTime();
+            s.getOutputStream().write(datos);
+            int leidos = 0;
+            while (leidos < datos.length) {
+                leidos += s.getInputStream().read(datos, 0, datos.length - leidos);
+            }
+            long ms = (System.nanoTime() - inicio) / 1_000_000;
+            // 16K A 32K/S SON 500 MS POR SENTIDO, AUNQUE LOS DOS SENTIDOS SE SOLAPAN
+            assertTrue("DEMASIADO RAPIDO PARA EL ANCHO DE BANDA: " + ms, ms >= 450);
+        }
+    }
+
+    /**
+     * SOLO LA FRACCION PEDIDA DE CONEXIONES ES LENTA, Y UN CORTE LLEGA COMO RST.
+     */
+    public void testLentosYCorte() throws Exception {
+        proxy.setLentos(0.5, ProxyDegradacion.Perfil.leer("corte=10"));
+        try (Socket rapida = new Socket(InetAddress.getLoopbackAddress(), proxy.getPuerto());
+             Socket lenta = new Socket(InetAddress.getLoopbackAddress(), proxy.getPuerto())) {
+            rapida.getOutputStream().write(new byte[100]);
+            lenta.getOutputStream().write(new byte[100]);
+            assertEquals(100, leerHastaFin(rapida, 100));
+            try {
+                // LOS PRIMEROS BYTES PUEDEN LLEGAR ANTES DEL CORTE, PERO NUNCA LOS 100
+                assertTrue(leerHastaFin(lenta, 100) < 100);
+            } catch (IOException e) {
+                // CONNECTION RESET: ES LO ESPERADO
+            }
+        }
+        assertTrue(proxy.getInforme(), proxy.getInforme().contains("lentas=1 "));
+        assertTrue(proxy.getInforme(), proxy.getInforme().contains("reinicios=1 "));
+    }
+
+    private static int leerHastaFin(Socket s, int maximo) throws IOException {
+        s.setSoTimeout(5000);
+        int total = 0;
+        int n;
+        byte[] buffer = new byte[maximo];
+        while (total < maximo && (n = s.getInputStream().read(buffer, 0, maximo - total)) >= 0) {
+            total += n;
+        }
+        return total;
+    }
+}
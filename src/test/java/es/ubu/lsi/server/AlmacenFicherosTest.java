@@ -0,0 +1,160 @@
+package es.ubu.lsi.server;
+
+import es.ubu.lsi.common.ChatMessage;
+import es.ubu.lsi.common.CodecMensajes;
+import es.ubu.lsi.common.LectorTramas;
+import es.ubu.lsi.common.MessageType;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * PRUEBAS DEL ALMACEN DE FICHEROS COMPARTIDOS.
+ */
+public class AlmacenFicherosTest extends TestCase {
+
+    private Path directorio;
+
+    @Override
+    protected void setUp() throws Exception {
+        directorio = Files.createTempDirectory("ficheros");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try (java.util.stream.Stream<Path> ficheros = Files.list(directorio)) {
+            ficheros.forEach(f -> f.toFile().delete());
+        }
+        Files.deleteIfExists(directorio);
+    }
+
+    /**
+     * ESCRIBO UNA SUBIDA COMPLETA (TROZOS Y FIN) INTERCALADA CON UN MENSAJE.
+     */
+    private static LectorTramas subida(long id, byte[] datos, int trozo) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int pos = 0; pos < datos.length; pos += trozo) {
+            int n = Math.min(trozo, datos.length - pos);
+            CodecMensajes.escribirCabeceraFragmento(id, n, bytes);
+            bytes.write(datos, pos, n);
+            CodecMensajes.escribir(new ChatMessage("ana", "entre trozos", MessageType.MENSAJE), bytes);
+        }
+        CodecMensajes.escribirCabeceraFragmento(id, 0, bytes);
+        return new LectorTramas(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    /**
+     * LOS TROZOS LLEGAN AL DISCO EN ORDEN Y LOS MENSAJES INTERCALADOS SE SIGUEN LEYENDO.
+     */
+    public void testSubidaIntercaladaConMensajes() throws Exception {
+        byte[] datos = new byte[10000];
+        for (int i = 0; i < datos.length; i++) {
+            datos[i] = (byte) i;
+        }
+        AlmacenFicheros almacen = new AlmacenFicheros(directorio);
+        AlmacenFicheros.Fichero fichero = almacen.crear("ana", "datos.bin", datos.length, null);
+
+        LectorTramas lector = subida(7, datos, 3000);
+        int mensajes = 0;
+        ChatMessage leido;
+        while ((leido = lector.leer()) != null) {
+            if (leido.getTipo() == MessageType.MENSAJE) {
+                mensajes++;
+            } else if (lector.getLongitudFragmento() > 0) {
+                assertEquals(7, leido.getIdMensaje());
+                fichero.recibir(lector);
+            } else {
+                assertTrue(fichero.completar());
+            }
+        }
+        assertEquals(4, mensajes);
+
+        ByteBuffer copia = ByteBuffer.allocate(datos.length);
+        try (FileChannel canal = almacen.buscar(fichero.getId()).abrirLectura()) {
+            while (copia.hasRemaining() && canal.read(copia) >= 0) {
+                // LEO HASTA LLENAR
+            }
+        }
+        assertTrue(Arrays.equals(datos, copia.array()));
+        almacen.close();
+        assertEquals(0, almacen.getFicheros());
+    }
+
+    /**
+     * UN FICHERO QUE SUPERA EL TAMAÑO ANUNCIADO SE RECHAZA Y EL FLUJO SIGUE CUADRADO.
+     */
+    public void testTamanoAnunciadoSeRespeta() throws Exception {
+        AlmacenFicheros almacen = new AlmacenFicheros(directorio);
+        AlmacenFicheros.Fichero fichero = almacen.crear("ana", "poco.bin", 10, null);
+
+        LectorTramas lector = subida(1, new byte[20], 20);
+        lector.leer();
+        try {
+            fichero.recibir(lector);
+            fail("DEBERIA RECHAZAR EL TROZO");
+        } catch (IOException e) {
+            // ESPERADO
+        }
+        assertEquals(MessageType.MENSAJE, lector.leer().getTipo());
+
+        try {
+            almacen.crear("ana", "enorme.bin", AlmacenFicheros.MAXIMO_FICHERO + 1, null);
+            fail("DEBERIA RECHAZAR EL FICHERO");
+        } catch (IllegalArgumentException e) {
+            // ESPERADO
+        }
+        almacen.close();
+    }
+
+    /**
+     * LAS OFERTAS QUE NO CABEN EN LAS CUOTAS SE RECHAZAN, Y AL BORRAR UN FICHERO SE LIBERA SU ESPACIO.
+     */
+    public void testCuotas() throws Exception {
+        AlmacenFicheros almacen = new AlmacenFicheros(directorio);
+        almacen.setCuotas(1000, 2, 1500);
+        AlmacenFicheros.Fichero primero = almacen.crear("ana", "a.bin", 600, null);
+        assertNoCabe(almacen, "ana", 500);
+        almacen.crear("ana", "b.bin", 0, null);
+        assertNoCabe(almacen, "ana", 0);
+        AlmacenFicheros.Fichero luis = almacen.crear("luis", "c.bin", 900, null);
+        assertNoCabe(almacen, "eva", 1);
+        assertEquals(1500, almacen.getBytesReservados());
+
+        almacen.descartar(primero);
+        almacen.descartar(primero);
+        assertEquals(900, almacen.getBytesReservados());
+        almacen.crear("ana", "d.bin", 600, null);
+        almacen.descartar(luis);
+        almacen.crear("eva", "e.bin", 900, null);
+        almacen.close();
+        assertEquals(0, almacen.getBytesReservados());
+    }
+
+    private static void assertNoCabe(AlmacenFicheros almacen, String remitente, long tamano) throws IOException {
+        try {
+            almacen.crear(remitente, "no.bin", tamano, null);
+            fail("DEBERIA RECHAZAR LA OFERTA DE " + remitente);
+        } catch (IllegalArgumentException e) {
+            // ESPERADO
+        }
+    }
+
+    /**
+     * UN FICHERO PRIVADO SOLO LO PUEDEN PEDIR SU DESTINATARIO Y SU REMITENTE.
+     */
+    public void testFicheroPrivado() throws Exception {
+        AlmacenFicheros almacen = new AlmacenFicheros(directorio);
+        AlmacenFicheros.Fichero fichero = almacen.crear("ana", "nota.txt", 0, "luis");
+        assertTrue(fichero.esPara("luis"));
+        assertTrue(fichero.esPara("ana"));
+        assertFalse(fichero.esPara("eva"));
+        almacen.close();
+    }
+}
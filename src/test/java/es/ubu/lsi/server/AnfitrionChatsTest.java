@@ -0,0 +1,128 @@
+package es.ubu.lsi.server;
+
+import es.ubu.lsi.client.ChatClientImpl;
+import es.ubu.lsi.common.ChatMessage;
+import es.ubu.lsi.common.MessageType;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+/**
+ * PRUEBAS DEL ANFITRION DE VARIOS CHATS EN UN PROCESO.
+ */
+public class AnfitrionChatsTest extends TestCase {
+
+    private Path raiz;
+    private AnfitrionChats anfitrion;
+
+    @Override
+    protected void setUp() throws IOException {
+        raiz = Files.createTempDirectory("anfitrion");
+        anfitrion = new AnfitrionChats(raiz);
+        anfitrion.setTraza(false);
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        anfitrion.close();
+        try (Stream<Path> ficheros = Files.walk(raiz)) {
+            for (Path fichero : (Iterable<Path>) ficheros.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(fichero);
+            }
+        }
+    }
+
+    /**
+     * CADA CHAT TIENE SU PUERTO, SU DIRECTORIO Y SUS CLIENTES: LO QUE SE DICE EN UNO NO LLEGA AL OTRO.
+     */
+    public void testChatsSeparados() throws Exception {
+        ChatServerImpl rojo = anfitrion.agregar("rojo", 0, 0, 0);
+        ChatServerImpl azul = anfitrion.agregar("azul", 0, 0, 0);
+        assertTrue(rojo.getPuerto() != azul.getPuerto());
+        assertTrue(Files.isDirectory(raiz.resolve("rojo").resolve("indice")));
+
+        List<String> enRojo = new CopyOnWriteArrayList<>();
+        List<String> enAzul = new CopyOnWriteArrayList<>();
+        ChatClientImpl ana = new ChatClientImpl("ana", "localhost", rojo.getPuerto());
+        ChatClientImpl luis = new ChatClientImpl("luis", "localhost", rojo.getPuerto());
+        ChatClientImpl eva = new ChatClientImpl("eva", "localhost", azul.getPuerto());
+        luis.setListener(m -> enRojo.add(m.getContenido()));
+        eva.setListener(m -> enAzul.add(m.getContenido()));
+        ana.conectar();
+        luis.conectar();
+        eva.conectar();
+        try {
+            esperar(() -> rojo.contarClientes() == 2 && azul.contarClientes() == 1);
+            Thread.sleep(100);
+            ana.enviarMensaje(new ChatMessage("ana", "solo en rojo", MessageType.MENSAJE));
+            esperar(() -> enRojo.contains("solo en rojo"));
+            Thread.sleep(100);
+            assertFalse(enAzul.contains("solo en rojo"));
+            assertTrue(anfitrion.getInforme(), anfitrion.getInforme().contains("rojo puerto=" + rojo.getPuerto() + " clientes=2"));
+            assertTrue(anfitrion.getInforme(), anfitrion.getInforme().contains("azul puerto=" + azul.getPuerto() + " clientes=1"));
+        } finally {
+            ana.desconectar();
+            luis.desconectar();
+            eva.desconectar();
+        }
+
+        assertTrue(anfitrion.quitar("azul"));
+        assertNull(anfitrion.getChat("azul"));
+        assertNotNull(anfitrion.getChat("rojo"));
+    }
+
+    /**
+     * CON EL LIMITE DE CONEXIONES LLENO, LA SIGUIENTE SE CIERRA NADA MAS ACEPTARLA.
+     */
+    public void testLimiteDeConexiones() throws Exception {
+        ChatServerImpl chat = anfitrion.agregar("pequeno", 0, 1, 0);
+        try (Socket primera = new Socket(InetAddress.getLoopbackAddress(), chat.getPuerto())) {
+            assertTrue(primera.isConnected());
+            esperar(() -> chat.contarClientes() == 1);
+            try (Socket segunda = new Socket(InetAddress.getLoopbackAddress(), chat.getPuerto())) {
+                segunda.setSoTimeout(5000);
+                InputStream entrada = segunda.getInputStream();
+                assertEquals(-1, entrada.read());
+            }
+        }
+        assertTrue(chat.getMetricas(), chat.getMetricas().contains("aceptadas=1 rechazadas=1"));
+    }
+
+    /**
+     * POR ENCIMA DEL CUPO DE MENSAJES POR SEGUNDO DEL CHAT LOS DEMAS SE DESCARTAN.
+     */
+    public void testCupoDeMensajes() throws Exception {
+        ChatServerImpl chat = anfitrion.agregar("charlatan", 0, 0, 5);
+        long[] ahora = {10_000};
+        chat.setReloj(() -> ahora[0]);
+        ChatMessage mensaje = new ChatMessage("ana", "otra vez", MessageType.MENSAJE);
+        int admitidos = 0;
+        for (int i = 0; i < 20; i++) {
+            if (chat.registrarEnvio("ana", mensaje) == DetectorAbusos.Veredicto.ADMITIDO) {
+                admitidos++;
+            }
+        }
+        assertEquals(5, admitidos);
+        ahora[0] += 1000;
+        assertEquals(DetectorAbusos.Veredicto.ADMITIDO, chat.registrarEnvio("ana", mensaje));
+        assertTrue(chat.getMetricas(), chat.getMetricas().contains("mensajes=21 limitados=15"));
+    }
+
+    private static void esperar(BooleanSupplier condicion) throws InterruptedException {
+        long limite = System.currentTimeMillis() + 5000;
+        while (!condicion.getAsBoolean() && System.currentTimeMillis() < limite) {
+            Thread.sleep(10);
+        }
+        assertTrue("NO SE CUMPLIO A TIEMPO", condicion.getAsBoolean());
+    }
+}
@@ -0,0 +1,126 @@
+package es.ubu.lsi.server;
+
+import es.ubu.lsi.common.ChatMessage;
+import es.ubu.lsi.common.MessageType;
+import junit.framework.TestCase;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * PRUEBAS DEL BUZON DE MENSAJES PARA USUARIOS DESCONECTADOS.
+ */
+public class BuzonOfflineTest extends TestCase {
+
+    private Path directorio;
+
+    @Override
+    protected void setUp() throws Exception {
+        directorio = Files.createTempDirectory("buzon");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try (java.util.stream.Stream<Path> ficheros = Files.list(directorio)) {
+            ficheros.forEach(f -> f.toFile().delete());
+        }
+        Files.deleteIfExists(directorio);
+    }
+
+    private static ChatMessage privado(String de, String para, String texto) {
+        return new ChatMessage(de, texto, MessageType.PRIVADO, para);
+    }
+
+    /**
+     * LOS MENSAJES QUE NO CABEN EN MEMORIA VAN A DISCO Y SE ENTREGAN EN ORDEN.
+     */
+    public void testDesbordeADiscoConservaElOrden() {
+        BuzonOffline buzon = new BuzonOffline(directorio, 2, 10, 60000);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(buzon.guardar(privado("ana", "luis", "m" + i)));
+        }
+        assertEquals(5, buzon.pendientes("luis"));
+
+        List<ChatMessage> pendientes = buzon.retirar("luis");
+        assertEquals(5, pendientes.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals("m" + i, pendientes.get(i).getContenido());
+            assertEquals("ana", pendientes.get(i).getRemitente());
+            assertEquals(MessageType.PRIVADO, pendientes.get(i).getTipo());
+        }
+        assertTrue(buzon.retirar("luis").isEmpty());
+    }
+
+    /**
+     * EL CASILLERO RECHAZA MENSAJES AL LLEGAR A SU TOPE.
+     */
+    public void testTopePorUsuario() {
+        BuzonOffline buzon = new BuzonOffline(directorio, 1, 3, 60000);
+        assertTrue(buzon.guardar(privado("ana", "luis", "1")));
+        assertTrue(buzon.guardar(privado("ana", "luis", "2")));
+        assertTrue(buzon.guardar(privado("ana", "luis", "3")));
+        assertFalse(buzon.guardar(privado("ana", "luis", "4")));
+        assertTrue(buzon.guardar(privado("ana", "eva", "1")));
+    }
+
+    /**
+     * LOS TOPES DE BYTES POR USUARIO, DE CASILLEROS Y DE BYTES EN TOTAL SE RESPETAN Y SE LIBERAN AL RETIRAR.
+     */
+    public void testTopesDeEspacio() {
+        BuzonOffline buzon = new BuzonOffline(directorio, 2, 1000, 60000);
+        String kilo = new String(new char[1000]).replace('\0', 'x');
+        buzon.setTopes(2500, 2, 3000);
+
+        assertTrue(buzon.guardar(privado("ana", "luis", kilo)));
+        assertTrue(buzon.guardar(privado("ana", "luis", kilo)));
+        assertFalse("PASA DEL TOPE DEL USUARIO", buzon.guardar(privado("ana", "luis", kilo)));
+        assertFalse("PASA DEL TOPE DEL BUZON", buzon.guardar(privado("ana", "eva", kilo)));
+        assertTrue(buzon.guardar(privado("ana", "eva", "hola")));
+        assertFalse("NO CABEN MAS CASILLEROS", buzon.guardar(privado("ana", "nadie", "hola")));
+        assertEquals(2, buzon.getOcupados());
+
+        assertEquals(2, buzon.retirar("luis").size());
+        assertEquals(1, buzon.getOcupados());
+        assertTrue(buzon.guardar(privado("ana", "nadie", "hola")));
+        buzon.retirar("eva");
+        buzon.retirar("nadie");
+        assertEquals(0, buzon.getOcupados());
+        assertEquals(0, buzon.getBytesOcupados());
+    }
+
+    /**
+     * AL CERRAR, LO QUE ESTABA EN MEMORIA PASA A DISCO DELANTE DE LO VOLCADO Y OTRO BUZON LO ENTREGA EN ORDEN.
+     */
+    public void testCierreConservaLoDeMemoria() {
+        BuzonOffline buzon = new BuzonOffline(directorio, 2, 10, 60000);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buzon.guardar(privado("ana", "luis", "m" + i)));
+        }
+        buzon.cerrar();
+
+        BuzonOffline siguiente = new BuzonOffline(directorio, 2, 10, 60000);
+        assertTrue(siguiente.guardar(privado("ana", "luis", "m4")));
+        assertEquals(5, siguiente.pendientes("luis"));
+        List<ChatMessage> pendientes = siguiente.retirar("luis");
+        assertEquals(5, pendientes.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals("m" + i, pendientes.get(i).getContenido());
+        }
+    }
+
+    /**
+     * LOS MENSAJES CADUCADOS NO SE ENTREGAN.
+     */
+    public void testCaducidad() throws Exception {
+        BuzonOffline buzon = new BuzonOffline(directorio, 1, 10, 50);
+        buzon.guardar(privado("ana", "luis", "viejo"));
+        buzon.guardar(privado("ana", "luis", "viejo en disco"));
+        Thread.sleep(100);
+        buzon.guardar(privado("ana", "luis", "nuevo"));
+
+        List<ChatMessage> pendientes = buzon.retirar("luis");
+        assertEquals(1, pendientes.size());
+        assertEquals("nuevo", pendientes.get(0).getContenido());
+    }
+}
@@ -0,0 +1,95 @@
+package es.ubu.lsi.server;
+
+import es.ubu.lsi.common.ChatMessage;
+import es.ubu.lsi.common.MessageType;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * PRUEBAS DE LA CAPTURA DE TRAFICO.
+ */
+public class CapturaTraficoTest extends TestCase {
+
+    private Path fichero;
+
+    @Override
+    protected void setUp() throws IOException {
+        fichero = Files.createTempFile("captura", ".cap");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        Files.deleteIfExists(fichero);
+    }
+
+    /**
+     * LO QUE SE ESCRIBE SE LEE IGUAL, CON SUS INSTANTES Y SUS CAMPOS VACIOS.
+     */
+    public void testIdaYVuelta() throws IOException {
+        try (CapturaTrafico captura = new CapturaTrafico(fichero, 1234L)) {
+            captura.registrar(new ChatMessage("ana", "conectandose", MessageType.LOGIN), 0);
+            captura.registrar(new ChatMessage("ana", "hola ñandú", MessageType.MENSAJE, null, 300), 1500);
+            captura.registrar(new ChatMessage("ana", "psst", MessageType.PRIVADO, "luis", 1L << 40), 9_000_000);
+            captura.registrar(new ChatMessage("ana", "trozo", MessageType.FRAGMENTO_FICHERO), 9_000_001);
+            captura.registrar(new ChatMessage(null, null, MessageType.LOGOUT), 9_000_002);
+            assertEquals(4, captura.getRegistros());
+        }
+
+        try (CapturaTrafico.Lector lector = new CapturaTrafico.Lector(fichero)) {
+            assertEquals(1234L, lector.getInicio());
+
+            CapturaTrafico.Registro registro = lector.siguiente();
+            assertEquals(0, registro.getMicros());
+            assertEquals(MessageType.LOGIN, registro.getMensaje().getTipo());
+
+            registro = lector.siguiente();
+            assertEquals(1500, registro.getMicros());
+            assertEquals("hola ñandú", registro.getMensaje().getContenido());
+            assertNull(registro.getMensaje().getDestinatario());
+            assertEquals(300, registro.getMensaje().getIdMensaje());
+
+            registro = lector.siguiente();
+            assertEquals(9_000_000, registro.getMicros());
+            assertEquals("luis", registro.getMensaje().getDestinatario());
+            assertEquals(1L << 40, registro.getMensaje().getIdMensaje());
+
+            registro = lector.siguiente();
+            assertEquals(MessageType.LOGOUT, registro.getMensaje().getTipo());
+            assertNull(registro.getMensaje().getRemitente());
+            assertNull(registro.getMensaje().getContenido());
+
+            assertNull(lector.siguiente());
+        }
+    }
+
+    /**
+     * LOS INSTANTES NUNCA VAN HACIA ATRAS.
+     */
+    public void testInstantesMonotonos() throws IOException {
+        try (CapturaTrafico captura = new CapturaTrafico(fichero)) {
+            captura.registrar(new ChatMessage("ana", "a", MessageType.MENSAJE), 500);
+            captura.registrar(new ChatMessage("ana", "b", MessageType.MENSAJE), 100);
+        }
+        try (CapturaTrafico.Lector lector = new CapturaTrafico.Lector(fichero)) {
+            assertEquals(500, lector.siguiente().getMicros());
+            assertEquals(500, lector.siguiente().getMicros());
+        }
+    }
+
+    /**
+     * UN FICHERO QUE NO ES UNA CAPTURA SE RECHAZA AL ABRIRLO.
+     */
+    public void testCabeceraIncorrecta() throws IOException {
+        Files.write(fichero, new byte[16]);
+        try {
+            new CapturaTrafico.Lector(fichero).close();
+            fail("DEBERIA RECHAZAR EL FICHERO");
+        } catch (StreamCorruptedException e) {
+            // ESPERADO
+        }
+    }
+}
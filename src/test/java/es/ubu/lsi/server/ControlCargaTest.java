@@ -0,0 +1,123 @@
+package es.ubu.lsi.server;
+
+import es.ubu.lsi.common.ChatMessage;
+import es.ubu.lsi.common.MessageType;
+import junit.framework.TestCase;
+
+/**
+ * PRUEBAS DEL CONTROL GLOBAL DE CARGA Y DEL CREDITO DE ENVIO.
+ */
+public class ControlCargaTest extends TestCase {
+
+    /**
+     * EL CREDITO BAJA CON LA CARGA, ES CERO EN LA MARCA ALTA Y SOLO SE QUITA EL LIMITE BAJO LA MITAD DE LA BAJA.
+     */
+    public void testCreditoSegunLasMarcas() throws Exception {
+        ControlCarga carga = new ControlCarga(100, 200, 10);
+        PlanificadorSalida cola = new PlanificadorSalida(carga);
+        assertEquals(ControlCarga.SIN_LIMITE, carga.calcularCredito());
+
+        encolar(cola, 100);
+        assertEquals(10, carga.calcularCredito());
+        assertTrue(carga.isLimitando());
+        encolar(cola, 50);
+        int medio = carga.calcularCredito();
+        assertTrue("CREDITO " + medio, medio > 1 && medio < 10);
+        encolar(cola, 49);
+        assertEquals(1, carga.calcularCredito());
+        encolar(cola, 1);
+        assertEquals(0, carga.calcularCredito());
+
+        // AL VACIARSE EL CREDITO VUELVE POCO A POCO, Y ENTRE LA MITAD Y LA BAJA SIGUE LIMITADO
+        sacar(cola, 50);
+        assertEquals(medio, carga.calcularCredito());
+        sacar(cola, 75);
+        assertEquals(10, carga.calcularCredito());
+        sacar(cola, 25);
+        assertEquals(10, carga.calcularCredito());
+        sacar(cola, 1);
+        assertEquals(ControlCarga.SIN_LIMITE, carga.calcularCredito());
+        assertFalse(carga.isLimitando());
+        assertEquals(1, carga.getLimitaciones());
+    }
+
+    /**
+     * EN LA MARCA ALTA SOLO SE DESCARTAN LOS MENSAJES NORMALES; LOS PRIVADOS Y LOS DEL SISTEMA PASAN.
+     */
+    public void testSoloSeDescartanLosNormales() {
+        ControlCarga carga = new ControlCarga(1, 2, 1);
+        PlanificadorSalida cola = new PlanificadorSalida(carga);
+        assertTrue(carga.admitir(MessageType.MENSAJE));
+
+        encolar(cola, 2);
+        assertFalse(carga.admitir(MessageType.MENSAJE));
+        assertTrue(carga.admitir(MessageType.PRIVADO));
+        assertTrue(carga.admitir(MessageType.SISTEMA));
+        assertEquals(1, carga.getDescartados());
+    }
+
+    /**
+     * LO QUE SE QUEDA EN UNA COLA AL CERRARLA SE DESCUENTA DE LA CARGA, Y LA SERVIDA TAMBIEN.
+     */
+    public void testColasCerradasNoCuentan() throws Exception {
+        ControlCarga carga = new ControlCarga();
+        PlanificadorSalida una = new PlanificadorSalida(carga);
+        PlanificadorSalida otra = new PlanificadorSalida(carga);
+        encolar(una, 30);
+        encolar(otra, 20);
+        assertEquals(50, carga.getPendientes());
+
+        sacar(otra, 5);
+        una.cerrar();
+        assertEquals(30, una.descartarPendientes());
+        assertTrue(una.estaVacio());
+        assertNull(una.siguiente());
+        assertFalse(una.encolar(new ChatMessage("ana", "tarde", MessageType.MENSAJE)));
+        assertEquals(15, carga.getPendientes());
+    }
+
+    /**
+     * CON VARIOS CHATS EN EL PROCESO SOLO SE FRENA Y SE DESCARTA EN EL QUE SE PASA DE SU PARTE.
+     */
+    public void testCadaChatConSuParte() throws Exception {
+        ControlCarga global = new ControlCarga(100, 200, 10);
+        ControlCarga ocupado = global.crearInquilino();
+        ControlCarga tranquilo = global.crearInquilino();
+        PlanificadorSalida colaOcupado = new PlanificadorSalida(ocupado);
+        PlanificadorSalida colaTranquilo = new PlanificadorSalida(tranquilo);
+
+        // SIN PASAR LA MARCA BAJA GLOBAL NADIE SE LIMITA, AUNQUE UNO LLEVE MAS QUE SU PARTE
+        encolar(colaOcupado, 90);
+        assertEquals(ControlCarga.SIN_LIMITE, ocupado.calcularCredito());
+        assertTrue(ocupado.admitir(MessageType.MENSAJE));
+
+        encolar(colaOcupado, 10);
+        encolar(colaTranquilo, 5);
+        assertEquals(105, global.getPendientes());
+        assertEquals(0, ocupado.calcularCredito());
+        assertFalse(ocupado.admitir(MessageType.MENSAJE));
+        assertEquals(ControlCarga.SIN_LIMITE, tranquilo.calcularCredito());
+        assertTrue(tranquilo.admitir(MessageType.MENSAJE));
+
+        // AL IRSE UN CHAT EL OTRO RECUPERA TODAS LAS MARCAS (Y SIGUE LIMITADO HASTA LA MITAD DE LA BAJA)
+        colaTranquilo.cerrar();
+        colaTranquilo.descartarPendientes();
+        tranquilo.retirar();
+        sacar(colaOcupado, 5);
+        assertEquals(95, global.getPendientes());
+        assertTrue(ocupado.admitir(MessageType.MENSAJE));
+        assertEquals(10, ocupado.calcularCredito());
+    }
+
+    private static void encolar(PlanificadorSalida cola, int mensajes) {
+        for (int i = 0; i < mensajes; i++) {
+            cola.encolar(new ChatMessage("ana", "m" + i, MessageType.MENSAJE));
+        }
+    }
+
+    private static void sacar(PlanificadorSalida cola, int mensajes) throws InterruptedException {
+        for (int i = 0; i < mensajes; i++) {
+            assertNotNull(cola.siguiente());
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package es.ubu.lsi.server;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+
+/**
+ * PRUEBAS DEL SKETCH COUNT-MIN Y DEL DETECTOR DE ABUSOS.
+ */
+public class DetectorAbusosTest extends TestCase {
+
+    /**
+     * CON MUCHAS MAS CLAVES QUE CONTADORES, LA ESTIMACION NUNCA SE QUEDA
+     * CORTA Y LAS CLAVES FRECUENTES SE ESTIMAN CASI EXACTAS.
+     */
+    public void testSketchNoSeQuedaCorto() throws Exception {
+        SketchFrecuencias sketch = new SketchFrecuencias(256, 4);
+        for (int i = 0; i < 20000; i++) {
+            sketch.sumar(SketchFrecuencias.hash("raro" + i, 0, false));
+            if (i % 10 == 0) {
+                sketch.sumar(SketchFrecuencias.hash("frecuente", 0, false));
+            }
+        }
+        long estimacion = sketch.estimar(SketchFrecuencias.hash("frecuente", 0, false));
+        assertTrue(estimacion >= 2000);
+        assertTrue("ESTIMACION " + estimacion, estimacion < 2000 * 1.2);
+        assertTrue(sketch.estimar(SketchFrecuencias.hash("raro7", 0, false)) >= 1);
+
+        sketch.envejecer();
+        assertEquals(estimacion / 2, sketch.estimar(SketchFrecuencias.hash("frecuente", 0, false)));
+        assertEquals(256 * 4 * 8, sketch.getBytes());
+    }
+
+    /**
+     * LA LISTA DE FRECUENTES ENCUENTRA A QUIEN MAS ENVIA ENTRE MILES DE USUARIOS.
+     */
+    public void testFrecuentes() throws Exception {
+        DetectorAbusos detector = new DetectorAbusos();
+        for (int i = 0; i < 5000; i++) {
+            detector.registrar("usuario" + i, "hola " + i, 0);
+            detector.registrar("pesado", "COMPRA YA", 0);
+            if (i % 2 == 0) {
+                detector.registrar("activo", "compra  ya", 0);
+            }
+        }
+        List<DetectorAbusos.Frecuente> remitentes = detector.getRemitentesFrecuentes();
+        assertTrue(remitentes.size() <= DetectorAbusos.TOP);
+        assertEquals("pesado", remitentes.get(0).getEtiqueta());
+        assertEquals("activo", remitentes.get(1).getEtiqueta());
+
+        // MAYUSCULAS Y ESPACIOS NO CUENTAN COMO CONTENIDO DISTINTO
+        assertEquals(7500, detector.getContenidosFrecuentes().get(0).getCuenta());
+        assertEquals(7500, detector.estimarContenido("compraya"));
+        assertEquals(0, detector.getCastigos());
+    }
+
+    /**
+     * QUIEN PASA EL UMBRAL QUEDA CASTIGADO UN TIEMPO, Y AL ENVEJECER LAS
+     * CUENTAS VUELVE A PODER ENVIAR.
+     */
+    public void testCastigo() throws Exception {
+        DetectorAbusos detector = new DetectorAbusos(10, 0, 1000, 500);
+        for (int i = 0; i < 9; i++) {
+            assertEquals(DetectorAbusos.Veredicto.ADMITIDO, detector.registrar("pesado", "m" + i, 0));
+        }
+        assertEquals(DetectorAbusos.Veredicto.CASTIGO_NUEVO, detector.registrar("pesado", "m9", 0));
+        assertEquals(DetectorAbusos.Veredicto.CASTIGADO, detector.registrar("pesado", "m10", 100));
+        assertEquals(DetectorAbusos.Veredicto.ADMITIDO, detector.registrar("otro", "hola", 100));
+        assertTrue(detector.isCastigado("pesado", 100));
+
+        // EL CASTIGO SE ALARGA MIENTRAS SIGA POR ENCIMA, HASTA QUE LAS CUENTAS ENVEJECEN
+        assertFalse(detector.isCastigado("pesado", 700));
+        assertEquals(DetectorAbusos.Veredicto.ADMITIDO, detector.registrar("pesado", "m11", 2500));
+        assertEquals(2, detector.getRetenidos());
+        assertEquals(1, detector.getCastigos());
+    }
+
+    /**
+     * UN CONTENIDO QUE SE REPITE DESDE MUCHOS REMITENTES SE CASTIGA AUNQUE
+     * NINGUNO PASE SU UMBRAL, PERO SOLO RETIENE A QUIEN YA LO HABIA ENVIADO.
+     * LO RETENIDO NO LO RENUEVA, Y LOS TEXTOS CORTOS Y LOS PRIVADOS NO SE
+     * CASTIGAN POR CONTENIDO.
+     */
+    public void testCastigoDeContenido() throws Exception {
+        DetectorAbusos detector = new DetectorAbusos(100, 5, 1000, 500);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(DetectorAbusos.Veredicto.ADMITIDO, detector.registrar("bot" + i, "compra ya aqui", 0));
+        }
+        assertEquals(DetectorAbusos.Veredicto.CASTIGO_NUEVO, detector.registrar("bot4", "COMPRA YA AQUI", 0));
+        assertEquals(DetectorAbusos.Veredicto.CASTIGADO, detector.registrar("bot0", "compra ya aqui", 100));
+        assertEquals(DetectorAbusos.Veredicto.ADMITIDO, detector.registrar("bot0", "otra cosa", 100));
+        assertEquals(DetectorAbusos.Veredicto.ADMITIDO, detector.registrar("ana", "compra ya aqui", 100));
+        assertFalse(detector.isCastigado("bot4", 0));
+
+        // LOS BOTS SIGUEN INSISTIENDO, PERO COMO NO SUMAN EL CONTENIDO SE
+        // OLVIDA AL ENVEJECER Y VUELVE A PASAR
+        for (int i = 0; i < 50; i++) {
+            assertEquals(DetectorAbusos.Veredicto.CASTIGADO, detector.registrar("bot" + (i % 5), "compra ya aqui", 200 + i));
+        }
+        assertEquals(6, detector.estimarContenido("compra ya aqui"));
+        assertEquals(DetectorAbusos.Veredicto.ADMITIDO, detector.registrar("bot1", "compra ya aqui", 1000));
+
+        // UN TEXTO CORTO O PRIVADO SE REPITE SIN CASTIGO
+        for (int i = 0; i < 20; i++) {
+            assertEquals(DetectorAbusos.Veredicto.ADMITIDO, detector.registrar("u" + i, "hola", 1100));
+            assertEquals(DetectorAbusos.Veredicto.ADMITIDO, detector.registrar("u" + i, null, 1100));
+        }
+    }
+}
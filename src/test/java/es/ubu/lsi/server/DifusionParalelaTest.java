@@ -0,0 +1,84 @@
+package es.ubu.lsi.server;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * PRUEBAS DEL REPARTO DE LOS BROADCAST ENTRE VARIOS HILOS.
+ */
+public class DifusionParalelaTest extends TestCase {
+
+    /**
+     * DESTINATARIO DE PRUEBA QUE APUNTA LO QUE RECIBE Y EN QUE HILO.
+     */
+    private static class Receptor {
+        private final List<Integer> recibidos = new ArrayList<>();
+        private volatile Thread hilo;
+
+        synchronized void recibir(int mensaje) {
+            recibidos.add(mensaje);
+            hilo = Thread.currentThread();
+        }
+    }
+
+    private static List<Receptor> receptores(int cuantos) {
+        List<Receptor> lista = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < cuantos; i++) {
+            lista.add(new Receptor());
+        }
+        return lista;
+    }
+
+    /**
+     * UNA SALA PEQUEÑA SE ENTREGA EN EL HILO QUE DIFUNDE.
+     */
+    public void testSalaPequenaEnElMismoHilo() {
+        DifusionParalela difusion = new DifusionParalela(100, 10);
+        List<Receptor> sala = receptores(99);
+        assertFalse(difusion.entregar(sala, r -> r.recibir(1)));
+        for (Receptor receptor : sala) {
+            assertSame(Thread.currentThread(), receptor.hilo);
+        }
+        assertEquals(0, difusion.getRepartidas());
+        difusion.close();
+    }
+
+    /**
+     * EN UNA SALA GRANDE TODOS RECIBEN TODOS LOS MENSAJES Y EN ORDEN.
+     */
+    public void testSalaGrandeConservaElOrden() {
+        DifusionParalela difusion = new DifusionParalela(100, 16);
+        List<Receptor> sala = receptores(2000);
+        for (int n = 0; n < 50; n++) {
+            final int mensaje = n;
+            assertTrue(difusion.entregar(sala, r -> r.recibir(mensaje)));
+        }
+        for (Receptor receptor : sala) {
+            assertEquals(50, receptor.recibidos.size());
+            for (int n = 0; n < 50; n++) {
+                assertEquals(n, receptor.recibidos.get(n).intValue());
+            }
+            assertNotSame(Thread.currentThread(), receptor.hilo);
+        }
+        assertEquals(50, difusion.getRepartidas());
+        difusion.close();
+    }
+
+    /**
+     * CON EL POOL CERRADO SE SIGUE ENTREGANDO, AUNQUE SEA EN EL MISMO HILO.
+     */
+    public void testDespuesDeCerrar() {
+        DifusionParalela difusion = new DifusionParalela(10, 4);
+        List<Receptor> sala = receptores(50);
+        assertTrue(difusion.entregar(sala, r -> r.recibir(1)));
+        difusion.close();
+        assertFalse(difusion.entregar(sala, r -> r.recibir(2)));
+        for (Receptor receptor : sala) {
+            assertEquals(2, receptor.recibidos.size());
+            assertSame(Thread.currentThread(), receptor.hilo);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package es.ubu.lsi.server;
+
+import junit.framework.TestCase;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+/**
+ * PRUEBAS DEL ESTADO PERSISTENTE DE LOS USUARIOS.
+ */
+public class EstadoUsuariosTest extends TestCase {
+
+    private Path directorio;
+
+    @Override
+    protected void setUp() throws Exception {
+        directorio = Files.createTempDirectory("estado");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try (java.util.stream.Stream<Path> ficheros = Files.list(directorio)) {
+            ficheros.forEach(f -> f.toFile().delete());
+        }
+        Files.deleteIfExists(directorio);
+    }
+
+    /**
+     * LOS BLOQUEOS SOBREVIVEN A CERRAR Y ABRIR EL ALMACEN, Y VALE EL ULTIMO ESTADO.
+     */
+    public void testSobreviveAlReinicio() throws Exception {
+        // POCAS CUBETAS PARA QUE VARIOS USUARIOS COMPARTAN CADENA
+        EstadoUsuarios estado = new EstadoUsuarios(directorio, 4, EstadoUsuarios.MINIMO_COMPACTAR);
+        for (int i = 0; i < 20; i++) {
+            estado.guardar("usuario" + i, Arrays.asList("spam" + i));
+        }
+        estado.guardar("ana", Arrays.asList("luis", "eva"));
+        estado.guardar("ana", Arrays.asList("eva"));
+        estado.close();
+
+        estado = new EstadoUsuarios(directorio, 4, EstadoUsuarios.MINIMO_COMPACTAR);
+        assertEquals(Collections.singleton("eva"), estado.cargar("ana"));
+        assertEquals(Collections.singleton("spam7"), estado.cargar("usuario7"));
+        assertTrue(estado.cargar("nadie").isEmpty());
+        estado.close();
+    }
+
+    /**
+     * AL COMPACTAR SOLO QUEDA EL ULTIMO ESTADO DE CADA USUARIO; LOS VACIOS SIGUEN SIENDO CONOCIDOS.
+     */
+    public void testCompactacion() throws Exception {
+        EstadoUsuarios estado = new EstadoUsuarios(directorio, 16, 4096);
+        for (int i = 0; i < 500; i++) {
+            estado.guardar("ana", Arrays.asList("luis" + i));
+            estado.guardar("eva", i % 2 == 0 ? Arrays.asList("ana") : Collections.<String>emptyList());
+        }
+        assertTrue(estado.getCompactaciones() > 0);
+        assertTrue("TAMAÑO " + estado.getTamano(), estado.getTamano() < 4096);
+        assertEquals(Collections.singleton("luis499"), estado.cargar("ana"));
+        assertTrue(estado.cargar("eva").isEmpty());
+        assertTrue(estado.conocido("eva"));
+        estado.close();
+
+        estado = new EstadoUsuarios(directorio, 16, 4096);
+        assertEquals(Collections.singleton("luis499"), estado.cargar("ana"));
+        assertTrue(estado.conocido("eva"));
+        estado.close();
+    }
+
+    /**
+     * UN USUARIO SE APUNTA UNA SOLA VEZ Y SIGUE CONOCIDO TRAS EL REINICIO.
+     */
+    public void testUsuariosConocidos() throws Exception {
+        EstadoUsuarios estado = new EstadoUsuarios(directorio, 4, EstadoUsuarios.MINIMO_COMPACTAR);
+        assertFalse(estado.conocido("ana"));
+        assertTrue(estado.registrar("ana"));
+        assertFalse(estado.registrar("ana"));
+        estado.close();
+
+        estado = new EstadoUsuarios(directorio, 4, EstadoUsuarios.MINIMO_COMPACTAR);
+        assertTrue(estado.conocido("ana"));
+        assertTrue(estado.cargar("ana").isEmpty());
+        assertFalse(estado.conocido("inventado"));
+        estado.close();
+    }
+
+    /**
+     * SI SE PIERDE EL INDICE SE RECONSTRUYE CON LOS REGISTROS.
+     */
+    public void testIndicePerdido() throws Exception {
+        EstadoUsuarios estado = new EstadoUsuarios(directorio);
+        estado.guardar("ana", Arrays.asList("luis", "eva"));
+        estado.close();
+        Files.delete(directorio.resolve("estado.idx"));
+
+        estado = new EstadoUsuarios(directorio);
+        assertEquals(new HashSet<>(Arrays.asList("luis", "eva")), estado.cargar("ana"));
+        estado.close();
+    }
+}
@@ -0,0 +1,66 @@
+package es.ubu.lsi.server;
+
+import es.ubu.lsi.common.MessageType;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import junit.framework.TestCase;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * PRUEBAS DE LOS EVENTOS DE JAVA FLIGHT RECORDER.
+ */
+public class EventosJfrTest extends TestCase {
+
+    /**
+     * LOS EVENTOS SOLO SE GUARDAN SI LA GRABACION LOS TIENE ACTIVADOS,
+     * Y LOS DE DURACION RESPETAN SU UMBRAL.
+     */
+    public void testGrabacion() throws Exception {
+        // SIN GRABACION NO PASA NADA
+        EventosJfr.bloqueoSaltado("luis", "ana", MessageType.MENSAJE);
+
+        Path fichero = Files.createTempFile("chat", ".jfr");
+        try (Recording grabacion = new Recording()) {
+            grabacion.enable(EventosJfr.BloqueoSaltado.class);
+            grabacion.enable(EventosJfr.Difusion.class).withThreshold(Duration.ofMillis(50));
+            grabacion.start();
+
+            EventosJfr.bloqueoSaltado("luis", "ana", MessageType.MENSAJE);
+
+            EventosJfr.Difusion rapida = new EventosJfr.Difusion();
+            rapida.begin();
+            rapida.end();
+            assertFalse(rapida.shouldCommit());
+
+            EventosJfr.Difusion lenta = new EventosJfr.Difusion();
+            lenta.begin();
+            Thread.sleep(60);
+            lenta.end();
+            assertTrue(lenta.shouldCommit());
+            lenta.audiencia = 3;
+            lenta.commit();
+
+            grabacion.stop();
+            grabacion.dump(fichero);
+        }
+
+        List<RecordedEvent> eventos = RecordingFile.readAllEvents(fichero);
+        Files.delete(fichero);
+        assertEquals(2, eventos.size());
+        for (RecordedEvent evento : eventos) {
+            if (evento.getEventType().getName().equals("es.ubu.lsi.BloqueoSaltado")) {
+                assertEquals("luis", evento.getString("remitente"));
+                assertEquals("ana", evento.getString("destinatario"));
+                assertEquals("MENSAJE", evento.getString("tipo"));
+            } else {
+                assertEquals("es.ubu.lsi.Difusion", evento.getEventType().getName());
+                assertEquals(3, evento.getInt("audiencia"));
+            }
+        }
+    }
+}
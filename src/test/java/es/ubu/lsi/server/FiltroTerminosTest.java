@@ -0,0 +1,107 @@
+package es.ubu.lsi.server;
+
+import es.ubu.lsi.common.ChatMessage;
+import es.ubu.lsi.common.MessageType;
+import junit.framework.TestCase;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * PRUEBAS DEL FILTRO DE TERMINOS PROHIBIDOS.
+ */
+public class FiltroTerminosTest extends TestCase {
+
+    private static ChatMessage mensaje(String contenido) {
+        return new ChatMessage("ana", contenido, MessageType.MENSAJE, null, 9);
+    }
+
+    /**
+     * TERMINOS SOLAPADOS, UNOS DENTRO DE OTROS, SE ENCUENTRAN TODOS EN UNA PASADA.
+     */
+    public void testTerminosSolapados() {
+        AutomataTerminos automata = new AutomataTerminos(Arrays.asList("he", "she", "his", "hers"));
+        assertEquals("u*****", new String(automata.enmascarar("ushers")));
+        assertEquals("u***rrs", new String(automata.enmascarar("usherrs")));
+        assertEquals("***", new String(automata.enmascarar("HiS")));
+        assertNull(automata.enmascarar("hola"));
+        assertTrue(automata.contiene("a ShE"));
+        assertFalse(AutomataTerminos.VACIO.contiene("lo que sea"));
+    }
+
+    /**
+     * CADA ACCION HACE LO SUYO Y EL MENSAJE ENMASCARADO CONSERVA SUS DATOS.
+     */
+    public void testAcciones() {
+        FiltroTerminos filtro = new FiltroTerminos(FiltroTerminos.Accion.ENMASCARAR);
+        filtro.setTerminos(Arrays.asList("caca", "culo"));
+
+        ChatMessage limpio = mensaje("hola a todos");
+        assertSame(limpio, filtro.aplicar(limpio));
+
+        ChatMessage tapado = filtro.aplicar(mensaje("vaya CACA de partido"));
+        assertEquals("vaya **** de partido", tapado.getContenido());
+        assertEquals("ana", tapado.getRemitente());
+        assertEquals(9, tapado.getIdMensaje());
+
+        filtro.setAccion(FiltroTerminos.Accion.DESCARTAR);
+        assertNull(filtro.aplicar(mensaje("caca")));
+
+        final List<ChatMessage> marcados = new ArrayList<>();
+        filtro.setAccion(FiltroTerminos.Accion.MARCAR);
+        filtro.setAlMarcar(marcados::add);
+        ChatMessage marcado = mensaje("culo");
+        assertSame(marcado, filtro.aplicar(marcado));
+        assertEquals(1, marcados.size());
+        assertEquals(3, filtro.getCoincidencias());
+    }
+
+    /**
+     * AL CAMBIAR EL FICHERO DE TERMINOS LA LISTA NUEVA SUSTITUYE A LA VIEJA.
+     */
+    public void testRecargaEnCaliente() throws Exception {
+        Path fichero = Files.createTempFile("terminos", ".txt");
+        try {
+            Files.write(fichero, Arrays.asList("# lista de prueba", "uno", "", "dos"), StandardCharsets.UTF_8);
+            FiltroTerminos filtro = new FiltroTerminos(FiltroTerminos.Accion.DESCARTAR);
+            filtro.cargar(fichero);
+            assertEquals(2, filtro.getTerminos());
+            assertFalse(filtro.recargarSiCambio());
+            assertNull(filtro.aplicar(mensaje("uno")));
+
+            Files.write(fichero, Arrays.asList("tres"), StandardCharsets.UTF_8);
+            Files.setLastModifiedTime(fichero, java.nio.file.attribute.FileTime.fromMillis(
+                    Files.getLastModifiedTime(fichero).toMillis() + 1000));
+            assertTrue(filtro.recargarSiCambio());
+            assertEquals(1, filtro.getTerminos());
+            assertNotNull(filtro.aplicar(mensaje("uno")));
+            assertNull(filtro.aplicar(mensaje("tres")));
+        } finally {
+            Files.deleteIfExists(fichero);
+        }
+    }
+
+    /**
+     * LA CADENA PARA EN LA ETAPA QUE DESCARTA Y CUENTA LO QUE HACE CADA UNA.
+     */
+    public void testCadenaConMetricas() {
+        CadenaFiltros cadena = new CadenaFiltros();
+        FiltroTerminos mascara = new FiltroTerminos(FiltroTerminos.Accion.ENMASCARAR);
+        mascara.setTerminos(Arrays.asList("feo"));
+        FiltroTerminos bloqueo = new FiltroTerminos(FiltroTerminos.Accion.DESCARTAR);
+        bloqueo.setTerminos(Arrays.asList("spam"));
+        cadena.agregar(mascara);
+        cadena.agregar(bloqueo);
+
+        assertEquals("muy ***", cadena.filtrar(mensaje("muy feo")).getContenido());
+        assertNull(cadena.filtrar(mensaje("compra spam")));
+
+        String metricas = cadena.getMetricas();
+        assertTrue(metricas, metricas.contains("terminos(enmascarar): mensajes=2 cambiados=1 descartados=0"));
+        assertTrue(metricas, metricas.contains("terminos(descartar): mensajes=2 cambiados=0 descartados=1"));
+    }
+}
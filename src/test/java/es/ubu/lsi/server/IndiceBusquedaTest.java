@@ -0,0 +1,149 @@
+package es.ubu.lsi.server;
+
+import es.ubu.lsi.common.ChatMessage;
+import es.ubu.lsi.common.CodecMensajes;
+import es.ubu.lsi.common.MessageType;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * PRUEBAS DEL INDICE DE BUSQUEDA SOBRE EL HISTORICO.
+ */
+public class IndiceBusquedaTest extends TestCase {
+
+    private Path directorio;
+    private IndiceBusqueda indice;
+
+    @Override
+    protected void setUp() throws Exception {
+        directorio = Files.createTempDirectory("indice");
+        indice = new IndiceBusqueda(directorio);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        indice.close();
+        Files.deleteIfExists(directorio.resolve("documentos.bin"));
+        Files.deleteIfExists(directorio);
+    }
+
+    /**
+     * LAS BUSQUEDAS COMBINAN TERMINOS Y REMITENTE Y SOBREVIVEN A LAS FUSIONES.
+     */
+    public void testTerminosYRemitenteConVariosSegmentos() throws Exception {
+        int total = IndiceBusqueda.DOCUMENTOS_POR_SEGMENTO * 3 + 10;
+        for (int i = 0; i < total; i++) {
+            String remitente = i % 2 == 0 ? "ana" : "luis";
+            String texto = "mensaje numero " + i + (i % 100 == 0 ? " Centena" : "");
+            indice.indexar(new ChatMessage(remitente, texto, MessageType.MENSAJE));
+        }
+        assertEquals(total, indice.getTotalDocumentos());
+        assertTrue(indice.getSegmentos() < 3);
+
+        IndiceBusqueda.Pagina pagina = indice.buscar(ConsultaBusqueda.interpretar("centena"), "eva");
+        assertEquals(IndiceBusqueda.TAMANO_PAGINA, pagina.getResultados().size());
+        assertTrue(pagina.hayMas());
+        assertEquals("mensaje numero 12200 Centena", pagina.getResultados().get(0).getMensaje().getContenido());
+
+        pagina = indice.buscar(ConsultaBusqueda.interpretar("numero 4097"), "eva");
+        assertEquals(1, pagina.getResultados().size());
+        assertEquals("luis", pagina.getResultados().get(0).getMensaje().getRemitente());
+
+        pagina = indice.buscar(ConsultaBusqueda.interpretar("4097 de:ana"), "eva");
+        assertTrue(pagina.getResultados().isEmpty());
+
+        pagina = indice.buscar(ConsultaBusqueda.interpretar("centena de:ana pagina:7"), "eva");
+        assertEquals(3, pagina.getResultados().size());
+        assertFalse(pagina.hayMas());
+    }
+
+    /**
+     * LOS PRIVADOS SOLO LOS VEN SU REMITENTE Y SU DESTINATARIO.
+     */
+    public void testPrivadosSoloParaLosImplicados() throws Exception {
+        indice.indexar(new ChatMessage("ana", "secreto compartido", MessageType.PRIVADO, "luis"));
+        indice.indexar(new ChatMessage("eva", "nada secreto", MessageType.MENSAJE));
+
+        assertEquals(2, indice.buscar(ConsultaBusqueda.interpretar("secreto"), "luis").getResultados().size());
+        assertEquals(2, indice.buscar(ConsultaBusqueda.interpretar("secreto"), "ana").getResultados().size());
+        assertEquals(1, indice.buscar(ConsultaBusqueda.interpretar("secreto"), "eva").getResultados().size());
+    }
+
+    /**
+     * EL RANGO DE FECHAS FILTRA LOS DOCUMENTOS Y EL INDICE SE RECONSTRUYE AL REABRIR.
+     */
+    public void testRangoDeFechasYReapertura() throws Exception {
+        indice.indexar(new ChatMessage("ana", "hola", MessageType.MENSAJE));
+        assertEquals(1, indice.buscar(ConsultaBusqueda.interpretar("hola desde:2000-01-01"), "x")
+                .getResultados().size());
+        assertEquals(0, indice.buscar(ConsultaBusqueda.interpretar("hola hasta:2000-01-01"), "x")
+                .getResultados().size());
+
+        indice.close();
+        indice = new IndiceBusqueda(directorio);
+        assertEquals(1, indice.buscar(ConsultaBusqueda.interpretar("HOLA de:ana"), "x").getResultados().size());
+    }
+
+    /**
+     * LO ENCOLADO SE INDEXA EN SEGUNDO PLANO, LAS PAGINAS TIENEN TOPE Y UNA
+     * BUSQUEDA NO LEE MAS DE MAXIMO_LEIDOS DOCUMENTOS.
+     */
+    public void testColaYTopes() throws Exception {
+        indice.encolar(new ChatMessage("ana", "en segundo plano", MessageType.MENSAJE));
+        indice.encolar(ChatMessage.sistema("no se indexa"));
+        assertTrue(indice.esperarCola(5000));
+        assertEquals(1, indice.getTotalDocumentos());
+        assertEquals(1, indice.buscar(ConsultaBusqueda.interpretar("plano"), "x").getResultados().size());
+
+        assertEquals(ConsultaBusqueda.MAXIMO_PAGINA,
+                ConsultaBusqueda.interpretar("pagina:" + ConsultaBusqueda.MAXIMO_PAGINA).getPagina());
+        try {
+            ConsultaBusqueda.interpretar("hola pagina:99999999");
+            fail("DEBERIA RECHAZAR LA PAGINA");
+        } catch (IllegalArgumentException e) {
+            // ESPERADO
+        }
+
+        // PRIVADOS QUE EVA NO PUEDE VER: LA BUSQUEDA SE RINDE AL LLEGAR AL TOPE
+        for (int i = 0; i < IndiceBusqueda.MAXIMO_LEIDOS + 100; i++) {
+            indice.indexar(new ChatMessage("ana", "secreto " + i, MessageType.PRIVADO, "luis"));
+        }
+        IndiceBusqueda.Pagina pagina = indice.buscar(ConsultaBusqueda.interpretar(""), "eva");
+        assertTrue(pagina.getResultados().isEmpty());
+        assertTrue(pagina.hayMas());
+    }
+
+    /**
+     * UNA PAGINA DE MENSAJES ENORMES CABE EN UNA TRAMA Y, SI LA RESPUESTA SE PASA, TERMINA ANTES CON AVISO.
+     */
+    public void testRespuestaAcotada() throws Exception {
+        StringBuilder enorme = new StringBuilder("grande");
+        while (enorme.length() < 60_000) {
+            enorme.append(" relleno");
+        }
+        for (int i = 0; i < IndiceBusqueda.TAMANO_PAGINA + 1; i++) {
+            indice.indexar(new ChatMessage("ana", enorme.toString(), MessageType.MENSAJE));
+        }
+        IndiceBusqueda.Pagina pagina = indice.buscar(ConsultaBusqueda.interpretar("grande"), "x");
+        String texto = ServerThreadForClient.formatearBusqueda(pagina);
+        assertTrue(texto.startsWith("PAGINA 1 (" + IndiceBusqueda.TAMANO_PAGINA + " RESULTADOS)"));
+        assertTrue(texto.length() <= ServerThreadForClient.MAXIMO_RESPUESTA_BUSQUEDA + 100);
+        assertTrue(texto.endsWith("PIDE pagina:2"));
+        ChatMessage respuesta = new ChatMessage(ChatMessage.SERVIDOR, texto, MessageType.RESULTADO_BUSQUEDA, "x");
+        assertTrue(CodecMensajes.escribir(respuesta, new ByteArrayOutputStream()) < CodecMensajes.MAXIMO_TRAMA);
+
+        List<IndiceBusqueda.Resultado> muchos = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            muchos.add(new IndiceBusqueda.Resultado(0, new ChatMessage("ana", enorme.toString(), MessageType.MENSAJE)));
+        }
+        texto = ServerThreadForClient.formatearBusqueda(new IndiceBusqueda.Pagina(3, muchos, false));
+        assertTrue(texto.length() <= ServerThreadForClient.MAXIMO_RESPUESTA_BUSQUEDA + 100);
+        assertFalse(texto.startsWith("PAGINA 3 (1000 RESULTADOS)"));
+        assertTrue(texto.endsWith("PIDE pagina:4"));
+    }
+}
@@ -0,0 +1,97 @@
+package es.ubu.lsi.server;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.stream.Stream;
+
+/**
+ * PRUEBAS DE LA INSTANTANEA Y DEL RELEVO ENTRE PROCESOS DEL SERVIDOR.
+ */
+public class InstantaneaServidorTest extends TestCase {
+
+    private Path directorio;
+
+    @Override
+    protected void setUp() throws IOException {
+        directorio = Files.createTempDirectory("relevo");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        try (Stream<Path> ficheros = Files.list(directorio)) {
+            for (Path fichero : (Iterable<Path>) ficheros::iterator) {
+                Files.delete(fichero);
+            }
+        }
+        Files.delete(directorio);
+    }
+
+    /**
+     * LO QUE SE GUARDA SE LEE IGUAL, TAMBIEN IDENTIFICADORES QUE BAJAN.
+     */
+    public void testIdaYVuelta() throws IOException {
+        long base = System.currentTimeMillis() << 20;
+        InstantaneaServidor instantanea = new InstantaneaServidor(1234L);
+        instantanea.agregar("ana", new HashSet<>(Arrays.asList("luis", "eva")), new long[]{base + 1, base + 2, base + 7, 5});
+        instantanea.agregar("luis", Collections.<String>emptySet(), new long[0]);
+        Path ruta = directorio.resolve("relevo.bin");
+        instantanea.guardar(ruta);
+
+        InstantaneaServidor leida = InstantaneaServidor.leer(ruta);
+        assertEquals(1234L, leida.getCreada());
+        assertEquals(Arrays.asList("ana", "luis"), Arrays.asList(leida.getUsuarios().toArray()));
+        assertEquals(new HashSet<>(Arrays.asList("luis", "eva")), leida.getBloqueados("ana"));
+        assertTrue(Arrays.equals(new long[]{base + 1, base + 2, base + 7, 5}, leida.getIds("ana")));
+        assertEquals(0, leida.getIds("luis").length);
+        assertTrue(leida.getBloqueados("nadie").isEmpty());
+        assertFalse(Files.exists(directorio.resolve("relevo.bin.tmp")));
+    }
+
+    /**
+     * LAS VENTANAS DE DUPLICADOS PASAN DE UN SERVIDOR A OTRO, AUNQUE HAYAN DADO LA VUELTA.
+     */
+    public void testVentanaDeDuplicados() {
+        RegistroDeduplicacion anterior = new RegistroDeduplicacion(4, 10);
+        for (long id = 1; id <= 6; id++) {
+            anterior.esRepetido("ana", id);
+        }
+        assertTrue(Arrays.equals(new long[]{3, 4, 5, 6}, anterior.exportar("ana")));
+        assertEquals(0, anterior.exportar("luis").length);
+
+        RegistroDeduplicacion nuevo = new RegistroDeduplicacion(4, 10);
+        nuevo.importar("ana", anterior.exportar("ana"));
+        assertTrue(nuevo.esRepetido("ana", 6));
+        assertTrue(nuevo.esRepetido("ana", 3));
+        assertFalse(nuevo.esRepetido("ana", 7));
+    }
+
+    /**
+     * EL PROCESO EN MARCHA VE EL PEDIDO DE OTRO, NO EL SUYO, Y AL ENTREGAR DEJA SOLO LA INSTANTANEA.
+     */
+    public void testPedidoYEntrega() throws IOException {
+        Path ruta = directorio.resolve("relevo.bin");
+        RelevoServidor relevo = new RelevoServidor(ruta);
+        assertFalse(relevo.isPedido());
+
+        relevo.anunciar();
+        Path pedido = directorio.resolve("relevo.bin.pedido");
+        Files.write(pedido, String.valueOf(ProcessHandle.current().pid()).getBytes(StandardCharsets.US_ASCII));
+        assertFalse(relevo.isPedido());
+        Files.write(pedido, "1".getBytes(StandardCharsets.US_ASCII));
+        assertTrue(relevo.isPedido());
+
+        InstantaneaServidor instantanea = new InstantaneaServidor(99L);
+        instantanea.agregar("ana", Collections.singleton("luis"), new long[]{1});
+        relevo.entregar(instantanea);
+        assertFalse(Files.exists(pedido));
+        assertFalse(Files.exists(directorio.resolve("relevo.bin.activo")));
+        assertEquals(Collections.singleton("luis"), InstantaneaServidor.leer(ruta).getBloqueados("ana"));
+    }
+}
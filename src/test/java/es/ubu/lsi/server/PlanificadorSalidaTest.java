@@ -0,0 +1,110 @@
+package es.ubu.lsi.server;
+
+import es.ubu.lsi.common.ChatMessage;
+import es.ubu.lsi.common.MessageType;
+import junit.framework.TestCase;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * PRUEBAS DE LOS CARRILES DE PRIORIDAD DE LA COLA DE SALIDA.
+ */
+public class PlanificadorSalidaTest extends TestCase {
+
+    /**
+     * LOS AVISOS DEL SISTEMA ADELANTAN A UNA INUNDACION DE MENSAJES NORMALES.
+     */
+    public void testControlAdelantaALosMensajes() throws Exception {
+        PlanificadorSalida planificador = new PlanificadorSalida();
+        for (int i = 0; i < 100; i++) {
+            planificador.encolar(new ChatMessage("ana", "m" + i, MessageType.MENSAJE));
+        }
+        planificador.encolar(new ChatMessage("Server", "cierre", MessageType.SISTEMA));
+        planificador.encolar(new ChatMessage("luis", "hola", MessageType.PRIVADO, "eva"));
+
+        assertEquals(MessageType.SISTEMA, planificador.siguiente().getTipo());
+        assertEquals(MessageType.PRIVADO, planificador.siguiente().getTipo());
+        assertEquals("m0", planificador.siguiente().getContenido());
+        assertEquals(99, planificador.getPendientes());
+    }
+
+    /**
+     * CON TODOS LOS CARRILES LLENOS, LOS MENSAJES NORMALES SIGUEN SALIENDO.
+     */
+    public void testLosCarrilesBajosNoSeQuedanSinSalida() throws Exception {
+        PlanificadorSalida planificador = new PlanificadorSalida();
+        for (int i = 0; i < 1000; i++) {
+            planificador.encolar(new ChatMessage("Server", "s", MessageType.SISTEMA));
+            planificador.encolar(new ChatMessage("ana", "p", MessageType.PRIVADO, "eva"));
+            planificador.encolar(new ChatMessage("ana", "m", MessageType.MENSAJE));
+        }
+
+        int normales = 0;
+        for (int i = 0; i < 130; i++) {
+            if (planificador.siguiente().getTipo() == MessageType.MENSAJE) {
+                normales++;
+            }
+        }
+        assertEquals(10, normales);
+        assertEquals(80, planificador.getEnviados(PlanificadorSalida.CONTROL));
+        assertEquals(40, planificador.getEnviados(PlanificadorSalida.PRIVADO));
+    }
+
+    /**
+     * AL CERRAR SE ENTREGA LO PENDIENTE Y DESPUES SE DEVUELVE NULL.
+     */
+    public void testCerrarVaciaLaCola() throws Exception {
+        PlanificadorSalida planificador = new PlanificadorSalida();
+        planificador.encolar(new ChatMessage("Server", "adios", MessageType.SISTEMA));
+        planificador.cerrar();
+
+        assertEquals("adios", planificador.siguiente().getContenido());
+        assertNull(planificador.siguiente());
+        assertFalse(planificador.encolar(new ChatMessage("Server", "tarde", MessageType.SISTEMA)));
+    }
+
+    /**
+     * LOS CARRILES PRIVADO Y DE CONTROL TIENEN SU PROPIO LIMITE: LOS PRIVADOS
+     * SE RECHAZAN Y AL LLENARSE EL DE CONTROL LA COLA QUEDA DESBORDADA.
+     */
+    public void testLimitesPorCarril() throws Exception {
+        PlanificadorSalida planificador = new PlanificadorSalida();
+        ChatMessage privado = new ChatMessage("ana", "p", MessageType.PRIVADO, "eva");
+        for (int i = 0; i < PlanificadorSalida.MAXIMO_PRIVADOS; i++) {
+            assertTrue(planificador.encolar(privado));
+        }
+        assertFalse(planificador.encolar(privado));
+        assertFalse(planificador.estaDesbordado());
+
+        ChatMessage aviso = new ChatMessage("Server", "s", MessageType.SISTEMA);
+        for (int i = 0; i < PlanificadorSalida.MAXIMO_CONTROL; i++) {
+            assertTrue(planificador.encolar(aviso));
+        }
+        assertFalse(planificador.encolar(aviso));
+        assertTrue(planificador.estaDesbordado());
+        assertEquals(2, planificador.getDescartados());
+    }
+
+    /**
+     * ENCOLAR Y SACAR UN MENSAJE YA CREADO NO RESERVA MEMORIA MIENTRAS LA COLA NO CRECE.
+     */
+    public void testEncolarNoReservaMemoria() throws Exception {
+        PlanificadorSalida planificador = new PlanificadorSalida();
+        ChatMessage mensaje = new ChatMessage("ana", "m", MessageType.MENSAJE);
+        for (int i = 0; i < 10000; i++) {
+            planificador.encolar(mensaje);
+            planificador.siguiente();
+        }
+
+        com.sun.management.ThreadMXBean hilos =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        long antes = hilos.getThreadAllocatedBytes(id);
+        for (int i = 0; i < 100000; i++) {
+            planificador.encolar(mensaje);
+            planificador.siguiente();
+        }
+        long reservados = hilos.getThreadAllocatedBytes(id) - antes;
+        assertTrue("RESERVADOS " + reservados + " BYTES", reservados < 100000);
+    }
+}
@@ -0,0 +1,64 @@
+package es.ubu.lsi.server;
+
+import es.ubu.lsi.common.ChatMessage;
+import junit.framework.TestCase;
+
+/**
+ * PRUEBAS DEL REGISTRO DE DEDUPLICACION DE MENSAJES.
+ */
+public class RegistroDeduplicacionTest extends TestCase {
+
+    /**
+     * UN IDENTIFICADOR REPETIDO DEL MISMO REMITENTE SE DESCARTA.
+     */
+    public void testReenvioSeDescarta() {
+        RegistroDeduplicacion registro = new RegistroDeduplicacion();
+        assertFalse(registro.esRepetido("ana", 1));
+        assertFalse(registro.esRepetido("ana", 2));
+        assertTrue(registro.esRepetido("ana", 1));
+        assertFalse(registro.esRepetido("luis", 1));
+    }
+
+    /**
+     * LA VENTANA SOLO RECUERDA LOS ULTIMOS IDENTIFICADORES.
+     */
+    public void testVentanaAcotada() {
+        RegistroDeduplicacion registro = new RegistroDeduplicacion(4, 10);
+        for (long id = 1; id <= 5; id++) {
+            assertFalse(registro.esRepetido("ana", id));
+        }
+        assertTrue(registro.esRepetido("ana", 5));
+        assertTrue(registro.esRepetido("ana", 2));
+        assertFalse(registro.esRepetido("ana", 1));
+    }
+
+    /**
+     * TODO LO QUE UN CLIENTE PUEDE TENER SIN CONFIRMAR SE RECONOCE COMO REENVIO, NO SOLO LOS ULTIMOS 256.
+     */
+    public void testReenvioDeTodosLosPendientes() {
+        RegistroDeduplicacion registro = new RegistroDeduplicacion();
+        long base = System.currentTimeMillis() << 20;
+        int enviados = ChatMessage.MAXIMO_SIN_CONFIRMAR;
+        assertTrue(enviados > 256);
+        for (long id = base; id < base + enviados; id++) {
+            assertFalse(registro.esRepetido("ana", id));
+        }
+        for (long id = base; id < base + enviados; id++) {
+            assertTrue("REDIFUNDIDO " + (id - base), registro.esRepetido("ana", id));
+        }
+        assertEquals(enviados, registro.exportar("ana").length);
+        assertEquals(base, registro.exportar("ana")[0]);
+    }
+
+    /**
+     * SOLO SE GUARDAN LAS VENTANAS DE LOS REMITENTES MAS RECIENTES.
+     */
+    public void testRemitentesAcotados() {
+        RegistroDeduplicacion registro = new RegistroDeduplicacion(4, 2);
+        registro.esRepetido("ana", 1);
+        registro.esRepetido("luis", 1);
+        registro.esRepetido("eva", 1);
+        assertFalse(registro.esRepetido("ana", 1));
+        assertTrue(registro.esRepetido("eva", 1));
+    }
+}
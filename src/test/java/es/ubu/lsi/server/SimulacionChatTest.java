@@ -0,0 +1,165 @@
+package es.ubu.lsi.server;
+
+import es.ubu.lsi.client.ChatClientImpl;
+import es.ubu.lsi.common.ChatMessage;
+import es.ubu.lsi.common.MessageType;
+import es.ubu.lsi.common.TransporteMemoria;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * PRUEBAS DEL SERVIDOR SIN SOCKETS: LA SIMULACION DETERMINISTA Y LOS
+ * CLIENTES REALES POR TRANSPORTE EN MEMORIA.
+ */
+public class SimulacionChatTest extends TestCase {
+
+    private final List<Path> directorios = new ArrayList<>();
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (Path directorio : directorios) {
+            borrar(directorio.toFile());
+        }
+    }
+
+    private ChatServerImpl crearServidor() throws Exception {
+        Path directorio = Files.createTempDirectory("simulacion");
+        directorios.add(directorio);
+        ChatServerImpl servidor = new ChatServerImpl(directorio);
+        servidor.setTraza(false);
+        return servidor;
+    }
+
+    private static void borrar(File fichero) {
+        File[] hijos = fichero.listFiles();
+        if (hijos != null) {
+            for (File hijo : hijos) {
+                borrar(hijo);
+            }
+        }
+        fichero.delete();
+    }
+
+    /**
+     * EJECUTO UN ESCENARIO AL AZAR CON UNA SEMILLA Y DEVUELVO SU HUELLA.
+     */
+    private long ejecutarEscenario(long semilla) throws Exception {
+        ChatServerImpl servidor = crearServidor();
+        SimulacionChat simulacion = new SimulacionChat(servidor, semilla);
+        Random azar = new Random(semilla);
+        for (int i = 0; i < 200; i++) {
+            SimulacionChat.UsuarioSimulado usuario = simulacion.crearUsuario("u" + i, azar.nextInt(100));
+            for (int n = 0; n < 3; n++) {
+                int numero = n;
+                simulacion.programar(100 + azar.nextInt(500), () -> usuario.escribir("m" + numero));
+            }
+            simulacion.programar(700 + azar.nextInt(100), usuario::desconectar);
+        }
+        simulacion.ejecutarTodo();
+        assertEquals(200 * 5, simulacion.getEntrantes());
+        servidor.shutdown();
+        return simulacion.getHuella();
+    }
+
+    /**
+     * CON LA MISMA SEMILLA SALEN LAS MISMAS ENTREGAS EN EL MISMO ORDEN.
+     */
+    public void testMismaSemillaMismasEntregas() throws Exception {
+        long primera = ejecutarEscenario(42);
+        assertEquals(primera, ejecutarEscenario(42));
+        assertFalse(primera == ejecutarEscenario(43));
+    }
+
+    /**
+     * LOS BROADCAST, LOS PRIVADOS Y LOS BLOQUEOS FUNCIONAN IGUAL QUE CON
+     * CONEXIONES DE VERDAD, Y EL TIEMPO SOLO AVANZA CON LOS EVENTOS.
+     */
+    public void testEntregasYTiempoVirtual() throws Exception {
+        SimulacionChat simulacion = new SimulacionChat(crearServidor(), 1);
+        simulacion.setLatencia(10, 10);
+        SimulacionChat.UsuarioSimulado ana = simulacion.crearUsuario("ana", 0);
+        SimulacionChat.UsuarioSimulado luis = simulacion.crearUsuario("luis", 0);
+        SimulacionChat.UsuarioSimulado eva = simulacion.crearUsuario("eva", 0);
+        List<String> deLuis = new ArrayList<>();
+        luis.setOyente(m -> deLuis.add(m.getTipo() + ":" + m.getContenido()));
+        List<String> deEva = new ArrayList<>();
+        eva.setOyente(m -> deEva.add(m.getTipo() + ":" + m.getContenido()));
+
+        simulacion.programar(100, () -> eva.enviar(new ChatMessage("eva", "eva bloquea a ana", MessageType.BAN, "ana")));
+        simulacion.programar(200, () -> ana.escribir("hola a todos"));
+        simulacion.programar(200, () -> ana.escribirPrivado("luis", "solo para luis"));
+        simulacion.ejecutar(250);
+
+        assertEquals(250, simulacion.getAhora());
+        assertTrue(deLuis.contains("MENSAJE:hola a todos"));
+        assertTrue(deLuis.contains("PRIVADO:solo para luis"));
+        assertFalse(deEva.contains("MENSAJE:hola a todos"));
+        assertTrue(ana.isConectado());
+
+        // CADA TRAMA TARDA 10 MS EN LLEGAR Y LA RESPUESTA OTROS 10
+        long antes = luis.getRecibidos();
+        simulacion.programar(300, () -> ana.escribir("otro"));
+        simulacion.ejecutar(319);
+        assertEquals(antes, luis.getRecibidos());
+        simulacion.ejecutar(320);
+        assertEquals(antes + 1, luis.getRecibidos());
+    }
+
+    /**
+     * DOS CLIENTES DE VERDAD SE HABLAN POR TRANSPORTES EN MEMORIA, SIN
+     * ARRANCAR EL SERVIDOR NI OCUPAR PUERTOS.
+     */
+    public void testClientesRealesEnMemoria() throws Exception {
+        ChatServerImpl servidor = crearServidor();
+        List<String> recibidos = new CopyOnWriteArrayList<>();
+        ChatClientImpl ana = new ChatClientImpl("ana");
+        ChatClientImpl luis = new ChatClientImpl("luis");
+        luis.setListener(m -> recibidos.add(m.getRemitente() + ":" + m.getContenido()));
+        ana.conectar(servidor.conectarEnMemoria("ana"));
+        luis.conectar(servidor.conectarEnMemoria("luis"));
+
+        long limite = System.currentTimeMillis() + 5000;
+        while (servidor.contarClientes() < 2 && System.currentTimeMillis() < limite) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        ana.enviarMensaje(new ChatMessage("ana", "hola por memoria", MessageType.MENSAJE));
+        while (!recibidos.contains("ana:hola por memoria") && System.currentTimeMillis() < limite) {
+            Thread.sleep(10);
+        }
+        assertTrue(recibidos.contains("ana:hola por memoria"));
+
+        ana.desconectar();
+        luis.desconectar();
+        servidor.shutdown();
+    }
+
+    /**
+     * UN CLIENTE QUE NO LEE NO ACUMULA CONCESIONES EN SU COLA, Y LO QUE
+     * ENVIE POR ENCIMA DE LO CONCEDIDO SE DESCARTA.
+     */
+    public void testCreditoPorConexion() throws Exception {
+        ChatServerImpl servidor = crearServidor();
+        ServerThreadForClient cliente = new ServerThreadForClient(TransporteMemoria.crearPar("lento")[0], servidor);
+        for (int i = 0; i < 5; i++) {
+            cliente.concederCredito(new ChatMessage(ChatMessage.SERVIDOR, "5", MessageType.CREDITO), 5);
+        }
+        assertEquals(1, cliente.getPlanificador().getPendientes());
+
+        // LO QUE LE QUEDABA DEL INTERVALO ANTERIOR TAMBIEN CUENTA
+        for (int i = 0; i < 10; i++) {
+            assertTrue(cliente.dentroDelCredito());
+        }
+        assertFalse(cliente.dentroDelCredito());
+
+        cliente.anotarCredito(ControlCarga.SIN_LIMITE);
+        assertTrue(cliente.dentroDelCredito());
+    }
+}